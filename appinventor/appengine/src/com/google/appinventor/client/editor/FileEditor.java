@@ -8,10 +8,12 @@ package com.google.appinventor.client.editor;
 
 import com.google.appinventor.client.Ode;
 import com.google.appinventor.client.editor.simple.palette.DropTargetProvider;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.FileNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.gwt.core.client.Callback;
 import com.google.gwt.user.client.Command;
+import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.ui.Composite;
 import java.util.logging.Logger;
 
@@ -95,6 +97,18 @@ public abstract class FileEditor extends Composite {
     return fileNode;
   }
 
+  /**
+   * Fetches the content of the file, taking it from the project editor if it
+   * was preloaded there, or else from the server.
+   *
+   * @param callback  callback to receive the content of the file
+   */
+  protected final void loadFileContent(AsyncCallback<ChecksumedLoadFile> callback) {
+    if (!projectEditor.takePreloadedFile(getFileId(), callback)) {
+      Ode.getInstance().getProjectService().load2(getProjectId(), getFileId(), callback);
+    }
+  }
+
   /**
    * Loads the content of the file into the editor.
    *
@@ -11,10 +11,13 @@ import com.google.appinventor.client.UiStyleFactory;
 import com.google.appinventor.client.explorer.project.Project;
 import com.google.appinventor.client.settings.Settings;
 import com.google.appinventor.client.settings.project.ProjectSettings;
+import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.SourceNode;
 import com.google.appinventor.shared.settings.SettingsConstants;
 import com.google.common.collect.Maps;
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.user.client.rpc.AsyncCallback;
 import com.google.gwt.user.client.ui.Composite;
 import com.google.gwt.user.client.ui.DeckPanel;
 
@@ -57,6 +60,14 @@ public abstract class ProjectEditor extends Composite {
   private final DeckPanel deckPanel;
   private FileEditor selectedFileEditor;
   private final TreeMap<String, Boolean> screenHashMap = new TreeMap<String, Boolean>();
+  // File contents loaded ahead of their editors, by file id. Each is taken by the first editor
+  // that loads its file.
+  private final Map<String, ChecksumedLoadFile> preloadedFiles =
+      new HashMap<String, ChecksumedLoadFile>();
+  // Files that are still being preloaded, with the callbacks of the editors waiting for them, by
+  // file id.
+  private final Map<String, List<AsyncCallback<ChecksumedLoadFile>>> pendingPreloads =
+      new HashMap<String, List<AsyncCallback<ChecksumedLoadFile>>>();
 
   /**
    * Creates a {@code ProjectEditor} instance.
@@ -105,6 +116,80 @@ public abstract class ProjectEditor extends Composite {
    */
   protected abstract void onHide();
 
+  /**
+   * Notes that a file is being preloaded, so that its editor waits for it
+   * instead of loading it again.
+   *
+   * @param fileId  file ID
+   */
+  protected final void startPreload(String fileId) {
+    pendingPreloads.put(fileId, new ArrayList<AsyncCallback<ChecksumedLoadFile>>());
+  }
+
+  /**
+   * Keeps the content of a file that was loaded before its editor asked for it,
+   * or passes it to the editor if it is already waiting for it.
+   *
+   * @param fileId  file ID
+   * @param file  the loaded content of the file
+   */
+  protected final void addPreloadedFile(String fileId, ChecksumedLoadFile file) {
+    List<AsyncCallback<ChecksumedLoadFile>> waiting = pendingPreloads.remove(fileId);
+    if (waiting == null || waiting.isEmpty()) {
+      preloadedFiles.put(fileId, file);
+      return;
+    }
+    for (AsyncCallback<ChecksumedLoadFile> callback : waiting) {
+      callback.onSuccess(file);
+    }
+  }
+
+  /**
+   * Gives up preloading a file. Editors that are waiting for it load it from
+   * the server instead.
+   *
+   * @param fileId  file ID
+   */
+  protected final void cancelPreload(String fileId) {
+    List<AsyncCallback<ChecksumedLoadFile>> waiting = pendingPreloads.remove(fileId);
+    if (waiting != null) {
+      for (AsyncCallback<ChecksumedLoadFile> callback : waiting) {
+        Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+      }
+    }
+  }
+
+  /**
+   * Passes the content of a file that was loaded before its editor asked for
+   * it to a callback, waiting for it if it is still being loaded. The content
+   * is then forgotten, so that later loads read the file again.
+   *
+   * @param fileId  file ID
+   * @param callback  callback to receive the content of the file
+   * @return  true if the file was or is being preloaded, false if the caller
+   *          must load it itself
+   */
+  public final boolean takePreloadedFile(String fileId,
+      final AsyncCallback<ChecksumedLoadFile> callback) {
+    final ChecksumedLoadFile file = preloadedFiles.remove(fileId);
+    if (file != null) {
+      // Answer asynchronously, as the server would.
+      Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+        @Override
+        public void execute() {
+          callback.onSuccess(file);
+        }
+      });
+      return true;
+    }
+    List<AsyncCallback<ChecksumedLoadFile>> waiting = pendingPreloads.get(fileId);
+    if (waiting != null) {
+      waiting.add(callback);
+      return true;
+    }
+    return false;
+  }
+
   public UiStyleFactory getUiFactory() {
     return uiFactory;
   }
@@ -299,7 +299,7 @@ public abstract class BlocksEditor<S extends SourceNode, T extends DesignerEdito
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    loadFileContent(callback);
   }
 
   @Override
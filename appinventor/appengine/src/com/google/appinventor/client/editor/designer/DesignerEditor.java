@@ -444,7 +444,7 @@ public abstract class DesignerEditor<S extends SourceNode, T extends MockDesigne
         super.onFailure(caught);
       }
     };
-    Ode.getInstance().getProjectService().load2(projectId, fileId, callback);
+    loadFileContent(callback);
   }
 
   @Override
@@ -33,6 +33,7 @@ import com.google.appinventor.shared.properties.json.JSONObject;
 import com.google.appinventor.shared.properties.json.JSONValue;
 import com.google.appinventor.shared.rpc.project.ChecksumedFileException;
 import com.google.appinventor.shared.rpc.project.ChecksumedLoadFile;
+import com.google.appinventor.shared.rpc.project.FileDescriptor;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.SourceNode;
@@ -196,9 +197,69 @@ public final class YaProjectEditor extends ProjectEditor implements ProjectChang
     resetExternalComponents();
     resetProjectWarnings();
     loadExternalComponents()
+        .then(this::preloadSourceFiles)
         .then(this::loadProject);
   }
 
+  // Loads the form and blocks files of the screen that opens first with a single call, so that
+  // the editors do not each make a call of their own. The files of the other screens are loaded
+  // with a second call once those have arrived, while the first screen is shown; their editors
+  // wait for it. If a call fails, the editors load their files themselves.
+  private Promise<Object> preloadSourceFiles(final Object result) {
+    final List<FileDescriptor> firstScreenFiles = new ArrayList<>();
+    final List<FileDescriptor> otherFiles = new ArrayList<>();
+    for (ProjectNode source : projectRootNode.getAllSourceNodes()) {
+      if (source instanceof YoungAndroidFormNode || source instanceof YoungAndroidBlocksNode) {
+        String formName = ((YoungAndroidSourceNode) source).getFormName();
+        (isLastOpened(formName) ? firstScreenFiles : otherFiles).add(
+            new FileDescriptor(projectId, source.getFileId()));
+        startPreload(source.getFileId());
+      }
+    }
+    return new Promise<>((resolve, reject) -> {
+      preloadFiles(firstScreenFiles, new Command() {
+        @Override
+        public void execute() {
+          resolve.apply(result);
+          preloadFiles(otherFiles, null);
+        }
+      });
+    });
+  }
+
+  private void preloadFiles(final List<FileDescriptor> files, final Command afterLoad) {
+    if (files.isEmpty()) {
+      if (afterLoad != null) {
+        afterLoad.execute();
+      }
+      return;
+    }
+    Ode.getInstance().getProjectService().load2(files,
+        new AsyncCallback<List<ChecksumedLoadFile>>() {
+          @Override
+          public void onSuccess(List<ChecksumedLoadFile> loaded) {
+            for (int i = 0; i < files.size(); i++) {
+              addPreloadedFile(files.get(i).getFileId(), loaded.get(i));
+            }
+            if (afterLoad != null) {
+              afterLoad.execute();
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable caught) {
+            LOG.warning("Unable to preload the source files of project " + projectId + ": "
+                + caught.getMessage());
+            for (FileDescriptor file : files) {
+              cancelPreload(file.getFileId());
+            }
+            if (afterLoad != null) {
+              afterLoad.execute();
+            }
+          }
+        });
+  }
+
   // Note: When we add the blocks editors in the loop below we do not actually
   // have them load the blocks file. Instead we trigger the load of a blocks file
   // in the callback for the loading of its associated forms file. This is important
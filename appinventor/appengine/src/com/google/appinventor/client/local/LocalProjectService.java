@@ -443,6 +443,34 @@ public class LocalProjectService implements ProjectServiceAsync {
 
   }
 
+  @Override
+  public void load2(List<FileDescriptor> files,
+      final AsyncCallback<List<ChecksumedLoadFile>> callback) {
+    final List<ChecksumedLoadFile> result = new ArrayList<>();
+    TextDecoder decoder = new TextDecoder("utf-8");
+    for (FileDescriptor descriptor : files) {
+      ArrayBuffer buffer = contents.get(descriptor.getProjectId() + ":" + descriptor.getFileId());
+      if (buffer == null) {
+        callback.onFailure(new Exception("File not found"));
+        return;
+      }
+      ChecksumedLoadFile file = new ChecksumedLoadFile();
+      try {
+        file.setContent(decoder.decode(buffer));
+      } catch (Exception e) {
+        callback.onFailure(e);
+        return;
+      }
+      result.add(file);
+    }
+    Scheduler.get().scheduleDeferred(new Scheduler.ScheduledCommand() {
+      @Override
+      public void execute() {
+        callback.onSuccess(result);
+      }
+    });
+  }
+
   @Override
   public void save(String sessionId, long projectId, String fileId, String source,
       AsyncCallback<Long> callback) {
@@ -161,6 +161,10 @@ public class ComponentImportWizard extends Wizard {
             new OdeAsyncCallback<UploadResponse>() {
               @Override
               public void onSuccess(UploadResponse uploadResponse) {
+                if (uploadResponse.getStatus() == UploadResponse.Status.FILE_TOO_LARGE) {
+                  Window.alert(MESSAGES.fileTooLargeError());
+                  return;
+                }
                 String toImport = uploadResponse.getInfo();
                 ode.getComponentService().importComponentToProject(toImport, projectId,
                     assetsFolderNode.getFileId(), new ImportComponentCallback());
@@ -125,6 +125,9 @@ public class ProjectUploadWizard {
                 // upload a zip file that is not a project.
                 ErrorReporter.reportInfo(MESSAGES.notProjectArchiveError());
                 break;
+              case FILE_TOO_LARGE:
+                ErrorReporter.reportInfo(MESSAGES.fileTooLargeError());
+                break;
               default:
                 ErrorReporter.reportError(MESSAGES.projectUploadError());
                 break;
@@ -15,13 +15,13 @@ import com.google.appinventor.server.util.CacheHeaders;
 import com.google.appinventor.server.util.CacheHeadersImpl;
 
 import com.google.appinventor.shared.rpc.ServerLayout;
-import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -106,6 +106,13 @@ public class DownloadServlet extends OdeServlet {
 
   private final FileExporter fileExporter = new FileExporterImpl();
 
+  /*
+   * Writes a zip to the response as its files are read, instead of building it in memory first.
+   */
+  private interface ZipWriter {
+    void write(OutputStream out) throws IOException;
+  }
+
   @Override
   public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
     // Set a default http header to avoid security vulnerabilities.
@@ -113,6 +120,9 @@ public class DownloadServlet extends OdeServlet {
     resp.setContentType(CONTENT_TYPE);
 
     RawFile downloadableFile = null;
+    // Set instead of downloadableFile for zips that are streamed to the response.
+    String zipName = null;
+    ZipWriter zipWriter = null;
 
     String userId = null;
 
@@ -140,17 +150,20 @@ public class DownloadServlet extends OdeServlet {
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
             uriComponents[PROJECT_TITLE_INDEX] : null;
         final boolean includeProjectHistory = true;
-        String zipName = (projectTitle == null) ? null :
-            StringUtils.normalizeForFilename(projectTitle) + ".aia";
         // If the requester is an Admin, we include any Yail files in the
         // project in the export
-        boolean includeYail = userInfoProvider.getIsAdmin();
-        boolean includeScreenShots = includeYail;
+        final boolean includeYail = userInfoProvider.getIsAdmin();
+        final boolean includeScreenShots = includeYail;
         StorageIoInstanceHolder.getInstance().assertUserHasProject(userId, projectId);
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-          projectId, includeProjectHistory, false, zipName, includeYail,
-          includeScreenShots, false, false, false, false);
-        downloadableFile = zipFile.getRawFile();
+        zipName = getZipName(userId, projectId, projectTitle);
+        final String exportUserId = userId;
+        zipWriter = new ZipWriter() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            fileExporter.exportProjectSourceZip(exportUserId, projectId, includeProjectHistory,
+                false, includeYail, includeScreenShots, false, false, false, false, out);
+          }
+        };
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_USER_PROJECT_SOURCE)) {
         if (!userInfoProvider.getIsAdmin()) {
@@ -197,29 +210,45 @@ public class DownloadServlet extends OdeServlet {
             projectName = projectIdOrName;
           }
         }
-        String zipName;
         if (!projectName.isEmpty()) {
           zipName = projectName + "_" + projectUserId + ".aia";
         } else {
           zipName = "u" + projectUserId + "_p" + projectId + ".aia";
         }
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(projectUserId,
-          projectId, /* include history*/ true, /* include keystore */ true, zipName, true, true, false, false, false, false);
-        downloadableFile = zipFile.getRawFile();
+        final String exportUserId = projectUserId;
+        final long exportProjectId = projectId;
+        zipWriter = new ZipWriter() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            fileExporter.exportProjectSourceZip(exportUserId, exportProjectId,
+                /* include history*/ true, /* include keystore */ true, true, true, false, false,
+                false, false, out);
+          }
+        };
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_SELECTED_PROJECTS_SOURCE)) {
         String[] projectIdStrings = uriComponents[PROJECT_ID_INDEX].split("-");
-        List<Long> projectIds = new ArrayList<Long>();
+        final List<Long> projectIds = new ArrayList<Long>();
         for (String projectId : projectIdStrings) {
           projectIds.add(Long.valueOf(projectId));
         }
-        ProjectSourceZip zipFile = fileExporter.exportSelectedProjectsSourceZip(
-          userId, "selected-projects.zip", projectIds);
-        downloadableFile = zipFile.getRawFile();
+        zipName = "selected-projects.zip";
+        final String exportUserId = userId;
+        zipWriter = new ZipWriter() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            fileExporter.exportSelectedProjectsSourceZip(exportUserId, projectIds, out);
+          }
+        };
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_ALL_PROJECTS_SOURCE)) {
         // Download all project source files as a zip of zips.
-        ProjectSourceZip zipFile = fileExporter.exportAllProjectsSourceZip(
-            userId, "all-projects.zip");
-        downloadableFile = zipFile.getRawFile();
+        zipName = "all-projects.zip";
+        final String exportUserId = userId;
+        zipWriter = new ZipWriter() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            fileExporter.exportAllProjectsSourceZip(exportUserId, out);
+          }
+        };
 
       } else if (downloadKind.equals(ServerLayout.DOWNLOAD_FILE)) {
         // Download a specific file.
@@ -256,15 +285,18 @@ public class DownloadServlet extends OdeServlet {
         uriComponents = uri.split("/", SPLIT_LIMIT_PROJECT_SOURCE);
         String projectTitle = (uriComponents.length > PROJECT_TITLE_INDEX) ?
           uriComponents[PROJECT_TITLE_INDEX] : null;
-        String zipName = (projectTitle == null) ? null :
-          StringUtils.normalizeForFilename(projectTitle) + ".aia";
         // Set includeYail to true by default to ensure downloaded file has yail file on hand.
-        boolean includeYail = true;
+        final boolean includeYail = true;
         StorageIoInstanceHolder.getInstance().assertUserHasProject(userId, projectId);
-        ProjectSourceZip zipFile = fileExporter.exportProjectSourceZip(userId,
-          projectId, false, false, zipName, includeYail,
-          false, false, false, false, true);
-        downloadableFile = zipFile.getRawFile();
+        zipName = getZipName(userId, projectId, projectTitle);
+        final String exportUserId = userId;
+        zipWriter = new ZipWriter() {
+          @Override
+          public void write(OutputStream out) throws IOException {
+            fileExporter.exportProjectSourceZip(exportUserId, projectId, false, false,
+                includeYail, false, false, false, false, true, out);
+          }
+        };
       } else {
         throw new IllegalArgumentException("Unknown download kind: " + downloadKind);
       }
@@ -287,7 +319,28 @@ public class DownloadServlet extends OdeServlet {
 
     resp.setStatus(statusCode);
 
-    if (statusCode == HttpServletResponse.SC_OK) {
+    if (statusCode == HttpServletResponse.SC_OK && zipWriter != null) {
+      LOG.fine("Sending Zip!");
+      // Set http response information. The length of the zip is not known until it has been
+      // written, so it is sent in chunks.
+      resp.setHeader(
+        "content-disposition",
+        req.getParameter("inline") != null ? "inline" : "attachment" + "; filename=\"" + zipName + "\"");
+      resp.setContentType(StorageUtil.getContentTypeForFilePath(zipName));
+
+      ServletOutputStream out = resp.getOutputStream();
+      try {
+        zipWriter.write(out);
+      } catch (IllegalArgumentException e) {
+        // Thrown before any of the zip has been written, so the response can still be replaced.
+        if (!resp.isCommitted()) {
+          resp.reset();
+          CACHE_HEADERS.setNotCacheable(resp);
+        }
+        throw CrashReport.createAndLogError(LOG, req, "user=" + userId, e);
+      }
+      out.close();
+    } else if (statusCode == HttpServletResponse.SC_OK) {
       LOG.fine("Sending File!");
       String fileName = downloadableFile.getFileName();
       byte[] content = downloadableFile.getContent();
@@ -310,6 +363,16 @@ public class DownloadServlet extends OdeServlet {
     }
   }
 
+  /*
+   * Returns the name of the .aia file of a project, which is its title if one was given.
+   */
+  private static String getZipName(String userId, long projectId, String projectTitle) {
+    if (projectTitle != null) {
+      return StringUtils.normalizeForFilename(projectTitle) + ".aia";
+    }
+    return StorageIoInstanceHolder.getInstance().getProjectName(userId, projectId) + ".aia";
+  }
+
   private static String byteArray2Hex(final byte[] hash) {
     Formatter formatter = new Formatter();
     for (byte b : hash) {
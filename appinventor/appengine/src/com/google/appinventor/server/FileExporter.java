@@ -10,6 +10,7 @@ import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
 import com.google.appinventor.shared.rpc.project.RawFile;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.annotation.Nullable;
@@ -57,6 +58,30 @@ public interface FileExporter {
     boolean includeYail,
     boolean includeScreenShots,
     boolean fatalError, boolean forGallery, boolean forAppStore, boolean locallyCachedApp) throws IOException;
+
+  /**
+   * Exports the project source files as a zip, writing it to a stream as the files are read.
+   * The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectId the project id belonging to the userId
+   * @param includeProjectHistory indicates whether to include a file
+   *        containing the project's history in the zip
+   * @param includeAndroidKeystore indicates whether to include the user's android.keystore file
+   * @param fatalError set to true to cause missing GCS file to throw exception
+   * @param output the stream to write the zip to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no source files)
+   * @throws IOException if files cannot be written
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean fatalError, boolean forGallery, boolean forAppStore, boolean locallyCachedApp,
+    OutputStream output) throws IOException;
   /**
    * Exports projects selected by the user as a zip of zips.
    *
@@ -70,6 +95,21 @@ public interface FileExporter {
    */
   ProjectSourceZip exportSelectedProjectsSourceZip(String userId, String zipName, List<Long> projectIds) throws IOException;
 
+  /**
+   * Exports projects selected by the user as a zip of zips, writing it to a stream as the files
+   * are read. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param projectIds the list of project ids corresponding to selected projects
+   * @param output the stream to write the zip to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no projects)
+   * @throws IOException if files cannot be written
+   */
+  int exportSelectedProjectsSourceZip(String userId, List<Long> projectIds, OutputStream output)
+      throws IOException;
+
   /**
    * Exports all of the user's projects' source files as a zip of zips.
    *
@@ -82,6 +122,19 @@ public interface FileExporter {
    */
   ProjectSourceZip exportAllProjectsSourceZip(String userId, String zipName) throws IOException;
 
+  /**
+   * Exports all of the user's projects' source files as a zip of zips, writing it to a stream as
+   * the files are read. The stream is not closed.
+   *
+   * @param userId the userId
+   * @param output the stream to write the zip to
+   * @return the number of files in the zip
+   * @throws IllegalArgumentException if download request cannot be fulfilled
+   *         (no projects)
+   * @throws IOException if files cannot be written
+   */
+  int exportAllProjectsSourceZip(String userId, OutputStream output) throws IOException;
+
   /**
    * Exports a specific project file.
    *
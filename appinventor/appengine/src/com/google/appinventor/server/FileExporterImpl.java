@@ -15,9 +15,11 @@ import com.google.appinventor.shared.storage.StorageUtil;
 import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipOutputStream;
 
 import javax.annotation.Nullable;
@@ -73,119 +75,94 @@ public final class FileExporterImpl implements FileExporter {
         forGallery, fatalError, forAppStore, locallyCachedApp);
   }
 
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory,
+      boolean includeAndroidKeystore,
+      boolean includeYail,
+      boolean includeScreenShots,
+      boolean fatalError,
+      boolean forGallery,
+      boolean forAppStore,
+      boolean locallyCachedApp,
+      OutputStream output) throws IOException {
+    // Stream project source files as a zip.
+    return storageIo.exportProjectSourceZip(userId, projectId,
+        includeProjectHistory, includeAndroidKeystore, includeYail, includeScreenShots,
+        forGallery, fatalError, forAppStore, locallyCachedApp, output);
+  }
+
   @Override
   public ProjectSourceZip exportSelectedProjectsSourceZip(String userId,
       String zipName, List<Long> projectIds) throws IOException {
-      // Create a zip file for each project's sources.
-    if (projectIds.size() == 0) {
-      throw new IllegalArgumentException("No projects to download");
-    }
-
     ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
-    int count = 0;
-    String metadata = "";
-    for (Long projectId : projectIds) {
-      try {
-        ProjectSourceZip projectSourceZip =
-            exportProjectSourceZip(userId, projectId, false, false, null, false, false, false, false, false, false);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, renae duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
-        }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
-      } catch (IllegalArgumentException e) {
-        System.err.println("No files found for userid: " + userId +
-            " for projectid: " + projectId);
-      } catch (IOException e) {
-        System.err.println("IOException while reading files found for userid: " +
-            userId + " for projectid: " + projectId);
-        continue;
-      }
-    }
-    if (count == 0) {
-      throw new IllegalArgumentException("No files to download");
-    }
-
-    List<String> userFiles = storageIo.getUserFiles(userId);
-    if (userFiles.contains(StorageUtil.ANDROID_KEYSTORE_FILENAME)) {
-      byte[] androidKeystoreBytes =
-          storageIo.downloadRawUserFile(userId, StorageUtil.ANDROID_KEYSTORE_FILENAME);
-      if (androidKeystoreBytes.length > 0) {
-        out.putNextEntry(new ZipEntry(StorageUtil.ANDROID_KEYSTORE_FILENAME));
-        out.write(androidKeystoreBytes, 0, androidKeystoreBytes.length);
-        out.closeEntry();
-        count++;
-      }
-    }
-
-    out.close();
+    StringBuilder metadata = new StringBuilder();
+    int count = exportProjectsSourceZip(userId, projectIds, zipFile, metadata);
 
     // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), count);
+    projectSourceZip.setMetadata(metadata.toString());
     return projectSourceZip;
   }
 
+  @Override
+  public int exportSelectedProjectsSourceZip(String userId, List<Long> projectIds,
+      OutputStream output) throws IOException {
+    return exportProjectsSourceZip(userId, projectIds, output, new StringBuilder());
+  }
+
   @Override
   public ProjectSourceZip exportAllProjectsSourceZip(String userId,
       String zipName) throws IOException {
-    // Create a zip file for each project's sources.
-    List<Long> projectIds = storageIo.getProjects(userId);
+    // Note: We never include Yail files when exporting all source projects
+    // even for Admins. If you are an admin and want to debug a project, download
+    // it explicitly.
+    return exportSelectedProjectsSourceZip(userId, zipName, storageIo.getProjects(userId));
+  }
+
+  @Override
+  public int exportAllProjectsSourceZip(String userId, OutputStream output) throws IOException {
+    return exportSelectedProjectsSourceZip(userId, storageIo.getProjects(userId), output);
+  }
+
+  /*
+   * Writes a zip of zips of the given projects, followed by the user's keystore, to a stream.
+   * Each project is zipped straight into its entry as its files are read, so only one file is
+   * held in memory at a time. The names of the exported projects are appended to metadata.
+   */
+  private int exportProjectsSourceZip(String userId, List<Long> projectIds, OutputStream output,
+      StringBuilder metadata) throws IOException {
     if (projectIds.size() == 0) {
       throw new IllegalArgumentException("No projects to download");
     }
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    ZipOutputStream out = new ZipOutputStream(zipFile);
+    ZipOutputStream out = new ZipOutputStream(output);
     int count = 0;
-    String metadata = "";
     for (Long projectId : projectIds) {
+      String projectName = storageIo.getProjectName(userId, projectId);
+      LazyEntryOutputStream entry = new LazyEntryOutputStream(out, projectName + ".aia");
       try {
-        // Note: We never include Yail files when exporting all source projects
-        // even for Admins. If you are an admin and want to debug a project, download
-        // it explicitly.
-        ProjectSourceZip projectSourceZip =
-          exportProjectSourceZip(userId, projectId, false, false, null, false, false, false, false, false, false);
-        byte[] data = projectSourceZip.getContent();
-        String name = projectSourceZip.getFileName();
-
-        // If necessary, rename duplicate projects
-        while (true) {
-          try {
-            out.putNextEntry(new ZipEntry(name));
-            break;
-          } catch (IOException e) {
-            name = "duplicate-" + name;
-          }
-        }
-        metadata += projectSourceZip.getMetadata() + "\n";
-
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        count++;
+        exportProjectSourceZip(userId, projectId, false, false, false, false, false, false,
+            false, false, entry);
       } catch (IllegalArgumentException e) {
         System.err.println("No files found for userid: " + userId +
             " for projectid: " + projectId);
         continue;
       } catch (IOException e) {
+        if (entry.isOpen()) {
+          // Part of the project has been written, so the zip cannot be completed.
+          throw e;
+        }
         System.err.println("IOException while reading files found for userid: " +
             userId + " for projectid: " + projectId);
         continue;
       }
+      if (entry.isOpen()) {
+        out.closeEntry();
+        metadata.append(projectName).append("\n");
+        count++;
+      }
     }
     if (count == 0) {
       throw new IllegalArgumentException("No files to download");
@@ -203,13 +180,8 @@ public final class FileExporterImpl implements FileExporter {
       }
     }
 
-    out.close();
-
-    // Package the big zip file up as a ProjectSourceZip and return it.
-    byte[] content = zipFile.toByteArray();
-    ProjectSourceZip projectSourceZip = new ProjectSourceZip(zipName, content, count);
-    projectSourceZip.setMetadata(metadata);
-    return projectSourceZip;
+    out.finish();
+    return count;
   }
 
   @Override
@@ -249,4 +221,56 @@ public final class FileExporterImpl implements FileExporter {
     }
     return filteredFiles;
   }
+
+  /*
+   * Writes to an entry of a zip that is only added when the first byte is written, so that a
+   * project that turns out to have no files leaves no empty entry behind.
+   */
+  private static class LazyEntryOutputStream extends OutputStream {
+    private final ZipOutputStream out;
+    private String name;
+    private boolean open = false;
+
+    LazyEntryOutputStream(ZipOutputStream out, String name) {
+      this.out = out;
+      this.name = name;
+    }
+
+    boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      open();
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      open();
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    private void open() throws IOException {
+      if (open) {
+        return;
+      }
+      // If necessary, rename duplicate projects
+      while (true) {
+        try {
+          out.putNextEntry(new ZipEntry(name));
+          break;
+        } catch (ZipException e) {
+          name = "duplicate-" + name;
+        }
+      }
+      open = true;
+    }
+  }
 }
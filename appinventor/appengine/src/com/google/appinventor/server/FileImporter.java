@@ -69,6 +69,20 @@ public interface FileImporter {
   long importFile(String userId, long projectId, String fileName, InputStream uploadedFileStream)
       throws FileImporterException, IOException;
 
+  /**
+   * Returns the size of the largest file that {@link #importFile} accepts.
+   *
+   * @return the size in bytes
+   */
+  int getMaxFileSizeBytes();
+
+  /**
+   * Returns the size of the largest project or component archive that is accepted.
+   *
+   * @return the size in bytes
+   */
+  int getMaxArchiveSizeBytes();
+
   /**
    * Adds the user file on the server and imports its content.
    *
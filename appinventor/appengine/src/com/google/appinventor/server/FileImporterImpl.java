@@ -6,6 +6,7 @@
 
 package com.google.appinventor.server;
 
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.ASSETS_FOLDER;
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
 
 import com.google.appinventor.common.utils.StringUtils;
@@ -29,11 +30,15 @@ import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.logging.Level;
@@ -54,8 +59,23 @@ public final class FileImporterImpl implements FileImporter {
   // Maximum size of an uploaded asset, in megabytes.
   private static final Flag<Float> maxAssetSizeMegs = Flag.createFlag("max.asset.size.megs", 9f);
 
+  // Maximum size of an uploaded project or component archive, in megabytes. App Engine does not
+  // accept larger requests anyway.
+  private static final Flag<Float> maxArchiveSizeMegs =
+      Flag.createFlag("max.archive.size.megs", 32f);
+
   private static final Logger LOG = Logger.getLogger(FileImporterImpl.class.getName());
 
+  // The size of the buffer that uploaded streams are read through.
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Uploaded files up to this size are read into memory. So are assets of a project archive,
+  // as long as all of them together fit in MAX_IN_MEMORY_ASSETS_BYTES, until the project is
+  // created. Larger ones are copied into temporary files as they are read.
+  @VisibleForTesting
+  static final int MAX_IN_MEMORY_ASSET_BYTES = 256 * 1024;
+  private static final int MAX_IN_MEMORY_ASSETS_BYTES = 8 * 1024 * 1024;
+
   private final StorageIo storageIo = StorageIoInstanceHolder.getInstance();
 
   @Override
@@ -82,9 +102,16 @@ public final class FileImporterImpl implements FileImporter {
         storageIo.getUser(userId).getUserEmail(), projectName);
     String srcDirectory = YoungAndroidProjectService.getSourceDirectory(qualifiedFormName);
 
-    ZipInputStream zin = new ZipInputStream(uploadedFileStream);
+    // ZipInputStream reads its input in small chunks, so give it a larger buffer.
+    ZipInputStream zin = new ZipInputStream(new BufferedInputStream(uploadedFileStream,
+        BUFFER_SIZE));
     boolean isProjectArchive = false;  // have we found at least one project properties file?
     String lastOpened = "Screen1";
+    // Large assets are copied into temporary files as they are read, so that the whole archive
+    // is never held in memory. The project is created from them once the archive has been read.
+    Map<String, String> tempFiles = new HashMap<String, String>();
+    List<String> tempFileNames = new ArrayList<String>();
+    int inMemoryAssetBytes = 0;
     try {
       // Extract files
       while (true) {
@@ -140,69 +167,95 @@ public final class FileImporterImpl implements FileImporter {
             }
 
             // Get the file content from the ZipEntry.
-            ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
-            ByteStreams.copy(zin, contentStream);
-
-            project.addRawFile(new RawFile(fileName, contentStream.toByteArray()));
+            if (fileName.startsWith(ASSETS_FOLDER + '/')) {
+              int limit = Math.min(MAX_IN_MEMORY_ASSET_BYTES,
+                  MAX_IN_MEMORY_ASSETS_BYTES - inMemoryAssetBytes);
+              // The size of an entry is often not known until it has been read, so read one
+              // byte more than fits in memory to find out.
+              byte[] head = entry.getSize() > limit ? new byte[0]
+                  : ByteStreams.toByteArray(ByteStreams.limit(zin, limit + 1));
+              if (entry.getSize() <= limit && head.length <= limit) {
+                inMemoryAssetBytes += head.length;
+                project.addRawFile(new RawFile(fileName, head));
+              } else {
+                String tempFileName = storageIo.uploadTempFile(new SequenceInputStream(
+                    new ByteArrayInputStream(head), new NonClosingInputStream(zin)));
+                tempFileNames.add(tempFileName);
+                tempFiles.put(fileName, tempFileName);
+              }
+            } else {
+              project.addRawFile(new RawFile(fileName, ByteStreams.toByteArray(zin)));
+            }
           }
         }
       }
-    } finally {
-      zin.close();
-    }
 
-    if (!isProjectArchive) {
-      // The uploaded file seems to be a valid zip file, but it doesn't contain the project
-      // properties file.
-      throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
-    }
+      if (!isProjectArchive) {
+        // The uploaded file seems to be a valid zip file, but it doesn't contain the project
+        // properties file.
+        throw new FileImporterException(UploadResponse.Status.NOT_PROJECT_ARCHIVE);
+      }
 
-    // Set project history if provided
-    if (projectHistory != null) {
-      project.setProjectHistory(projectHistory);
+      // Set project history if provided
+      if (projectHistory != null) {
+        project.setProjectHistory(projectHistory);
+      }
+      String settings = new YoungAndroidSettingsBuilder().setDefaultLastOpened(lastOpened).build();
+      long projectId = storageIo.createProject(userId, project, settings, tempFiles);
+      return storageIo.getUserProject(userId, projectId);
+    } finally {
+      zin.close();
+      for (String tempFileName : tempFileNames) {
+        deleteTempFile(tempFileName);
+      }
     }
-    String settings = new YoungAndroidSettingsBuilder().setDefaultLastOpened(lastOpened).build();
-    long projectId = storageIo.createProject(userId, project, settings);
-    return storageIo.getUserProject(userId, projectId);
   }
 
   @VisibleForTesting
   public long importFile(String userId, long projectId, String fileName,
       InputStream uploadedFileStream) throws FileImporterException, IOException {
-    int maxAssetSizeBytes = (int) (maxAssetSizeMegs.get() * 1024 * 1024);
-    int maxSizeBytes = Math.min(maxAssetSizeBytes, storageIo.getMaxJobSizeBytes());
-
-    BufferedInputStream bis = new BufferedInputStream(uploadedFileStream);
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    BufferedOutputStream bos = new BufferedOutputStream(os);
-
-    // Alledgedly since it is buffered, reading in units of one byte
-    // should be as fast as many bytes, but we can always adjust this.
-    int bytes = 0;
-    long fileLength = 0;
-    byte[] buffer = new byte[1];
-    while ((bytes = bis.read(buffer, 0, buffer.length)) != -1) {
-      bos.write(buffer, 0, bytes);
-      fileLength += bytes;
-      if (fileLength > maxSizeBytes) {
-        // Read the rest of the stream, but throw it away
-        // and throw an error, so we do not consume memory storing
-        // a large object
-        while((bytes = bis.read(buffer, 0, buffer.length)) != -1) {
-        }
-        throw new FileImporterException(UploadResponse.Status.FILE_TOO_LARGE);
+    // A small file is read into memory. The content of a larger one is copied into a temporary
+    // file as it is read. Either way, a file that turns out to be too large is rejected without
+    // holding it in memory or changing the project.
+    InputStream in = new SizeLimitedInputStream(uploadedFileStream, getMaxFileSizeBytes());
+    byte[] head;
+    String tempFileName = null;
+    try {
+      head = ByteStreams.toByteArray(ByteStreams.limit(in, MAX_IN_MEMORY_ASSET_BYTES + 1));
+      if (head.length > MAX_IN_MEMORY_ASSET_BYTES) {
+        tempFileName = storageIo.uploadTempFile(
+            new SequenceInputStream(new ByteArrayInputStream(head), in));
       }
+    } catch (FileTooLargeException e) {
+      throw new FileImporterException(UploadResponse.Status.FILE_TOO_LARGE);
     }
-    bos.flush();
 
-    byte[] content = os.toByteArray();
-
-    // If the file already exists, we will overwrite the content.
-    List<String> sourceFiles = storageIo.getProjectSourceFiles(userId, projectId);
-    if (!sourceFiles.contains(fileName)) {
-      storageIo.addSourceFilesToProject(userId, projectId, false, fileName);
+    try {
+      // If the file already exists, we will overwrite the content.
+      List<String> sourceFiles = storageIo.getProjectSourceFiles(userId, projectId);
+      if (!sourceFiles.contains(fileName)) {
+        storageIo.addSourceFilesToProject(userId, projectId, false, fileName);
+      }
+      if (tempFileName == null) {
+        return storageIo.uploadRawFileForce(projectId, fileName, userId, head);
+      }
+      return storageIo.uploadRawFileFromTempFile(projectId, fileName, userId, tempFileName);
+    } finally {
+      if (tempFileName != null) {
+        deleteTempFile(tempFileName);
+      }
     }
-    return storageIo.uploadRawFileForce(projectId, fileName, userId, content);
+  }
+
+  @Override
+  public int getMaxFileSizeBytes() {
+    int maxAssetSizeBytes = (int) (maxAssetSizeMegs.get() * 1024 * 1024);
+    return Math.min(maxAssetSizeBytes, storageIo.getMaxJobSizeBytes());
+  }
+
+  @Override
+  public int getMaxArchiveSizeBytes() {
+    return (int) (maxArchiveSizeMegs.get() * 1024 * 1024);
   }
 
   @Override
@@ -220,7 +273,7 @@ public final class FileImporterImpl implements FileImporter {
 
   @Override
   public String importTempFile(InputStream inStream) throws IOException {
-    return storageIo.uploadTempFile(ByteStreams.toByteArray(inStream));
+    return storageIo.uploadTempFile(inStream);
   }
 
   @Override
@@ -234,4 +287,86 @@ public final class FileImporterImpl implements FileImporter {
     });
     return ImmutableSet.copyOf(names);
   }
+
+  private void deleteTempFile(String tempFileName) {
+    try {
+      storageIo.deleteTempFile(tempFileName);
+    } catch (IOException e) {
+      // The temporary bucket expires its files, so this one will be removed eventually.
+      LOG.log(Level.WARNING, "Unable to delete temporary file " + tempFileName, e);
+    }
+  }
+
+  /**
+   * An input stream that leaves the stream it reads from open when it is closed, so that the
+   * rest of a zip archive can be read after one of its entries.
+   */
+  private static class NonClosingInputStream extends FilterInputStream {
+    NonClosingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /**
+   * Thrown when an uploaded file is larger than the largest one accepted.
+   */
+  private static class FileTooLargeException extends IOException {
+    FileTooLargeException() {
+      super("The file is too large");
+    }
+  }
+
+  /**
+   * An input stream that fails with {@link FileTooLargeException} once more than a given
+   * number of bytes have been read from it.
+   */
+  private static class SizeLimitedInputStream extends FilterInputStream {
+    private long remaining;
+
+    SizeLimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.remaining = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int bytesRead = super.read(b, off, len);
+      if (bytesRead > 0) {
+        count(bytesRead);
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void count(long bytes) throws FileTooLargeException {
+      remaining -= bytes;
+      if (remaining < 0) {
+        throw new FileTooLargeException();
+      }
+    }
+  }
 }
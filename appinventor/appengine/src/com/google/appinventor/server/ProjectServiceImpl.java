@@ -35,6 +35,7 @@ import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjec
 import com.google.appinventor.shared.util.Base64Util;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -613,16 +614,61 @@ public class ProjectServiceImpl extends OdeRemoteServiceServlet implements Proje
   public List<FileDescriptorWithContent> load(List<FileDescriptor> files) {
     List<FileDescriptorWithContent> result = Lists.newArrayList();
     final String userId = userInfoProvider.getUserId();
+    // Files of the same project are read together, in a single datastore read.
+    for (Map.Entry<Long, List<String>> project : groupByProject(files).entrySet()) {
+      long projectId = project.getKey();
+      List<String> fileIds = project.getValue();
+      List<String> contents = getProjectRpcImpl(userId, projectId).load(userId, projectId, fileIds);
+      for (int i = 0; i < fileIds.size(); i++) {
+        result.add(new FileDescriptorWithContent(projectId, fileIds.get(i), contents.get(i)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Loads the contents of multiple files, each with a checksum.
+   *
+   * @param files  list containing file descriptor of files to be loaded
+   * @return  checksummed file objects, in the order of {@code files}
+   */
+  @Override
+  public List<ChecksumedLoadFile> load2(List<FileDescriptor> files)
+      throws ChecksumedFileException {
+    final String userId = userInfoProvider.getUserId();
+    Map<Long, Map<String, ChecksumedLoadFile>> loaded = Maps.newHashMap();
+    for (Map.Entry<Long, List<String>> project : groupByProject(files).entrySet()) {
+      long projectId = project.getKey();
+      List<String> fileIds = project.getValue();
+      List<ChecksumedLoadFile> contents =
+          getProjectRpcImpl(userId, projectId).load2(userId, projectId, fileIds);
+      Map<String, ChecksumedLoadFile> projectFiles = Maps.newHashMap();
+      for (int i = 0; i < fileIds.size(); i++) {
+        projectFiles.put(fileIds.get(i), contents.get(i));
+      }
+      loaded.put(projectId, projectFiles);
+    }
+    List<ChecksumedLoadFile> result = Lists.newArrayList();
     for (FileDescriptor file : files) {
-      long projectId = file.getProjectId();
-      String fileId = file.getFileId();
-      result.add(new FileDescriptorWithContent(
-          projectId, fileId,
-          getProjectRpcImpl(userId, projectId).load(userId, projectId, fileId)));
+      result.add(loaded.get(file.getProjectId()).get(file.getFileId()));
     }
     return result;
   }
 
+  // Returns the ids of the files of each project, keeping the order of the files.
+  private static Map<Long, List<String>> groupByProject(List<FileDescriptor> files) {
+    Map<Long, List<String>> fileIds = Maps.newLinkedHashMap();
+    for (FileDescriptor file : files) {
+      List<String> projectFileIds = fileIds.get(file.getProjectId());
+      if (projectFileIds == null) {
+        projectFileIds = Lists.newArrayList();
+        fileIds.put(file.getProjectId(), projectFileIds);
+      }
+      projectFileIds.add(file.getFileId());
+    }
+    return fileIds;
+  }
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    *
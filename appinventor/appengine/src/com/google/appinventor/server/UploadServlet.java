@@ -65,6 +65,10 @@ public class UploadServlet extends OdeServlet {
   private static final int COMPONENT_PATH_INDEX = 4;
   private static final int SPLIT_LIMIT_COMPONENT = 5;
 
+  // The most that the multipart headers and boundaries add to the size of an uploaded file.
+  // A request that is larger than the largest file of its kind by more than this is rejected
+  // before its body is read. The size of a project file is also checked as it is read.
+  private static final int MAX_MULTIPART_OVERHEAD = 16 * 1024;
 
   // Logging support
   private static final Logger LOG = Logger.getLogger(UploadServlet.class.getName());
@@ -89,7 +93,12 @@ public class UploadServlet extends OdeServlet {
       String[] uriComponents = uri.split("/");
       String uploadKind = uriComponents[UPLOAD_KIND_INDEX];
 
-      if (uploadKind.equals(ServerLayout.UPLOAD_PROJECT)) {
+      long maxSizeBytes = getMaxUploadSizeBytes(uploadKind);
+      if (maxSizeBytes >= 0
+          && req.getContentLength() > maxSizeBytes + MAX_MULTIPART_OVERHEAD) {
+        // Reject an upload that is too large before reading any of it.
+        uploadResponse = new UploadResponse(UploadResponse.Status.FILE_TOO_LARGE);
+      } else if (uploadKind.equals(ServerLayout.UPLOAD_PROJECT)) {
         uriComponents = uri.split("/", SPLIT_LIMIT_PROJECT_SOURCE);
         String projectName = uriComponents[PROJECT_TITLE_INDEX];
         InputStream uploadedStream;
@@ -178,6 +187,20 @@ public class UploadServlet extends OdeServlet {
     resp.setStatus(HttpServletResponse.SC_OK);
   }
 
+  /**
+   * Returns the size of the largest upload of a kind, or -1 if the kind is unknown.
+   */
+  private long getMaxUploadSizeBytes(String uploadKind) {
+    if (uploadKind.equals(ServerLayout.UPLOAD_FILE)
+        || uploadKind.equals(ServerLayout.UPLOAD_USERFILE)) {
+      return fileImporter.getMaxFileSizeBytes();
+    } else if (uploadKind.equals(ServerLayout.UPLOAD_PROJECT)
+        || uploadKind.equals(ServerLayout.UPLOAD_COMPONENT)) {
+      return fileImporter.getMaxArchiveSizeBytes();
+    }
+    return -1;
+  }
+
   private InputStream getRequestStream(HttpServletRequest req, String expectedFieldName)
       throws Exception {
     ServletFileUpload upload = new ServletFileUpload();
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -213,6 +214,41 @@ public abstract class CommonProjectService {
     return retval;
   }
 
+  /**
+   * Loads the contents of several files of the project at once.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  the contents of the files, in the order of {@code fileIds}
+   */
+  public List<String> load(String userId, long projectId, List<String> fileIds) {
+    return storageIo.downloadFiles(userId, projectId, fileIds, StorageUtil.DEFAULT_CHARSET);
+  }
+
+  /**
+   * Loads the contents of several files of the project at once, each with a
+   * hash to validate its integrity across the network.
+   *
+   * @param userId the user id
+   * @param projectId  project root node ID
+   * @param fileIds  project nodes whose sources should be loaded
+   *
+   * @return  ChecksumedLoadFile objects, in the order of {@code fileIds}
+   */
+  public List<ChecksumedLoadFile> load2(String userId, long projectId, List<String> fileIds)
+      throws ChecksumedFileException {
+    List<ChecksumedLoadFile> result = new ArrayList<ChecksumedLoadFile>();
+    for (String content : storageIo.downloadFiles(userId, projectId, fileIds,
+        StorageUtil.DEFAULT_CHARSET)) {
+      ChecksumedLoadFile file = new ChecksumedLoadFile();
+      file.setContent(content);
+      result.add(file);
+    }
+    return result;
+  }
+
   /**
    * Attempt to record the project Id and error message when we detect a corruption
    * while loading a project.
@@ -0,0 +1,349 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Chooses the build server that a build is sent to, out of a pool of build servers.
+ *
+ * <p>Each build server keeps its own caches of dexed libraries, compiled projects and unpacked
+ * AARs, so the builds of a user are sent to the same build server as long as it can take them.
+ * The servers are placed on a consistent hash ring, so adding or removing a server only moves the
+ * users of its neighbours. When the preferred server is down or full, the build spills over to
+ * the next servers on the ring.</p>
+ *
+ * <p>The state of each server is polled from its {@code /buildserver/health} and
+ * {@code /buildserver/vars} pages, at most once per refresh interval. Polls run on a separate
+ * executor, so routing a build never waits for one: until a poll finishes, the last known state
+ * of the server is used, and a server that has never been polled is assumed to be available. A
+ * server that turns a build away is marked full until it is polled again.</p>
+ */
+final class BuildServerRouter {
+  private static final Logger LOG = Logger.getLogger(BuildServerRouter.class.getName());
+
+  // The number of points of each server on the ring, which evens out the share of each server.
+  private static final int POINTS_PER_SERVER = 64;
+  private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+  private static final int READ_TIMEOUT_MILLIS = 5000;
+  private static final Pattern VARIABLE = Pattern.compile("<b>([^<]*)</b> ([^<]*)<br>");
+
+  /**
+   * The state of a build server.
+   */
+  static final class Status {
+    static final Status UNKNOWN = new Status(true, Integer.MAX_VALUE);
+    static final Status DOWN = new Status(false, 0);
+
+    private final boolean healthy;
+    // The number of builds that the server can take before it turns builds away.
+    private final int capacity;
+
+    Status(boolean healthy, int capacity) {
+      this.healthy = healthy;
+      this.capacity = capacity;
+    }
+
+    boolean isAvailable() {
+      return healthy && capacity > 0;
+    }
+
+    int getCapacity() {
+      return capacity;
+    }
+  }
+
+  /**
+   * Polls the state of a build server.
+   */
+  interface Prober {
+    /**
+     * Returns the state of a build server.
+     *
+     * @param host the host[:port] of the build server
+     * @throws IOException if the server cannot be reached
+     */
+    Status probe(String host) throws IOException;
+  }
+
+  /**
+   * Polls build servers over HTTP.
+   */
+  static final class HttpProber implements Prober {
+    @Override
+    public Status probe(String host) throws IOException {
+      HttpURLConnection health = open(host, "health");
+      try {
+        if (health.getResponseCode() != HttpURLConnection.HTTP_OK) {
+          // The build server is shut down, draining or turning on.
+          return Status.DOWN;
+        }
+        read(health.getInputStream());
+      } finally {
+        health.disconnect();
+      }
+      HttpURLConnection vars = open(host, "vars");
+      try {
+        if (vars.getResponseCode() != HttpURLConnection.HTTP_OK) {
+          // An older build server. It is up, but its capacity is unknown.
+          return Status.UNKNOWN;
+        }
+        return parseVars(read(vars.getInputStream()));
+      } finally {
+        vars.disconnect();
+      }
+    }
+
+    private static HttpURLConnection open(String host, String page) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection)
+          new URL("http://" + host + "/buildserver/" + page).openConnection();
+      connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+      connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+      return connection;
+    }
+
+    private static String read(InputStream stream) throws IOException {
+      try {
+        return CharStreams.toString(new InputStreamReader(stream, Charsets.UTF_8));
+      } finally {
+        stream.close();
+      }
+    }
+  }
+
+  private final List<String> hosts;
+  private final Prober prober;
+  private final Executor poller;
+  private final long refreshMillis;
+  private final NavigableMap<Long, String> ring = new TreeMap<Long, String>();
+  // Guarded by this.
+  private final Map<String, Status> statuses = new HashMap<String, Status>();
+  private final Map<String, Long> checkedAt = new HashMap<String, Long>();
+
+  /**
+   * Creates a router.
+   *
+   * @param hosts the host[:port] of each build server
+   * @param prober polls the state of the build servers
+   * @param poller runs the polls
+   * @param refreshMillis how long the polled state of a build server is used for
+   */
+  BuildServerRouter(List<String> hosts, Prober prober, Executor poller, long refreshMillis) {
+    if (hosts.isEmpty()) {
+      throw new IllegalArgumentException("No build servers");
+    }
+    this.hosts = Collections.unmodifiableList(new ArrayList<String>(hosts));
+    this.prober = prober;
+    this.poller = poller;
+    this.refreshMillis = refreshMillis;
+    for (String host : hosts) {
+      for (int i = 0; i < POINTS_PER_SERVER; i++) {
+        ring.put(hash(host + "#" + i), host);
+      }
+    }
+  }
+
+  /**
+   * Parses a list of build servers, such as the value of the {@code build.server.host} flag.
+   *
+   * @param value host[:port] pairs separated by commas or whitespace
+   * @return the hosts, in order, without duplicates
+   */
+  static List<String> parseHosts(String value) {
+    Map<String, Boolean> hosts = new LinkedHashMap<String, Boolean>();
+    for (String host : value.split("[,\\s]+")) {
+      if (!host.isEmpty()) {
+        hosts.put(host, true);
+      }
+    }
+    return new ArrayList<String>(hosts.keySet());
+  }
+
+  List<String> getHosts() {
+    return hosts;
+  }
+
+  /**
+   * Asks a build server to cancel a build, such as one that a newer build of the same project
+   * supersedes.
+   *
+   * @param host the build server that the build was sent to
+   * @param buildId the id that the build server returned for the build
+   * @return true if the build was cancelled, false if the build server does not know it, which
+   *     is the case once it has finished
+   * @throws IOException if the build server cannot be reached
+   */
+  static boolean cancelBuild(String host, String buildId) throws IOException {
+    HttpURLConnection connection =
+        HttpProber.open(host, "cancel-build?id=" + URLEncoder.encode(buildId, "UTF-8"));
+    try {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.getOutputStream().close();
+      boolean cancelled = connection.getResponseCode() == HttpURLConnection.HTTP_OK;
+      InputStream response = cancelled ? connection.getInputStream()
+          : connection.getErrorStream();
+      if (response != null) {
+        HttpProber.read(response);
+      }
+      return cancelled;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Returns the build servers to try for a build, in order. The first is the server that the key
+   * hashes to, unless it is down or full, in which case the available servers come first in the
+   * order of the ring. Unavailable servers come last, so that a build is still attempted when every
+   * server looks busy.
+   *
+   * @param key the key that builds are kept together by, such as the user id
+   */
+  List<String> route(String key) {
+    List<String> order = new ArrayList<String>(hosts.size());
+    NavigableMap<Long, String> tail = ring.tailMap(hash(key), true);
+    addHosts(order, tail.values());
+    addHosts(order, ring.values());
+
+    List<String> available = new ArrayList<String>(order.size());
+    List<String> unavailable = new ArrayList<String>();
+    for (String host : order) {
+      (getStatus(host).isAvailable() ? available : unavailable).add(host);
+    }
+    available.addAll(unavailable);
+    return available;
+  }
+
+  /**
+   * Records that a build server turned a build away, or could not be reached, so that builds are
+   * sent elsewhere until it is polled again.
+   *
+   * @param host the build server
+   */
+  synchronized void markUnavailable(String host) {
+    statuses.put(host, Status.DOWN);
+    checkedAt.put(host, System.currentTimeMillis());
+  }
+
+  /**
+   * Returns the last known state of a build server, and starts polling it if it has not been
+   * polled recently.
+   */
+  @VisibleForTesting
+  Status getStatus(final String host) {
+    boolean poll;
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      Long checked = checkedAt.get(host);
+      poll = checked == null || now - checked >= refreshMillis;
+      if (poll) {
+        // Keep other requests from polling the same server while this one does.
+        checkedAt.put(host, now);
+      }
+    }
+    if (poll) {
+      try {
+        poller.execute(new Runnable() {
+          @Override
+          public void run() {
+            poll(host);
+          }
+        });
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Unable to start polling build server " + host, e);
+      }
+    }
+    synchronized (this) {
+      Status status = statuses.get(host);
+      return status == null ? Status.UNKNOWN : status;
+    }
+  }
+
+  private void poll(String host) {
+    Status status;
+    try {
+      status = prober.probe(host);
+    } catch (IOException e) {
+      LOG.warning("Unable to poll build server " + host + ": " + e);
+      status = Status.DOWN;
+    }
+    synchronized (this) {
+      statuses.put(host, status);
+    }
+  }
+
+  /**
+   * Parses the capacity of a build server from its {@code vars} page.
+   */
+  @VisibleForTesting
+  static Status parseVars(String html) {
+    Map<String, String> vars = new HashMap<String, String>();
+    Matcher matcher = VARIABLE.matcher(html);
+    while (matcher.find()) {
+      vars.put(matcher.group(1), matcher.group(2));
+    }
+    int maxActive = parseInt(vars.get("maximum-simultaneous-build-tasks-allowed"));
+    int active = parseInt(vars.get("active-build-tasks"));
+    int maxQueued = parseInt(vars.get("maximum-queued-build-tasks-allowed"));
+    int queued = parseInt(vars.get("queued-build-tasks"));
+    if (maxActive < 0 || active < 0) {
+      // Unlimited, or unknown.
+      return Status.UNKNOWN;
+    }
+    int capacity = maxActive - active + Math.max(0, maxQueued) - Math.max(0, queued);
+    return new Status(true, Math.max(0, capacity));
+  }
+
+  private static int parseInt(String value) {
+    if (value == null) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void addHosts(List<String> order, Iterable<String> ringHosts) {
+    for (String host : ringHosts) {
+      if (order.size() == hosts.size()) {
+        return;
+      }
+      if (!order.contains(host)) {
+        order.add(host);
+      }
+    }
+  }
+
+  private static long hash(String key) {
+    return Hashing.murmur3_128().hashString(key, Charsets.UTF_8).asLong();
+  }
+}
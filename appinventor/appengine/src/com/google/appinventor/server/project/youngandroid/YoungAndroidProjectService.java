@@ -14,6 +14,11 @@ import static com.google.appinventor.common.constants.YoungAndroidStructureConst
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.YAIL_FILE_EXTENSION;
 
+import com.google.appengine.api.ThreadManager;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.utils.SystemProperty;
 import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.common.utils.StringUtils;
@@ -43,7 +48,6 @@ import com.google.appinventor.shared.rpc.project.Project;
 import com.google.appinventor.shared.rpc.project.ProjectNode;
 import com.google.appinventor.shared.rpc.project.ProjectRootNode;
 import com.google.appinventor.shared.rpc.project.ProjectSourceZip;
-import com.google.appinventor.shared.rpc.project.RawFile;
 import com.google.appinventor.shared.rpc.project.TextFile;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.NewYoungAndroidProjectParameters;
@@ -72,18 +76,26 @@ import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -104,6 +116,9 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   private static final Flag<Integer> MAX_PROJECT_SIZE =
       Flag.createFlag("project.maxsize", 30);
 
+  // The size of the chunks that projects are streamed to the build server in
+  private static final int UPLOAD_CHUNK_SIZE = 64 * 1024;
+
   private static final String EXTERNAL_COMPS_FOLDER = ASSETS_FOLDER + "/external_comps";
 
   public static final String PROJECT_PROPERTIES_FILE_NAME = PROJECT_DIRECTORY + "/" +
@@ -114,12 +129,40 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // Build folder path
   private static final String BUILD_FOLDER = "build";
 
-  // host[:port] to use for connecting to the build server
+  // host[:port] to use for connecting to the build server. Several build servers may be given,
+  // separated by commas, in which case builds are spread over them by BuildServerRouter.
   private static final Flag<String> buildServerHost =
       Flag.createFlag("build.server.host", "localhost:9990");
-  // host[:port] to use for connecting to the second build server
+  // host[:port] to use for connecting to the second build server, or a list of them
   private static final Flag<String> buildServerHost2 =
       Flag.createFlag("build2.server.host", "");
+  // How often the state of each build server is polled, in seconds
+  private static final Flag<Integer> buildServerPollSeconds =
+      Flag.createFlag("build.server.poll.seconds", 10);
+  // The routers of the build server pools, keyed by the value of the flag that lists them
+  private static final ConcurrentMap<String, BuildServerRouter> buildServerRouters =
+      new ConcurrentHashMap<String, BuildServerRouter>();
+  // Polls the build servers on threads of the current request, so that sending a build never
+  // waits for a poll. Outside of a request, the poll runs on the calling thread.
+  private static final Executor buildServerPoller = new Executor() {
+    @Override
+    public void execute(Runnable poll) {
+      Thread thread;
+      try {
+        thread = ThreadManager.currentRequestThreadFactory().newThread(poll);
+      } catch (RuntimeException e) {
+        thread = null;
+      }
+      if (thread == null) {
+        poll.run();
+      } else {
+        thread.start();
+      }
+    }
+  };
+  // How long the last build of a project is remembered, so that a newer build can cancel it.
+  // By then the build has finished or been timed out by the build server.
+  private static final int BUILD_TICKET_EXPIRATION_SECONDS = 60 * 60;
   // host[:port] to tell build server app host url
   private static final Flag<String> appengineHost =
       Flag.createFlag("appengine.host", "");
@@ -128,8 +171,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   private static final String galleryLocation = Flag.createFlag("gallery.location", "http://localhost:9001").get();
   private static final String galleryId = Flag.createFlag("gallery.id", "").get();
 
+  // The build server and build id of the last build of each project, separated by a space. It is
+  // shared by all instances, since the next build of a project may be sent by another one.
+  private final MemcacheService buildTickets =
+      MemcacheServiceFactory.getMemcacheService("build-tickets");
+
   public YoungAndroidProjectService(StorageIo storageIo) {
     super(YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE, storageIo);
+    buildTickets.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
   }
 
   /**
@@ -290,6 +339,8 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     newProject.setProjectHistory(oldProjectHistory);
 
     // Get the old project's source files and add them to new project, modifying where necessary.
+    // The files whose contents stay the same are copied by the storage, by their new names.
+    Map<String, String> copiedFiles = new HashMap<String, String>();
     for (String oldSourceFileName : storageIo.getProjectSourceFiles(userId, oldProjectId)) {
       String newSourceFileName;
 
@@ -318,15 +369,14 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         newProject.addTextFile(new TextFile(newSourceFileName, newContents));
       } else {
         // If we get here, we know that the contents of the file can just be copied from the old
-        // project. Since it might be a binary file, we copy it as a raw file (that works for both
-        // text and binary files).
-        byte[] contents = storageIo.downloadRawFile(userId, oldProjectId, oldSourceFileName);
-        newProject.addRawFile(new RawFile(newSourceFileName, contents));
+        // project. The storage copies it without downloading it (that works for both text and
+        // binary files).
+        copiedFiles.put(newSourceFileName, oldSourceFileName);
       }
     }
 
     // Create the new project and return the new project's id.
-    return storageIo.createProject(userId, newProject, builder.build());
+    return storageIo.copyProject(userId, oldProjectId, newProject, builder.build(), copiedFiles);
   }
 
   @Override
@@ -512,42 +562,85 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     for (String buildOutputFile : buildOutputFiles) {
       storageIo.deleteFile(userId, projectId, buildOutputFile);
     }
+    // A build that is still queued or running for the project would only be overwritten by this
+    // one, so free its place on the build server.
+    cancelPreviousBuild(userId, projectId);
     URL buildServerUrl = null;
-    ProjectSourceZip zipFile = null;
+    LimitedOutputStream upload = null;
     try {
-      buildServerUrl = new URL(getBuildServerUrlStr(
-          user.getUserEmail(),
-          userId,
-          projectId,
-          secondBuildserver,
-          outputFileDir,
-          isAab));
-      HttpURLConnection connection = (HttpURLConnection) buildServerUrl.openConnection();
-      connection.setDoOutput(true);
-      connection.setRequestMethod("POST");
-
-      BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
       FileExporter fileExporter = new FileExporterImpl();
-      zipFile = fileExporter.exportProjectSourceZip(userId, projectId, false,
-          /* includeAndroidKeystore */ true,
-        projectName + ".aia", true, false, true, false, false, false);
-      // The code below tests the size of the compressed project before
-      // we send it off to the buildserver. When using URLFetch we know that
-      // this size is limited to 10MB based on Google's documentation.
-      // It isn't clear if this is also enforced in the Java 8 environment
-      // when not using URLFetch. However we are being conservative for now.
-      // Keep in mind that large projects can lead to large APK files which
-      // may not be loadable into many memory restricted devices, so we
-      // may not want to encourage large projects...
-      if (zipFile.getContent().length > MAX_PROJECT_SIZE.get() * MB) {
-        return fileTooBigResult(zipFile.getContent().length);
-      }
-      bufferedOutputStream.write(zipFile.getContent());
-      bufferedOutputStream.flush();
-      bufferedOutputStream.close();
-
+      // Try the build servers in the order of the router, moving on to the next one when a build
+      // server cannot be reached or is at maximum capacity (503).
+      BuildServerRouter router = getBuildServerRouter(secondBuildserver);
+      List<String> hosts = router.route(userId);
+      HttpURLConnection connection = null;
       int responseCode = 0;
-      responseCode = connection.getResponseCode();
+      String host = null;
+      for (int i = 0; i < hosts.size(); i++) {
+        host = hosts.get(i);
+        boolean last = i == hosts.size() - 1;
+        buildServerUrl = new URL(getBuildServerUrlStr(
+            host,
+            user.getUserEmail(),
+            userId,
+            projectId,
+            outputFileDir,
+            isAab));
+        try {
+          connection = (HttpURLConnection) buildServerUrl.openConnection();
+          connection.setDoOutput(true);
+          connection.setRequestMethod("POST");
+          // The project is zipped straight into the request as its files are read, so it is never
+          // held in memory as a whole.
+          connection.setChunkedStreamingMode(UPLOAD_CHUNK_SIZE);
+
+          // The code below limits the size of the compressed project that
+          // we send off to the buildserver. When using URLFetch we know that
+          // this size is limited to 10MB based on Google's documentation.
+          // It isn't clear if this is also enforced in the Java 8 environment
+          // when not using URLFetch. However we are being conservative for now.
+          // Keep in mind that large projects can lead to large APK files which
+          // may not be loadable into many memory restricted devices, so we
+          // may not want to encourage large projects...
+          upload = new LimitedOutputStream(connection.getOutputStream(),
+              (long) MAX_PROJECT_SIZE.get() * MB);
+          try {
+            BufferedOutputStream bufferedOutputStream =
+                new BufferedOutputStream(upload, UPLOAD_CHUNK_SIZE);
+            fileExporter.exportProjectSourceZip(userId, projectId, false,
+                /* includeAndroidKeystore */ true, true, false, true, false, false, false,
+                bufferedOutputStream);
+            bufferedOutputStream.close();
+          } catch (IOException | RuntimeException e) {
+            // Drop the connection without ending the request, so that the build server does not
+            // take the part of the project that was sent for all of it.
+            connection.disconnect();
+            throw e;
+          }
+
+          responseCode = connection.getResponseCode();
+        } catch (ConnectException | SocketTimeoutException e) {
+          router.markUnavailable(host);
+          if (last) {
+            throw e;
+          }
+          LOG.warning("Unable to reach build server " + host + " (" + e
+              + "), trying the next one");
+          continue;
+        }
+        if (responseCode == HttpURLConnection.HTTP_UNAVAILABLE && !last) {
+          router.markUnavailable(host);
+          LOG.info("Build server " + host + " is at maximum capacity, trying the next one");
+          // Empty out the stream so that the connection can be reused (see below).
+          try {
+            readContent(connection.getErrorStream());
+          } catch (IOException e) {
+            // No error content. That's ok.
+          }
+          continue;
+        }
+        break;
+      }
       if (responseCode != HttpURLConnection.HTTP_OK) {
         // Put the HTTP response code into the RpcResult so the client code in BuildCommand.java
         // can provide an appropriate error message to the user.
@@ -582,24 +675,31 @@ public final class YoungAndroidProjectService extends CommonProjectService {
         return new RpcResult(responseCode, "", StringUtils.escape(error));
       } else {
         // We get here if all went well and we sent the job to the
-        // buildserver. Below we read the response, but throw it away.
-        // We don't really care what was said. But we need to empty out
-        // the TCP Stream or App Engine will abort the connection by
-        // sending a RST packet instead of re-using it or closing it
-        // cleanly (by sending a FIN packet). Aborting connections can
-        // have a negative effect on some buildserver infrastructures,
-        // particularly those based on docker swarm (as of 2018).
-        readContent(connection.getInputStream());
+        // buildserver. The response is the id of the build, which is
+        // remembered so that a newer build of the project can cancel
+        // this one. Either way we need to empty out the TCP Stream or
+        // App Engine will abort the connection by sending a RST packet
+        // instead of re-using it or closing it cleanly (by sending a FIN
+        // packet). Aborting connections can have a negative effect on
+        // some buildserver infrastructures, particularly those based on
+        // docker swarm (as of 2018).
+        String buildId = readContent(connection.getInputStream());
+        if (buildId != null && !buildId.trim().isEmpty()) {
+          buildTickets.put(buildTicketKey(userId, projectId), host + " " + buildId.trim(),
+              Expiration.byDeltaSeconds(BUILD_TICKET_EXPIRATION_SECONDS));
+        }
       }
     } catch (MalformedURLException e) {
       CrashReport.createAndLogError(LOG, null,
           buildErrorMsg("MalformedURLException", buildServerUrl, userId, projectId), e);
       return new RpcResult(false, "", e.getMessage());
+    } catch (ProjectTooLargeException e) {
+      return fileTooBigResult(e.getSize());
     } catch (IOException e) {
       // As of App Engine 1.9.0 we get these when UrlFetch is asked to send too much data
-      int zipFileLength = zipFile == null ? -1 : zipFile.getContent().length;
-      if (zipFileLength >= MAX_PROJECT_SIZE.get() * MB) {
-        return fileTooBigResult(zipFileLength);
+      long uploadSize = upload == null ? -1 : upload.getCount();
+      if (uploadSize >= MAX_PROJECT_SIZE.get() * MB) {
+        return fileTooBigResult(uploadSize);
       } else {
         return new RpcResult(false, "", e.getMessage());
       }
@@ -611,13 +711,13 @@ public final class YoungAndroidProjectService extends CommonProjectService {
       // In particular, we often see RequestTooLargeException (if the zip is too
       // big) and ApiProxyException. There may be others.
       Throwable wrappedException = e;
-      if (e instanceof ApiProxy.RequestTooLargeException && zipFile != null) {
-        int zipFileLength = zipFile.getContent().length;
-        if (zipFileLength >= MAX_PROJECT_SIZE.get() * MB) {
-          return fileTooBigResult(zipFileLength);
+      if (e instanceof ApiProxy.RequestTooLargeException && upload != null) {
+        long uploadSize = upload.getCount();
+        if (uploadSize >= MAX_PROJECT_SIZE.get() * MB) {
+          return fileTooBigResult(uploadSize);
         } else {
           wrappedException = new IllegalArgumentException(
-              "Sorry, project was too large to package (" + zipFileLength + " bytes)");
+              "Sorry, project was too large to package (" + uploadSize + " bytes)");
         }
       } else {
         // Unexpected runtime error
@@ -770,13 +870,11 @@ public final class YoungAndroidProjectService extends CommonProjectService {
   // Note that this is a function rather than just a constant because we assume it will get
   // a little more complicated when we want to get the URL from an App Engine config file or
   // command line argument.
-  private String getBuildServerUrlStr(String userName, String userId,
-    long projectId, boolean secondBuildserver, String fileName, boolean isAab)
+  private String getBuildServerUrlStr(String buildServerHost, String userName, String userId,
+    long projectId, String fileName, boolean isAab)
       throws EncryptionException {
     UriBuilder uriBuilder = new UriBuilder(
-        "http://"
-            + (secondBuildserver ? buildServerHost2.get() : buildServerHost.get())
-            + "/buildserver/build-all-from-zip-async")
+        "http://" + buildServerHost + "/buildserver/build-all-from-zip-async")
         .add("uname", userName)
         .add("callback", "http://" + getCurrentHost() + ServerLayout.ODE_BASEURL_NOAUTH +
             ServerLayout.RECEIVE_BUILD_SERVLET + "/" +
@@ -789,6 +887,48 @@ public final class YoungAndroidProjectService extends CommonProjectService {
     return uriBuilder.build();
   }
 
+  /*
+   * Cancels the last build of a project, if the build server still has it. Builds are cancelled
+   * on a best effort basis, so failures are only logged.
+   */
+  private void cancelPreviousBuild(String userId, long projectId) {
+    String key = buildTicketKey(userId, projectId);
+    String ticket = (String) buildTickets.get(key);
+    if (ticket == null) {
+      return;
+    }
+    buildTickets.delete(key);
+    int separator = ticket.indexOf(' ');
+    String host = ticket.substring(0, separator);
+    String buildId = ticket.substring(separator + 1);
+    try {
+      if (BuildServerRouter.cancelBuild(host, buildId)) {
+        LOG.info("Cancelled build " + buildId + " of project " + projectId + " on " + host);
+      }
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to cancel build " + buildId + " on " + host, e);
+    }
+  }
+
+  private static String buildTicketKey(String userId, long projectId) {
+    return userId + "/" + projectId;
+  }
+
+  private static BuildServerRouter getBuildServerRouter(boolean secondBuildserver) {
+    String hosts = secondBuildserver ? buildServerHost2.get() : buildServerHost.get();
+    BuildServerRouter router = buildServerRouters.get(hosts);
+    if (router == null) {
+      router = new BuildServerRouter(BuildServerRouter.parseHosts(hosts),
+          new BuildServerRouter.HttpProber(), buildServerPoller,
+          buildServerPollSeconds.get() * 1000L);
+      BuildServerRouter existing = buildServerRouters.putIfAbsent(hosts, router);
+      if (existing != null) {
+        router = existing;
+      }
+    }
+    return router;
+  }
+
   private String getCurrentHost() {
     if (Server.isProductionServer()) {
       if (StringUtils.isNullOrEmpty(appengineHost.get())) {
@@ -962,4 +1102,57 @@ public final class YoungAndroidProjectService extends CommonProjectService {
 
   }
 
+
+  /**
+   * Thrown when a project grows past the maximum size while it is streamed to the build server.
+   */
+  private static final class ProjectTooLargeException extends IOException {
+    private final long size;
+
+    ProjectTooLargeException(long size) {
+      super("Project is larger than " + MAX_PROJECT_SIZE.get() + " MB");
+      this.size = size;
+    }
+
+    long getSize() {
+      return size;
+    }
+  }
+
+  /**
+   * Counts the bytes written to a stream, and refuses to write more than a limit.
+   */
+  private static final class LimitedOutputStream extends FilterOutputStream {
+    private final long limit;
+    private long count = 0;
+
+    LimitedOutputStream(OutputStream out, long limit) {
+      super(out);
+      this.limit = limit;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      checkLimit(1);
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      checkLimit(len);
+      out.write(b, off, len);
+      count += len;
+    }
+
+    private void checkLimit(int len) throws ProjectTooLargeException {
+      if (count + len > limit) {
+        throw new ProjectTooLargeException(count + len);
+      }
+    }
+  }
 }
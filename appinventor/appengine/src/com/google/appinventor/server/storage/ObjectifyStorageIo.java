@@ -8,6 +8,7 @@ package com.google.appinventor.server.storage;
 
 import static com.google.appinventor.components.common.YaVersion.YOUNG_ANDROID_VERSION;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
 import com.google.appengine.api.appidentity.AppIdentityServiceFailureException;
@@ -74,6 +75,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 // GCS imports
+import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsInputChannel;
@@ -85,12 +87,14 @@ import com.google.appengine.tools.cloudstorage.RetryParams;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.ConcurrentModificationException;
 import java.util.List;
@@ -98,6 +102,8 @@ import java.util.Map;
 import java.util.HashMap;
 import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
@@ -139,6 +145,16 @@ public class ObjectifyStorageIo implements StorageIo {
 
   private static final boolean DEBUG = Flag.createFlag("appinventor.debugging", false).get();
 
+  // The size of the chunks that streamed uploads are written to GCS in
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+  // The number of files of a project that are read from the blobstore or GCS
+  // at once when it is exported or several of its files are downloaded, and
+  // the number of times each read is tried.
+  private static final int FETCH_THREADS = Flag.createFlag("storage.fetch.threads", 8).get();
+  private static final int FETCH_ATTEMPTS =
+      Math.max(1, Flag.createFlag("storage.fetch.attempts", 5).get());
+
   // Use this class to define the work of a job that can be
   // retried. The "datastore" argument to run() is the Objectify
   // object for this job (created with
@@ -493,8 +509,123 @@ public class ObjectifyStorageIo implements StorageIo {
   }
 
   @Override
-  public long createProject(final String userId, final Project project,
-      final String projectSettings) {
+  public long createProject(String userId, Project project, String projectSettings) {
+    return createProject(userId, project, projectSettings,
+        Collections.<String, String>emptyMap());
+  }
+
+  @Override
+  public long createProject(String userId, Project project, String projectSettings,
+      Map<String, String> tempFiles) {
+    return createProject(userId, project, projectSettings, tempFiles,
+        Collections.<String, FileData>emptyMap());
+  }
+
+  @Override
+  public long copyProject(final String userId, final long oldProjectId, final Project project,
+      String projectSettings, Map<String, String> copiedFiles) {
+    // Read the file entities of the old project in a single batch get. Their
+    // content is copied when the new project is created.
+    final List<Key<FileData>> oldFileKeys = new ArrayList<Key<FileData>>();
+    for (String oldFileName : copiedFiles.values()) {
+      oldFileKeys.add(projectFileKey(projectKey(oldProjectId), oldFileName));
+    }
+    final Map<String, FileData> oldFiles = new HashMap<String, FileData>();
+    try {
+      runJobWithRetries(new JobRetryHelper() {
+        @Override
+        public void run(Objectify datastore) {
+          for (FileData fd : datastore.get(oldFileKeys).values()) {
+            oldFiles.put(fd.fileName, fd);
+          }
+        }
+      }, false); // Transaction not needed
+    } catch (ObjectifyException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, oldProjectId), e);
+    }
+    // The blobstore and GCS must not be read inside the transaction that creates the project,
+    // so the files that cannot be copied directly are read here, a few at a time, and added to
+    // the new project.
+    final Map<String, FileData> filesToCopy = new HashMap<String, FileData>();
+    final List<String> checkedFileNames = new ArrayList<String>();
+    final List<FileData> checkedFiles = new ArrayList<FileData>();
+    List<Callable<byte[]>> checks = new ArrayList<Callable<byte[]>>();
+    for (Map.Entry<String, String> file : copiedFiles.entrySet()) {
+      final FileData fd = oldFiles.get(file.getValue());
+      if (fd == null) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, oldProjectId, file.getValue()),
+            new FileNotFoundException("No data for " + file.getValue()));
+      }
+      if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, oldProjectId),
+            new UnauthorizedAccessException(userId, oldProjectId, null));
+      }
+      if (!isTrue(fd.isGCS) && !fd.isBlob) {
+        filesToCopy.put(file.getKey(), fd);
+        continue;
+      }
+      checkedFileNames.add(file.getKey());
+      checkedFiles.add(fd);
+      checks.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return readIfNotCopyable(userId, oldProjectId, fd);
+        }
+      });
+    }
+    try {
+      new ParallelFetcher(FETCH_THREADS, getFetchThreadFactory()).run(checks,
+          new ParallelFetcher.Sink<byte[]>() {
+            private int next = 0;
+
+            @Override
+            public void accept(byte[] content) {
+              String fileName = checkedFileNames.get(next);
+              FileData fd = checkedFiles.get(next++);
+              if (content == null) {
+                filesToCopy.put(fileName, fd);
+              } else {
+                project.addRawFile(new RawFile(fileName, content));
+              }
+            }
+          });
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, oldProjectId), e);
+    }
+    return createProject(userId, project, projectSettings,
+        Collections.<String, String>emptyMap(), filesToCopy);
+  }
+
+  /*
+   *  Returns the content of a file of another project that has to be read to
+   *  be copied, or null if its content can be copied within GCS. Files in the
+   *  blobstore are read. Older empty files have no object in GCS, and are
+   *  copied as empty files.
+   */
+  private byte[] readIfNotCopyable(String userId, long projectId, FileData fd)
+      throws IOException {
+    if (!isTrue(fd.isGCS)) {
+      byte[] content = readFileContent(userId, projectId, fd, true, false);
+      return content == null ? new byte[0] : content;
+    }
+    if (gcsService.getMetadata(new GcsFilename(getGcsBucketToUse(fd.role), fd.gcsName)) == null) {
+      LOG.log(Level.INFO, "Copying " + fd.gcsName + ", which has no object in GCS, as empty");
+      return new byte[0];
+    }
+    return null;
+  }
+
+  /*
+   *  Creates a new project with the files of the project, the temporary files
+   *  and the copied files of another project, by the name of the new files.
+   */
+  private long createProject(final String userId, final Project project,
+      final String projectSettings, final Map<String, String> tempFiles,
+      final Map<String, FileData> copiedFiles) {
     final Result<Long> projectId = new Result<Long>();
     final List<FileData> addedFiles = new ArrayList<FileData>();
 
@@ -543,6 +674,24 @@ public class ObjectifyStorageIo implements StorageIo {
                 collectProjectErrorInfo(userId, projectId.t, file.getFileName()), e);
             }
           }
+          for (Map.Entry<String, String> file : tempFiles.entrySet()) {
+            try {
+              addedFiles.add(createRawFileFromTempFile(projectKey, FileData.RoleEnum.SOURCE,
+                  userId, file.getKey(), file.getValue()));
+            } catch (IOException e) {
+              throw CrashReport.createAndLogError(LOG, null,
+                collectProjectErrorInfo(userId, projectId.t, file.getKey()), e);
+            }
+          }
+          for (Map.Entry<String, FileData> file : copiedFiles.entrySet()) {
+            try {
+              addedFiles.add(copyRawFile(projectKey, FileData.RoleEnum.SOURCE, userId,
+                  file.getKey(), file.getValue()));
+            } catch (IOException e) {
+              throw CrashReport.createAndLogError(LOG, null,
+                collectProjectErrorInfo(userId, projectId.t, file.getKey()), e);
+            }
+          }
           datastore.put(addedFiles);  // batch put
         }
 
@@ -619,6 +768,53 @@ public class ObjectifyStorageIo implements StorageIo {
     return file;
   }
 
+  /*
+   *  Like createRawFile, but with the content of a temporary file. If the
+   *  file is stored in GCS, the content is copied within GCS.
+   */
+  private FileData createRawFileFromTempFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
+    String userId, String fileName, String tempFileName) throws ObjectifyException, IOException {
+    GcsFilename tempGcsFileName = getTempGcsFileName(tempFileName);
+    int length = getGcsFileLength(tempGcsFileName);
+    if (!useGCSforFile(fileName, length)) {
+      return createRawFile(projectKey, role, userId, fileName,
+          getGcsFileContent(tempGcsFileName, length));
+    }
+    FileData file = new FileData();
+    file.fileName = fileName;
+    file.projectKey = projectKey;
+    file.role = role;
+    file.userId = userId;
+    file.isGCS = true;
+    file.gcsName = makeGCSfileName(fileName, projectKey.getId());
+    gcsService.copy(tempGcsFileName, new GcsFilename(getGcsBucketToUse(file.role), file.gcsName));
+    return file;
+  }
+
+  /*
+   *  Like createRawFile, but with the content of a file of another project.
+   *  Content kept in the datastore is copied from entity to entity, and
+   *  content kept in GCS is copied within GCS. Files kept in the blobstore,
+   *  or missing from GCS, must have been read by the caller instead.
+   */
+  private FileData copyRawFile(Key<ProjectData> projectKey, FileData.RoleEnum role,
+    String userId, String fileName, FileData source) throws ObjectifyException, IOException {
+    if (!isTrue(source.isGCS)) {
+      return createRawFile(projectKey, role, userId, fileName,
+          source.content == null ? new byte[0] : source.content);
+    }
+    FileData file = new FileData();
+    file.fileName = fileName;
+    file.projectKey = projectKey;
+    file.role = role;
+    file.userId = userId;
+    file.isGCS = true;
+    file.gcsName = makeGCSfileName(fileName, projectKey.getId());
+    gcsService.copy(new GcsFilename(getGcsBucketToUse(source.role), source.gcsName),
+        new GcsFilename(getGcsBucketToUse(file.role), file.gcsName));
+    return file;
+  }
+
   @Override
   public void deleteProject(final String userId, final long projectId) {
     validateGCS();
@@ -1409,11 +1605,37 @@ public class ObjectifyStorageIo implements StorageIo {
   }
 
   @Override
-  public long uploadRawFile(final long projectId, final String fileName, final String userId,
-      final boolean force, final byte[] content) throws BlocksTruncatedException {
+  public long uploadRawFileFromTempFile(long projectId, String fileName, String userId,
+      String tempFileName) throws IOException {
+    validateGCS();
+    GcsFilename tempGcsFileName = getTempGcsFileName(tempFileName);
+    int length = getGcsFileLength(tempGcsFileName);
+    if (!useGCSforFile(fileName, length)) {
+      return uploadRawFileForce(projectId, fileName, userId,
+          getGcsFileContent(tempGcsFileName, length));
+    }
+    try {
+      return uploadRawFile(projectId, fileName, userId, true, null, tempGcsFileName);
+    } catch (BlocksTruncatedException e) {
+      // Won't get here, exception isn't thrown when force is true
+      return 0;
+    }
+  }
+
+  @Override
+  public long uploadRawFile(long projectId, String fileName, String userId,
+      boolean force, byte[] content) throws BlocksTruncatedException {
+    return uploadRawFile(projectId, fileName, userId, force, content, null);
+  }
+
+  // Uploads a file with the given content, or if content is null, with the
+  // content of the GCS file source, which is copied within GCS.
+  private long uploadRawFile(final long projectId, final String fileName, final String userId,
+      final boolean force, final byte[] content, final GcsFilename source)
+      throws BlocksTruncatedException {
     validateGCS();
     final Result<Long> modTime = new Result<Long>();
-    final boolean useGCS = useGCSforFile(fileName, content.length);
+    final boolean useGCS = content == null || useGCSforFile(fileName, content.length);
 
     final boolean considerBackup = (fileName.contains("src/") &&
       (fileName.endsWith(".bky") || fileName.endsWith(".scm")));
@@ -1451,7 +1673,7 @@ public class ObjectifyStorageIo implements StorageIo {
             }
           }
 
-          if ((content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
+          if (content != null && (content.length < 125) && (fileName.endsWith(".bky"))) { // Likely this is an empty blocks workspace
             if (!force) {            // force is true if we *really* want to save it!
               checkForBlocksTruncation(fd); // See if we had previous content and throw and exception if so
             }
@@ -1461,10 +1683,15 @@ public class ObjectifyStorageIo implements StorageIo {
             fd.isGCS = true;
             fd.gcsName = makeGCSfileName(fileName, projectId);
             try {
-              GcsOutputChannel outputChannel =
-                  gcsService.createOrReplace(new GcsFilename(getGcsBucketToUse(fd.role), fd.gcsName), GcsFileOptions.getDefaultInstance());
-              outputChannel.write(ByteBuffer.wrap(content));
-              outputChannel.close();
+              GcsFilename gcsFileName = new GcsFilename(getGcsBucketToUse(fd.role), fd.gcsName);
+              if (content == null) {
+                gcsService.copy(source, gcsFileName);
+              } else {
+                GcsOutputChannel outputChannel =
+                    gcsService.createOrReplace(gcsFileName, GcsFileOptions.getDefaultInstance());
+                outputChannel.write(ByteBuffer.wrap(content));
+                outputChannel.close();
+              }
             } catch (IOException e) {
               throw CrashReport.createAndLogError(LOG, null,
                 collectProjectErrorInfo(userId, projectId, fileName), e);
@@ -1496,10 +1723,16 @@ public class ObjectifyStorageIo implements StorageIo {
             if ((fd.lastBackup + TWENTYFOURHOURS) < System.currentTimeMillis()) {
               try {
                 String gcsName = makeGCSfileName(fileName + "." + formattedTime() + ".backup", projectId);
-                GcsOutputChannel outputChannel =
-                    gcsService.createOrReplace((new GcsFilename(getGcsBucketToUse(FileData.RoleEnum.SOURCE), gcsName)), GcsFileOptions.getDefaultInstance());
-                outputChannel.write(ByteBuffer.wrap(content));
-                outputChannel.close();
+                GcsFilename backupFileName =
+                    new GcsFilename(getGcsBucketToUse(FileData.RoleEnum.SOURCE), gcsName);
+                if (content == null) {
+                  gcsService.copy(source, backupFileName);
+                } else {
+                  GcsOutputChannel outputChannel =
+                      gcsService.createOrReplace(backupFileName, GcsFileOptions.getDefaultInstance());
+                  outputChannel.write(ByteBuffer.wrap(content));
+                  outputChannel.close();
+                }
                 fd.lastBackup = System.currentTimeMillis();
               } catch (IOException e) {
                 throw CrashReport.createAndLogError(LOG, null,
@@ -1623,6 +1856,83 @@ public class ObjectifyStorageIo implements StorageIo {
     }
   }
 
+  @Override
+  public List<String> downloadFiles(final String userId, final long projectId,
+      List<String> fileNames, final String encoding) {
+    validateGCS();
+    // Look up the files in memcache first, and read the ones that are not
+    // there from the datastore in a single batch get.
+    List<Key<FileData>> fileKeys = new ArrayList<Key<FileData>>(fileNames.size());
+    List<String> keyStrings = new ArrayList<String>(fileNames.size());
+    for (String fileName : fileNames) {
+      Key<FileData> fileKey = projectFileKey(projectKey(projectId), fileName);
+      fileKeys.add(fileKey);
+      keyStrings.add(fileKey.getString());
+    }
+    final Map<String, FileData> fileData = new HashMap<String, FileData>();
+    final List<Key<FileData>> uncachedKeys = new ArrayList<Key<FileData>>();
+    Map<String, Object> cached = memcache.getAll(keyStrings);
+    for (int i = 0; i < fileNames.size(); i++) {
+      Object fd = cached.get(keyStrings.get(i));
+      if (fd instanceof FileData) {
+        fileData.put(fileNames.get(i), (FileData) fd);
+      } else {
+        uncachedKeys.add(fileKeys.get(i));
+      }
+    }
+    if (!uncachedKeys.isEmpty()) {
+      try {
+        runJobWithRetries(new JobRetryHelper() {
+          @Override
+          public void run(Objectify datastore) {
+            for (FileData fd : datastore.get(uncachedKeys).values()) {
+              fileData.put(fd.fileName, fd);
+            }
+          }
+        }, false); // Transaction not needed
+      } catch (ObjectifyException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId), e);
+      }
+    }
+
+    // read the blob/GCS Files outside of the job
+    List<Callable<byte[]>> reads = new ArrayList<Callable<byte[]>>(fileNames.size());
+    for (String fileName : fileNames) {
+      final FileData fd = fileData.get(fileName);
+      if (fd == null) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName),
+            new FileNotFoundException("No data for " + fileName));
+      }
+      if (fd.userId != null && !fd.userId.equals("") && !fd.userId.equals(userId)) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectUserProjectErrorInfo(userId, projectId),
+            new UnauthorizedAccessException(userId, projectId, null));
+      }
+      reads.add(new Callable<byte[]>() {
+        @Override
+        public byte[] call() throws IOException {
+          return readFileContent(userId, projectId, fd, false, false);
+        }
+      });
+    }
+    final List<String> contents = new ArrayList<String>(fileNames.size());
+    try {
+      new ParallelFetcher(FETCH_THREADS, getFetchThreadFactory()).run(reads,
+          new ParallelFetcher.Sink<byte[]>() {
+            @Override
+            public void accept(byte[] data) throws IOException {
+              contents.add(new String(data, encoding));
+            }
+          });
+    } catch (IOException e) {
+      throw CrashReport.createAndLogError(LOG, null,
+          collectUserProjectErrorInfo(userId, projectId), e);
+    }
+    return contents;
+  }
+
   @Override
   public void recordCorruption(String userId, long projectId, String fileId, String message) {
     Objectify datastore = ObjectifyService.begin();
@@ -1761,7 +2071,8 @@ public class ObjectifyStorageIo implements StorageIo {
   // Note: this must be called outside of any transaction, since getBlobKey()
   // uses the current transaction and it will most likely have the wrong
   // entity group!
-  private byte[] getBlobstoreBytes(String blobKeyString) throws BlobReadException {
+  @VisibleForTesting
+  byte[] getBlobstoreBytes(String blobKeyString) throws BlobReadException {
     BlobKey blobKey = new BlobKey(blobKeyString);
     if (blobKey == null) {
       throw new BlobReadException("Could not find BlobKey for " + blobKeyString);
@@ -1798,6 +2109,49 @@ public class ObjectifyStorageIo implements StorageIo {
       final boolean fatalError,
       final boolean forAppStore,
       final boolean locallyCachedApp) throws IOException {
+    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
+    Result<String> projectName = new Result<String>();
+    int fileCount = exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        forAppStore, locallyCachedApp, zipFile, projectName);
+    if (zipName == null) {
+      zipName = projectName.t + ".aia";
+    }
+    ProjectSourceZip projectSourceZip =
+        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount);
+    projectSourceZip.setMetadata(projectName.t);
+    return projectSourceZip;
+  }
+
+  @Override
+  public int exportProjectSourceZip(String userId, long projectId,
+      boolean includeProjectHistory,
+      boolean includeAndroidKeystore,
+      boolean includeYail,
+      boolean includeScreenShots,
+      boolean forGallery,
+      boolean fatalError,
+      boolean forAppStore,
+      boolean locallyCachedApp,
+      OutputStream output) throws IOException {
+    return exportProjectSourceZip(userId, projectId, includeProjectHistory,
+        includeAndroidKeystore, includeYail, includeScreenShots, forGallery, fatalError,
+        forAppStore, locallyCachedApp, output, new Result<String>());
+  }
+
+  // Writes the zip of a project to a stream as its files are read, and returns the number of
+  // files in it. The name of the project is returned through projectName.
+  private int exportProjectSourceZip(final String userId, final long projectId,
+      final boolean includeProjectHistory,
+      final boolean includeAndroidKeystore,
+      final boolean includeYail,
+      final boolean includeScreenShots,
+      final boolean forGallery,
+      final boolean fatalError,
+      final boolean forAppStore,
+      final boolean locallyCachedApp,
+      OutputStream output,
+      final Result<String> projectName) throws IOException {
     final boolean forBuildserver = includeAndroidKeystore && includeYail;
     validateGCS();
     final Result<Integer> fileCount = new Result<Integer>();
@@ -1809,13 +2163,11 @@ public class ObjectifyStorageIo implements StorageIo {
     // to avoid problems reading blobs in a transaction with the wrong
     // entity group.
     final List<FileData> fileData = new ArrayList<FileData>();
-    final Result<String> projectName = new Result<String>();
     final Map<String, Integer> screens = new HashMap<String, Integer>();
     projectName.t = null;
-    String fileName = null;
+    final Result<String> fileName = new Result<String>();
 
-    ByteArrayOutputStream zipFile = new ByteArrayOutputStream();
-    final ZipOutputStream out = new ZipOutputStream(zipFile);
+    final ZipOutputStream out = new ZipOutputStream(output);
     out.setComment("Built with MIT App Inventor");
 
     try {
@@ -1886,100 +2238,29 @@ public class ObjectifyStorageIo implements StorageIo {
         throw error;
       }
       // Process the file contents outside of the job since we can't read
-      // blobs in the job.
-      for (FileData fd : fileData) {
-        fileName = fd.fileName;
-        byte[] data = null;
-        if (fd.isBlob) {
-          try {
-            if (fd.blobKey == null) {
-              throw new BlobReadException("blobKey is null");
-            }
-            data = getBlobstoreBytes(fd.blobKey);
-          } catch (BlobReadException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-                collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else if (isTrue(fd.isGCS)) {
-          try {
-            int count;
-            boolean npfHappened = false;
-            boolean recovered = false;
-            for (count = 0; count < 5; count++) {
-              GcsFilename gcsFileName = new GcsFilename(getGcsBucketToUse(fd.role), fd.gcsName);
-              int bytesRead = 0;
-              int fileSize = 0;
-              ByteBuffer resultBuffer;
-              try {
-                fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
-                resultBuffer = ByteBuffer.allocate(fileSize);
-                GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
-                try {
-                  while (bytesRead < fileSize) {
-                    bytesRead += readChannel.read(resultBuffer);
-                    if (bytesRead < fileSize) {
-                      if (DEBUG) {
-                        LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
-                      }
-                    }
-                  }
-                  recovered = true;
-                  data = resultBuffer.array();
-                  break;        // We got the data, break out of the loop!
-                } finally {
-                  readChannel.close();
-                }
-              } catch (NullPointerException e) {
-                // This happens if the object in GCS is non-existent, which would happen
-                // when people uploaded a zero length object. As of this change, we now
-                // store zero length objects into GCS, but there are plenty of older objects
-                // that are missing in GCS.
-                LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
-                npfHappened = true;
-                resultBuffer = ByteBuffer.allocate(0);
-                data = resultBuffer.array();
-              }
-            }
-
-            // report out on how things went above
-            if (npfHappened) {    // We lost at least once
-              if (recovered) {
-                LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
-                  " count = " + count);
-              } else {
-                LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
-                if (fatalError) {
-                  throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
-                }
-              }
-            }
-          } catch (IOException e) {
-            throw CrashReport.createAndLogError(LOG, null,
-              collectProjectErrorInfo(userId, projectId, fileName), e);
-          }
-        } else {
-          data = fd.content;
-          if (fileName.endsWith(".properties") && locallyCachedApp == true) {
-            String projectProperties = new String(data, StandardCharsets.UTF_8);
-            Properties oldProperties = new Properties();
-            try {
-              oldProperties.load(new StringReader(projectProperties));
-            } catch (IOException e) {
-              e.printStackTrace();
-            }
-            YoungAndroidSettingsBuilder oldPropertiesBuilder = new YoungAndroidSettingsBuilder(oldProperties);
-            String updatedProperties = oldPropertiesBuilder.setAIVersioning(Integer.toString(YOUNG_ANDROID_VERSION)).toProperties();
-            data = updatedProperties.getBytes(StandardCharsets.UTF_8);
+      // blobs in the job. The files are read a few at a time, but written
+      // to the zip in the order of the query.
+      List<Callable<byte[]>> reads = new ArrayList<Callable<byte[]>>(fileData.size());
+      for (final FileData fd : fileData) {
+        reads.add(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            return readFileContent(userId, projectId, fd, fatalError, locallyCachedApp);
           }
-        }
-        if (data == null) {     // This happens if file creation is interrupted
-          data = new byte[0];
-        }
-        out.putNextEntry(new ZipEntry(fileName));
-        out.write(data, 0, data.length);
-        out.closeEntry();
-        fileCount.t++;
+        });
       }
+      final Iterator<FileData> written = fileData.iterator();
+      new ParallelFetcher(FETCH_THREADS, getFetchThreadFactory()).run(reads,
+          new ParallelFetcher.Sink<byte[]>() {
+            @Override
+            public void accept(byte[] data) throws IOException {
+              fileName.t = written.next().fileName;
+              out.putNextEntry(new ZipEntry(fileName.t));
+              out.write(data, 0, data.length);
+              out.closeEntry();
+              fileCount.t++;
+            }
+          });
       if (projectHistory.t != null) {
         byte[] data = projectHistory.t.getBytes(StorageUtil.DEFAULT_CHARSET);
         out.putNextEntry(new ZipEntry(FileExporter.REMIX_INFORMATION_FILE_PATH));
@@ -1989,12 +2270,12 @@ public class ObjectifyStorageIo implements StorageIo {
       }
     } catch (ObjectifyException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, fileName.t), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     } catch (RuntimeException e) {
       CrashReport.createAndLogError(LOG, null,
-          collectProjectErrorInfo(userId, projectId, fileName), e);
+          collectProjectErrorInfo(userId, projectId, fileName.t), e);
       throw new IOException("Reflecting exception for userid " + userId +
           " projectId " + projectId + ", original exception " + e.getMessage());
     }
@@ -2032,15 +2313,136 @@ public class ObjectifyStorageIo implements StorageIo {
       }
     }
 
-    out.close();
+    // Finish the zip, but leave closing the stream to the caller.
+    out.finish();
+    return fileCount.t;
+  }
 
-    if (zipName == null) {
-      zipName = projectName.t + ".aia";
+  // Reads the content of a file of a project. This runs on the fetch threads
+  // of exportProjectSourceZip and downloadFiles, so it must not touch any
+  // state shared with the other files. Reads from the blobstore and GCS are
+  // tried up to FETCH_ATTEMPTS times.
+  private byte[] readFileContent(String userId, long projectId, FileData fd,
+      boolean fatalError, boolean locallyCachedApp) throws IOException {
+    String fileName = fd.fileName;
+    byte[] data = null;
+    if (fd.isBlob) {
+      try {
+        if (fd.blobKey == null) {
+          throw new BlobReadException("blobKey is null");
+        }
+        for (int count = 1; data == null; count++) {
+          try {
+            data = getBlobstoreBytes(fd.blobKey);
+          } catch (BlobReadException e) {
+            if (count >= FETCH_ATTEMPTS) {
+              throw e;
+            }
+            LOG.log(Level.WARNING, "exportProjectFile: retrying blob " + fd.blobKey, e);
+          }
+        }
+      } catch (BlobReadException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+            collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else if (isTrue(fd.isGCS)) {
+      try {
+        int count;
+        boolean npfHappened = false;
+        boolean recovered = false;
+        IOException readError = null;
+        for (count = 0; count < FETCH_ATTEMPTS; count++) {
+          GcsFilename gcsFileName = new GcsFilename(getGcsBucketToUse(fd.role), fd.gcsName);
+          int bytesRead = 0;
+          int fileSize = 0;
+          ByteBuffer resultBuffer;
+          try {
+            fileSize = (int) gcsService.getMetadata(gcsFileName).getLength();
+            resultBuffer = ByteBuffer.allocate(fileSize);
+            GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
+            try {
+              while (bytesRead < fileSize) {
+                bytesRead += readChannel.read(resultBuffer);
+                if (bytesRead < fileSize) {
+                  if (DEBUG) {
+                    LOG.log(Level.INFO, "readChannel: bytesRead = " + bytesRead + " fileSize = " + fileSize);
+                  }
+                }
+              }
+              recovered = true;
+              data = resultBuffer.array();
+              break;        // We got the data, break out of the loop!
+            } finally {
+              readChannel.close();
+            }
+          } catch (NullPointerException e) {
+            // This happens if the object in GCS is non-existent, which would happen
+            // when people uploaded a zero length object. As of this change, we now
+            // store zero length objects into GCS, but there are plenty of older objects
+            // that are missing in GCS.
+            LOG.log(Level.WARNING, "exportProjectFile: NPF recorded for " + fd.gcsName);
+            npfHappened = true;
+            resultBuffer = ByteBuffer.allocate(0);
+            data = resultBuffer.array();
+          } catch (IOException e) {
+            // The GCS client has already retried the request, but a read that
+            // fails part way through is worth starting over.
+            LOG.log(Level.WARNING, "exportProjectFile: error reading " + fd.gcsName, e);
+            readError = e;
+          }
+        }
+
+        // report out on how things went above
+        if (npfHappened) {    // We lost at least once
+          if (recovered) {
+            LOG.log(Level.WARNING, "recovered from NPF in exportProjectFile filename = " + fd.gcsName +
+              " count = " + count);
+          } else {
+            LOG.log(Level.WARNING, "FATAL NPF in exportProjectFile filename = " + fd.gcsName);
+            if (fatalError) {
+              throw new IOException("FATAL Error reading file from GCS filename = " + fd.gcsName);
+            }
+          }
+        } else if (!recovered && readError != null) {
+          throw readError;
+        }
+      } catch (IOException e) {
+        throw CrashReport.createAndLogError(LOG, null,
+          collectProjectErrorInfo(userId, projectId, fileName), e);
+      }
+    } else {
+      data = fd.content;
+      if (fileName.endsWith(".properties") && locallyCachedApp == true) {
+        String projectProperties = new String(data, StandardCharsets.UTF_8);
+        Properties oldProperties = new Properties();
+        try {
+          oldProperties.load(new StringReader(projectProperties));
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+        YoungAndroidSettingsBuilder oldPropertiesBuilder = new YoungAndroidSettingsBuilder(oldProperties);
+        String updatedProperties = oldPropertiesBuilder.setAIVersioning(Integer.toString(YOUNG_ANDROID_VERSION)).toProperties();
+        data = updatedProperties.getBytes(StandardCharsets.UTF_8);
+      }
+    }
+    if (data == null) {     // This happens if file creation is interrupted
+      data = new byte[0];
+    }
+    return data;
+  }
+
+  // Returns the factory of the threads that read the files of a project in
+  // parallel, or null to read them one at a time. The threads are tied to the
+  // current request, so that they can use the App Engine services.
+  @VisibleForTesting
+  ThreadFactory getFetchThreadFactory() {
+    try {
+      return ThreadManager.currentRequestThreadFactory();
+    } catch (RuntimeException e) {
+      // Not in a request, as in a task queue or a test
+      LOG.log(Level.INFO, "No request thread factory, reading files serially", e);
+      return null;
     }
-    ProjectSourceZip projectSourceZip =
-        new ProjectSourceZip(zipName, zipFile.toByteArray(), fileCount.t);
-    projectSourceZip.setMetadata(projectName.t);
-    return projectSourceZip;
   }
 
   // Find a user by email address. This version does *not* create a new user
@@ -2402,6 +2804,28 @@ public class ObjectifyStorageIo implements StorageIo {
     return fileName;
   }
 
+  @Override
+  public String uploadTempFile(InputStream content) throws IOException {
+    String uuid = UUID.randomUUID().toString();
+    String fileName = "__TEMP__/" + uuid;
+    GcsOutputChannel outputChannel = gcsService.createOrReplace(
+        new GcsFilename(getGcsBucketToUse(FileData.RoleEnum.TARGET), fileName),
+        GcsFileOptions.getDefaultInstance());
+    ByteBuffer buffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+    int bytesRead;
+    while ((bytesRead = content.read(buffer.array())) != -1) {
+      buffer.limit(bytesRead);
+      while (buffer.hasRemaining()) {
+        outputChannel.write(buffer);
+      }
+      buffer.clear();
+    }
+    // The file is only created when the channel is closed, so nothing is left
+    // behind if reading the stream fails.
+    outputChannel.close();
+    return fileName;
+  }
+
   @Override
   public InputStream openTempFile(String fileName) throws IOException {
     if (!fileName.startsWith("__TEMP__")) {
@@ -2473,6 +2897,36 @@ public class ObjectifyStorageIo implements StorageIo {
     outputChannel.close();
   }
 
+  // Returns the GCS file of a temporary file, checking that it is one.
+  private GcsFilename getTempGcsFileName(String fileName) {
+    if (!fileName.startsWith("__TEMP__")) {
+      throw new IllegalArgumentException("Invalid temporary file name " + fileName);
+    }
+    // Use FileData.RoleEnum.TARGET because these temp files never live very long
+    return new GcsFilename(getGcsBucketToUse(FileData.RoleEnum.TARGET), fileName);
+  }
+
+  private int getGcsFileLength(GcsFilename gcsFileName) throws IOException {
+    GcsFileMetadata metadata = gcsService.getMetadata(gcsFileName);
+    if (metadata == null) {
+      throw new FileNotFoundException("No GCS file " + gcsFileName);
+    }
+    return (int) metadata.getLength();
+  }
+
+  private byte[] getGcsFileContent(GcsFilename gcsFileName, int length) throws IOException {
+    ByteBuffer resultBuffer = ByteBuffer.allocate(length);
+    GcsInputChannel readChannel = gcsService.openReadChannel(gcsFileName, 0);
+    try {
+      while (resultBuffer.hasRemaining() && readChannel.read(resultBuffer) != -1) {
+        // keep reading
+      }
+    } finally {
+      readChannel.close();
+    }
+    return resultBuffer.array();
+  }
+
   // Return time in ISO_8660 format
   private static String formattedTime() {
     java.text.SimpleDateFormat formatter = new java.text.SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
@@ -0,0 +1,138 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a list of fetches a few at a time and hands their results to a sink in the order of the
+ * list.
+ *
+ * <p>At most {@code parallelism} fetches are outstanding at any time, and the next one is only
+ * started when the result of the oldest one has been taken, so no more than that many results
+ * are held in memory. When there is nothing to gain from threads, or they cannot be created,
+ * the fetches are run one at a time on the calling thread.</p>
+ */
+final class ParallelFetcher {
+  private static final Logger LOG = Logger.getLogger(ParallelFetcher.class.getName());
+
+  /**
+   * Receives the results of the fetches, in order, on the calling thread.
+   */
+  interface Sink<T> {
+    void accept(T result) throws IOException;
+  }
+
+  private final int parallelism;
+  private final ThreadFactory threadFactory;
+
+  /**
+   * Creates a fetcher.
+   *
+   * @param parallelism the largest number of fetches to run at once
+   * @param threadFactory the factory of the worker threads, or null to run the fetches serially
+   */
+  ParallelFetcher(int parallelism, ThreadFactory threadFactory) {
+    this.parallelism = parallelism;
+    this.threadFactory = threadFactory;
+  }
+
+  /**
+   * Runs the fetches and passes each result to the sink, in the order of the fetches.
+   *
+   * <p>The first fetch or sink that fails stops the run, and its exception is thrown. Fetches
+   * that are still outstanding are cancelled.</p>
+   */
+  <T> void run(List<? extends Callable<T>> fetches, Sink<T> sink) throws IOException {
+    ExecutorService executor = newExecutor(Math.min(parallelism, fetches.size()));
+    if (executor == null) {
+      for (Callable<T> fetch : fetches) {
+        sink.accept(call(fetch));
+      }
+      return;
+    }
+    try {
+      Deque<Future<T>> window = new ArrayDeque<Future<T>>();
+      int next = 0;
+      while (next < fetches.size() && window.size() < parallelism) {
+        window.add(executor.submit(fetches.get(next++)));
+      }
+      while (!window.isEmpty()) {
+        T result = get(window.remove());
+        if (next < fetches.size()) {
+          window.add(executor.submit(fetches.get(next++)));
+        }
+        sink.accept(result);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  // Returns an executor with the given number of threads, or null if the fetches should run on
+  // the calling thread.
+  private ExecutorService newExecutor(int threads) {
+    if (threads <= 1 || threadFactory == null) {
+      return null;
+    }
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+    try {
+      // Start the threads now, since a pool without any would queue the fetches forever.
+      if (executor.prestartAllCoreThreads() > 0) {
+        return executor;
+      }
+      LOG.log(Level.WARNING, "No fetch threads could be started, fetching serially");
+    } catch (RuntimeException e) {
+      LOG.log(Level.WARNING, "Unable to start fetch threads, fetching serially", e);
+    }
+    executor.shutdownNow();
+    return null;
+  }
+
+  private static <T> T call(Callable<T> fetch) throws IOException {
+    try {
+      return fetch.call();
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static <T> T get(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while fetching");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
@@ -17,8 +17,10 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.rpc.user.SplashConfig;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import javax.annotation.Nullable;
@@ -132,6 +134,45 @@ public interface StorageIo {
    */
   long createProject(String userId, Project project, String projectSettings);
 
+  /**
+   * Creates a new project and uploads the files, some of which have already
+   * been uploaded as temporary files (see {@link #uploadTempFile(InputStream)}).
+   * The temporary files are copied into the project, but not deleted.
+   *
+   * <p>
+   * This is an atomic operation.
+   *
+   * @param userId user id
+   * @param project project information
+   * @param projectSettings project settings
+   * @param tempFiles the names of the temporary files, by the name of the
+   *        project file that they hold
+   * @return project id
+   */
+  long createProject(String userId, Project project, String projectSettings,
+      Map<String, String> tempFiles);
+
+  /**
+   * Creates a new project from the source files of an existing project of the
+   * same user. The files are copied within the storage, without their content
+   * passing through the caller.
+   *
+   * <p>
+   * This is an atomic operation.
+   *
+   * @param userId user id
+   * @param oldProjectId project whose source files are copied
+   * @param project project information, with the files whose content differs
+   *        from the old project. The files that must be read to be copied
+   *        are added to it.
+   * @param projectSettings project settings
+   * @param copiedFiles the names of the files of the old project, by the name
+   *        of the file of the new project that they are copied to
+   * @return project id
+   */
+  long copyProject(String userId, long oldProjectId, Project project, String projectSettings,
+      Map<String, String> copiedFiles);
+
   /**
    * Deletes a project and all its files.
    *
@@ -440,6 +481,19 @@ public interface StorageIo {
    */
   long uploadRawFileForce(long projectId, String fileId, String userId, byte[] content);
 
+  /**
+   * Uploads a file with the content of a temporary file (see
+   * {@link #uploadTempFile(InputStream)}) -- forces the save even with
+   * trivial workspace. The temporary file is not deleted.
+   * @param projectId  project ID
+   * @param fileId  file ID
+   * @param userId the user who owns the file
+   * @param tempFileName  the name of the temporary file
+   * @return modification date for project
+   */
+  long uploadRawFileFromTempFile(long projectId, String fileId, String userId,
+      String tempFileName) throws IOException;
+
   /**
    * Deletes a file.
    * @param userId a user Id (the request is made on behalf of this user)
@@ -460,6 +514,19 @@ public interface StorageIo {
    */
   String downloadFile(String userId, long projectId, String fileId, String encoding);
 
+  /**
+   * Downloads the data of several text files of a project together. This
+   * costs a single datastore read however many files there are.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param fileIds  file IDs
+   * @param encoding  encoding of the text files
+   *
+   * @return  text file contents, in the order of fileIds
+   */
+  List<String> downloadFiles(String userId, long projectId, List<String> fileIds,
+      String encoding);
+
   /**
    * Records a "corruption" record so we can analyze if corruption is
    * happening.
@@ -490,6 +557,17 @@ public interface StorageIo {
    */
   String uploadTempFile(byte [] content) throws IOException;
 
+  /**
+   * Creates a temporary file with the content read from a stream and
+   * returns its file name, which will always begin with __TEMP__. The
+   * content is written as it is read, so it is never held in memory. If
+   * reading the stream fails, no file is created.
+   * @param content the files content, which is read to its end but not closed
+   *
+   * @return fileName the temporary filename
+   */
+  String uploadTempFile(InputStream content) throws IOException;
+
   /**
    * Open an input stream to a temp file.
    * Verifies it is a temp file by making sure the filename
@@ -532,6 +610,29 @@ public interface StorageIo {
     final boolean forGallery,
     final boolean fatalError, boolean forAppStore, boolean locallyCachedApp) throws IOException;
 
+  /**
+   *  Exports project files as a zip archive, writing it to a stream as the files are read, so
+   *  that the archive is never held in memory as a whole. The stream is not closed.
+   * @param userId a user Id (the request is made on behalf of this user)
+   * @param projectId  project ID
+   * @param includeProjectHistory  whether or not to include the project history
+   * @param includeAndroidKeystore  whether or not to include the Android keystore
+   * @param fatalError set true to cause missing GCS file to throw exception
+   * @param output  the stream to write the zip archive to
+   *
+   * @return  the number of files in the zip archive
+   * @throws IllegalArgumentException if the project has no files, in which case nothing has
+   *     been written to the stream
+   */
+  int exportProjectSourceZip(String userId, long projectId,
+    boolean includeProjectHistory,
+    boolean includeAndroidKeystore,
+    boolean includeYail,
+    boolean includeScreenShots,
+    boolean forGallery,
+    boolean fatalError, boolean forAppStore, boolean locallyCachedApp,
+    OutputStream output) throws IOException;
+
   /**
    * Find a user's id given their email address. Note that this query is case
    * sensitive!
@@ -267,6 +267,15 @@ public interface ProjectService extends RemoteService {
    */
   List<FileDescriptorWithContent> load(List<FileDescriptor> files);
 
+  /**
+   * Loads the contents of multiple files, each with a checksum (MD5) of its
+   * content to detect silent network corruption.
+   *
+   * @param files  list containing file descriptor of files to be loaded
+   * @return  checksummed file objects, in the order of {@code files}
+   */
+  List<ChecksumedLoadFile> load2(List<FileDescriptor> files) throws ChecksumedFileException;
+
   /**
    * Saves the content of the file associated with a node in the project tree.
    *
@@ -152,6 +152,11 @@ public interface ProjectServiceAsync {
    */
   void load(List<FileDescriptor> files, AsyncCallback<List<FileDescriptorWithContent>> callback);
 
+  /**
+   * @see ProjectService#load2(List)
+   */
+  void load2(List<FileDescriptor> files, AsyncCallback<List<ChecksumedLoadFile>> callback);
+
   /**
    * @see ProjectService#save(String, long, String, String)
    */
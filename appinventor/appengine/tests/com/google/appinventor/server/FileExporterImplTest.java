@@ -167,5 +167,43 @@ public class FileExporterImplTest extends LocalDatastoreTestCase {
     }
   }
 
-  // TODO(user): Add test of exportAllProjectsSourceZip().
+  public void testExportAllProjectsSourceZip() throws IOException {
+    Project project = new Project(PROJECT_NAME);
+    project.setProjectType(FAKE_PROJECT_TYPE);
+    project.addTextFile(new TextFile(FORM1_QUALIFIED_NAME, FORM1_CONTENT));
+    storageIo.createProject(USER_ID, project, SETTINGS);
+
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    int count = exporter.exportAllProjectsSourceZip(USER_ID, output);
+    assertEquals(2, count);
+
+    ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()));
+    Map<String, byte[]> projects = new HashMap<String, byte[]>();
+    ZipEntry zipEntry;
+    while ((zipEntry = zis.getNextEntry()) != null) {
+      projects.put(zipEntry.getName(), ByteStreams.toByteArray(zis));
+    }
+    // The second project has the same name, so it is renamed.
+    assertEquals(2, projects.size());
+    assertTrue(projects.containsKey(PROJECT_NAME + ".aia"));
+    assertTrue(projects.containsKey("duplicate-" + PROJECT_NAME + ".aia"));
+    for (byte[] data : projects.values()) {
+      ZipInputStream projectZis = new ZipInputStream(new ByteArrayInputStream(data));
+      Map<String, byte[]> content = new HashMap<String, byte[]>();
+      while ((zipEntry = projectZis.getNextEntry()) != null) {
+        content.put(zipEntry.getName(), ByteStreams.toByteArray(projectZis));
+      }
+      assertEquals(FORM1_CONTENT, new String(content.get(FORM1_QUALIFIED_NAME),
+          StorageUtil.DEFAULT_CHARSET));
+    }
+  }
+
+  public void testExportAllProjectsSourceZipWithoutProjects() throws IOException {
+    try {
+      exporter.exportAllProjectsSourceZip("2", new ByteArrayOutputStream());
+      fail();
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
 }
@@ -13,11 +13,20 @@ import com.google.appinventor.shared.rpc.UploadResponse;
 import com.google.appinventor.shared.rpc.project.UserProject;
 import com.google.appinventor.shared.rpc.project.youngandroid.YoungAndroidProjectNode;
 
+import com.google.common.io.ByteStreams;
+
 import junitx.framework.ListAssert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Test FileImporterImpl.
@@ -101,6 +110,83 @@ public class FileImporterImplTest extends LocalDatastoreTestCase {
         "assets/meow.mp3");
   }
 
+  public void testImportProject_assetContent() throws Exception {
+    UserProject userProject = importProjectArchive("ProjectWithAssets.zip", PROJECT_NAME_1);
+    long projectId = userProject.getProjectId();
+    ZipFile zip = new ZipFile(TESTING_SOURCE_PATH + "ProjectWithAssets.zip");
+    try {
+      for (String assetName : new String[] { "assets/kitty.png", "assets/meow.mp3" }) {
+        byte[] expected = ByteStreams.toByteArray(zip.getInputStream(zip.getEntry(assetName)));
+        assertTrue(Arrays.equals(expected,
+            storageIo.downloadRawFile(USER_ID, projectId, assetName)));
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  public void testImportProject_largeAsset() throws Exception {
+    byte[] small = new byte[1024];
+    byte[] large = new byte[FileImporterImpl.MAX_IN_MEMORY_ASSET_BYTES + 1];
+    new Random(42).nextBytes(small);
+    new Random(43).nextBytes(large);
+    ByteArrayOutputStream zip = new ByteArrayOutputStream();
+    ZipOutputStream out = new ZipOutputStream(zip);
+    out.putNextEntry(new ZipEntry("youngandroidproject/project.properties"));
+    out.write("main=appinventor.ai_joeuser.project1.Screen1\n".getBytes("UTF-8"));
+    out.putNextEntry(new ZipEntry("assets/large.bin"));
+    out.write(large);
+    out.putNextEntry(new ZipEntry("assets/small.bin"));
+    out.write(small);
+    out.close();
+    UserProject userProject = fileImporter.importProject(USER_ID, PROJECT_NAME_1,
+        new ByteArrayInputStream(zip.toByteArray()));
+    long projectId = userProject.getProjectId();
+    assertTrue(Arrays.equals(large,
+        storageIo.downloadRawFile(USER_ID, projectId, "assets/large.bin")));
+    assertTrue(Arrays.equals(small,
+        storageIo.downloadRawFile(USER_ID, projectId, "assets/small.bin")));
+  }
+
+  public void testImportFile() throws Exception {
+    UserProject userProject = importProjectArchive("Project1.zip", PROJECT_NAME_1);
+    long projectId = userProject.getProjectId();
+    byte[] content = new byte[200 * 1024];
+    new Random(42).nextBytes(content);
+    fileImporter.importFile(USER_ID, projectId, "assets/noise.bin",
+        new ByteArrayInputStream(content));
+    ListAssert.assertContains(storageIo.getProjectSourceFiles(USER_ID, projectId),
+        "assets/noise.bin");
+    assertTrue(Arrays.equals(content,
+        storageIo.downloadRawFile(USER_ID, projectId, "assets/noise.bin")));
+  }
+
+  public void testImportFile_large() throws Exception {
+    UserProject userProject = importProjectArchive("Project1.zip", PROJECT_NAME_1);
+    long projectId = userProject.getProjectId();
+    byte[] content = new byte[FileImporterImpl.MAX_IN_MEMORY_ASSET_BYTES + 1];
+    new Random(42).nextBytes(content);
+    fileImporter.importFile(USER_ID, projectId, "assets/noise.bin",
+        new ByteArrayInputStream(content));
+    assertTrue(Arrays.equals(content,
+        storageIo.downloadRawFile(USER_ID, projectId, "assets/noise.bin")));
+  }
+
+  public void testImportFile_tooLarge() throws Exception {
+    UserProject userProject = importProjectArchive("Project1.zip", PROJECT_NAME_1);
+    long projectId = userProject.getProjectId();
+    byte[] content = new byte[fileImporter.getMaxFileSizeBytes() + 1];
+    try {
+      fileImporter.importFile(USER_ID, projectId, "assets/huge.bin",
+          new ByteArrayInputStream(content));
+      fail();
+    } catch (FileImporterException e) {
+      assertEquals(UploadResponse.Status.FILE_TOO_LARGE, e.uploadResponse.getStatus());
+    }
+    // The project is left as it was.
+    assertFalse(storageIo.getProjectSourceFiles(USER_ID, projectId).contains("assets/huge.bin"));
+  }
+
   public void testProjectNameUsed() throws Exception {
     UserProject userProject = importProjectArchive("Project1.zip", PROJECT_NAME_2);
     assertNotNull(userProject);
@@ -0,0 +1,278 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.project.youngandroid;
+
+import com.google.common.base.Charsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link BuildServerRouter}.
+ */
+public class BuildServerRouterTest extends TestCase {
+  // Polls on the calling thread, so that the results of a poll are used at once.
+  private static final Executor DIRECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private final List<HttpServer> servers = new ArrayList<HttpServer>();
+
+  @Override
+  protected void tearDown() throws Exception {
+    for (HttpServer server : servers) {
+      server.stop(0);
+    }
+  }
+
+  public void testParseHosts() {
+    assertEquals(Arrays.asList("a:9990", "b:9990"),
+        BuildServerRouter.parseHosts(" a:9990, b:9990 ,a:9990"));
+    assertEquals(Arrays.asList("localhost:9990"), BuildServerRouter.parseHosts("localhost:9990"));
+  }
+
+  public void testParseVars() {
+    BuildServerRouter.Status status = BuildServerRouter.parseVars(vars(4, 3, 10, 2));
+    assertTrue(status.isAvailable());
+    assertEquals(9, status.getCapacity());
+    assertFalse(BuildServerRouter.parseVars(vars(4, 4, 10, 10)).isAvailable());
+    assertTrue(BuildServerRouter.parseVars("<html><body></body></html>").isAvailable());
+  }
+
+  public void testUsersStayOnTheirServer() {
+    List<String> hosts = Arrays.asList("a", "b", "c");
+    BuildServerRouter router = new BuildServerRouter(hosts, new FakeProber(), DIRECT, 60000);
+    Set<String> preferred = new HashSet<String>();
+    for (int i = 0; i < 100; i++) {
+      String user = "user" + i;
+      List<String> route = router.route(user);
+      assertEquals(3, route.size());
+      assertEquals(new HashSet<String>(hosts), new HashSet<String>(route));
+      assertEquals(route, router.route(user));
+      preferred.add(route.get(0));
+    }
+    // Every server is the preferred server of some users.
+    assertEquals(3, preferred.size());
+  }
+
+  public void testRemovingAServerOnlyMovesItsUsers() {
+    BuildServerRouter all = new BuildServerRouter(Arrays.asList("a", "b", "c"),
+        new FakeProber(), DIRECT, 60000);
+    BuildServerRouter fewer = new BuildServerRouter(Arrays.asList("a", "b"),
+        new FakeProber(), DIRECT, 60000);
+    for (int i = 0; i < 100; i++) {
+      String user = "user" + i;
+      String before = all.route(user).get(0);
+      if (!before.equals("c")) {
+        assertEquals(before, fewer.route(user).get(0));
+      }
+    }
+  }
+
+  public void testSpillsOverFromFullServer() throws Exception {
+    String full = startServer(200, vars(2, 2, 5, 5));
+    String idle = startServer(200, vars(2, 0, 5, 0));
+    String draining = startServer(403, vars(2, 0, 5, 0));
+    BuildServerRouter router = new BuildServerRouter(Arrays.asList(full, idle, draining),
+        new BuildServerRouter.HttpProber(), DIRECT, 60000);
+    for (int i = 0; i < 20; i++) {
+      List<String> route = router.route("user" + i);
+      assertEquals(idle, route.get(0));
+      // The unavailable servers are still tried last.
+      assertEquals(3, route.size());
+    }
+  }
+
+  public void testUnreachableServerIsSkipped() throws Exception {
+    String up = startServer(200, vars(2, 0, 5, 0));
+    BuildServerRouter router = new BuildServerRouter(Arrays.asList("localhost:1", up),
+        new BuildServerRouter.HttpProber(), DIRECT, 60000);
+    assertEquals(up, router.route("user").get(0));
+  }
+
+  public void testMarkUnavailable() {
+    FakeProber prober = new FakeProber();
+    BuildServerRouter router = new BuildServerRouter(Arrays.asList("a", "b"), prober, DIRECT,
+        60000);
+    String preferred = router.route("user").get(0);
+    String other = preferred.equals("a") ? "b" : "a";
+    router.markUnavailable(preferred);
+    assertEquals(Arrays.asList(other, preferred), router.route("user"));
+    // The state is polled once per refresh interval.
+    assertEquals(2, prober.probes);
+  }
+
+  public void testStateIsPolledAgainAfterRefreshInterval() throws Exception {
+    FakeProber prober = new FakeProber();
+    BuildServerRouter router = new BuildServerRouter(Arrays.asList("a", "b"), prober, DIRECT,
+        0);
+    String preferred = router.route("user").get(0);
+    router.markUnavailable(preferred);
+    assertEquals(preferred, router.route("user").get(0));
+  }
+
+  public void testRoutingDoesNotWaitForPolls() {
+    FakeProber prober = new FakeProber();
+    prober.statuses.put("a", BuildServerRouter.Status.DOWN);
+    prober.statuses.put("b", BuildServerRouter.Status.DOWN);
+    QueueingExecutor poller = new QueueingExecutor();
+    BuildServerRouter router = new BuildServerRouter(Arrays.asList("a", "b"), prober, poller,
+        60000);
+    // Servers that have not been polled yet are assumed to be available.
+    List<String> route = router.route("user");
+    assertEquals(2, route.size());
+    assertTrue(router.getStatus("a").isAvailable());
+    assertEquals(0, prober.probes);
+    // Each server is polled once, even though several routes asked for its state.
+    assertEquals(2, poller.polls.size());
+
+    poller.runAll();
+    assertEquals(2, prober.probes);
+    assertFalse(router.getStatus("a").isAvailable());
+    assertFalse(router.getStatus("b").isAvailable());
+    assertEquals(route, router.route("user"));
+  }
+
+  public void testUnpolledServerIsAvailableWhilePollRuns() throws Exception {
+    // A poll that is still running keeps other routes from polling, but not from routing.
+    final CountDownLatch polling = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    BuildServerRouter.Prober prober = new BuildServerRouter.Prober() {
+      @Override
+      public BuildServerRouter.Status probe(String host) throws IOException {
+        polling.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        return BuildServerRouter.Status.DOWN;
+      }
+    };
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try {
+      BuildServerRouter router = new BuildServerRouter(Arrays.asList("a"), prober, executor,
+          60000);
+      assertEquals(Arrays.asList("a"), router.route("user"));
+      assertTrue(polling.await(10, TimeUnit.SECONDS));
+      assertTrue(router.getStatus("a").isAvailable());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  public void testCancelBuild() throws Exception {
+    final List<String> cancelled = new ArrayList<String>();
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/buildserver/cancel-build", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        boolean known = exchange.getRequestMethod().equals("POST") && query.equals("id=a-1");
+        if (known) {
+          cancelled.add(query);
+        }
+        new Responder(known ? 200 : 404, known ? "ok" : "Unknown build").handle(exchange);
+      }
+    });
+    server.start();
+    servers.add(server);
+    String host = "localhost:" + server.getAddress().getPort();
+    assertTrue(BuildServerRouter.cancelBuild(host, "a-1"));
+    assertFalse(BuildServerRouter.cancelBuild(host, "b-2"));
+    assertEquals(Arrays.asList("id=a-1"), cancelled);
+  }
+
+  private String startServer(int healthStatus, final String vars) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/buildserver/health", new Responder(healthStatus, "ok"));
+    server.createContext("/buildserver/vars", new Responder(200, vars));
+    server.start();
+    servers.add(server);
+    return "localhost:" + server.getAddress().getPort();
+  }
+
+  private static String vars(int maxActive, int active, int maxQueued, int queued) {
+    return "<html><body><tt>"
+        + "<b>state</b> UP<br>"
+        + "<b>maximum-simultaneous-build-tasks-allowed</b> " + maxActive + "<br>"
+        + "<b>active-build-tasks</b> " + active + "<br>"
+        + "<b>maximum-queued-build-tasks-allowed</b> " + maxQueued + "<br>"
+        + "<b>queued-build-tasks</b> " + queued + "<br>"
+        + "</tt></body></html>";
+  }
+
+  private static class Responder implements HttpHandler {
+    private final int status;
+    private final byte[] body;
+
+    Responder(int status, String body) {
+      this.status = status;
+      this.body = body.getBytes(Charsets.UTF_8);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      exchange.sendResponseHeaders(status, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+    }
+  }
+
+  private static class QueueingExecutor implements Executor {
+    private final List<Runnable> polls = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(Runnable command) {
+      polls.add(command);
+    }
+
+    void runAll() {
+      for (Runnable poll : polls) {
+        poll.run();
+      }
+      polls.clear();
+    }
+  }
+
+  private static class FakeProber implements BuildServerRouter.Prober {
+    private final Map<String, BuildServerRouter.Status> statuses =
+        new HashMap<String, BuildServerRouter.Status>();
+    private int probes = 0;
+
+    @Override
+    public synchronized BuildServerRouter.Status probe(String host) {
+      probes++;
+      BuildServerRouter.Status status = statuses.get(host);
+      return status == null ? new BuildServerRouter.Status(true, 10) : status;
+    }
+  }
+}
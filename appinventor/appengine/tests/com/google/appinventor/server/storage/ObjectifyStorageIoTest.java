@@ -7,7 +7,9 @@
 package com.google.appinventor.server.storage;
 
 import com.google.appengine.api.blobstore.BlobKey;
+import com.google.apphosting.api.ApiProxy;
 import com.google.appinventor.server.LocalDatastoreTestCase;
+import com.google.appinventor.server.storage.StoredData.FileData;
 import com.google.appinventor.server.storage.StoredData.ProjectData;
 import com.google.appinventor.shared.rpc.BlocksTruncatedException;
 import com.google.appinventor.shared.rpc.component.Component;
@@ -21,8 +23,14 @@ import com.google.appinventor.shared.rpc.user.User;
 import com.google.appinventor.shared.storage.StorageUtil;
 
 import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Objectify;
+import com.googlecode.objectify.ObjectifyService;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -30,8 +38,14 @@ import java.io.UnsupportedEncodingException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.json.JSONObject;
 
@@ -474,6 +488,164 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
           USER_ID, projectId, BLOCK_FILE_NAME)));
  }
 
+  public void testDownloadFiles() throws BlocksTruncatedException {
+    final String USER_ID = "1320";
+    final String USER_EMAIL = "newuser1320@test.com";
+    final String USER_ID2 = "1330";
+    final String BLOCKS_FILE_NAME = "src/com/foo/bar/Screen1.bky";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(
+        USER_ID, PROJECT_NAME, YoungAndroidProjectNode.YOUNG_ANDROID_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.uploadFile(projectId, FORM_QUALIFIED_NAME, USER_ID, "form content",
+        StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, BLOCKS_FILE_NAME);
+    storage.uploadFile(projectId, BLOCKS_FILE_NAME, USER_ID, "blocks content",
+        StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, projectId, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(projectId, ASSET_FILE_NAME1, USER_ID, true,
+        "asset content".getBytes(Charsets.UTF_8));
+    assertTrue(storage.isGcsFile(projectId, ASSET_FILE_NAME1));
+
+    // The contents are in the order of the file names, wherever they are stored.
+    assertEquals(Arrays.asList("asset content", "form content", "blocks content"),
+        storage.downloadFiles(USER_ID, projectId,
+            Arrays.asList(ASSET_FILE_NAME1, FORM_QUALIFIED_NAME, BLOCKS_FILE_NAME),
+            StorageUtil.DEFAULT_CHARSET));
+    // Again, now that the files are in memcache.
+    assertEquals(Arrays.asList("blocks content", "form content"),
+        storage.downloadFiles(USER_ID, projectId,
+            Arrays.asList(BLOCKS_FILE_NAME, FORM_QUALIFIED_NAME), StorageUtil.DEFAULT_CHARSET));
+
+    try {
+      storage.downloadFiles(USER_ID, projectId,
+          Arrays.asList(FORM_QUALIFIED_NAME, "src/com/foo/bar/Missing.scm"),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof FileNotFoundException);
+    }
+    try {
+      storage.downloadFiles(USER_ID2, projectId, Arrays.asList(FORM_QUALIFIED_NAME),
+          StorageUtil.DEFAULT_CHARSET);
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof UnauthorizedAccessException);
+    }
+  }
+
+  public void testCopyProject() throws BlocksTruncatedException {
+    final String USER_ID = "1340";
+    final String USER_EMAIL = "newuser1340@test.com";
+    final String USER_ID2 = "1350";
+    final String PROPERTIES_FILE_NAME = "youngandroidproject/project.properties";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long oldProjectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.uploadFile(oldProjectId, FORM_QUALIFIED_NAME, USER_ID, "form content",
+        StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, oldProjectId, false, PROPERTIES_FILE_NAME);
+    storage.uploadFile(oldProjectId, PROPERTIES_FILE_NAME, USER_ID, "name=Project1",
+        StorageUtil.DEFAULT_CHARSET);
+    storage.addSourceFilesToProject(USER_ID, oldProjectId, false, ASSET_FILE_NAME1);
+    storage.uploadRawFile(oldProjectId, ASSET_FILE_NAME1, USER_ID, true, ASSET_FILE_CONTENT1);
+
+    Project newProject = new Project("Project2");
+    newProject.setProjectType(FAKE_PROJECT_TYPE);
+    newProject.addTextFile(new TextFile(PROPERTIES_FILE_NAME, "name=Project2"));
+    Map<String, String> copiedFiles = new HashMap<String, String>();
+    copiedFiles.put("com.yourdomain.Form2", FORM_QUALIFIED_NAME);
+    copiedFiles.put(ASSET_FILE_NAME1, ASSET_FILE_NAME1);
+    long newProjectId = storage.copyProject(USER_ID, oldProjectId, newProject, SETTINGS,
+        copiedFiles);
+
+    assertEquals("Project2", storage.getProjectName(USER_ID, newProjectId));
+    assertEquals(SETTINGS, storage.loadProjectSettings(USER_ID, newProjectId));
+    List<String> sourceFiles = storage.getProjectSourceFiles(USER_ID, newProjectId);
+    assertEquals(3, sourceFiles.size());
+    assertTrue(sourceFiles.containsAll(Arrays.asList(PROPERTIES_FILE_NAME,
+        "com.yourdomain.Form2", ASSET_FILE_NAME1)));
+    assertEquals("name=Project2", storage.downloadFile(USER_ID, newProjectId,
+        PROPERTIES_FILE_NAME, StorageUtil.DEFAULT_CHARSET));
+    assertEquals("form content", storage.downloadFile(USER_ID, newProjectId,
+        "com.yourdomain.Form2", StorageUtil.DEFAULT_CHARSET));
+    assertTrue(storage.isGcsFile(newProjectId, ASSET_FILE_NAME1));
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, newProjectId, ASSET_FILE_NAME1)));
+
+    // The copy is independent of the old project.
+    storage.deleteProject(USER_ID, oldProjectId);
+    assertTrue(Arrays.equals(ASSET_FILE_CONTENT1,
+        storage.downloadRawFile(USER_ID, newProjectId, ASSET_FILE_NAME1)));
+
+    long otherProjectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    try {
+      storage.copyProject(USER_ID2, otherProjectId, newProject, SETTINGS,
+          Collections.singletonMap(FORM_QUALIFIED_NAME, FORM_QUALIFIED_NAME));
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof UnauthorizedAccessException);
+    }
+  }
+
+  public void testCopyProjectWithBlobFile() throws BlocksTruncatedException {
+    final String USER_ID = "1360";
+    final String USER_EMAIL = "newuser1360@test.com";
+    BlobObjectifyStorageIo blobStorage = new BlobObjectifyStorageIo();
+    blobStorage.getUser(USER_ID, USER_EMAIL);
+    long oldProjectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME, blobStorage);
+    blobStorage.addSourceFilesToProject(USER_ID, oldProjectId, false, BLOCK_FILE_NAME);
+    blobStorage.uploadRawFile(oldProjectId, BLOCK_FILE_NAME, USER_ID, true, BLOCK_FILE_CONTENT);
+    // Move the content of the file to the blobstore, as older files were stored.
+    Objectify datastore = ObjectifyService.begin();
+    FileData fd = datastore.get(new Key<FileData>(
+        new Key<ProjectData>(ProjectData.class, oldProjectId), FileData.class, BLOCK_FILE_NAME));
+    fd.isBlob = true;
+    fd.blobKey = "blob1";
+    fd.content = null;
+    datastore.put(fd);
+    blobStorage.blobs.put("blob1", BLOCK_FILE_CONTENT);
+
+    Project newProject = new Project("Project2");
+    newProject.setProjectType(FAKE_PROJECT_TYPE);
+    long newProjectId = blobStorage.copyProject(USER_ID, oldProjectId, newProject, SETTINGS,
+        Collections.singletonMap(BLOCK_FILE_NAME, BLOCK_FILE_NAME));
+
+    assertFalse(blobStorage.blobReadInJob);
+    assertTrue(blobStorage.getProjectSourceFiles(USER_ID, newProjectId).contains(
+        BLOCK_FILE_NAME));
+    assertTrue(Arrays.equals(BLOCK_FILE_CONTENT,
+        blobStorage.downloadRawFile(USER_ID, newProjectId, BLOCK_FILE_NAME)));
+  }
+
+  public void testCopyProjectWithMissingGcsObject() throws BlocksTruncatedException {
+    final String USER_ID = "1370";
+    final String USER_EMAIL = "newuser1370@test.com";
+    storage.getUser(USER_ID, USER_EMAIL);
+    long oldProjectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE,
+        FORM_QUALIFIED_NAME);
+    storage.addSourceFilesToProject(USER_ID, oldProjectId, false, BLOCK_FILE_NAME);
+    // Older empty files were recorded as kept in GCS without an object there.
+    Objectify datastore = ObjectifyService.begin();
+    FileData fd = datastore.get(new Key<FileData>(
+        new Key<ProjectData>(ProjectData.class, oldProjectId), FileData.class, BLOCK_FILE_NAME));
+    fd.isGCS = true;
+    fd.gcsName = oldProjectId + "/" + BLOCK_FILE_NAME;
+    fd.content = null;
+    datastore.put(fd);
+
+    Project newProject = new Project("Project2");
+    newProject.setProjectType(FAKE_PROJECT_TYPE);
+    long newProjectId = storage.copyProject(USER_ID, oldProjectId, newProject, SETTINGS,
+        Collections.singletonMap(BLOCK_FILE_NAME, BLOCK_FILE_NAME));
+
+    assertTrue(storage.getProjectSourceFiles(USER_ID, newProjectId).contains(
+        BLOCK_FILE_NAME));
+    assertEquals(0, storage.downloadRawFile(USER_ID, newProjectId, BLOCK_FILE_NAME).length);
+  }
+
   public void testGetProject() {
     final String USER_ID = "1400";
     final String USER_EMAIL = "newuser1400@test.com";
@@ -576,6 +748,69 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     sourcesFiles = storage.getProjectSourceFiles(USER_ID, projectId);
     assertFalse(sourcesFiles.contains(YAIL_FILE_NAME2));
   }
+
+  public void testExportProjectZipReadsFilesInParallel() throws Exception {
+    final String USER_ID = "1950";
+    final String USER_EMAIL = "newuser1950@test.com";
+    final int ASSET_COUNT = 20;
+    ObjectifyStorageIo parallelStorage = new ObjectifyStorageIo() {
+      @Override
+      ThreadFactory getFetchThreadFactory() {
+        // Give the fetch threads the environment of the test, as the request
+        // thread factory does on App Engine.
+        final ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+        return new ThreadFactory() {
+          @Override
+          public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+              @Override
+              public void run() {
+                ApiProxy.setEnvironmentForCurrentThread(environment);
+                runnable.run();
+              }
+            });
+          }
+        };
+      }
+    };
+    ObjectifyStorageIo serialStorage = new ObjectifyStorageIo() {
+      @Override
+      ThreadFactory getFetchThreadFactory() {
+        return null;
+      }
+    };
+    parallelStorage.getUser(USER_ID, USER_EMAIL);
+    long projectId = createProject(USER_ID, PROJECT_NAME, FAKE_PROJECT_TYPE, FORM_QUALIFIED_NAME);
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      String assetName = "assets/asset" + i + ".png";
+      parallelStorage.addSourceFilesToProject(USER_ID, projectId, false, assetName);
+      parallelStorage.uploadRawFile(projectId, assetName, USER_ID, true,
+          ("content of " + assetName).getBytes(Charsets.UTF_8));
+    }
+
+    List<String> parallelEntries = readZip(parallelStorage.exportProjectSourceZip(USER_ID,
+        projectId, false, false, null, false, false, false, true, false, false));
+    List<String> serialEntries = readZip(serialStorage.exportProjectSourceZip(USER_ID,
+        projectId, false, false, null, false, false, false, true, false, false));
+    // The entries are written in the same order however the files are read.
+    assertEquals(serialEntries, parallelEntries);
+    for (int i = 0; i < ASSET_COUNT; i++) {
+      String assetName = "assets/asset" + i + ".png";
+      assertTrue(parallelEntries.contains(assetName + "=content of " + assetName));
+    }
+  }
+
+  // Returns the name and content of each entry of a zip, in order.
+  private static List<String> readZip(ProjectSourceZip zipFile) throws IOException {
+    List<String> entries = new ArrayList<String>();
+    ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(zipFile.getContent()));
+    ZipEntry entry;
+    while ((entry = zip.getNextEntry()) != null) {
+      entries.add(entry.getName() + "="
+          + new String(ByteStreams.toByteArray(zip), Charsets.UTF_8));
+    }
+    return entries;
+  }
   /*
    * Fail on the Nth call to runJobWithRetries, where N is the value of the
    * failingRun argument to the constructor. Also allows counting
@@ -613,6 +848,35 @@ public class ObjectifyStorageIoTest extends LocalDatastoreTestCase {
     }
   }
 
+  /*
+   * Reads blobs from memory, and records whether one is read inside a job.
+   */
+  private static class BlobObjectifyStorageIo extends ObjectifyStorageIo {
+    private final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+    private boolean inJob = false;
+    private boolean blobReadInJob = false;
+
+    @Override
+    void runJobWithRetries(JobRetryHelper job, boolean useTransaction) throws ObjectifyException {
+      inJob = true;
+      try {
+        super.runJobWithRetries(job, useTransaction);
+      } finally {
+        inJob = false;
+      }
+    }
+
+    @Override
+    byte[] getBlobstoreBytes(String blobKeyString) throws BlobReadException {
+      blobReadInJob |= inJob;
+      byte[] content = blobs.get(blobKeyString);
+      if (content == null) {
+        throw new BlobReadException("No blob " + blobKeyString);
+      }
+      return content;
+    }
+  }
+
   private long createProject(String userId, String name, String type, String fileName) {
     return createProject(userId, name, type, fileName, storage);
   }
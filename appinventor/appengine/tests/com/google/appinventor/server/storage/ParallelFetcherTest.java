@@ -0,0 +1,115 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.server.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ParallelFetcher}.
+ */
+public class ParallelFetcherTest extends TestCase {
+  private final AtomicInteger running = new AtomicInteger(0);
+  private final AtomicInteger maxRunning = new AtomicInteger(0);
+
+  public void testResultsAreInOrder() throws IOException {
+    ParallelFetcher fetcher = new ParallelFetcher(4, Executors.defaultThreadFactory());
+    List<Integer> results = new ArrayList<Integer>();
+    fetcher.run(fetches(50), collect(results));
+    assertEquals(range(50), results);
+    assertTrue(maxRunning.get() <= 4);
+  }
+
+  public void testSerialWithoutThreadFactory() throws IOException {
+    ParallelFetcher fetcher = new ParallelFetcher(4, null);
+    List<Integer> results = new ArrayList<Integer>();
+    fetcher.run(fetches(10), collect(results));
+    assertEquals(range(10), results);
+    assertEquals(1, maxRunning.get());
+  }
+
+  public void testSerialWhenThreadsCannotBeCreated() throws IOException {
+    ParallelFetcher fetcher = new ParallelFetcher(4, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        throw new IllegalStateException("Not in a request");
+      }
+    });
+    List<Integer> results = new ArrayList<Integer>();
+    fetcher.run(fetches(10), collect(results));
+    assertEquals(range(10), results);
+    assertEquals(1, maxRunning.get());
+  }
+
+  public void testFailedFetchIsThrown() {
+    ParallelFetcher fetcher = new ParallelFetcher(4, Executors.defaultThreadFactory());
+    List<Callable<Integer>> fetches = fetches(10);
+    fetches.set(6, new Callable<Integer>() {
+      @Override
+      public Integer call() throws IOException {
+        throw new IOException("Unable to read");
+      }
+    });
+    List<Integer> results = new ArrayList<Integer>();
+    try {
+      fetcher.run(fetches, collect(results));
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("Unable to read", e.getMessage());
+    }
+    // The results before the failed fetch have been taken.
+    assertEquals(range(6), results);
+  }
+
+  private List<Callable<Integer>> fetches(int count) {
+    List<Callable<Integer>> fetches = new ArrayList<Callable<Integer>>();
+    for (int i = 0; i < count; i++) {
+      final int value = i;
+      fetches.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws InterruptedException {
+          int now = running.incrementAndGet();
+          synchronized (maxRunning) {
+            maxRunning.set(Math.max(maxRunning.get(), now));
+          }
+          try {
+            // Finish out of order, later fetches first.
+            Thread.sleep((value % 4 == 0) ? 10 : 1);
+            return value;
+          } finally {
+            running.decrementAndGet();
+          }
+        }
+      });
+    }
+    return fetches;
+  }
+
+  private static ParallelFetcher.Sink<Integer> collect(final List<Integer> results) {
+    return new ParallelFetcher.Sink<Integer>() {
+      @Override
+      public void accept(Integer result) {
+        results.add(result);
+      }
+    };
+  }
+
+  private static List<Integer> range(int count) {
+    List<Integer> values = new ArrayList<Integer>();
+    for (int i = 0; i < count; i++) {
+      values.add(i);
+    }
+    return Collections.unmodifiableList(values);
+  }
+}
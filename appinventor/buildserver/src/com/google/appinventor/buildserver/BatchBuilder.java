@@ -0,0 +1,213 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Builds many projects in one JVM, so that the builds share its start-up, the parsed component
+ * information and the warm dex cache, instead of paying for them once per project.
+ *
+ * <p>The output of each project goes to its own subdirectory of the output directory, named
+ * after the project's zip file. A summary of the results and timings of the builds is returned
+ * as JSON.</p>
+ */
+final class BatchBuilder {
+  private static final Logger LOG = Logger.getLogger(BatchBuilder.class.getName());
+
+  private static final String ZIP_EXTENSION = ".zip";
+
+  /**
+   * Builds a single project of the batch.
+   */
+  interface ProjectBuild {
+    /**
+     * Builds a project.
+     *
+     * @param inputZip the zip file of the project
+     * @param outputDir the directory in which to put the output of the build
+     * @return the result of the build
+     * @throws IOException if the project cannot be read
+     */
+    Result build(File inputZip, File outputDir) throws IOException;
+  }
+
+  private BatchBuilder() {
+  }
+
+  /**
+   * Lists the projects of a batch.
+   *
+   * @param input a directory of project zip files, or a manifest listing one project zip file per
+   *     line. Blank lines and lines starting with # are ignored, and relative paths are resolved
+   *     against the directory of the manifest.
+   * @return the project zip files, in order
+   * @throws IOException if the input cannot be read
+   */
+  static List<File> findProjects(File input) throws IOException {
+    List<File> projects = new ArrayList<>();
+    if (input.isDirectory()) {
+      File[] files = input.listFiles();
+      if (files == null) {
+        throw new IOException("Unable to list " + input);
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.isFile() && file.getName().endsWith(ZIP_EXTENSION)) {
+          projects.add(file);
+        }
+      }
+      return projects;
+    }
+    for (String line : Files.readLines(input, Charsets.UTF_8)) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      File project = new File(line);
+      if (!project.isAbsolute()) {
+        project = new File(input.getAbsoluteFile().getParentFile(), line);
+      }
+      projects.add(project);
+    }
+    return projects;
+  }
+
+  /**
+   * Builds the projects of a batch.
+   *
+   * @param projects the project zip files
+   * @param outputDir the directory in which to put the outputs of the builds
+   * @param parallelism the maximum number of projects to build at once
+   * @param build builds a single project
+   * @return the summary of the batch
+   * @throws InterruptedException if the thread is interrupted while waiting for the builds
+   * @throws JSONException if the summary cannot be created
+   */
+  static JSONObject run(List<File> projects, File outputDir, int parallelism,
+      final ProjectBuild build) throws InterruptedException, JSONException {
+    parallelism = Math.max(1, Math.min(parallelism, projects.size()));
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism,
+        new ThreadFactoryBuilder().setNameFormat("batch-build-%d").build());
+    long start = System.currentTimeMillis();
+    List<Future<JSONObject>> builds = new ArrayList<>();
+    try {
+      Set<String> names = new HashSet<>();
+      for (final File project : projects) {
+        final File projectOutputDir = new File(outputDir, uniqueName(project, names));
+        builds.add(executor.submit(new Callable<JSONObject>() {
+          @Override
+          public JSONObject call() throws JSONException {
+            return buildProject(project, projectOutputDir, build);
+          }
+        }));
+      }
+
+      JSONArray results = new JSONArray();
+      int succeeded = 0;
+      for (Future<JSONObject> future : builds) {
+        JSONObject result;
+        try {
+          result = future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof JSONException) {
+            throw (JSONException) e.getCause();
+          }
+          throw new IllegalStateException(e.getCause());
+        }
+        if (result.getBoolean("success")) {
+          succeeded++;
+        }
+        results.put(result);
+      }
+
+      JSONObject summary = new JSONObject();
+      summary.put("projects", projects.size());
+      summary.put("succeeded", succeeded);
+      summary.put("failed", projects.size() - succeeded);
+      summary.put("parallelism", parallelism);
+      summary.put("millis", System.currentTimeMillis() - start);
+      summary.put("results", results);
+      return summary;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static JSONObject buildProject(File project, File outputDir, ProjectBuild build)
+      throws JSONException {
+    LOG.info("Building " + project);
+    long start = System.currentTimeMillis();
+    Result result;
+    if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+      result = Result.createFailingResult("", "Unable to create " + outputDir);
+    } else {
+      try {
+        result = build.build(project, outputDir);
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.SEVERE, "Unable to build " + project, e);
+        result = Result.createFailingResult("", e.toString());
+      }
+    }
+    long millis = System.currentTimeMillis() - start;
+    LOG.info("Built " + project + " in " + millis + " ms: "
+        + (result.succeeded() ? "success" : "failure"));
+
+    JSONObject json = new JSONObject();
+    json.put("project", project.getPath());
+    json.put("outputDir", outputDir.getPath());
+    json.put("success", result.succeeded());
+    json.put("result", result.getResult());
+    json.put("millis", millis);
+    JSONArray outputs = new JSONArray();
+    String[] files = outputDir.list();
+    if (files != null) {
+      Arrays.sort(files);
+      for (String file : files) {
+        outputs.put(file);
+      }
+    }
+    json.put("outputs", outputs);
+    if (!result.succeeded()) {
+      json.put("error", result.getError());
+    }
+    return json;
+  }
+
+  // Names the output directory of a project after its zip file, numbering duplicates.
+  private static String uniqueName(File project, Set<String> names) {
+    String name = project.getName();
+    if (name.endsWith(ZIP_EXTENSION)) {
+      name = name.substring(0, name.length() - ZIP_EXTENSION.length());
+    }
+    String unique = name;
+    for (int i = 2; !names.add(unique); i++) {
+      unique = name + "-" + i;
+    }
+    return unique;
+  }
+}
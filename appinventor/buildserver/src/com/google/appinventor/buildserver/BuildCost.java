@@ -0,0 +1,161 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.ASSETS_FOLDER;
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.FORM_PROPERTIES_EXTENSION;
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
+
+import com.google.appinventor.buildserver.util.ToolScheduler;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An estimate of the resources that a build needs, made from the size of the project before it
+ * is built. It is used to decide when a build may start; the child processes of every build are
+ * still given the heap set by {@code --childProcessRamMb}.
+ *
+ * <p>The Kawa, d8 and dx jobs of a build are admitted separately by the {@link
+ * com.google.appinventor.buildserver.util.ToolScheduler}, against {@code --toolMemoryMb}, so their
+ * heap is not part of this estimate. What remains is the memory of the build itself, which reads
+ * the sources of the project, and of the packaging tools (aapt2, apksigner, bundletool), which
+ * grows with the assets, extensions and AARs that are merged and packaged. The tasks of a build
+ * run in parallel where they do not depend on each other, so builds with extensions or many
+ * screens are counted as two CPUs.</p>
+ */
+final class BuildCost {
+  /**
+   * The cost of a build whose size is unknown. It fits into any budget.
+   */
+  static final BuildCost NONE = new BuildCost(0, 0);
+
+  // Memory of the packaging tools of the smallest build, in MB.
+  private static final int MIN_TOOL_MEMORY_MB = 512;
+  private static final int MEMORY_PER_SCREEN_MB = 4;
+  private static final int MEMORY_PER_EXTENSION_MB = 32;
+  private static final int MEMORY_PER_AAR_MB = 64;
+  // Bytes of sources (.scm, .bky, .yail) per MB of memory.
+  private static final long SOURCE_BYTES_PER_MB = 64 * 1024;
+  // Bytes of assets per MB of memory.
+  private static final long ASSET_BYTES_PER_MB = 2 * 1024 * 1024;
+  // Memory of a child JVM and the native tools beyond the heap, in MB.
+  private static final int OVERHEAD_MB = 256;
+  // Projects with more screens than this are counted as two CPUs.
+  private static final int LARGE_PROJECT_SCREENS = 10;
+  // Memory left to the operating system and to other processes, in MB.
+  private static final int HOST_RESERVE_MB = 512;
+
+  /**
+   * The cost of the smallest build.
+   */
+  static final BuildCost SMALLEST = estimate(0, 0, 0, 0, 0, Integer.MAX_VALUE);
+
+  private static final String SOURCE_PREFIX = SRC_FOLDER + "/";
+  private static final String ASSETS_PREFIX = ASSETS_FOLDER + "/";
+  private static final String EXTENSIONS_PREFIX =
+      ASSETS_PREFIX + YoungAndroidConstants.EXT_COMPS_DIR_NAME + "/";
+
+  private final int memoryMb;
+  private final int cpus;
+
+  @VisibleForTesting
+  BuildCost(int memoryMb, int cpus) {
+    this.memoryMb = memoryMb;
+    this.cpus = cpus;
+  }
+
+  /**
+   * Estimates the cost of building an extracted project.
+   *
+   * @param upload the project
+   * @param maxHeapMb the largest heap that a child process may have, in MB
+   */
+  static BuildCost estimate(ProjectUpload upload, int maxHeapMb) {
+    int screens = 0;
+    long sourceBytes = 0;
+    long assetBytes = 0;
+    Set<String> extensions = new HashSet<>();
+    int aars = 0;
+    for (String name : upload.getDigests().keySet()) {
+      if (name.startsWith(SOURCE_PREFIX)) {
+        if (name.endsWith(FORM_PROPERTIES_EXTENSION)) {
+          screens++;
+        }
+        sourceBytes += new File(upload.getProjectRoot(), name).length();
+      } else if (name.startsWith(EXTENSIONS_PREFIX)) {
+        String path = name.substring(EXTENSIONS_PREFIX.length());
+        int slash = path.indexOf('/');
+        if (slash > 0) {
+          extensions.add(path.substring(0, slash));
+        }
+        if (name.endsWith(".aar")) {
+          aars++;
+        }
+      } else if (name.startsWith(ASSETS_PREFIX)) {
+        assetBytes += new File(upload.getProjectRoot(), name).length();
+      }
+    }
+    return estimate(screens, sourceBytes, assetBytes, extensions.size(), aars, maxHeapMb);
+  }
+
+  /**
+   * Estimates the cost of building a project of the given size.
+   */
+  @VisibleForTesting
+  static BuildCost estimate(int screens, long sourceBytes, long assetBytes, int extensions,
+      int aars, int maxHeapMb) {
+    long toolMemory = MIN_TOOL_MEMORY_MB
+        + (long) screens * MEMORY_PER_SCREEN_MB
+        + sourceBytes / SOURCE_BYTES_PER_MB
+        + (long) extensions * MEMORY_PER_EXTENSION_MB
+        + (long) aars * MEMORY_PER_AAR_MB
+        + assetBytes / ASSET_BYTES_PER_MB;
+    // A packaging tool cannot use more than its heap.
+    int memoryMb = (int) Math.min(toolMemory, maxHeapMb) + OVERHEAD_MB;
+    int cpus = screens > LARGE_PROJECT_SCREENS || extensions + aars > 0 ? 2 : 1;
+    return new BuildCost(memoryMb, cpus);
+  }
+
+  /**
+   * Returns the memory that builds may use together, in MB: the physical memory of the machine,
+   * less the heap of the build server itself and a reserve for the operating system.
+   *
+   * @return the budget, or 0 if the physical memory cannot be determined
+   */
+  static int measureHostMemoryMb() {
+    long bytes = ToolScheduler.getPhysicalMemoryBytes();
+    if (bytes <= 0) {
+      return 0;
+    }
+    long ownHeap = Runtime.getRuntime().maxMemory();
+    long mb = (bytes - (ownHeap == Long.MAX_VALUE ? 0 : ownHeap)) / (1024 * 1024)
+        - HOST_RESERVE_MB;
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, mb));
+  }
+
+  /**
+   * Returns the memory that the build uses on the host outside its Kawa, d8 and dx jobs, in MB.
+   */
+  int getMemoryMb() {
+    return memoryMb;
+  }
+
+  /**
+   * Returns the number of CPUs that the build keeps busy.
+   */
+  int getCpus() {
+    return cpus;
+  }
+
+  @Override
+  public String toString() {
+    return "BuildCost{memoryMb=" + memoryMb + ", cpus=" + cpus + "}";
+  }
+}
@@ -0,0 +1,94 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * A handle to a compiler running on its own thread.
+ *
+ * <p>Cancelling the build interrupts the compiler thread. The compiler stops between tasks, the
+ * running tasks stop waiting for their tools, and {@link
+ * com.google.appinventor.buildserver.util.Execution} kills the tool processes they started.
+ * {@link #close} cancels the build if it is still running and waits for the compiler thread to
+ * finish, so that the build's files can be deleted safely afterwards.</p>
+ */
+final class BuildHandle implements AutoCloseable {
+  private static final Logger LOG = Logger.getLogger(BuildHandle.class.getName());
+
+  private final ExecutorService executor;
+  private final Future<Boolean> future;
+
+  private BuildHandle(Compiler<?, ?> compiler) {
+    executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("compiler-%d").build());
+    future = executor.submit(compiler);
+  }
+
+  /**
+   * Starts running a compiler.
+   *
+   * @param compiler the compiler to run
+   * @return the handle of the build
+   */
+  static BuildHandle start(Compiler<?, ?> compiler) {
+    return new BuildHandle(compiler);
+  }
+
+  /**
+   * Waits for the build to finish.
+   *
+   * @param timeoutSeconds the maximum time to wait, in seconds. 0 means no limit.
+   * @return true if the build succeeded
+   * @throws InterruptedException if the waiting thread is interrupted
+   * @throws ExecutionException if the compiler threw an exception
+   * @throws TimeoutException if the build did not finish in time
+   */
+  boolean await(int timeoutSeconds)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    if (timeoutSeconds <= 0) {
+      return future.get();
+    }
+    return future.get(timeoutSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Interrupts the build if it is still running.
+   */
+  void cancel() {
+    future.cancel(true);
+  }
+
+  /**
+   * Cancels the build if it is still running, and waits for the compiler thread to stop.
+   */
+  @Override
+  public void close() {
+    cancel();
+    executor.shutdownNow();
+    boolean interrupted = Thread.interrupted();
+    try {
+      // The compiler itself waits up to CANCEL_TIMEOUT_SECONDS for its tasks to stop.
+      if (!executor.awaitTermination(Compiler.CANCEL_TIMEOUT_SECONDS * 2, TimeUnit.SECONDS)) {
+        LOG.warning("The compiler of a cancelled build is still running");
+      }
+    } catch (InterruptedException e) {
+      interrupted = true;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
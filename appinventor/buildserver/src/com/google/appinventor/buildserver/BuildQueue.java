@@ -0,0 +1,473 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.buildserver.stats.StatReporter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A bounded queue of builds in front of a reusable pool of build threads.
+ *
+ * <p>At most {@code maxActiveTasks} builds run at once. Further builds wait in the queue, up to
+ * {@code maxQueuedTasks} of them, and are started by lane priority and then in arrival order. A
+ * build that has waited for longer than {@link #AGING_MILLIS} moves up one lane for every such
+ * period, so that lower lanes are not starved. Each user may have at most
+ * {@code maxTasksPerUser} builds queued or running. Builds that exceed these limits are rejected
+ * with a {@link RejectedExecutionException}.</p>
+ *
+ * <p>Builds are also admitted against a memory and CPU budget for the host, using the
+ * {@link BuildCost} estimated for each build. A build that does not fit waits in the queue until
+ * enough running builds have finished, and builds behind it wait too, so that large builds are
+ * not starved by small ones. A build is always started when no other build is running, even if
+ * it does not fit.</p>
+ *
+ * <p>With a queue depth of 0 no build waits: a build that cannot start at once is rejected.</p>
+ */
+final class BuildQueue {
+  private static final Logger LOG = Logger.getLogger(BuildQueue.class.getName());
+
+  // Waiting this long moves a build up by one lane.
+  static final long AGING_MILLIS = 60 * 1000;
+
+  // Weight of the most recent build when averaging build durations.
+  private static final double DURATION_SMOOTHING = 0.2;
+
+  /**
+   * Priority lanes, from highest to lowest priority.
+   */
+  enum Lane {
+    COMPANION,
+    APK,
+    AAB;
+
+    /**
+     * Returns the lane for a build request.
+     *
+     * @param lane the requested lane, or null
+     * @param ext the extension of the build output
+     * @return the lane of the build
+     */
+    static Lane of(String lane, String ext) {
+      if (lane != null) {
+        for (Lane value : values()) {
+          if (value.name().equalsIgnoreCase(lane)) {
+            return value;
+          }
+        }
+      }
+      return BuildType.AAB_EXTENSION.equals(ext) ? AAB : APK;
+    }
+  }
+
+  /**
+   * The state of a submitted build.
+   */
+  static final class Ticket {
+    private final String id;
+    private final String user;
+    private final Lane lane;
+    private final long sequence;
+    private final long queuedAt = System.currentTimeMillis();
+    private final BuildCost cost;
+    private final Runnable runnable;
+    private volatile long startedAt = 0;
+    // The thread running the build, and whether the build was cancelled before that thread
+    // picked it up. Guarded by the queue's lock.
+    private Thread thread = null;
+    private boolean cancelled = false;
+
+    private Ticket(String id, String user, Lane lane, long sequence, BuildCost cost,
+        Runnable runnable) {
+      this.id = id;
+      this.user = user;
+      this.lane = lane;
+      this.sequence = sequence;
+      this.cost = cost;
+      this.runnable = runnable;
+    }
+
+    String getId() {
+      return id;
+    }
+
+    Lane getLane() {
+      return lane;
+    }
+
+    boolean isRunning() {
+      return startedAt != 0;
+    }
+
+    private int effectivePriority(long now) {
+      return lane.ordinal() - (int) ((now - queuedAt) / AGING_MILLIS);
+    }
+  }
+
+  /**
+   * A snapshot of the position of a build in the queue.
+   */
+  static final class Position {
+    private final boolean running;
+    private final int position;
+    private final long etaMillis;
+
+    private Position(boolean running, int position, long etaMillis) {
+      this.running = running;
+      this.position = position;
+      this.etaMillis = etaMillis;
+    }
+
+    /**
+     * Returns true if the build has started.
+     */
+    boolean isRunning() {
+      return running;
+    }
+
+    /**
+     * Returns the 1-based position of the build in the queue, or 0 if it is running.
+     */
+    int getPosition() {
+      return position;
+    }
+
+    /**
+     * Returns the estimated time until the build starts, in milliseconds.
+     */
+    long getEtaMillis() {
+      return etaMillis;
+    }
+  }
+
+  // The maximum number of active tasks. 0 means unlimited.
+  private final int maxActiveTasks;
+  // The maximum number of queued tasks.
+  private final int maxQueuedTasks;
+  // The maximum number of queued or active tasks per user. 0 means unlimited.
+  private final int maxTasksPerUser;
+  // The memory, in MB, and the CPUs that active tasks may use together. 0 means unlimited.
+  private final int memoryBudgetMb;
+  private final int cpuBudget;
+  private final StatReporter statReporter;
+
+  private final ExecutorService threads;
+  private final List<Ticket> queue = new ArrayList<>();
+  private final Map<String, Ticket> tickets = new HashMap<>();
+  private final Map<String, Integer> tasksPerUser = new HashMap<>();
+  private int activeTaskCount = 0;
+  private int memoryInUseMb = 0;
+  private int cpusInUse = 0;
+  private long sequence = 0;
+  private double averageDurationMillis = 0;
+
+  private final AtomicInteger completedTaskCount = new AtomicInteger(0);
+  private final AtomicInteger rejectedTaskCount = new AtomicInteger(0);
+  private final AtomicInteger cancelledTaskCount = new AtomicInteger(0);
+  private final AtomicLong totalWaitMillis = new AtomicLong(0);
+
+  /**
+   * Creates a BuildQueue.
+   *
+   * @param maxActiveTasks the maximum number of active tasks. 0 means unlimited.
+   * @param maxQueuedTasks the maximum number of tasks waiting to run
+   * @param maxTasksPerUser the maximum number of queued or active tasks per user. 0 means
+   *     unlimited.
+   * @param statReporter the reporter that receives queue statistics
+   */
+  BuildQueue(int maxActiveTasks, int maxQueuedTasks, int maxTasksPerUser,
+      StatReporter statReporter) {
+    this(maxActiveTasks, maxQueuedTasks, maxTasksPerUser, 0, 0, statReporter);
+  }
+
+  /**
+   * Creates a BuildQueue that admits builds against a budget.
+   *
+   * @param maxActiveTasks the maximum number of active tasks. 0 means unlimited.
+   * @param maxQueuedTasks the maximum number of tasks waiting to run
+   * @param maxTasksPerUser the maximum number of queued or active tasks per user. 0 means
+   *     unlimited.
+   * @param memoryBudgetMb the memory, in MB, that active tasks may use together. 0 means
+   *     unlimited.
+   * @param cpuBudget the number of CPUs that active tasks may use together. 0 means unlimited.
+   * @param statReporter the reporter that receives queue statistics
+   */
+  BuildQueue(int maxActiveTasks, int maxQueuedTasks, int maxTasksPerUser, int memoryBudgetMb,
+      int cpuBudget, StatReporter statReporter) {
+    this.maxActiveTasks = Math.max(0, maxActiveTasks);
+    this.maxQueuedTasks = Math.max(0, maxQueuedTasks);
+    this.maxTasksPerUser = Math.max(0, maxTasksPerUser);
+    this.memoryBudgetMb = Math.max(0, memoryBudgetMb);
+    this.cpuBudget = Math.max(0, cpuBudget);
+    this.statReporter = statReporter;
+    this.threads = Executors.newCachedThreadPool(new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger(0);
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "build-" + count.incrementAndGet());
+      }
+    });
+  }
+
+  /**
+   * Submits a build.
+   *
+   * @param user the user requesting the build
+   * @param lane the priority lane of the build
+   * @param runnable the build
+   * @return the ticket of the build
+   * @throws RejectedExecutionException if the queue is full or the user has too many builds
+   */
+  Ticket submit(String user, Lane lane, Runnable runnable) {
+    return submit(user, lane, BuildCost.NONE, runnable);
+  }
+
+  /**
+   * Submits a build whose cost has been estimated.
+   *
+   * @param user the user requesting the build
+   * @param lane the priority lane of the build
+   * @param cost the estimated cost of the build
+   * @param runnable the build
+   * @return the ticket of the build
+   * @throws RejectedExecutionException if the queue is full or the user has too many builds
+   */
+  synchronized Ticket submit(String user, Lane lane, BuildCost cost, Runnable runnable) {
+    String key = user == null ? "" : user;
+    int userTasks = tasksPerUser.containsKey(key) ? tasksPerUser.get(key) : 0;
+    if (maxTasksPerUser > 0 && userTasks >= maxTasksPerUser) {
+      rejectedTaskCount.incrementAndGet();
+      LOG.info("Rejecting build for " + key + ": " + userTasks + " builds in progress");
+      throw new RejectedExecutionException("Too many builds for user");
+    }
+    boolean canStart = queue.isEmpty() && canStart(cost);
+    if (!canStart && queue.size() >= maxQueuedTasks) {
+      rejectedTaskCount.incrementAndGet();
+      throw new RejectedExecutionException("Build queue is full");
+    }
+    sequence++;
+    Ticket ticket = new Ticket(Long.toString(sequence, 36) + "-"
+        + Long.toHexString(System.nanoTime()), key, lane, sequence, cost, runnable);
+    tickets.put(ticket.id, ticket);
+    tasksPerUser.put(key, userTasks + 1);
+    queue.add(ticket);
+    statReporter.queueBuild(queue.size());
+    dispatch();
+    return ticket;
+  }
+
+  /**
+   * Returns the position of a build, or null if the build is unknown or has finished.
+   *
+   * @param id the id of the build's ticket
+   */
+  synchronized Position getPosition(String id) {
+    Ticket ticket = tickets.get(id);
+    if (ticket == null) {
+      return null;
+    }
+    if (ticket.isRunning()) {
+      return new Position(true, 0, 0);
+    }
+    List<Ticket> ordered = orderedQueue();
+    int position = ordered.indexOf(ticket) + 1;
+    // Builds ahead of this one start in waves of maxActiveTasks.
+    int slots = maxActiveTasks == 0 ? 1 : maxActiveTasks;
+    long eta = (long) (((position - 1) / slots + 1) * averageDurationMillis);
+    return new Position(false, position, eta);
+  }
+
+  /**
+   * Cancels a build. A queued build is removed from the queue, and the thread of a running build
+   * is interrupted, which stops the build and the tools it started.
+   *
+   * @param id the id of the build's ticket
+   * @return true if the build was cancelled, or false if it is unknown or has finished
+   */
+  synchronized boolean cancel(String id) {
+    Ticket ticket = tickets.get(id);
+    if (ticket == null) {
+      return false;
+    }
+    if (!ticket.isRunning()) {
+      queue.remove(ticket);
+      tickets.remove(id);
+      releaseUserTask(ticket.user);
+    } else if (ticket.thread != null) {
+      ticket.thread.interrupt();
+    } else {
+      // The build has been dispatched, but its thread has not picked it up yet. Finished builds
+      // have no ticket.
+      ticket.cancelled = true;
+    }
+    cancelledTaskCount.incrementAndGet();
+    LOG.info("Cancelled build " + id);
+    return true;
+  }
+
+  int getMaxActiveTasks() {
+    return maxActiveTasks;
+  }
+
+  int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  synchronized int getActiveTaskCount() {
+    return activeTaskCount;
+  }
+
+  synchronized int getQueuedTaskCount() {
+    return queue.size();
+  }
+
+  int getMemoryBudgetMb() {
+    return memoryBudgetMb;
+  }
+
+  synchronized int getMemoryInUseMb() {
+    return memoryInUseMb;
+  }
+
+  int getCpuBudget() {
+    return cpuBudget;
+  }
+
+  synchronized int getCpusInUse() {
+    return cpusInUse;
+  }
+
+  /**
+   * Returns true if a build of the smallest cost could not start now, because the active builds
+   * have used up the budget.
+   */
+  synchronized boolean isSaturated() {
+    return activeTaskCount > 0 && !canStart(BuildCost.SMALLEST);
+  }
+
+  int getCompletedTaskCount() {
+    return completedTaskCount.get();
+  }
+
+  int getRejectedTaskCount() {
+    return rejectedTaskCount.get();
+  }
+
+  int getCancelledTaskCount() {
+    return cancelledTaskCount.get();
+  }
+
+  synchronized long getAverageDurationMillis() {
+    return (long) averageDurationMillis;
+  }
+
+  /**
+   * Returns the average time that started builds spent in the queue, in milliseconds.
+   */
+  synchronized long getAverageWaitMillis() {
+    long started = completedTaskCount.get() + activeTaskCount;
+    return started == 0 ? 0 : totalWaitMillis.get() / started;
+  }
+
+  private List<Ticket> orderedQueue() {
+    final long now = System.currentTimeMillis();
+    List<Ticket> ordered = new ArrayList<>(queue);
+    Collections.sort(ordered, new Comparator<Ticket>() {
+      @Override
+      public int compare(Ticket a, Ticket b) {
+        int result = Integer.compare(a.effectivePriority(now), b.effectivePriority(now));
+        return result != 0 ? result : Long.compare(a.sequence, b.sequence);
+      }
+    });
+    return ordered;
+  }
+
+  // Must be called while holding the lock.
+  private boolean canStart(BuildCost cost) {
+    if (maxActiveTasks != 0 && activeTaskCount >= maxActiveTasks) {
+      return false;
+    }
+    if (activeTaskCount == 0) {
+      return true;
+    }
+    return (memoryBudgetMb == 0 || memoryInUseMb + cost.getMemoryMb() <= memoryBudgetMb)
+        && (cpuBudget == 0 || cpusInUse + cost.getCpus() <= cpuBudget);
+  }
+
+  // Must be called while holding the lock.
+  private void dispatch() {
+    while (!queue.isEmpty()) {
+      final Ticket ticket = orderedQueue().get(0);
+      if (!canStart(ticket.cost)) {
+        break;
+      }
+      queue.remove(ticket);
+      activeTaskCount++;
+      memoryInUseMb += ticket.cost.getMemoryMb();
+      cpusInUse += ticket.cost.getCpus();
+      ticket.startedAt = System.currentTimeMillis();
+      long waited = ticket.startedAt - ticket.queuedAt;
+      totalWaitMillis.addAndGet(waited);
+      statReporter.dequeueBuild(waited, queue.size());
+      threads.execute(new Runnable() {
+        @Override
+        public void run() {
+          started(ticket);
+          try {
+            ticket.runnable.run();
+          } finally {
+            finished(ticket);
+          }
+        }
+      });
+    }
+  }
+
+  private synchronized void started(Ticket ticket) {
+    ticket.thread = Thread.currentThread();
+    if (ticket.cancelled) {
+      ticket.thread.interrupt();
+    }
+  }
+
+  private synchronized void finished(Ticket ticket) {
+    ticket.thread = null;
+    // Don't carry a cancellation that arrived late over to the next build on this thread.
+    Thread.interrupted();
+    activeTaskCount--;
+    memoryInUseMb -= ticket.cost.getMemoryMb();
+    cpusInUse -= ticket.cost.getCpus();
+    completedTaskCount.incrementAndGet();
+    tickets.remove(ticket.id);
+    releaseUserTask(ticket.user);
+    long duration = System.currentTimeMillis() - ticket.startedAt;
+    averageDurationMillis = averageDurationMillis == 0 ? duration
+        : DURATION_SMOOTHING * duration + (1 - DURATION_SMOOTHING) * averageDurationMillis;
+    dispatch();
+  }
+
+  // Must be called while holding the lock.
+  private void releaseUserTask(String user) {
+    int userTasks = tasksPerUser.get(user) - 1;
+    if (userTasks == 0) {
+      tasksPerUser.remove(user);
+    } else {
+      tasksPerUser.put(user, userTasks);
+    }
+  }
+}
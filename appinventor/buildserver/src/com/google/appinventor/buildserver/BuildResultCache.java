@@ -0,0 +1,317 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.common.version.GitBuildId;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * A disk cache of successful build outputs, keyed by the content of the submitted project.
+ *
+ * <p>The key is a SHA-256 hash of every entry of the project zip, in name order, together with
+ * the build flags and the version of the build server, so that a change to any source, asset,
+ * flag, extension or to the components themselves produces a different key. Projects without a
+ * keystore are not cached: their builds are signed with a newly generated keystore that has to
+ * be returned to the caller, so no two of them have the same output.</p>
+ *
+ * <p>Each entry is a directory holding the build output and its messages. When the cache grows
+ * beyond its size limit, the least recently used entries are deleted.</p>
+ */
+final class BuildResultCache {
+  private static final Logger LOG = Logger.getLogger(BuildResultCache.class.getName());
+
+  // Bump this when the layout of an entry or the composition of the key changes.
+  private static final String FORMAT_VERSION = "1";
+
+  private static final String RESULT_FILE_NAME = "build.out";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final BuildResultCache INSTANCE = new BuildResultCache();
+
+  // Size in bytes of each entry, from least to most recently used.
+  private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private File cacheDir = null;
+  private long maxSizeBytes = 0;
+  private long sizeBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong uncacheable = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  /**
+   * A build output found in the cache.
+   */
+  static final class Hit {
+    private final File output;
+    private final Result result;
+
+    private Hit(File output, Result result) {
+      this.output = output;
+      this.result = result;
+    }
+
+    /**
+     * Returns the copy of the cached output in the requested output directory.
+     */
+    File getOutput() {
+      return output;
+    }
+
+    Result getResult() {
+      return result;
+    }
+  }
+
+  @VisibleForTesting
+  BuildResultCache() {
+  }
+
+  static BuildResultCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Configures the cache and indexes the entries already on disk.
+   *
+   * @param cacheDir the directory of the cache, or null to disable caching
+   * @param maxSizeMb the maximum total size of the cached outputs, in MB
+   * @throws IOException if the directory cannot be created
+   */
+  synchronized void configure(File cacheDir, long maxSizeMb) throws IOException {
+    entries.clear();
+    sizeBytes = 0;
+    this.cacheDir = cacheDir;
+    this.maxSizeBytes = Math.max(0, maxSizeMb) * 1024 * 1024;
+    if (cacheDir == null) {
+      return;
+    }
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new IOException("Unable to create build cache dir " + cacheDir);
+    }
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      files = new File[0];
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    for (File file : files) {
+      if (file.getName().endsWith(TEMP_SUFFIX)) {
+        // Left behind by a server that stopped while storing an entry.
+        FileUtils.deleteQuietly(file);
+      } else if (new File(file, RESULT_FILE_NAME).isFile()) {
+        long size = FileUtils.sizeOfDirectory(file);
+        entries.put(file.getName(), size);
+        sizeBytes += size;
+      }
+    }
+    evict();
+    LOG.info("Build cache: " + entries.size() + " entries, " + sizeBytes + " bytes in "
+        + cacheDir);
+  }
+
+  synchronized boolean isEnabled() {
+    return cacheDir != null && maxSizeBytes > 0;
+  }
+
+  /**
+   * Computes the cache key of a build from the digests of the files of the project, as taken by
+   * {@link ProjectUpload}.
+   *
+   * @param digests the SHA-256 digest of the content of each file, by name
+   * @return the key, or null if the build cannot be cached
+   */
+  String computeKey(SortedMap<String, byte[]> digests, String ext, boolean isForCompanion,
+      boolean isForEmulator, boolean includeDangerousPermissions, String[] extraExtensions,
+      String outputFileName) {
+    if (!digests.containsKey(YoungAndroidConstants.PROJECT_KEYSTORE_LOCATION)) {
+      uncacheable.incrementAndGet();
+      return null;
+    }
+
+    MessageDigest key = newDigest();
+    StringBuilder flags = new StringBuilder();
+    flags.append("format=").append(FORMAT_VERSION)
+        .append("\nversion=").append(GitBuildId.getVersion())
+        .append("\nfingerprint=").append(GitBuildId.getFingerprint())
+        .append("\next=").append(ext)
+        .append("\ncompanion=").append(isForCompanion)
+        .append("\nemulator=").append(isForEmulator)
+        .append("\ndangerous=").append(includeDangerousPermissions)
+        .append("\noutput=").append(outputFileName);
+    if (extraExtensions != null) {
+      String[] sorted = extraExtensions.clone();
+      Arrays.sort(sorted);
+      flags.append("\nextensions=").append(Arrays.toString(sorted));
+    }
+    update(key, flags.toString());
+    for (Map.Entry<String, byte[]> entry : digests.entrySet()) {
+      update(key, entry.getKey());
+      key.update(entry.getValue());
+    }
+    return toHex(key.digest());
+  }
+
+  /**
+   * Looks up a build and, if found, copies its output into {@code outputDir}.
+   *
+   * @param key the key returned by {@link #computeKey}
+   * @param outputDir the directory to copy the output to
+   * @return the cached build, or null if there is none
+   */
+  Hit get(String key, File outputDir) {
+    File entryDir;
+    synchronized (this) {
+      if (!isEnabled() || entries.get(key) == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      entryDir = new File(cacheDir, key);
+      entryDir.setLastModified(System.currentTimeMillis());
+    }
+    try {
+      JSONObject json = new JSONObject(
+          Files.toString(new File(entryDir, RESULT_FILE_NAME), StandardCharsets.UTF_8));
+      File output = new File(outputDir, json.getString("file"));
+      Files.copy(new File(entryDir, output.getName()), output);
+      hits.incrementAndGet();
+      return new Hit(output, new Result(Result.SUCCESS, json.optString("output"),
+          json.optString("error")));
+    } catch (IOException | JSONException e) {
+      // The entry was evicted while we read it, or is damaged. Build the project instead.
+      LOG.log(Level.WARNING, "Unable to read build cache entry " + key, e);
+      misses.incrementAndGet();
+      return null;
+    }
+  }
+
+  /**
+   * Stores the output of a successful build.
+   *
+   * @param key the key returned by {@link #computeKey}
+   * @param output the build output
+   * @param result the result of the build
+   */
+  void put(String key, File output, Result result) {
+    File tempDir;
+    synchronized (this) {
+      if (!isEnabled() || entries.containsKey(key)) {
+        return;
+      }
+      tempDir = new File(cacheDir, key + "-" + Long.toHexString(System.nanoTime()) + TEMP_SUFFIX);
+    }
+    try {
+      if (!tempDir.mkdirs()) {
+        throw new IOException("Unable to create " + tempDir);
+      }
+      Files.copy(output, new File(tempDir, output.getName()));
+      JSONObject json = new JSONObject();
+      json.put("file", output.getName());
+      json.put("output", result.getOutput());
+      json.put("error", result.getError());
+      Files.write(json.toString(), new File(tempDir, RESULT_FILE_NAME), StandardCharsets.UTF_8);
+      long size = FileUtils.sizeOfDirectory(tempDir);
+      synchronized (this) {
+        File entryDir = new File(cacheDir, key);
+        if (size > maxSizeBytes || entries.containsKey(key) || !tempDir.renameTo(entryDir)) {
+          return;
+        }
+        entries.put(key, size);
+        sizeBytes += size;
+        evict();
+      }
+    } catch (IOException | JSONException e) {
+      LOG.log(Level.WARNING, "Unable to store build cache entry " + key, e);
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  long getHitCount() {
+    return hits.get();
+  }
+
+  long getMissCount() {
+    return misses.get();
+  }
+
+  long getUncacheableCount() {
+    return uncacheable.get();
+  }
+
+  long getEvictionCount() {
+    return evictions.get();
+  }
+
+  synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  synchronized long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  // Must be called while holding the lock.
+  private void evict() {
+    Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Long> eldest = iterator.next();
+      iterator.remove();
+      sizeBytes -= eldest.getValue();
+      evictions.incrementAndGet();
+      FileUtils.deleteQuietly(new File(cacheDir, eldest.getKey()));
+    }
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    digest.update(value.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+}
@@ -6,11 +6,22 @@
 
 package com.google.appinventor.buildserver;
 
+import com.google.appinventor.buildserver.stats.ChildProcessStats;
+import com.google.appinventor.buildserver.stats.Histogram;
+import com.google.appinventor.buildserver.stats.PrometheusWriter;
 import com.google.appinventor.buildserver.stats.SimpleStatReporter;
 import com.google.appinventor.buildserver.stats.StatCalculator;
 import com.google.appinventor.buildserver.stats.StatCalculator.Stats;
 import com.google.appinventor.buildserver.stats.StatReporter;
 import com.google.appinventor.buildserver.tasks.android.AndroidBuildFactory;
+import com.google.appinventor.buildserver.util.AARStore;
+import com.google.appinventor.buildserver.util.DexCache;
+import com.google.appinventor.buildserver.util.DexerService;
+import com.google.appinventor.buildserver.util.KawaCompilerPool;
+import com.google.appinventor.buildserver.util.MergedResourceCache;
+import com.google.appinventor.buildserver.util.ResidentWorkerPool;
+import com.google.appinventor.buildserver.util.ToolScheduler;
+import com.google.appinventor.buildserver.util.YailClassCache;
 import com.google.appinventor.common.version.GitBuildId;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
@@ -36,6 +47,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
@@ -50,8 +62,10 @@ import java.text.DateFormat;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -144,6 +158,29 @@ public class BuildServer {
       usage = "Maximum number of builds that can run in parallel. O means unlimited.")
     int maxSimultaneousBuilds = 0;  // The default is unlimited.
 
+    @Option(name = "--maxQueuedBuilds",
+      usage = "Maximum number of builds that can wait for one of the --maxSimultaneousBuilds "
+          + "slots. 0 rejects builds as soon as all slots are busy.")
+    int maxQueuedBuilds = 0;
+
+    @Option(name = "--buildMemoryMb",
+        usage = "Memory, in MB, that concurrent builds may use together outside their Kawa, d8 "
+            + "and dx jobs, which --toolMemoryMb budgets, as estimated from the size of each "
+            + "project. 0 means the physical memory of the machine, less the heap of the build "
+            + "server. -1 means unlimited.")
+    int buildMemoryMb = 0;
+
+    @Option(name = "--buildCpus",
+        usage = "Number of CPUs that concurrent builds may keep busy, as estimated from the size "
+            + "of each project. 0 means twice the number of available processors. -1 means "
+            + "unlimited.")
+    int buildCpus = 0;
+
+    @Option(name = "--maxBuildsPerUser",
+      usage = "Maximum number of builds that a single user can have queued or running. "
+          + "0 means unlimited.")
+    int maxBuildsPerUser = 0;
+
     @Option(name = "--port",
       usage = "The port number to bind to on the local machine.")
     int port = 9990;
@@ -161,10 +198,59 @@ public class BuildServer {
             usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--dexCacheMaxMb",
+        usage = "Maximum size, in MB, of the pre-dexed library cache. The least recently used "
+            + "libraries are deleted first. 0 means unlimited.")
+    long dexCacheMaxMb = 2048;
+
+    @Option(name = "--aarStoreMaxMb",
+        usage = "Maximum size, in MB, of the unpacked AAR libraries shared by builds. The least "
+            + "recently used libraries that no build is using are deleted first. 0 means "
+            + "unlimited.")
+    long aarStoreMaxMb = 1024;
+
     @Option(name = "--statreporter",
         usage = "the reporter to use for collecting stats")
     String statReporter = "com.google.appinventor.buildserver.stats.SimpleStatReporter";
 
+    @Option(name = "--kawaWorkers",
+        usage = "Number of resident Kawa compiler processes to keep warm. 0 starts a new process "
+            + "for every build.")
+    int kawaWorkers = 0;
+
+    @Option(name = "--kawaWorkerMaxCompilations",
+        usage = "Number of compilations after which a resident Kawa compiler process is recycled.")
+    int kawaWorkerMaxCompilations = 50;
+
+    @Option(name = "--dexWorkers",
+        usage = "Number of resident d8 (or dx) processes to keep warm. 0 starts a new process "
+            + "for every dex job.")
+    int dexWorkers = 0;
+
+    @Option(name = "--dexWorkerMaxJobs",
+        usage = "Number of dex jobs after which a resident d8 (or dx) process is recycled.")
+    int dexWorkerMaxJobs = 50;
+
+    @Option(name = "--toolCpuPermits",
+        usage = "Number of Kawa, d8 and dx jobs that can run at once across all builds. 0 means "
+            + "the number of available processors.")
+    int toolCpuPermits = 0;
+
+    @Option(name = "--toolMemoryMb",
+        usage = "Total heap, in MB, that concurrent Kawa, d8 and dx jobs may use. 0 means the "
+            + "physical memory of the machine.")
+    int toolMemoryMb = 0;
+
+    @Option(name = "--buildCacheDir",
+        usage = "the directory to cache the outputs of builds in. Identical submissions of a "
+            + "project are served from this cache.")
+    String buildCacheDir = null;
+
+    @Option(name = "--buildCacheMaxMb",
+        usage = "Maximum size, in MB, of the build output cache. The least recently used "
+            + "outputs are deleted first.")
+    long buildCacheMaxMb = 1024;
+
   }
 
   private static final CommandLineOptions commandLineOptions = new CommandLineOptions();
@@ -193,20 +279,24 @@ public class BuildServer {
   //The number of failed build requests for this server run
   private static final AtomicInteger failedBuildRequests = new AtomicInteger(0);
 
+  // The number of bytes of projects received and of build results sent for this server run
+  private static final AtomicLong bytesReceived = new AtomicLong(0);
+  private static final AtomicLong bytesSent = new AtomicLong(0);
+
   // The reporter for gathering build stats.
   private static StatReporter statReporter;
 
   //The number of failed build requests for this server run
   private static int maximumActiveBuildTasks = 0;
 
-  // The build executor used to limit the number of simultaneous builds.
-  // NOTE(lizlooney) - the buildExecutor must be created after the command line options are
+  // The build queue used to limit the number of simultaneous builds.
+  // NOTE(lizlooney) - the buildQueue must be created after the command line options are
   // processed in main(). If it is created here, the number of simultaneous builds will always be
   // the default value, even if the --maxSimultaneousBuilds option is on the command line.
-  private static NonQueuingExecutor buildExecutor;
+  private static BuildQueue buildQueue;
 
-  // The input zip file. It will be deleted in cleanUp.
-  private File inputZip;
+  // The project extracted from the request. It will be deleted in cleanUp.
+  private ProjectUpload upload;
 
   // The built APK file for this build request, if any.
   private File outputApk;
@@ -246,9 +336,15 @@ public class BuildServer {
   @Produces(MediaType.TEXT_PLAIN)
   public Response health() throws IOException {
     ShutdownState shut = getShutdownState();
-    if (shut == ShutdownState.UP) {
+    if (shut == ShutdownState.UP && buildQueue.isSaturated()) {
+      // We still accept jobs, which wait in the queue, but load balancers should send new
+      // builds elsewhere until running builds have freed up some of the budget.
+      LOG.info("Healthcheck: SATURATED");
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("Build Server is saturated\n" + getBudgetReport()).build();
+    } else if (shut == ShutdownState.UP) {
       LOG.info("Healthcheck: UP");
-      return Response.ok("ok", MediaType.TEXT_PLAIN_TYPE).build();
+      return Response.ok("ok\n" + getBudgetReport(), MediaType.TEXT_PLAIN_TYPE).build();
     } else if (shut == ShutdownState.DOWN) {
       LOG.info("Healthcheck: DOWN");
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Build Server is shutdown").build();
@@ -264,6 +360,14 @@ public class BuildServer {
     }
   }
 
+  // The build budget of the server, one "name: value" pair per line.
+  private static String getBudgetReport() {
+    return "build-memory-budget-mb: " + buildQueue.getMemoryBudgetMb() + "\n"
+        + "build-memory-in-use-mb: " + buildQueue.getMemoryInUseMb() + "\n"
+        + "build-cpu-budget: " + buildQueue.getCpuBudget() + "\n"
+        + "build-cpus-in-use: " + buildQueue.getCpusInUse() + "\n";
+  }
+
   @GET
   @Path("vars")
   @Produces(MediaType.TEXT_HTML)
@@ -319,20 +423,103 @@ public class BuildServer {
     variables.put("failed-async-build-requests", failedBuildRequests.get() + "");
 
     // Build tasks
-    int max = buildExecutor.getMaxActiveTasks();
+    int max = buildQueue.getMaxActiveTasks();
     if (max == 0) {
       variables.put("maximum-simultaneous-build-tasks-allowed", "unlimited");
     } else {
       variables.put("maximum-simultaneous-build-tasks-allowed", max + "");
     }
-    variables.put("completed-build-tasks", buildExecutor.getCompletedTaskCount() + "");
-    maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildExecutor.getActiveTaskCount());
+    variables.put("completed-build-tasks", buildQueue.getCompletedTaskCount() + "");
+    maximumActiveBuildTasks = Math.max(maximumActiveBuildTasks, buildQueue.getActiveTaskCount());
     variables.put("maximum-simultaneous-build-tasks-occurred", maximumActiveBuildTasks + "");
-    variables.put("active-build-tasks", buildExecutor.getActiveTaskCount() + "");
+    variables.put("active-build-tasks", buildQueue.getActiveTaskCount() + "");
+
+    // Build queue
+    variables.put("maximum-queued-build-tasks-allowed", buildQueue.getMaxQueuedTasks() + "");
+    variables.put("queued-build-tasks", buildQueue.getQueuedTaskCount() + "");
+    variables.put("rejected-build-tasks", buildQueue.getRejectedTaskCount() + "");
+    variables.put("cancelled-build-tasks", buildQueue.getCancelledTaskCount() + "");
+    variables.put("average-build-queue-wait-ms", buildQueue.getAverageWaitMillis() + "");
+    variables.put("average-build-duration-ms", buildQueue.getAverageDurationMillis() + "");
+    variables.put("build-memory-budget-mb", buildQueue.getMemoryBudgetMb() + "");
+    variables.put("build-memory-in-use-mb", buildQueue.getMemoryInUseMb() + "");
+    variables.put("build-cpu-budget", buildQueue.getCpuBudget() + "");
+    variables.put("build-cpus-in-use", buildQueue.getCpusInUse() + "");
+
+    // Kawa compiler workers
+    ResidentWorkerPool kawaPool = KawaCompilerPool.getInstance();
+    variables.put("kawa-workers-allowed", kawaPool.getMaxWorkers() + "");
+    variables.put("kawa-workers-live", kawaPool.getLiveWorkerCount() + "");
+    variables.put("kawa-workers-idle", kawaPool.getIdleWorkerCount() + "");
+    variables.put("kawa-workers-retired", kawaPool.getRetiredWorkerCount() + "");
+    variables.put("kawa-pooled-compilations", kawaPool.getPooledRunCount() + "");
+    variables.put("kawa-forked-compilations", kawaPool.getForkedRunCount() + "");
+
+    // Dexer workers
+    putWorkerPoolVariables(variables, "d8", DexerService.getD8Pool());
+    putWorkerPoolVariables(variables, "dx", DexerService.getDxPool());
+
+    // Tool scheduler
+    ToolScheduler scheduler = ToolScheduler.getInstance();
+    variables.put("tool-cpu-permits", scheduler.getCpuPermits() + "");
+    variables.put("tool-memory-budget-mb", scheduler.getMemoryBudgetMb() + "");
+    variables.put("tool-jobs-running", scheduler.getRunningJobCount() + "");
+    variables.put("tool-memory-in-use-mb", scheduler.getMemoryInUseMb() + "");
+    variables.put("tool-jobs-waiting", scheduler.getWaitingJobCount() + "");
+    for (Map.Entry<String, ToolScheduler.ToolStats> entry : scheduler.getStats().entrySet()) {
+      String prefix = "tool-" + entry.getKey();
+      ToolScheduler.ToolStats toolStats = entry.getValue();
+      variables.put(prefix + "-jobs", toolStats.getJobCount() + "");
+      variables.put(prefix + "-avg-wait-ms", toolStats.getAverageWaitMillis() + "");
+      variables.put(prefix + "-max-wait-ms", toolStats.getMaxWaitMillis() + "");
+      variables.put(prefix + "-avg-run-ms", toolStats.getAverageRunMillis() + "");
+      variables.put(prefix + "-max-run-ms", toolStats.getMaxRunMillis() + "");
+    }
+
+    if (commandLineOptions.dexCacheDir != null) {
+      DexCache dexCache = DexCache.forDirectory(new File(commandLineOptions.dexCacheDir));
+      variables.put("dex-cache-hits", dexCache.getHitCount() + "");
+      variables.put("dex-cache-misses", dexCache.getMissCount() + "");
+      variables.put("dex-cache-failures", dexCache.getFailureCount() + "");
+      variables.put("dex-cache-evictions", dexCache.getEvictionCount() + "");
+      variables.put("dex-cache-entries", dexCache.getEntryCount() + "");
+      variables.put("dex-cache-size-bytes", dexCache.getSizeBytes() + "");
+      variables.put("dex-cache-max-size-bytes", DexCache.getMaxSizeBytes() + "");
+      variables.put("resource-cache-hits", MergedResourceCache.getHitCount() + "");
+      variables.put("resource-cache-misses", MergedResourceCache.getMissCount() + "");
+    }
+
+    AARStore aarStore = AARStore.getInstance();
+    variables.put("aar-store-hits", aarStore.getHitCount() + "");
+    variables.put("aar-store-misses", aarStore.getMissCount() + "");
+    variables.put("aar-store-evictions", aarStore.getEvictionCount() + "");
+    variables.put("aar-store-entries", aarStore.getEntryCount() + "");
+    variables.put("aar-store-size-bytes", aarStore.getSizeBytes() + "");
+    variables.put("aar-store-max-size-bytes", aarStore.getMaxSizeBytes() + "");
+
+    BuildResultCache cache = BuildResultCache.getInstance();
+    variables.put("build-cache-enabled", cache.isEnabled() + "");
+    variables.put("build-cache-hits", cache.getHitCount() + "");
+    variables.put("build-cache-misses", cache.getMissCount() + "");
+    variables.put("build-cache-uncacheable", cache.getUncacheableCount() + "");
+    variables.put("build-cache-evictions", cache.getEvictionCount() + "");
+    variables.put("build-cache-entries", cache.getEntryCount() + "");
+    variables.put("build-cache-size-bytes", cache.getSizeBytes() + "");
+    variables.put("build-cache-max-size-bytes", cache.getMaxSizeBytes() + "");
 
     return mapToHtml(variables);
   }
 
+  private static void putWorkerPoolVariables(Map<String, String> variables, String prefix,
+      ResidentWorkerPool pool) {
+    variables.put(prefix + "-workers-allowed", pool.getMaxWorkers() + "");
+    variables.put(prefix + "-workers-live", pool.getLiveWorkerCount() + "");
+    variables.put(prefix + "-workers-idle", pool.getIdleWorkerCount() + "");
+    variables.put(prefix + "-workers-retired", pool.getRetiredWorkerCount() + "");
+    variables.put(prefix + "-pooled-jobs", pool.getPooledRunCount() + "");
+    variables.put(prefix + "-forked-jobs", pool.getForkedRunCount() + "");
+  }
+
   private Response mapToHtml(Map<String, String> variables) {
     StringBuilder html = new StringBuilder();
     html.append("<html><body><tt>");
@@ -364,11 +551,82 @@ public class BuildServer {
       processStats("failures.",
           calculator.computeStats(((SimpleStatReporter) statReporter).getFailureStats()),
           variables);
+      SimpleStatReporter simpleStatReporter = (SimpleStatReporter) statReporter;
+      variables.put("queue.depth", simpleStatReporter.getQueueDepth() + "");
+      variables.put("queue.max-depth", simpleStatReporter.getMaxQueueDepth() + "");
+      variables.put("queue.avg-wait", simpleStatReporter.getAverageQueueWait() + " ms");
+      variables.put("queue.max-wait", simpleStatReporter.getMaxQueueWait() + " ms");
     }
 
     return mapToHtml(variables);
   }
 
+  /**
+   * Reports the metrics of the build server in the Prometheus text format.
+   */
+  @GET
+  @Path("metrics")
+  @Produces(PrometheusWriter.CONTENT_TYPE)
+  public Response metrics() {
+    PrometheusWriter writer = new PrometheusWriter();
+    if (statReporter instanceof SimpleStatReporter) {
+      ((SimpleStatReporter) statReporter).writeMetrics(writer);
+    }
+
+    writer.gauge("buildserver_active_builds", "Builds running.",
+        buildQueue.getActiveTaskCount());
+    writer.counter("buildserver_rejected_builds_total", "Builds rejected by the build queue.",
+        buildQueue.getRejectedTaskCount());
+    writer.counter("buildserver_cancelled_builds_total", "Builds cancelled.",
+        buildQueue.getCancelledTaskCount());
+    writer.counter("buildserver_received_bytes_total", "Bytes of projects received.",
+        bytesReceived.get());
+    writer.counter("buildserver_sent_bytes_total", "Bytes of build results sent.",
+        bytesSent.get());
+
+    ChildProcessStats.getInstance().writeMetrics(writer);
+    Map<String, Histogram> toolWaits = new TreeMap<>();
+    Map<String, Histogram> toolRuns = new TreeMap<>();
+    for (Map.Entry<String, ToolScheduler.ToolStats> entry
+        : ToolScheduler.getInstance().getStats().entrySet()) {
+      toolWaits.put(entry.getKey(), entry.getValue().getWaitTimes());
+      toolRuns.put(entry.getKey(), entry.getValue().getRunTimes());
+    }
+    writer.histograms("buildserver_tool_wait_seconds",
+        "Time tool jobs waited for the tool scheduler.", "tool", toolWaits);
+    writer.histograms("buildserver_tool_run_seconds",
+        "Wall time of tool jobs, including those run by resident workers.", "tool", toolRuns);
+
+    if (commandLineOptions.dexCacheDir != null) {
+      DexCache dexCache = DexCache.forDirectory(new File(commandLineOptions.dexCacheDir));
+      writeCacheMetrics(writer, "dex_cache", "pre-dex cache", dexCache.getHitCount(),
+          dexCache.getMissCount());
+      writeCacheMetrics(writer, "compile_cache", "cache of compiled screens",
+          YailClassCache.getHitCount(), YailClassCache.getMissCount());
+      writeCacheMetrics(writer, "resource_cache", "cache of merged library resources",
+          MergedResourceCache.getHitCount(), MergedResourceCache.getMissCount());
+    }
+    AARStore aarStore = AARStore.getInstance();
+    writeCacheMetrics(writer, "aar_store", "store of unpacked AAR libraries",
+        aarStore.getHitCount(), aarStore.getMissCount());
+    BuildResultCache cache = BuildResultCache.getInstance();
+    writeCacheMetrics(writer, "build_cache", "build result cache", cache.getHitCount(),
+        cache.getMissCount());
+
+    return Response.ok(writer.toString(), PrometheusWriter.CONTENT_TYPE).build();
+  }
+
+  private static void writeCacheMetrics(PrometheusWriter writer, String name, String description,
+      long hits, long misses) {
+    writer.counter("buildserver_" + name + "_hits_total", "Hits of the " + description + ".",
+        hits);
+    writer.counter("buildserver_" + name + "_misses_total", "Misses of the " + description + ".",
+        misses);
+    writer.gauge("buildserver_" + name + "_hit_ratio",
+        "Fraction of the lookups of the " + description + " that hit.",
+        hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+  }
+
   private void processStats(String prefix, Stats stats, Map<String, String> variables) {
     variables.put(prefix + "min", stats.getMinTime() + " ms");
     variables.put(prefix + "avg", stats.getAvgTime() + " ms");
@@ -452,30 +710,31 @@ public class BuildServer {
    * the APK.  If there is no android.keystore file in the zip we will generate one.
    *
    * @param userName  The user name to be used in making the CN entry in the generated keystore
-   * @param zipFile
+   * @param zipStream  The zip file representing the App Inventor source code.
    * @return the APK file
    */
   @POST
   @Path("build-from-zip")
   @Produces("application/vnd.android.package-archive;charset=utf-8")
-  public Response buildFromZipFile(@QueryParam("uname") String userName, @QueryParam("ext") String ext, File zipFile)
+  public Response buildFromZipFile(@QueryParam("uname") String userName, @QueryParam("ext") String ext, InputStream zipStream)
     throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in cleanUp.
-    inputZip = zipFile;
-    inputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
-
     if(!commandLineOptions.debug)
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      build(userName, zipFile, ext, null);
+      // Set the upload field so we can delete the extracted project later in cleanUp.
+      upload = ProjectUpload.extract(zipStream);
+      build(userName, upload, ext, null);
+      long length = outputApk.length();
+      bytesSent.addAndGet(length);
       String attachedFilename = outputApk.getName();
       FileInputStream outputApkDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputApk);
       // Set the outputApk field to null so that it won't be deleted in cleanUp().
       outputApk = null;
       return Response.ok(outputApkDeleteOnClose)
         .header("Content-Disposition", "attachment; filename=\"" + attachedFilename + "\"")
+        .header("Content-Length", length)
         .build();
     } finally {
       cleanUp();
@@ -495,30 +754,31 @@ public class BuildServer {
    * provided in the input zip
    *
    * @param userName  The user name to be used in making the CN entry in the generated keystore
-   * @param inputZipFile  The zip file representing the App Inventor source code.
+   * @param inputZipStream  The zip file representing the App Inventor source code.
    * @return an "OK" {@link Response}.
    */
   @POST
   @Path("build-all-from-zip")
   @Produces("application/zip;charset=utf-8")
-  public Response buildAllFromZipFile(@QueryParam("uname") String userName, @QueryParam("ext") String ext, File inputZipFile)
+  public Response buildAllFromZipFile(@QueryParam("uname") String userName, @QueryParam("ext") String ext, InputStream inputZipStream)
     throws IOException, JSONException {
-    // Set the inputZip field so we can delete the input zip file later in cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
-
     if(!commandLineOptions.debug)
       return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE)
         .entity("Entry point unavailable unless debugging.").build();
 
     try {
-      buildAndCreateZip(userName, inputZipFile, ext, null);
+      // Set the upload field so we can delete the extracted project later in cleanUp.
+      upload = ProjectUpload.extract(inputZipStream);
+      buildAndCreateZip(userName, upload, ext, null);
+      long length = outputZip.length();
+      bytesSent.addAndGet(length);
       String attachedFilename = outputZip.getName();
       FileInputStream outputZipDeleteOnClose = new DeleteFileOnCloseFileInputStream(outputZip);
       // Set the outputZip field to null so that it won't be deleted in cleanUp().
       outputZip = null;
       return Response.ok(outputZipDeleteOnClose)
         .header("Content-Disposition", "attachment; filename=\"" + attachedFilename + "\"")
+        .header("Content-Length", length)
         .build();
     } finally {
       cleanUp();
@@ -549,8 +809,14 @@ public class BuildServer {
    * @param gitBuildVersion  The value of GitBuildId.getVersion() sent from
    *     YoungAndroidProjectService.build.
    * @param callbackUrlStr An url to send the build results back to.
-   * @param inputZipFile  The zip file representing the App Inventor source code.
-   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503).
+   * @param lane  The priority lane of the build (companion, apk or aab). Defaults to the lane
+   *     matching ext.
+   * The request body is extracted as it arrives, after the checks above have passed, so the
+   * source zip is not stored on disk as a whole.
+   *
+   * @param inputZipStream  The zip file representing the App Inventor source code.
+   * @return a status response, typically OK (200) or SERVICE_UNAVAILABLE (503). When the build
+   *     is accepted, the entity is the build id to pass to build-status.
    */
   @POST
   @Path("build-all-from-zip-async")
@@ -560,19 +826,20 @@ public class BuildServer {
     @QueryParam("callback") final String callbackUrlStr,
     @QueryParam("gitBuildVersion") final String gitBuildVersion,
     @QueryParam("ext") final String ext,
-    final File inputZipFile) throws IOException {
-    // Set the inputZip field so we can delete the input zip file later in
-    // cleanUp.
-    inputZip = inputZipFile;
-    inputZip.deleteOnExit(); // In case build server is killed before cleanUp executes.
+    @QueryParam("lane") final String lane,
+    final InputStream inputZipStream) throws IOException {
     String requesting_host = (new URL(callbackUrlStr)).getHost();
+    BufferedInputStream body = new BufferedInputStream(inputZipStream);
+    body.mark(1);
 
     //for the request for update part, the file should be empty
-    if (inputZip.length() == 0L) {
+    if (body.read() == -1) {
       cleanUp();
     } else {
+      body.reset();
       if (getShutdownState() == ShutdownState.DOWN) {
         LOG.info("request received while shutdown completely");
+        discard(body);
         return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("Temporary build error, try again.").build();
       }
       if (commandLineOptions.requiredHosts != null) {
@@ -588,6 +855,7 @@ public class BuildServer {
         } else {
           // Return an error
           LOG.info("requesting host (" + requesting_host + ") is NOT in the allowed host list request will be rejected.");
+          discard(body);
           return Response.status(Response.Status.FORBIDDEN).type(MediaType.TEXT_PLAIN_TYPE).entity("You are not permitted to use this build server.").build();
         }
       } else {
@@ -606,6 +874,7 @@ public class BuildServer {
           // This request was rejected because the gitBuildVersion parameter did not equal the
           // expected value.
           rejectedAsyncBuildRequests.incrementAndGet();
+          discard(body);
           cleanUp();
           // Here, we use CONFLICT (response code 409), which means (according to rfc2616, section
           // 10) "The request could not be completed due to a conflict with the current state of the
@@ -614,6 +883,16 @@ public class BuildServer {
         }
       }
 
+      // Set the upload field so we can delete the extracted project later in cleanUp.
+      try {
+        upload = ProjectUpload.extract(body);
+      } catch (IOException e) {
+        LOG.warning("Unable to extract the project: " + e.getMessage());
+        return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+            .entity("Problems processing zip file.").build();
+      }
+      final BuildCost cost = estimateCost(upload);
+
       Runnable buildTask = new Runnable() {
           @Override
           public void run() {
@@ -621,7 +900,12 @@ public class BuildServer {
             try {
               LOG.info("START NEW BUILD " + count);
               checkMemory();
-              buildAndCreateZip(userName, inputZipFile, ext, new ProgressReporter(callbackUrlStr));
+              buildAndCreateZip(userName, upload, ext, new ProgressReporter(callbackUrlStr));
+              if (Thread.currentThread().isInterrupted()) {
+                // The build was cancelled, so nobody is waiting for its result.
+                LOG.info("BUILD " + count + " CANCELLED");
+                return;
+              }
               // Send zip back to the callbackUrl
               LOG.info("CallbackURL: " + callbackUrlStr);
               URL callbackUrl = new URL(callbackUrlStr);
@@ -633,12 +917,15 @@ public class BuildServer {
               connection.addRequestProperty("Content-Type","application/zip; charset=utf-8");
               connection.setConnectTimeout(60000);
               connection.setReadTimeout(60000);
+              // Stream the zip from disk rather than have the connection buffer it to find its
+              // length.
+              connection.setFixedLengthStreamingMode(outputZip.length());
               BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(connection.getOutputStream());
               try {
                 BufferedInputStream bufferedInputStream = new BufferedInputStream(
                   new FileInputStream(outputZip));
                 try {
-                  ByteStreams.copy(bufferedInputStream,bufferedOutputStream);
+                  bytesSent.addAndGet(ByteStreams.copy(bufferedInputStream,bufferedOutputStream));
                   checkMemory();
                   bufferedOutputStream.flush();
                 } finally {
@@ -652,7 +939,7 @@ public class BuildServer {
               }
             } catch (Exception e) {
               // TODO(user): Maybe send a failure callback
-              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ inputZip.length());
+              LOG.severe("Exception: " + e.getMessage()+ " and the length is of inputZip is "+ upload.getSize());
             } finally {
               cleanUp();
               checkMemory();
@@ -661,10 +948,13 @@ public class BuildServer {
           }
         };
       try {
-        buildExecutor.execute(buildTask);
+        BuildQueue.Ticket ticket = buildQueue.submit(userName, BuildQueue.Lane.of(lane, ext),
+            cost, buildTask);
+        return Response.ok().type(MediaType.TEXT_PLAIN_TYPE).entity(ticket.getId()).build();
       } catch (RejectedExecutionException e) {
         // This request was rejected because all threads in the build
-        // executor are busy.
+        // executor are busy and the build queue is full, or because the
+        // user already has too many builds in progress.
         rejectedAsyncBuildRequests.incrementAndGet();
         cleanUp();
         // Here, we use SERVICE_UNAVAILABLE (response code 503), which
@@ -683,11 +973,57 @@ public class BuildServer {
       .entity("" + 0).build();
   }
 
-  private void buildAndCreateZip(String userName, File inputZipFile, String ext,
+  /**
+   * Reports the position of an asynchronous build in the build queue.
+   *
+   * @param id  The build id returned by build-all-from-zip-async.
+   * @return a JSON object with the state of the build ("queued" or "running"), its 1-based
+   *     position in the queue, and the estimated number of seconds until it starts, or
+   *     NOT_FOUND (404) if the build is unknown or has finished.
+   */
+  @GET
+  @Path("build-status")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response buildStatus(@QueryParam("id") String id) throws JSONException {
+    BuildQueue.Position position = id == null ? null : buildQueue.getPosition(id);
+    if (position == null) {
+      return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("Unknown build").build();
+    }
+    JSONObject status = new JSONObject();
+    status.put("id", id);
+    status.put("state", position.isRunning() ? "running" : "queued");
+    status.put("position", position.getPosition());
+    status.put("etaSeconds", (position.getEtaMillis() + 999) / 1000);
+    status.put("queueDepth", buildQueue.getQueuedTaskCount());
+    return Response.ok(status.toString(), MediaType.APPLICATION_JSON_TYPE).build();
+  }
+
+  /**
+   * Cancels an asynchronous build, e.g. one that has been superseded by a newer build of the same
+   * project. A queued build never starts. A running build is stopped, its child processes are
+   * killed, and its callback is not invoked.
+   *
+   * @param id  The build id returned by build-all-from-zip-async.
+   * @return OK (200) if the build was cancelled, or NOT_FOUND (404) if the build is unknown or
+   *     has finished.
+   */
+  @POST
+  @Path("cancel-build")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response cancelBuild(@QueryParam("id") String id) {
+    if (id == null || !buildQueue.cancel(id)) {
+      return Response.status(Response.Status.NOT_FOUND).type(MediaType.TEXT_PLAIN_TYPE)
+          .entity("Unknown build").build();
+    }
+    return Response.ok("ok", MediaType.TEXT_PLAIN_TYPE).build();
+  }
+
+  private void buildAndCreateZip(String userName, ProjectUpload upload, String ext,
       ProgressReporter reporter) throws IOException, JSONException {
-    Result buildResult = build(userName, inputZipFile, ext, reporter);
+    Result buildResult = build(userName, upload, ext, reporter);
     boolean buildSucceeded = buildResult.succeeded();
-    outputZip = File.createTempFile(inputZipFile.getName(), ".zip");
+    outputZip = File.createTempFile("build", ".zip");
     outputZip.deleteOnExit();  // In case build server is killed before cleanUp executes.
     ZipOutputStream zipOutputStream =
       new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputZip)));
@@ -723,15 +1059,16 @@ public class BuildServer {
     return buildOutputJsonObj.toString();
   }
 
-  private Result build(String userName, File zipFile, String ext, ProgressReporter reporter)
-      throws IOException {
+  private Result build(String userName, ProjectUpload upload, String ext,
+      ProgressReporter reporter) throws IOException {
     outputDir = Files.createTempDir();
     // We call outputDir.deleteOnExit() here, in case build server is killed before cleanUp
     // executes. However, it is likely that the directory won't be empty and therefore, won't
     // actually be deleted. That's only if the build server is killed (via ctrl+c) while a build
     // is happening, so we should be careful about that.
     outputDir.deleteOnExit();
-    Result buildResult = projectBuilder.build(userName, new ZipFile(zipFile), outputDir, null,
+    bytesReceived.addAndGet(upload.getSize());
+    Result buildResult = projectBuilder.build(userName, upload, outputDir, null,
         false, false, false, null,
         commandLineOptions.childProcessRamMb, commandLineOptions.dexCacheDir, reporter, ext);
     outputApk = projectBuilder.getOutputApk();
@@ -746,9 +1083,16 @@ public class BuildServer {
     return buildResult;
   }
 
+  // Estimates the cost of a build, which decides when the build may start.
+  private static BuildCost estimateCost(ProjectUpload upload) {
+    BuildCost cost = BuildCost.estimate(upload, commandLineOptions.childProcessRamMb);
+    LOG.info("Estimated " + cost + " for a project of " + upload.getSize() + " bytes");
+    return cost;
+  }
+
   private void cleanUp() {
-    if (inputZip != null) {
-      inputZip.delete();
+    if (upload != null) {
+      upload.close();
     }
     if (outputKeystore != null) {
       outputKeystore.delete();
@@ -792,7 +1136,11 @@ public class BuildServer {
         throw new IllegalArgumentException(new IOException("Unable to create dex cache dir "
             + commandLineOptions.dexCacheDir));
       }
+      // Verify the cache now rather than in the first build that uses it.
+      DexCache.configure(commandLineOptions.dexCacheMaxMb);
+      DexCache.forDirectory(cacheDir);
     }
+    AARStore.getInstance().configure(commandLineOptions.aarStoreMaxMb);
 
     // Add a Shutdown Hook. In a container swarm, the swarm orchestrator
     // may choose to shutdown a container (running a buildserver) as part
@@ -807,12 +1155,12 @@ public class BuildServer {
         @Override
         public void run() {
           shuttingTime = System.currentTimeMillis();
-          if (buildExecutor == null) {
+          if (buildQueue == null) {
             /* We haven't really started up yet... */
             return;
           }
           while (true) {
-            int tasks = buildExecutor.getActiveTaskCount();
+            int tasks = buildQueue.getActiveTaskCount() + buildQueue.getQueuedTaskCount();
             if (tasks <= 0) {
               try {
                 Thread.sleep(10000); // One final wait so people can get
@@ -830,10 +1178,30 @@ public class BuildServer {
         }
       });
 
-    // Now that the command line options have been processed, we can create the buildExecutor.
+    // Now that the command line options have been processed, we can create the buildQueue.
     AndroidBuildFactory.install();
     // TODO(ewpatton): Enable iOS build factory here when published
-    buildExecutor = new NonQueuingExecutor(commandLineOptions.maxSimultaneousBuilds);
+    int buildMemoryMb = commandLineOptions.buildMemoryMb;
+    if (buildMemoryMb == 0) {
+      buildMemoryMb = BuildCost.measureHostMemoryMb();
+    }
+    int buildCpus = commandLineOptions.buildCpus;
+    if (buildCpus == 0) {
+      // Builds spend part of their time reading, writing and waiting for the tool scheduler.
+      buildCpus = 2 * Runtime.getRuntime().availableProcessors();
+    }
+    buildQueue = new BuildQueue(commandLineOptions.maxSimultaneousBuilds,
+        commandLineOptions.maxQueuedBuilds, commandLineOptions.maxBuildsPerUser,
+        Math.max(0, buildMemoryMb), Math.max(0, buildCpus), statReporter);
+    KawaCompilerPool.getInstance().configure(commandLineOptions.kawaWorkers,
+        commandLineOptions.kawaWorkerMaxCompilations);
+    DexerService.configure(commandLineOptions.dexWorkers, commandLineOptions.dexWorkerMaxJobs);
+    ToolScheduler.getInstance().configure(commandLineOptions.toolCpuPermits,
+        commandLineOptions.toolMemoryMb);
+    if (commandLineOptions.buildCacheDir != null) {
+      BuildResultCache.getInstance().configure(new File(commandLineOptions.buildCacheDir),
+          commandLineOptions.buildCacheMaxMb);
+    }
 
     int port = commandLineOptions.port;
     final ResourceConfig rc = new ResourceConfig(BuildServer.class);
@@ -847,6 +1215,8 @@ public class BuildServer {
     } else {
       LOG.info("Maximum simultaneous builds = " + commandLineOptions.maxSimultaneousBuilds);
     }
+    LOG.info("Build budget = " + buildQueue.getMemoryBudgetMb() + " MB, "
+        + buildQueue.getCpuBudget() + " CPUs (0 = unlimited)");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
       "/buildserver/health for server health");
     LOG.info("Visit: http://" + hostAddress + ":" + port +
@@ -854,6 +1224,12 @@ public class BuildServer {
     LOG.info("Server running");
   }
 
+  // Reads the rest of a request that is turned away, so that the response is not lost to a
+  // connection reset while the client is still sending.
+  private static void discard(InputStream body) throws IOException {
+    ByteStreams.copy(body, ByteStreams.nullOutputStream());
+  }
+
   private static class DeleteFileOnCloseFileInputStream extends FileInputStream {
     private final File file;
 
@@ -875,12 +1251,12 @@ public class BuildServer {
     }
 
     if (shuttingTime == 0) {
-      int max = buildExecutor.getMaxActiveTasks();
+      int max = buildQueue.getMaxActiveTasks();
       if (max < 10) {           // Only do this scheme if we are not unlimited
                                 // (unlimited == 0) and allow more then 10 max builds
         return ShutdownState.UP;
       }
-      int active = buildExecutor.getActiveTaskCount();
+      int active = buildQueue.getActiveTaskCount();
       if (draining) {
         if (active < max/3) {
           draining = false;
@@ -9,11 +9,22 @@ package com.google.appinventor.buildserver;
 import com.google.appinventor.buildserver.context.CompilerContext;
 import com.google.appinventor.buildserver.context.Paths;
 import com.google.appinventor.buildserver.interfaces.Task;
+import com.google.appinventor.buildserver.util.AARLibraries;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,13 +37,21 @@ import java.util.logging.Logger;
  * style pattern, where receives build information, and then
  * {@link Task} can be added.</p>
  *
+ * <p>Tasks run one after another in the order they were added, unless
+ * they are added with their dependencies, in which case independent
+ * tasks run in parallel.</p>
+ *
  * @see CompilerContext
  *
  * @author diego@barreiro.xyz (Diego Barreiro)
  */
 public class Compiler<P extends Paths, T extends CompilerContext<P>> implements Callable<Boolean> {
   private static final Logger LOG = Logger.getLogger(Compiler.class.getName());
+  // How long a cancelled build waits for its running tasks to stop.
+  static final int CANCEL_TIMEOUT_SECONDS = 10;
   private final List<Class<? extends Task<? super T>>> tasks;
+  private final Map<Class<?>, List<Class<?>>> dependencies;
+  private boolean parallel = false;
   private T context;
   private String ext = BuildType.APK_EXTENSION;
 
@@ -91,14 +110,34 @@ public class Compiler<P extends Paths, T extends CompilerContext<P>> implements
   // built using the Executor.Builder.
   private Compiler() {
     this.tasks = new ArrayList<>();
+    this.dependencies = new HashMap<>();
   }
 
   /**
-   * Adds a new Task to the build.
+   * Adds a new Task to the build. The task runs after all previously added tasks have completed.
    */
   public Compiler<P, T> add(Class<? extends Task<? super T>> task) {
     assert task != null;
+    this.dependencies.put(task, new ArrayList<Class<?>>(this.tasks));
+    this.tasks.add(task);
+    return this;
+  }
+
+  /**
+   * Adds a new Task to the build that only depends on the given, previously added, tasks. Tasks
+   * whose dependencies have all completed may run in parallel.
+   */
+  public Compiler<P, T> add(Class<? extends Task<? super T>> task, Class<?>... dependencies) {
+    assert task != null;
+    for (Class<?> dependency : dependencies) {
+      if (!this.tasks.contains(dependency)) {
+        throw new IllegalArgumentException("Task " + task.getSimpleName() + " depends on "
+            + dependency.getSimpleName() + ", which has not been added");
+      }
+    }
+    this.dependencies.put(task, Arrays.asList(dependencies));
     this.tasks.add(task);
+    this.parallel = true;
     return this;
   }
 
@@ -106,6 +145,18 @@ public class Compiler<P extends Paths, T extends CompilerContext<P>> implements
   // on result.
   @Override
   public Boolean call() {
+    try {
+      return runTasks();
+    } finally {
+      // Return the AAR libraries this build shares with other builds to the store.
+      AARLibraries aarLibraries = context.getComponentInfo().getExplodedAarLibs();
+      if (aarLibraries != null) {
+        aarLibraries.release();
+      }
+    }
+  }
+
+  private boolean runTasks() {
     // Initializes progress to 0.
     context.getReporter().setProgress(0);
     context.getStatReporter().startBuild(this);
@@ -118,78 +169,223 @@ public class Compiler<P extends Paths, T extends CompilerContext<P>> implements
       return true;
     }
 
+    if (parallel) {
+      return runGraph();
+    }
+
     for (int i = 0; i < numTasks; i++) {
-      // We accept Classes, but not initialized ones.
+      if (Thread.currentThread().isInterrupted()) {
+        reportCancelled();
+        return false;
+      }
       Class<? extends Task<?>> task = this.tasks.get(i);
-      String taskName = task.getSimpleName();
-
-      // We try to initialize a Task instance.
-      Object taskObject;
-      try {
-        taskObject = task.newInstance();
-      } catch (IllegalAccessException | InstantiationException e) {
-        LOG.log(Level.SEVERE, "Could not create new task " + taskName, e);
-        context.getReporter().error("Could not create new task " + taskName);
+      context.getStatReporter().nextStage(this, task.getSimpleName());
+      if (!runTask(task)) {
         return false;
       }
 
-      // Task's will have an annotation to make sure they only run in
-      // the specified build type. If no annotation present, we throw
-      // a warning.
-      if (task.isAnnotationPresent(BuildType.class)) {
-        BuildType buildType = task.getAnnotation(BuildType.class);
-        switch (ext) {
-          case BuildType.AAB_EXTENSION:
-            if (!buildType.aab()) {
-              context.getReporter().error("Task " + taskName + " does not support builds on AABs!");
-              return false;
-            }
-            break;
-          default:
-          case BuildType.APK_EXTENSION:
-            if (!buildType.apk()) {
-              context.getReporter().error("Task " + taskName + " does not support builds on APKs!");
-              return false;
-            }
-            break;
+      // Update progress depending on the number of steps.
+      context.getReporter().setProgress(((i + 1) * 100) / numTasks);
+    }
+    return true;
+  }
+
+  /**
+   * Runs the tasks on a pool of threads, starting each task as soon as all of its dependencies
+   * have completed. Once a task fails no further tasks are started, and the build fails after the
+   * tasks that are already running have finished. If the build is cancelled, the running tasks are
+   * interrupted instead.
+   */
+  private boolean runGraph() {
+    final int numTasks = this.tasks.size();
+    Map<Class<?>, Integer> pending = new HashMap<>();
+    Map<Class<?>, List<Class<? extends Task<? super T>>>> dependents = new HashMap<>();
+    for (Class<? extends Task<? super T>> task : this.tasks) {
+      List<Class<?>> taskDependencies = this.dependencies.get(task);
+      pending.put(task, taskDependencies.size());
+      for (Class<?> dependency : taskDependencies) {
+        if (!dependents.containsKey(dependency)) {
+          dependents.put(dependency, new ArrayList<Class<? extends Task<? super T>>>());
         }
-      } else {
-        context.getReporter().warn("Task " + taskName + " does not contain build type targets!");
+        dependents.get(dependency).add(task);
       }
+    }
 
-      // Get the current time to know the time needed to execute it.
-      context.getReporter().taskStart(taskName);
-      context.getStatReporter().nextStage(this, task.getSimpleName());
-      long start = System.currentTimeMillis();
-
-      // And then invoke the execute(ExecutorContext) method to run the Task.
-      TaskResult result;
-      try {
-        Method execute = task.getMethod("execute", CompilerContext.class);
-        result = (TaskResult) execute.invoke(taskObject, context);
-      } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
-        context.getReporter().taskError(-1);
-        LOG.log(Level.SEVERE, "Error running task " + task, e);
-        return false;
+    // The width of the graph bounds the number of threads. CPU- and memory-hungry tools are
+    // throttled separately by the ToolScheduler.
+    ExecutorService pool = Executors.newCachedThreadPool();
+    CompletionService<Boolean> completion = new ExecutorCompletionService<>(pool);
+    Map<Future<Boolean>, Class<? extends Task<? super T>>> running = new HashMap<>();
+    boolean failed = false;
+    int completed = 0;
+    try {
+      for (Class<? extends Task<? super T>> task : this.tasks) {
+        if (pending.get(task) == 0) {
+          running.put(submit(completion, task), task);
+        }
+      }
+      while (!running.isEmpty()) {
+        Future<Boolean> future = completion.take();
+        Class<? extends Task<? super T>> task = running.remove(future);
+        boolean success;
+        try {
+          success = future.get();
+        } catch (ExecutionException e) {
+          LOG.log(Level.SEVERE, "Error running task " + task, e.getCause());
+          success = false;
+        }
+        if (!success) {
+          failed = true;
+          continue;
+        }
+        completed++;
+        context.getReporter().setProgress((completed * 100) / numTasks);
+        if (failed || !dependents.containsKey(task)) {
+          continue;
+        }
+        for (Class<? extends Task<? super T>> dependent : dependents.get(task)) {
+          int remaining = pending.get(dependent) - 1;
+          pending.put(dependent, remaining);
+          if (remaining == 0) {
+            running.put(submit(completion, dependent), dependent);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+      awaitTermination(pool);
+      Thread.currentThread().interrupt();
+      reportCancelled();
+      return false;
+    } finally {
+      pool.shutdownNow();
+    }
+    return !failed && completed == numTasks;
+  }
+
+  private Future<Boolean> submit(CompletionService<Boolean> completion,
+      final Class<? extends Task<? super T>> task) {
+    // Tasks overlap, so the stat reporter times each stage by its task rather than by nextStage.
+    return completion.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return runTask(task);
+      }
+    });
+  }
+
+  /**
+   * Instantiates and runs a single task, reporting its outcome.
+   *
+   * @return true if the task succeeded
+   */
+  private boolean runTask(Class<? extends Task<?>> task) {
+    String taskName = task.getSimpleName();
+
+    // We try to initialize a Task instance.
+    Object taskObject;
+    try {
+      taskObject = task.newInstance();
+    } catch (IllegalAccessException | InstantiationException e) {
+      LOG.log(Level.SEVERE, "Could not create new task " + taskName, e);
+      context.getReporter().error("Could not create new task " + taskName);
+      return false;
+    }
+
+    // Task's will have an annotation to make sure they only run in
+    // the specified build type. If no annotation present, we throw
+    // a warning.
+    if (task.isAnnotationPresent(BuildType.class)) {
+      BuildType buildType = task.getAnnotation(BuildType.class);
+      switch (ext) {
+        case BuildType.AAB_EXTENSION:
+          if (!buildType.aab()) {
+            context.getReporter().error("Task " + taskName + " does not support builds on AABs!");
+            return false;
+          }
+          break;
+        default:
+        case BuildType.APK_EXTENSION:
+          if (!buildType.apk()) {
+            context.getReporter().error("Task " + taskName + " does not support builds on APKs!");
+            return false;
+          }
+          break;
       }
-      double endTime = (System.currentTimeMillis() - start) / 1000.0;
+    } else {
+      context.getReporter().warn("Task " + taskName + " does not contain build type targets!");
+    }
+
+    // Get the current time to know the time needed to execute it.
+    context.getReporter().taskStart(taskName);
+    long start = System.currentTimeMillis();
+
+    // And then invoke the execute(ExecutorContext) method to run the Task.
+    TaskResult result;
+    try {
+      Method execute = task.getMethod("execute", CompilerContext.class);
+      result = (TaskResult) execute.invoke(taskObject, context);
+    } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+      context.getReporter().taskError(-1);
+      context.getStatReporter().finishTask(this, taskName, System.currentTimeMillis() - start,
+          false);
+      LOG.log(Level.SEVERE, "Error running task " + task, e);
+      return false;
+    }
+    long millis = System.currentTimeMillis() - start;
+    double endTime = millis / 1000.0;
+    context.getStatReporter().finishTask(this, taskName, millis,
+        result != null && result.isSuccess());
 
-      // Make sure result is success, else we'll throw an error and don't run
-      // more tasks.
-      if (result == null || !result.isSuccess()) {
-        context.getReporter().error(result == null || result.getError() == null
-            ? "Unknown exception" : result.getError().getMessage(), true);
+    // Make sure result is success, else we'll throw an error and don't run
+    // more tasks.
+    if (result == null || !result.isSuccess()) {
+      if (Thread.currentThread().isInterrupted()) {
         context.getReporter().taskError(endTime);
+        reportCancelled();
         return false;
       }
-
-      // Update progress depending on the number of steps.
-      context.getReporter().setProgress(((i + 1) * 100) / numTasks);
-      context.getReporter().taskSuccess(endTime);
+      context.getReporter().error(result == null || result.getError() == null
+          ? "Unknown exception" : result.getError().getMessage(), true);
+      context.getReporter().taskError(endTime);
+      return false;
     }
+
+    context.getReporter().taskSuccess(endTime);
     return true;
   }
 
+  private void reportCancelled() {
+    LOG.info("Build was cancelled");
+    context.getReporter().error("Build was cancelled", true);
+  }
+
+  /**
+   * Waits for the interrupted tasks of a cancelled build to stop, so that they are done with the
+   * build's files before they are deleted.
+   */
+  private static void awaitTermination(ExecutorService pool) {
+    boolean interrupted = Thread.interrupted();
+    try {
+      if (!pool.awaitTermination(CANCEL_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warning("Tasks of the cancelled build are still running");
+      }
+    } catch (InterruptedException e) {
+      interrupted = true;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Returns the type of the build, which is either "companion" or the extension of the output.
+   */
+  public String getBuildType() {
+    return context.isForCompanion() ? "companion" : ext;
+  }
+
   @Override
   public String toString() {
     return "Compiler{"
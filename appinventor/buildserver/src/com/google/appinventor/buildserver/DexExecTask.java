@@ -16,20 +16,16 @@
 
 package com.google.appinventor.buildserver;
 
+import com.google.appinventor.buildserver.util.DexCache;
+import com.google.appinventor.buildserver.util.DexerService;
 import com.google.appinventor.buildserver.util.Execution;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Dex task, modified from the Android SDK to run in BuildServer.
@@ -44,12 +40,9 @@ public class DexExecTask {
     private boolean mNoLocals = false;
     private int mChildProcessRamMb = 1024;
     private boolean mDisableDexMerger = false;
-    private static Map<String, String> alreadyChecked = new HashMap<String, String>();
     private String mainDexFile = null;
     private boolean mPredex = true;
 
-    private static final Object semaphore = new Object(); // Used to protect dex cache creation
-
 
     /**
      * Sets the value of the "executable" attribute.
@@ -118,63 +111,39 @@ public class DexExecTask {
             return true;
         }
 
-        synchronized (semaphore) {
-
-            final int count = inputs.size();
-            for (int i = 0; i < count; i++) {
-                File input = inputs.get(i);
-                if (input.isFile()) {
-                    // check if this libs needs to be pre-dexed
-                    String fileName = getDexFileName(input);
-                    File dexedLib = new File(mDexedLibs, fileName);
-                    String dexedLibPath = dexedLib.getAbsolutePath();
-
-                    if (!dexedLib.isFile()/*||
-                                                    dexedLib.lastModified() < input.lastModified()*/) {
-
-                        System.out.println(
-                            String.format("Pre-Dexing %1$s -> %2$s",
-                              input.getAbsolutePath(), fileName));
-
-                        if (dexedLib.isFile()) {
-                            dexedLib.delete();
+        DexCache cache = DexCache.forDirectory(new File(mDexedLibs));
+        final int count = inputs.size();
+        for (int i = 0; i < count; i++) {
+            File input = inputs.get(i);
+            if (input.isFile()) {
+                // check if this libs needs to be pre-dexed
+                File dexedLib;
+                try {
+                    dexedLib = cache.get(input, ".jar", new DexCache.Dexer() {
+                        @Override
+                        public File dex(File library, File outputDir) {
+                            File output = new File(outputDir, "classes.jar");
+                            System.out.println(
+                                String.format("Pre-Dexing %1$s", library.getAbsolutePath()));
+                            boolean dexSuccess = runDx(library, output.getAbsolutePath(),
+                                /*showInputs=*/ false);
+                            return dexSuccess ? output : null;
                         }
-
-                        boolean dexSuccess = runDx(input, dexedLibPath, /*showInputs=*/ false);
-                        if (!dexSuccess) return false;
-                    } else {
-                        System.out.println(
-                            String.format("Using Pre-Dexed %1$s <- %2$s",
-                              fileName, input.getAbsolutePath()));
-                    }
-
-                    // replace the input with the pre-dex libs.
-                    inputs.set(i, dexedLib);
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
                 }
-            }
-            return true;
-        }
-    }
-
-    private String getDexFileName(File inputFile) {
-        String hashed = getHashFor(inputFile);
-        return "dex-cached-" + hashed + ".jar";
-    }
+                if (dexedLib == null) return false;
+                System.out.println(
+                    String.format("Using Pre-Dexed %1$s <- %2$s",
+                      dexedLib.getName(), input.getAbsolutePath()));
 
-    private String getHashFor(File inputFile) {
-        String retval = alreadyChecked.get(inputFile.getAbsolutePath());
-        if (retval != null) return retval;
-        // add a hash of the original file path
-        try {
-            HashFunction hashFunction = Hashing.md5();
-            HashCode hashCode = hashFunction.hashBytes(Files.readAllBytes(inputFile.toPath()));
-            retval = hashCode.toString();
-            alreadyChecked.put(inputFile.getAbsolutePath(), retval);
-            return retval;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return "ERROR";
+                // replace the input with the pre-dex libs.
+                inputs.set(i, dexedLib);
+            }
         }
+        return true;
     }
 
     public boolean execute(List<File> paths) {
@@ -198,11 +167,6 @@ public class DexExecTask {
         int mx = mChildProcessRamMb - 200;
 
         List<String> commandLineList = new ArrayList<String>();
-        commandLineList.add(System.getProperty("java.home") + "/bin/java");
-        commandLineList.add("-mx" + mx + "M");
-        commandLineList.add("-jar");
-        commandLineList.add(mExecutable);
-
         commandLineList.add("--dex");
         commandLineList.add("--positions=lines");
 
@@ -230,12 +194,7 @@ public class DexExecTask {
             commandLineList.add(absPath);
         }
 
-        // Convert command line to an array
-        String[] dxCommandLine = new String[commandLineList.size()];
-        commandLineList.toArray(dxCommandLine);
-
-        return Execution.execute(null, dxCommandLine, System.out, System.err,
-            Execution.Timeout.LONG);
+        return DexerService.runDx(mExecutable, mx, commandLineList, Execution.Timeout.LONG);
 
     }
 
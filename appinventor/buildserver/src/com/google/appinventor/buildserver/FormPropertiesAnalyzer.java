@@ -88,8 +88,15 @@ public class FormPropertiesAnalyzer {
    * Returns the Set of component types used in the given form file source.
    */
   public static Set<String> getComponentTypesFromFormFile(String source) {
+    return getComponentTypesFromForm(parseSourceFile(source));
+  }
+
+  /**
+   * Returns the Set of component types used in a form, as returned by
+   * {@link #parseSourceFile(String)}.
+   */
+  public static Set<String> getComponentTypesFromForm(JSONObject propertiesObject) {
     Set<String> componentTypes = new HashSet<String>();
-    JSONObject propertiesObject = parseSourceFile(source);
     try {
       collectComponentTypes(propertiesObject.getJSONObject("Properties"), componentTypes);
     } catch (JSONException e) {
@@ -122,8 +129,18 @@ public class FormPropertiesAnalyzer {
    * @return A mapping of component type names to sets of blocks used
    */
   public static Map<String, Set<String>> getComponentBlocksFromSchemeFile(String source) {
+    return getComponentBlocksFromForm(parseSourceFile(source));
+  }
+
+  /**
+   * Extracts a mapping from component to set of blocks used from a form, as
+   * returned by {@link #parseSourceFile(String)}.
+   *
+   * @param propertiesObject the parsed properties of the form
+   * @return A mapping of component type names to sets of blocks used
+   */
+  public static Map<String, Set<String>> getComponentBlocksFromForm(JSONObject propertiesObject) {
     Map<String, Set<String>> result = new HashMap<>();
-    JSONObject propertiesObject = parseSourceFile(source);
     try {
       Queue<JSONObject> toProcess = new LinkedList<JSONObject>();
       toProcess.add(propertiesObject.getJSONObject("Properties"));
@@ -398,7 +415,17 @@ public class FormPropertiesAnalyzer {
     if (source == null) {
       throw new NullPointerException("Source must be specified");
     }
-    if (source.isEmpty()) {
+    analyzeBlocks(source.getBytes(UTF_8), analyzers);
+  }
+
+  /**
+   * Runs the given analyzers over a Blockly (XML) file in a single pass.
+   *
+   * @param source Contents of the Blockly file, encoded in UTF-8.
+   * @param analyzers The analyzers to run.
+   */
+  public static void analyzeBlocks(byte[] source, final ContentHandler... analyzers) {
+    if (source.length == 0) {
       return;  // Empty blocks file, so nothing to do.
     }
     try {
@@ -429,7 +456,7 @@ public class FormPropertiesAnalyzer {
           super.endElement(uri, localName, qname);
         }
       });
-      reader.parse(new InputSource(new ByteArrayInputStream(source.getBytes(UTF_8))));
+      reader.parse(new InputSource(new ByteArrayInputStream(source)));
     } catch (SAXException | IOException e) {
       throw new IllegalStateException(e);
     }
@@ -443,7 +470,18 @@ public class FormPropertiesAnalyzer {
    * @throws JSONException if the form's properties field is missing
    */
   public static String getFormOrientation(String source) throws JSONException {
-    JSONObject propertiesObject = parseSourceFile(source);
+    return getFormOrientation(parseSourceFile(source));
+  }
+
+  /**
+   * Returns the orientation set by the user for a form, as returned by
+   * {@link #parseSourceFile(String)}.
+   *
+   * @param propertiesObject the parsed properties of the form
+   * @return the screen orientation
+   * @throws JSONException if the form's properties field is missing
+   */
+  public static String getFormOrientation(JSONObject propertiesObject) throws JSONException {
     JSONObject props = propertiesObject.getJSONObject("Properties");
     return props.optString("ScreenOrientation", "unspecified");
   }
@@ -6,15 +6,24 @@
 
 package com.google.appinventor.buildserver;
 
+import com.google.appinventor.buildserver.util.DexCache;
 import com.google.appinventor.buildserver.util.Execution;
 import com.google.appinventor.buildserver.stats.NullStatReporter;
 import com.google.appinventor.buildserver.tasks.android.AndroidBuildFactory;
 
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.ZipFile;
 
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -31,10 +40,24 @@ public final class Main {
     @Option(name = "--isForCompanion", usage = "create the MIT AI2 Companion APK")
     boolean isForCompanion = false;
 
-    @Option(name = "--inputZipFile", required = true,
+    @Option(name = "--inputZipFile",
         usage = "the ZIP file of the project to build")
     File inputZipFile;
 
+    @Option(name = "--batchInput",
+        usage = "build many projects: a directory of project ZIP files, or a file listing one "
+            + "project ZIP file per line")
+    File batchInput;
+
+    @Option(name = "--parallelism",
+        usage = "the number of projects of a batch to build at once")
+    int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    @Option(name = "--summaryFile",
+        usage = "the JSON file in which to write the results of a batch. Defaults to "
+            + "summary.json in the output directory.")
+    File summaryFile;
+
     @Option(name = "--userName", required = true,
         usage = "the name of the user building the project")
     String userName;
@@ -51,6 +74,11 @@ public final class Main {
         usage = "the directory to cache the pre-dexed libraries")
     String dexCacheDir = null;
 
+    @Option(name = "--dexCacheMaxMb",
+        usage = "Maximum size, in MB, of the pre-dexed library cache. The least recently used "
+            + "libraries are deleted first. 0 means unlimited.")
+    long dexCacheMaxMb = 2048;
+
     @Option(name = "--includeDangerousPermissions",
         usage = "Add extra features not allowed in the Google Play store.")
     boolean includeDangerousPermissions = false;
@@ -91,6 +119,10 @@ public final class Main {
     CmdLineParser cmdLineParser = new CmdLineParser(commandLineOptions);
     try {
       cmdLineParser.parseArgument(args);
+      if ((commandLineOptions.inputZipFile == null) == (commandLineOptions.batchInput == null)) {
+        throw new CmdLineException(cmdLineParser,
+            "Exactly one of --inputZipFile and --batchInput must be given");
+      }
     } catch (CmdLineException e) {
       System.err.println(e.getMessage());
       cmdLineParser.printUsage(System.err);
@@ -103,11 +135,22 @@ public final class Main {
         throw new IllegalArgumentException(new IOException("Unable to create dex cache dir "
             + commandLineOptions.dexCacheDir));
       }
+      DexCache.configure(commandLineOptions.dexCacheMaxMb);
+      DexCache.forDirectory(cacheDir);
     }
 
     AndroidBuildFactory.install();
     // TODO(ewpatton): Install iOS build factory once published
 
+    if (commandLineOptions.isForCompanion) {
+      // If we are building for the Companion, disable timeouts
+      Execution.disableTimeouts();
+    }
+
+    if (commandLineOptions.batchInput != null) {
+      System.exit(buildBatch());
+    }
+
     ProjectBuilder projectBuilder = new ProjectBuilder(new NullStatReporter());
     ZipFile zip = null;
     try {
@@ -117,11 +160,6 @@ public final class Main {
       System.exit(1);
     }
 
-    if (commandLineOptions.isForCompanion) {
-      // If we are building for the Companion, disable timeouts
-      Execution.disableTimeouts();
-    }
-
     Result result = projectBuilder.build(commandLineOptions.userName,
                                          zip,
                                          commandLineOptions.outputDir,
@@ -137,5 +175,49 @@ public final class Main {
     System.exit(result.getResult());
   }
 
+  /**
+   * Builds all of the projects of a batch and writes the summary of their results.
+   *
+   * @return 0 if all of the projects were built successfully, 1 otherwise
+   */
+  private static int buildBatch() {
+    try {
+      List<File> projects = BatchBuilder.findProjects(commandLineOptions.batchInput);
+      LOG.info("Building " + projects.size() + " projects, "
+          + commandLineOptions.parallelism + " at a time");
+      JSONObject summary = BatchBuilder.run(projects, commandLineOptions.outputDir,
+          commandLineOptions.parallelism, new BatchBuilder.ProjectBuild() {
+            @Override
+            public Result build(File inputZip, File outputDir) throws IOException {
+              // A ProjectBuilder holds the outputs of its last build, so each build gets its own.
+              ProjectBuilder projectBuilder = new ProjectBuilder(new NullStatReporter());
+              try (ZipFile zip = new ZipFile(inputZip)) {
+                return projectBuilder.build(commandLineOptions.userName,
+                    zip,
+                    outputDir,
+                    commandLineOptions.outputFileName,
+                    commandLineOptions.isForCompanion,
+                    commandLineOptions.isForEmulator,
+                    commandLineOptions.includeDangerousPermissions,
+                    commandLineOptions.extensions,
+                    commandLineOptions.childProcessRamMb,
+                    commandLineOptions.dexCacheDir,
+                    null,
+                    commandLineOptions.ext);
+              }
+            }
+          });
+      File summaryFile = commandLineOptions.summaryFile != null ? commandLineOptions.summaryFile
+          : new File(commandLineOptions.outputDir, "summary.json");
+      Files.write(summary.toString(2), summaryFile, Charsets.UTF_8);
+      LOG.info("Built " + summary.getInt("succeeded") + " of " + projects.size()
+          + " projects in " + summary.getLong("millis") + " ms. Summary: " + summaryFile);
+      return summary.getInt("failed") == 0 ? 0 : 1;
+    } catch (IOException | JSONException | InterruptedException e) {
+      LOG.log(Level.SEVERE, "Unable to build " + commandLineOptions.batchInput, e);
+      return 1;
+    }
+  }
+
   // COV_NF_END
 }
@@ -7,16 +7,10 @@
 package com.google.appinventor.buildserver;
 
 import static com.google.appinventor.buildserver.context.Resources.RUNTIME_FILES_DIR;
-import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.BLOCKLY_SOURCE_EXTENSION;
-import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.FORM_PROPERTIES_EXTENSION;
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.PROJECT_DIRECTORY;
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.YAIL_FILE_EXTENSION;
 
-import com.google.appinventor.buildserver.FormPropertiesAnalyzer.BlockXmlAnalyzer;
-import com.google.appinventor.buildserver.FormPropertiesAnalyzer.ComponentBlocksExtractor;
-import com.google.appinventor.buildserver.FormPropertiesAnalyzer.PermissionBlockExtractor;
-import com.google.appinventor.buildserver.FormPropertiesAnalyzer.ScopeBlockExtractor;
 import com.google.appinventor.buildserver.context.CompilerContext;
 import com.google.appinventor.buildserver.context.Paths;
 import com.google.appinventor.buildserver.stats.StatReporter;
@@ -37,17 +31,12 @@ import com.google.common.io.Resources;
 import java.io.File;
 import java.io.IOException;
 
-import java.nio.charset.StandardCharsets;
-
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -106,18 +95,54 @@ public final class ProjectBuilder {
       boolean isForCompanion, boolean isForEmulator, boolean includeDangerousPermissions,
       String[] extraExtensions, int childProcessRam, String dexCachePath,
       BuildServer.ProgressReporter reporter, String ext) {
+    ProjectUpload upload;
+    try {
+      upload = ProjectUpload.extract(inputZip);
+    } catch (IOException e) {
+      LOG.severe("unexpected problem extracting project file from zip");
+      return Result.createFailingResult("", "Problems processing zip file.");
+    }
     try {
-      // Download project files into a temporary directory
-      File projectRoot = ProjectUtils.createNewTempDir();
+      return build(userName, upload, outputDir, outputFileName, isForCompanion, isForEmulator,
+          includeDangerousPermissions, extraExtensions, childProcessRam, dexCachePath, reporter,
+          ext);
+    } finally {
+      upload.close();
+    }
+  }
+
+  /**
+   * Builds a project that has already been extracted. The project directory is deleted once the
+   * build is done.
+   */
+  Result build(String userName, ProjectUpload upload, File outputDir, String outputFileName,
+      boolean isForCompanion, boolean isForEmulator, boolean includeDangerousPermissions,
+      String[] extraExtensions, int childProcessRam, String dexCachePath,
+      BuildServer.ProgressReporter reporter, String ext) {
+    try {
+      // Identical submissions of a project produce identical outputs, so serve them from the
+      // build cache when we can.
+      BuildResultCache cache = BuildResultCache.getInstance();
+      String cacheKey = null;
+      if (cache.isEnabled()) {
+        cacheKey = cache.computeKey(upload.getDigests(), ext, isForCompanion, isForEmulator,
+            includeDangerousPermissions, extraExtensions, outputFileName);
+        BuildResultCache.Hit hit = cacheKey == null ? null : cache.get(cacheKey, outputDir);
+        if (hit != null) {
+          LOG.info("Serving build of " + hit.getOutput().getName() + " from the build cache");
+          outputApk = hit.getOutput();
+          if (reporter != null) {
+            reporter.report(100);
+          }
+          return hit.getResult();
+        }
+      }
+
+      // The project files were extracted into a temporary directory as they were received
+      File projectRoot = upload.getProjectRoot();
       LOG.info("temporary project root: " + projectRoot.getAbsolutePath());
       try {
-        List<String> sourceFiles;
-        try {
-          sourceFiles = ProjectUtils.extractProjectFiles(inputZip, projectRoot);
-        } catch (IOException e) {
-          LOG.severe("unexpected problem extracting project file from zip");
-          return Result.createFailingResult("", "Problems processing zip file.");
-        }
+        List<String> sourceFiles = upload.getSourceFiles();
 
         File keyStoreFile = new File(projectRoot, KEYSTORE_FILE_NAME);
         String keyStorePath = keyStoreFile.getPath();
@@ -140,7 +165,11 @@ public final class ProjectBuilder {
         File buildTmpDir = new File(projectRoot, "build/tmp");
         buildTmpDir.mkdirs();
 
-        Set<String> componentTypes = getComponentTypes(sourceFiles, project.getAssetsDirectory());
+        // Read and analyze the forms and blocks once for everything below.
+        ProjectScanner.Model model = ProjectScanner.scan(sourceFiles);
+
+        Set<String> componentTypes = getComponentTypes(model.getComponentNames(),
+            project.getAssetsDirectory());
         if (isForCompanion) {
           componentTypes.addAll(getAllComponentTypes());
         }
@@ -148,17 +177,9 @@ public final class ProjectBuilder {
           System.err.println("Including extension: " + Arrays.toString(extraExtensions));
           Collections.addAll(componentTypes, extraExtensions);
         }
-        ComponentBlocksExtractor componentBlocksExtractor = new ComponentBlocksExtractor();
-        PermissionBlockExtractor permissionBlockExtractor = new PermissionBlockExtractor();
-        ScopeBlockExtractor scopeBlockExtractor = new ScopeBlockExtractor();
-        analyzeBlockFiles(sourceFiles, componentBlocksExtractor, permissionBlockExtractor,
-            scopeBlockExtractor);
-        Map<String, Set<String>> componentBlocks = componentBlocksExtractor.getResult();
-        Map<String, Set<String>> componentProperties = getComponentDesignerProperties(sourceFiles);
-        mergeMaps(componentBlocks, componentProperties);
-        Set<String> extraPermissions = permissionBlockExtractor.getResult();
-        Set<String> usedScopes = scopeBlockExtractor.getResult();
-        for (String scope : usedScopes) {
+        Map<String, Set<String>> componentBlocks = model.getComponentBlocks();
+        Set<String> extraPermissions = new HashSet<>(model.getBlockPermissions());
+        for (String scope : model.getScopes()) {
           switch (scope) {
             case "Shared":
               extraPermissions.add("android.permission.READ_MEDIA_AUDIO");
@@ -175,7 +196,7 @@ public final class ProjectBuilder {
               break;
           }
         }
-        Map<String, String> formOrientations = getScreenOrientations(sourceFiles);
+        Map<String, String> formOrientations = model.getFormOrientations();
 
         // Generate the compiler context
         Reporter r = new Reporter(reporter);
@@ -200,20 +221,21 @@ public final class ProjectBuilder {
         // Invoke YoungAndroid compiler
         Compiler<?, ?> compiler = factory.makeCompiler(context);
 
-        Future<Boolean> executor = Executors.newSingleThreadExecutor().submit(compiler);
-
         boolean success;
-        try {
-          if (isForCompanion) {
-            // If we are building for companion, very likely in CI, don't limit the build time...
-            success = executor.get();
-          } else {
-            success = executor.get(MAX_BUILD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-          }
+        boolean cancelled = false;
+        try (BuildHandle handle = BuildHandle.start(compiler)) {
+          // If we are building for companion, very likely in CI, don't limit the build time...
+          success = handle.await(isForCompanion ? 0 : MAX_BUILD_TIMEOUT_SECONDS);
         } catch (TimeoutException e) {
+          // Closing the handle has stopped the build and killed its child processes.
           LOG.severe("Build has timed out");
           context.getReporter().error("Build has timed out");
           success = false;
+        } catch (InterruptedException e) {
+          // The build was cancelled, e.g. through BuildServer's cancel endpoint.
+          LOG.warning("Build was cancelled");
+          success = false;
+          cancelled = true;
         }
 
         statReporter.stopBuild(compiler, success);
@@ -237,14 +259,23 @@ public final class ProjectBuilder {
             LOG.warning("Young Android build - " + outputFile + " does not exist");
           } else {
             outputApk = new File(outputDir, outputFile.getName());
-            Files.copy(outputFile, outputApk);
+            // The project directory is deleted after the build, so the output can be moved out.
+            Files.move(outputFile, outputApk);
             if (saveKeystore) {
               outputKeystore = new File(outputDir, KEYSTORE_FILE_NAME);
               Files.copy(keyStoreFile, outputKeystore);
             }
           }
         }
-        return new Result(success, messages, context.getReporter().getUserOutput());
+        Result result = new Result(success, messages, context.getReporter().getUserOutput());
+        if (success && cacheKey != null && outputApk != null) {
+          cache.put(cacheKey, outputApk, result);
+        }
+        if (cancelled) {
+          // Let the caller know that the build was cancelled.
+          Thread.currentThread().interrupt();
+        }
+        return result;
       } finally {
         // On some platforms (OS/X), the java.io.tmpdir contains a symlink. We need to use the
         // canonical path here so that Files.deleteRecursively will work.
@@ -269,82 +300,17 @@ public final class ProjectBuilder {
     return compSet;
   }
 
-  private static Map<String, String> getScreenOrientations(List<String> files)
-      throws IOException, JSONException {
-    Map<String, String> result = new HashMap<>();
-    final int extLength = FORM_PROPERTIES_EXTENSION.length();
-    for (String f : files) {
-      if (f.endsWith(FORM_PROPERTIES_EXTENSION)) {
-        File scmFile = new File(f);
-        String scmContent = new String(Files.toByteArray(scmFile),
-            StandardCharsets.UTF_8);
-        String formName = f.substring(f.lastIndexOf(SEPARATOR) + 1, f.length() - extLength);
-        result.put(formName, FormPropertiesAnalyzer.getFormOrientation(scmContent));
-      }
-    }
-    return result;
-  }
-
-  private static Set<String> getComponentTypes(List<String> files, File assetsDir)
+  private static Set<String> getComponentTypes(Set<String> componentNames, File assetsDir)
       throws IOException, JSONException {
     Map<String, String> nameTypeMap = createNameTypeMap(assetsDir);
 
     Set<String> componentTypes = Sets.newHashSet();
-    for (String f : files) {
-      if (f.endsWith(FORM_PROPERTIES_EXTENSION)) {
-        File scmFile = new File(f);
-        String scmContent = new String(Files.toByteArray(scmFile),
-            PathUtil.DEFAULT_CHARSET);
-        for (String compName : getTypesFromScm(scmContent)) {
-          componentTypes.add(nameTypeMap.get(compName));
-        }
-      }
+    for (String compName : componentNames) {
+      componentTypes.add(nameTypeMap.get(compName));
     }
     return componentTypes;
   }
 
-  private static void analyzeBlockFiles(List<String> files, BlockXmlAnalyzer<?>... analyzers)
-      throws IOException {
-    for (String f : files) {
-      if (f.endsWith(BLOCKLY_SOURCE_EXTENSION)) {
-        File bkyFile = new File(f);
-        String bkyContent = Files.toString(bkyFile, StandardCharsets.UTF_8);
-        FormPropertiesAnalyzer.analyzeBlocks(bkyContent, analyzers);
-      }
-    }
-  }
-
-  /**
-   * Constructs a mapping of component types to the blocks of each type used in
-   * the project files. Properties specified in the designer are considered
-   * blocks for the purposes of this operation.
-   *
-   * @param files A list of files contained in the project.
-   * @return A mapping of component type names to sets of block names used in
-   *         the project
-   * @throws IOException if any of the files named in {@code files} cannot be
-   *                     read
-   */
-  private static Map<String, Set<String>> getComponentDesignerProperties(List<String> files)
-      throws IOException {
-    Map<String, Set<String>> result = new HashMap<>();
-    for (String f : files) {
-      if (f.endsWith(FORM_PROPERTIES_EXTENSION)) {
-        File scmFile = new File(f);
-        String scmContent = Files.toString(scmFile, StandardCharsets.UTF_8);
-        for (Map.Entry<String, Set<String>> entry :
-            FormPropertiesAnalyzer.getComponentBlocksFromSchemeFile(scmContent).entrySet()) {
-          if (result.containsKey(entry.getKey())) {
-            result.get(entry.getKey()).addAll(entry.getValue());
-          } else {
-            result.put(entry.getKey(), entry.getValue());
-          }
-        }
-      }
-    }
-    return result;
-  }
-
   /**
    * In ode code, component names are used to identify a component though the
    * variables storing component names appear to be "type". While there's no
@@ -532,16 +498,4 @@ public final class ProjectBuilder {
     sb.append('"');
     return sb.toString();
   }
-
-  private static void mergeMaps(Map<String, Set<String>> dest, Map<String, Set<String>> src) {
-    for (Map.Entry<String, Set<String>> entry : src.entrySet()) {
-      String key = entry.getKey();
-      Set<String> value = entry.getValue();
-      if (dest.containsKey(key)) {
-        dest.get(key).addAll(value);
-      } else {
-        dest.put(key, value);
-      }
-    }
-  }
 }
@@ -0,0 +1,229 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.BLOCKLY_SOURCE_EXTENSION;
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.FORM_PROPERTIES_EXTENSION;
+
+import com.google.appinventor.buildserver.FormPropertiesAnalyzer.ComponentBlocksExtractor;
+import com.google.appinventor.buildserver.FormPropertiesAnalyzer.PermissionBlockExtractor;
+import com.google.appinventor.buildserver.FormPropertiesAnalyzer.ScopeBlockExtractor;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Scans the sources of a project in a single pass before it is built.
+ *
+ * <p>Each form (.scm) file is read and its JSON parsed once, and each blocks (.bky) file is read
+ * once and analyzed by all of the block extractors in a single SAX pass. Files are scanned in
+ * parallel on a small pool shared by all builds.</p>
+ */
+final class ProjectScanner {
+  private static final int THREADS = Math.max(2,
+      Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS,
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("project-scanner-%d").build());
+
+  /**
+   * The information about a project that the build needs from its sources. It is immutable.
+   */
+  static final class Model {
+    private final Set<String> componentNames;
+    private final Map<String, Set<String>> componentBlocks;
+    private final Set<String> blockPermissions;
+    private final Set<String> scopes;
+    private final Map<String, String> formOrientations;
+
+    private Model(Set<String> componentNames, Map<String, Set<String>> componentBlocks,
+        Set<String> blockPermissions, Set<String> scopes, Map<String, String> formOrientations) {
+      this.componentNames = Collections.unmodifiableSet(componentNames);
+      for (Map.Entry<String, Set<String>> entry : componentBlocks.entrySet()) {
+        entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+      }
+      this.componentBlocks = Collections.unmodifiableMap(componentBlocks);
+      this.blockPermissions = Collections.unmodifiableSet(blockPermissions);
+      this.scopes = Collections.unmodifiableSet(scopes);
+      this.formOrientations = Collections.unmodifiableMap(formOrientations);
+    }
+
+    /**
+     * Returns the names (e.g., {@code Button}) of the component types used in the forms.
+     */
+    Set<String> getComponentNames() {
+      return componentNames;
+    }
+
+    /**
+     * Returns the blocks used for each component type, including the properties set in the
+     * designer. Disabled blocks are excluded.
+     */
+    Map<String, Set<String>> getComponentBlocks() {
+      return componentBlocks;
+    }
+
+    /**
+     * Returns the permissions requested by Permission helper blocks.
+     */
+    Set<String> getBlockPermissions() {
+      return blockPermissions;
+    }
+
+    /**
+     * Returns the file scopes used by FileScope helper blocks.
+     */
+    Set<String> getScopes() {
+      return scopes;
+    }
+
+    /**
+     * Returns the orientation of each screen, keyed by form name.
+     */
+    Map<String, String> getFormOrientations() {
+      return formOrientations;
+    }
+  }
+
+  /**
+   * The result of scanning a single file.
+   */
+  private static final class FileScan {
+    String formName = null;
+    String formOrientation = null;
+    Set<String> componentNames = Collections.emptySet();
+    Map<String, Set<String>> componentBlocks = Collections.emptyMap();
+    Set<String> blockPermissions = Collections.emptySet();
+    Set<String> scopes = Collections.emptySet();
+  }
+
+  private ProjectScanner() {
+  }
+
+  /**
+   * Scans the form and blocks files of a project.
+   *
+   * @param files the files of the project
+   * @return the model of the project
+   * @throws IOException if a file cannot be read
+   * @throws JSONException if a form file is malformed
+   */
+  static Model scan(List<String> files) throws IOException, JSONException {
+    List<Future<FileScan>> scans = new ArrayList<>();
+    try {
+      for (final String f : files) {
+        if (f.endsWith(FORM_PROPERTIES_EXTENSION)) {
+          scans.add(POOL.submit(new Callable<FileScan>() {
+            @Override
+            public FileScan call() throws IOException, JSONException {
+              return scanForm(f);
+            }
+          }));
+        } else if (f.endsWith(BLOCKLY_SOURCE_EXTENSION)) {
+          scans.add(POOL.submit(new Callable<FileScan>() {
+            @Override
+            public FileScan call() throws IOException {
+              return scanBlocks(f);
+            }
+          }));
+        }
+      }
+
+      Set<String> componentNames = new HashSet<>();
+      Map<String, Set<String>> componentBlocks = new HashMap<>();
+      Set<String> blockPermissions = new HashSet<>();
+      Set<String> scopes = new HashSet<>();
+      Map<String, String> formOrientations = new HashMap<>();
+      for (Future<FileScan> future : scans) {
+        FileScan scan = getResult(future);
+        componentNames.addAll(scan.componentNames);
+        for (Map.Entry<String, Set<String>> entry : scan.componentBlocks.entrySet()) {
+          if (componentBlocks.containsKey(entry.getKey())) {
+            componentBlocks.get(entry.getKey()).addAll(entry.getValue());
+          } else {
+            componentBlocks.put(entry.getKey(), new HashSet<>(entry.getValue()));
+          }
+        }
+        blockPermissions.addAll(scan.blockPermissions);
+        scopes.addAll(scan.scopes);
+        if (scan.formName != null) {
+          formOrientations.put(scan.formName, scan.formOrientation);
+        }
+      }
+      return new Model(componentNames, componentBlocks, blockPermissions, scopes,
+          formOrientations);
+    } finally {
+      // Stop scanning the remaining files if one of them failed.
+      for (Future<FileScan> future : scans) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private static FileScan scanForm(String f) throws IOException, JSONException {
+    String scmContent = Files.toString(new File(f), StandardCharsets.UTF_8);
+    JSONObject form = FormPropertiesAnalyzer.parseSourceFile(scmContent);
+    FileScan scan = new FileScan();
+    scan.formName = f.substring(f.lastIndexOf(File.separator) + 1,
+        f.length() - FORM_PROPERTIES_EXTENSION.length());
+    scan.formOrientation = FormPropertiesAnalyzer.getFormOrientation(form);
+    scan.componentNames = FormPropertiesAnalyzer.getComponentTypesFromForm(form);
+    scan.componentBlocks = FormPropertiesAnalyzer.getComponentBlocksFromForm(form);
+    return scan;
+  }
+
+  private static FileScan scanBlocks(String f) throws IOException {
+    ComponentBlocksExtractor componentBlocksExtractor = new ComponentBlocksExtractor();
+    PermissionBlockExtractor permissionBlockExtractor = new PermissionBlockExtractor();
+    ScopeBlockExtractor scopeBlockExtractor = new ScopeBlockExtractor();
+    FormPropertiesAnalyzer.analyzeBlocks(Files.toByteArray(new File(f)),
+        componentBlocksExtractor, permissionBlockExtractor, scopeBlockExtractor);
+    FileScan scan = new FileScan();
+    scan.componentBlocks = componentBlocksExtractor.getResult();
+    scan.blockPermissions = permissionBlockExtractor.getResult();
+    scan.scopes = scopeBlockExtractor.getResult();
+    return scan;
+  }
+
+  private static FileScan getResult(Future<FileScan> future) throws IOException, JSONException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while scanning the project", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof JSONException) {
+        throw (JSONException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+}
@@ -0,0 +1,175 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
+
+import com.google.appinventor.buildserver.util.ProjectUtils;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A project that has been extracted into a temporary directory, ready to be built.
+ *
+ * <p>An uploaded project is read as a zip stream, and each entry is written to the project
+ * directory as it arrives, so the upload is never stored as a zip file as well. The content of
+ * each entry is digested as it is written, which gives {@link BuildResultCache} its key without
+ * reading the project again.</p>
+ *
+ * <p>Closing the upload deletes the project directory.</p>
+ */
+final class ProjectUpload implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File projectRoot;
+  private final String rootPrefix;
+  private final String sourcePrefix;
+  private final List<String> sourceFiles = new ArrayList<>();
+  private final SortedMap<String, byte[]> digests = new TreeMap<>();
+  private long size;
+
+  private ProjectUpload(File projectRoot) throws IOException {
+    this.projectRoot = projectRoot;
+    this.rootPrefix = projectRoot.getCanonicalPath() + File.separator;
+    // Make sure to skip returning any file not in the src/ directory, to avoid corrupted AIAs
+    // containing scm or bky in the assets' directory.
+    this.sourcePrefix = new File(projectRoot, SRC_FOLDER).getAbsolutePath() + File.separator;
+  }
+
+  /**
+   * Extracts a project from a zip stream, such as the body of a build request.
+   *
+   * @param in the zip stream, which is read to its end but not closed
+   * @throws IOException if the stream cannot be read or is not a project zip
+   */
+  static ProjectUpload extract(InputStream in) throws IOException {
+    ProjectUpload upload = new ProjectUpload(ProjectUtils.createNewTempDir());
+    try {
+      CountingInputStream counter = new CountingInputStream(in);
+      ZipInputStream zip = new ZipInputStream(new BufferedInputStream(counter, BUFFER_SIZE));
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (!entry.isDirectory()) {
+          upload.add(entry.getName(), zip);
+        }
+      }
+      // Read past the central directory, so that the whole request has been consumed.
+      ByteStreams.copy(counter, ByteStreams.nullOutputStream());
+      upload.size = counter.getCount();
+      upload.checkNotEmpty();
+      return upload;
+    } catch (IOException | RuntimeException e) {
+      upload.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Extracts a project from a zip file, such as one given on the command line.
+   *
+   * @param zipFile the zip file
+   * @throws IOException if the zip file cannot be read or is not a project zip
+   */
+  static ProjectUpload extract(ZipFile zipFile) throws IOException {
+    ProjectUpload upload = new ProjectUpload(ProjectUtils.createNewTempDir());
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (!entry.isDirectory()) {
+          try (InputStream in = zipFile.getInputStream(entry)) {
+            upload.add(entry.getName(), in);
+          }
+        }
+      }
+      upload.size = new File(zipFile.getName()).length();
+      upload.checkNotEmpty();
+      return upload;
+    } catch (IOException | RuntimeException e) {
+      upload.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the directory that the project was extracted into.
+   */
+  File getProjectRoot() {
+    return projectRoot;
+  }
+
+  /**
+   * Returns the paths of the extracted files in the project's src directory.
+   */
+  List<String> getSourceFiles() {
+    return Collections.unmodifiableList(sourceFiles);
+  }
+
+  /**
+   * Returns the SHA-256 digest of the content of each file of the project, by name.
+   */
+  SortedMap<String, byte[]> getDigests() {
+    return Collections.unmodifiableSortedMap(digests);
+  }
+
+  /**
+   * Returns the size of the project zip, in bytes.
+   */
+  long getSize() {
+    return size;
+  }
+
+  @Override
+  public void close() {
+    FileUtils.deleteQuietly(projectRoot);
+  }
+
+  private void add(String name, InputStream in) throws IOException {
+    File file = new File(projectRoot, name);
+    if (!file.getCanonicalPath().startsWith(rootPrefix)) {
+      throw new ZipException("Entry is outside of the project: " + name);
+    }
+    Files.createParentDirs(file);
+    MessageDigest digest = BuildResultCache.newDigest();
+    try (OutputStream out = new DigestOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE), digest)) {
+      ByteStreams.copy(in, out);
+    }
+    if (digests.put(name, digest.digest()) == null && file.getPath().startsWith(sourcePrefix)) {
+      sourceFiles.add(file.getPath());
+    }
+  }
+
+  private void checkNotEmpty() throws ZipException {
+    if (digests.isEmpty()) {
+      throw new ZipException("The project zip is empty");
+    }
+  }
+}
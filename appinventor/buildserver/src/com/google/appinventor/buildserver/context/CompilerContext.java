@@ -9,11 +9,12 @@ package com.google.appinventor.buildserver.context;
 import com.google.appinventor.buildserver.Project;
 import com.google.appinventor.buildserver.Reporter;
 import com.google.appinventor.buildserver.stats.StatReporter;
+import com.google.appinventor.buildserver.util.ComponentBuildInfo;
 
 import java.io.File;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codehaus.jettison.json.JSONArray;
 
@@ -38,9 +39,9 @@ public class CompilerContext<P extends Paths> {
   String dexCacheDir;
   String outputFileName;
 
-  JSONArray simpleCompsBuildInfo;
+  ComponentBuildInfo simpleCompsBuildInfo;
   JSONArray extCompsBuildInfo;
-  JSONArray buildInfo;
+  ComponentBuildInfo buildInfo;
   Set<String> simpleCompTypes;  // types needed by the project
   Set<String> extCompTypes; // types needed by the project
 
@@ -192,7 +193,7 @@ public class CompilerContext<P extends Paths> {
       context.resources = new Resources();
       context.componentInfo = new ComponentInfo();
 
-      context.extTypePathCache = new HashMap<>();
+      context.extTypePathCache = new ConcurrentHashMap<>();
 
       System.out.println(this);
 
@@ -264,15 +265,15 @@ public class CompilerContext<P extends Paths> {
     return outputFileName;
   }
 
-  public JSONArray getBuildInfo() {
+  public ComponentBuildInfo getBuildInfo() {
     return buildInfo;
   }
 
-  public void setBuildInfo(JSONArray buildInfo) {
+  public void setBuildInfo(ComponentBuildInfo buildInfo) {
     this.buildInfo = buildInfo;
   }
 
-  public JSONArray getSimpleCompsBuildInfo() {
+  public ComponentBuildInfo getSimpleCompsBuildInfo() {
     return simpleCompsBuildInfo;
   }
 
@@ -292,7 +293,7 @@ public class CompilerContext<P extends Paths> {
     return paths;
   }
 
-  public void setSimpleCompsBuildInfo(JSONArray simpleCompsBuildInfo) {
+  public void setSimpleCompsBuildInfo(ComponentBuildInfo simpleCompsBuildInfo) {
     this.simpleCompsBuildInfo = simpleCompsBuildInfo;
   }
 
@@ -7,6 +7,7 @@ package com.google.appinventor.buildserver.context;
 
 import com.google.appinventor.buildserver.Compiler;
 import com.google.appinventor.buildserver.PathUtil;
+import com.google.appinventor.buildserver.util.ComponentBuildInfo;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 import java.awt.image.BufferedImage;
@@ -18,10 +19,14 @@ import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.imageio.ImageIO;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
 
 @SuppressWarnings("UnstableApiUsage")
 public class Resources {
   private static final ConcurrentMap<String, File> RESOURCES = new ConcurrentHashMap<>();
+  // The parsed build info of the built-in components, shared by all builds.
+  private static ComponentBuildInfo simpleCompsBuildInfo = null;
   private final List<File> dexFiles;
 
   private String[] supportJars;
@@ -29,8 +34,8 @@ public class Resources {
 
   private File appRTxt;
 
-  // Kawa and DX processes can use a lot of memory. We only launch one Kawa or DX process at a time.
-  private static final Object SYNC_KAWA_OR_DX = new Object();
+  // The precompiled YAIL runtime used by this build, if any.
+  private File compiledYailRuntime;
 
   public static final String RUNTIME_FILES_DIR = "/files/";
   public static final String RUNTIME_TOOLS_DIR = "/tools/";
@@ -102,10 +107,6 @@ public class Resources {
     return dexFiles;
   }
 
-  public Object getSyncKawaOrDx() {
-    return SYNC_KAWA_OR_DX;
-  }
-
   public String getRuntimeFilesDir() {
     return Resources.RUNTIME_FILES_DIR;
   }
@@ -170,6 +171,18 @@ public class Resources {
     return getResource(YAIL_RUNTIME);
   }
 
+  /**
+   * Returns the jar of the precompiled YAIL runtime that the screens were compiled against, or
+   * null if the runtime was compiled along with the screens into the classes directory.
+   */
+  public File getCompiledYailRuntime() {
+    return compiledYailRuntime;
+  }
+
+  public void setCompiledYailRuntime(File compiledYailRuntime) {
+    this.compiledYailRuntime = compiledYailRuntime;
+  }
+
   public BufferedImage getDefaultIcon() throws IOException {
     return ImageIO.read(Objects.requireNonNull(Compiler.class.getResource(DEFAULT_ICON)));
   }
@@ -189,6 +202,26 @@ public class Resources {
     }
   }
 
+  /**
+   * Get the index of the build info of the built-in components. It is parsed on first use and
+   * then shared by all builds.
+   *
+   * @return the index of simple_components_build_info.json
+   * @throws JSONException if the build info is missing or malformed
+   */
+  public ComponentBuildInfo getSimpleCompsBuildInfo() throws JSONException {
+    synchronized (Resources.class) {
+      if (simpleCompsBuildInfo == null) {
+        String json = getCompBuildInfo();
+        if (json == null) {
+          throw new JSONException("Unable to read " + COMP_BUILD_INFO);
+        }
+        simpleCompsBuildInfo = ComponentBuildInfo.parse(new JSONArray(json));
+      }
+      return simpleCompsBuildInfo;
+    }
+  }
+
   /**
    * Get the path to the aapt executable for the current platform.
    *
@@ -0,0 +1,85 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.stats;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide measurements of the child processes that builds start, such as aapt2 and the
+ * forked Java tools.
+ */
+public final class ChildProcessStats {
+  private static final ChildProcessStats INSTANCE = new ChildProcessStats();
+
+  private static final File PROC_STAT = new File("/proc/self/stat");
+  // The unit of the CPU times in /proc, USER_HZ, is 100 on all Linux platforms we run on.
+  private static final long MILLIS_PER_CLOCK_TICK = 10;
+
+  private final ConcurrentMap<String, Histogram> wallTimes = new ConcurrentHashMap<>();
+
+  private ChildProcessStats() {
+  }
+
+  public static ChildProcessStats getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Records that a child process has exited.
+   *
+   * @param tool the name of the program that ran
+   * @param wallMillis the time the process ran, in milliseconds
+   */
+  public void record(String tool, long wallMillis) {
+    StatUtils.histogramOf(wallTimes, tool).record(wallMillis);
+  }
+
+  /**
+   * Returns the histograms of the wall time of child processes, keyed by program name.
+   */
+  public Map<String, Histogram> getWallTimes() {
+    return Collections.unmodifiableMap(new TreeMap<>(wallTimes));
+  }
+
+  /**
+   * Returns the user and system CPU time used by the child processes of this server that have
+   * exited, in milliseconds, or -1 if the operating system does not report it. Resident workers
+   * are only counted once they retire.
+   */
+  public long getCpuMillis() {
+    try {
+      String stat = Files.toString(PROC_STAT, Charsets.US_ASCII);
+      // The fields following the command name, which is in parentheses, start with the state
+      // (field 3). cutime and cstime are fields 16 and 17.
+      String[] fields = stat.substring(stat.lastIndexOf(')') + 2).trim().split(" ");
+      return (Long.parseLong(fields[13]) + Long.parseLong(fields[14])) * MILLIS_PER_CLOCK_TICK;
+    } catch (IOException | RuntimeException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Writes the measurements in the Prometheus text format.
+   */
+  public void writeMetrics(PrometheusWriter writer) {
+    writer.histograms("buildserver_child_process_duration_seconds",
+        "Wall time of child processes by program.", "tool", getWallTimes());
+    long cpuMillis = getCpuMillis();
+    if (cpuMillis >= 0) {
+      writer.counter("buildserver_child_process_cpu_seconds_total",
+          "CPU time used by child processes that have exited.", cpuMillis / 1000.0);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values, such as latencies in milliseconds.
+ *
+ * <p>Like an HDR histogram, values are counted in log-linear buckets: every power of two is
+ * split into {@value #SUB_BUCKETS} buckets of equal width, so percentiles are accurate to within
+ * 12.5% over the whole range of a long while the histogram takes a fixed 4 KB. Values below
+ * {@value #SUB_BUCKETS} are counted exactly. Recording a value only updates atomic counters, so
+ * any number of threads may record at once.</p>
+ */
+public final class Histogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong(0);
+  private final AtomicLong sum = new AtomicLong(0);
+  private final AtomicLong max = new AtomicLong(0);
+
+  /**
+   * Records a value. Negative values are recorded as 0.
+   *
+   * @param value the value to record
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(indexOf(value));
+    sum.addAndGet(value);
+    StatUtils.updateMax(max, value);
+    // The count is updated last, so that readers never see more values than were bucketed.
+    count.incrementAndGet();
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSum() {
+    return sum.get();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Returns the number of recorded values that are less than a bound. The result is exact when
+   * the bound is a power of two, and otherwise rounded down to the nearest bucket.
+   *
+   * @param bound the exclusive upper bound
+   */
+  public long getCountBelow(long bound) {
+    long result = 0;
+    for (int i = 0; i < BUCKETS && upperBoundOf(i) <= bound; i++) {
+      result += counts.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns an upper estimate of the value at a percentile, or 0 if no values were recorded.
+   *
+   * @param percentile the percentile, between 0 and 100
+   */
+  public long getValueAtPercentile(double percentile) {
+    long total = count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(Math.min(100, percentile) / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        long upperBound = upperBoundOf(i);
+        return upperBound == Long.MAX_VALUE ? max.get() : Math.min(upperBound - 1, max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+  }
+
+  // Returns the exclusive upper bound of a bucket, saturating at Long.MAX_VALUE.
+  static long upperBoundOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index + 1;
+    }
+    int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+    long next = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS + 1;
+    if (Long.numberOfLeadingZeros(next) <= shift) {
+      return Long.MAX_VALUE;
+    }
+    return next << shift;
+  }
+}
@@ -25,4 +25,16 @@ public class NullStatReporter implements StatReporter {
   @Override
   public void stopBuild(Compiler compiler, boolean success) {
   }
+
+  @Override
+  public void finishTask(Compiler<?, ?> compiler, String task, long millis, boolean success) {
+  }
+
+  @Override
+  public void queueBuild(int queueDepth) {
+  }
+
+  @Override
+  public void dequeueBuild(long waitMillis, int queueDepth) {
+  }
 }
@@ -0,0 +1,105 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.stats;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Writes metrics in the Prometheus text exposition format (version 0.0.4).
+ *
+ * <p>Histograms record milliseconds and are written in seconds, with buckets at the powers of two
+ * from 16 ms to about 9 minutes, where the buckets of {@link Histogram} are exact.</p>
+ */
+public final class PrometheusWriter {
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final int MIN_BUCKET_SHIFT = 4;
+  private static final int MAX_BUCKET_SHIFT = 19;
+
+  private final StringBuilder out = new StringBuilder();
+
+  /**
+   * Writes a counter, i.e., a value that only goes up.
+   */
+  public PrometheusWriter counter(String name, String help, double value) {
+    header(name, help, "counter");
+    out.append(name).append(' ').append(format(value)).append('\n');
+    return this;
+  }
+
+  /**
+   * Writes a gauge, i.e., a value that may go up and down.
+   */
+  public PrometheusWriter gauge(String name, String help, double value) {
+    header(name, help, "gauge");
+    out.append(name).append(' ').append(format(value)).append('\n');
+    return this;
+  }
+
+  /**
+   * Writes a histogram of milliseconds.
+   */
+  public PrometheusWriter histogram(String name, String help, Histogram histogram) {
+    return histograms(name, help, null, Collections.singletonMap((String) null, histogram));
+  }
+
+  /**
+   * Writes a family of histograms of milliseconds, one for each value of a label.
+   *
+   * @param name the name of the metric, which should end in {@code _seconds}
+   * @param help the description of the metric
+   * @param label the name of the label
+   * @param histograms the histograms, keyed by label value
+   */
+  public PrometheusWriter histograms(String name, String help, String label,
+      Map<String, Histogram> histograms) {
+    header(name, help, "histogram");
+    for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+      String labels = label == null ? "" : label + "=\"" + escape(entry.getKey()) + "\"";
+      String separator = labels.isEmpty() ? "" : ",";
+      Histogram histogram = entry.getValue();
+      // Read the count first, so that no bucket holds more values than the total.
+      long count = histogram.getCount();
+      for (int shift = MIN_BUCKET_SHIFT; shift <= MAX_BUCKET_SHIFT; shift++) {
+        long bound = 1L << shift;
+        out.append(name).append("_bucket{").append(labels).append(separator)
+            .append("le=\"").append(format(bound / 1000.0)).append("\"} ")
+            .append(Math.min(count, histogram.getCountBelow(bound))).append('\n');
+      }
+      out.append(name).append("_bucket{").append(labels).append(separator)
+          .append("le=\"+Inf\"} ").append(count).append('\n');
+      out.append(name).append("_sum").append(labels.isEmpty() ? "" : "{" + labels + "}")
+          .append(' ').append(format(histogram.getSum() / 1000.0)).append('\n');
+      out.append(name).append("_count").append(labels.isEmpty() ? "" : "{" + labels + "}")
+          .append(' ').append(count).append('\n');
+    }
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    return out.toString();
+  }
+
+  private void header(String name, String help, String type) {
+    out.append("# HELP ").append(name).append(' ')
+        .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static String format(double value) {
+    if (value == Math.rint(value) && !Double.isInfinite(value)) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static String escape(String value) {
+    return String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"")
+        .replace("\n", "\\n");
+  }
+}
@@ -9,15 +9,22 @@ import com.google.appinventor.buildserver.Compiler;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 /**
  * SimpleStatReporter stores build performance measurements in memory. It saves the last
- * {@link #MAX_STATS} entries (currently 1000), evicting the oldest entries first.
+ * {@link #MAX_STATS} entries (currently 1000), evicting the oldest entries first. It also keeps
+ * latency histograms of every build type, task and queue wait since the server started.
+ *
+ * <p>Builds run on several threads at once, so recording never takes a lock.</p>
  *
  * @author Evan W. Patton (ewpatton@mit.edu)
  */
@@ -32,7 +39,9 @@ public class SimpleStatReporter implements StatReporter {
    */
   public static class BuildStats {
     private final long start = System.currentTimeMillis();
-    private final Map<String, Long> stages = new LinkedHashMap<>();
+    // The stages of a build whose tasks run in parallel are recorded by several threads.
+    private final Map<String, Long> stages =
+        Collections.synchronizedMap(new LinkedHashMap<String, Long>());
     private long end;
     private long duration;
     private long last = start;
@@ -58,12 +67,40 @@ public class SimpleStatReporter implements StatReporter {
     }
   }
 
-  private final Map<Compiler, BuildStats> activeBuilds = new HashMap<>();
-  private final Map<Compiler, String> currentStages = new HashMap<>();
+  /**
+   * The most recent builds, newest first.
+   */
+  private static class RecentBuilds {
+    private final Deque<BuildStats> builds = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    void add(BuildStats stats) {
+      builds.addFirst(stats);
+      if (size.incrementAndGet() > MAX_STATS && builds.pollLast() != null) {
+        size.decrementAndGet();
+      }
+    }
+  }
 
-  private final Deque<BuildStats> successfulBuilds = new LinkedList<>();
-  private final Deque<BuildStats> failedBuilds = new LinkedList<>();
-  private final Deque<BuildStats> orderedBuilds = new LinkedList<>();
+  private final ConcurrentMap<Compiler, BuildStats> activeBuilds = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Compiler, String> currentStages = new ConcurrentHashMap<>();
+
+  private final RecentBuilds successfulBuilds = new RecentBuilds();
+  private final RecentBuilds failedBuilds = new RecentBuilds();
+  private final RecentBuilds orderedBuilds = new RecentBuilds();
+
+  // Latency histograms, in milliseconds.
+  private final ConcurrentMap<String, Histogram> buildTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> taskTimes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Histogram> failedTaskTimes = new ConcurrentHashMap<>();
+  private final Histogram queueWaits = new Histogram();
+
+  private final AtomicLong successfulBuildCount = new AtomicLong(0);
+  private final AtomicLong failedBuildCount = new AtomicLong(0);
+
+  // Queue statistics.
+  private final AtomicInteger queueDepth = new AtomicInteger(0);
+  private final AtomicLong maxQueueDepth = new AtomicLong(0);
 
   @Override
   public void startBuild(Compiler compiler) {
@@ -72,12 +109,8 @@ public class SimpleStatReporter implements StatReporter {
 
   @Override
   public void nextStage(Compiler compiler, String newStage) {
-    BuildStats stats;
-    String previousStage;
-    synchronized (this) {
-      stats = activeBuilds.get(compiler);
-      previousStage = currentStages.get(compiler);
-    }
+    BuildStats stats = activeBuilds.get(compiler);
+    String previousStage = currentStages.get(compiler);
     if (stats == null) {
       LOG.warning("Got compiler with uninitialized stats object");
       return;
@@ -91,12 +124,8 @@ public class SimpleStatReporter implements StatReporter {
 
   @Override
   public void stopBuild(Compiler compiler, boolean success) {
-    BuildStats stats;
-    String previousStage;
-    synchronized (this) {
-      stats = activeBuilds.remove(compiler);
-      previousStage = currentStages.remove(compiler);
-    }
+    BuildStats stats = activeBuilds.remove(compiler);
+    String previousStage = currentStages.remove(compiler);
     if (stats == null) {
       LOG.warning("Got compiler with uninitialized stats object");
       return;
@@ -106,29 +135,101 @@ public class SimpleStatReporter implements StatReporter {
     if (previousStage != null) {
       stats.stages.put(previousStage, stats.end - stats.last);
     }
-    queueAndExpire(stats, success ? successfulBuilds : failedBuilds);
-    queueAndExpire(stats, orderedBuilds);
+    (success ? successfulBuilds : failedBuilds).add(stats);
+    orderedBuilds.add(stats);
+    (success ? successfulBuildCount : failedBuildCount).incrementAndGet();
+    StatUtils.histogramOf(buildTimes, compiler.getBuildType()).record(stats.duration);
+  }
+
+  @Override
+  public void finishTask(Compiler<?, ?> compiler, String task, long millis, boolean success) {
+    StatUtils.histogramOf(success ? taskTimes : failedTaskTimes, task).record(millis);
+    // A task that was not entered as a stage, because the tasks of its build run in parallel,
+    // is its own stage.
+    BuildStats stats = activeBuilds.get(compiler);
+    if (stats != null && !task.equals(currentStages.get(compiler))) {
+      stats.stages.put(task, millis);
+    }
+  }
+
+  @Override
+  public void queueBuild(int queueDepth) {
+    this.queueDepth.set(queueDepth);
+    StatUtils.updateMax(maxQueueDepth, queueDepth);
+  }
+
+  @Override
+  public void dequeueBuild(long waitMillis, int queueDepth) {
+    this.queueDepth.set(queueDepth);
+    queueWaits.record(waitMillis);
+  }
+
+  public int getQueueDepth() {
+    return queueDepth.get();
+  }
+
+  public int getMaxQueueDepth() {
+    return (int) maxQueueDepth.get();
+  }
+
+  public long getAverageQueueWait() {
+    long count = queueWaits.getCount();
+    return count == 0 ? 0 : queueWaits.getSum() / count;
+  }
+
+  public long getMaxQueueWait() {
+    return queueWaits.getMax();
   }
 
   public Collection<BuildStats> getSuccessStats() {
-    return Collections.unmodifiableCollection(successfulBuilds);
+    return Collections.unmodifiableCollection(successfulBuilds.builds);
   }
 
   public Collection<BuildStats> getFailureStats() {
-    return Collections.unmodifiableCollection(failedBuilds);
+    return Collections.unmodifiableCollection(failedBuilds.builds);
   }
 
   public Collection<BuildStats> getOrderedStats() {
-    return Collections.unmodifiableCollection(orderedBuilds);
+    return Collections.unmodifiableCollection(orderedBuilds.builds);
   }
 
-  @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
-  private void queueAndExpire(BuildStats stats, final Deque<BuildStats> target) {
-    synchronized (target) {
-      if (target.size() == MAX_STATS) {
-        target.pollFirst();
-      }
-      target.push(stats);
-    }
+  /**
+   * Returns the histograms of build durations, keyed by build type.
+   */
+  public Map<String, Histogram> getBuildTimes() {
+    return Collections.unmodifiableMap(new TreeMap<>(buildTimes));
+  }
+
+  /**
+   * Returns the histograms of the durations of successful tasks, keyed by task name.
+   */
+  public Map<String, Histogram> getTaskTimes() {
+    return Collections.unmodifiableMap(new TreeMap<>(taskTimes));
+  }
+
+  public Histogram getQueueWaits() {
+    return queueWaits;
+  }
+
+  /**
+   * Writes the measurements in the Prometheus text format.
+   */
+  public void writeMetrics(PrometheusWriter writer) {
+    writer.counter("buildserver_builds_succeeded_total", "Builds that succeeded.",
+        successfulBuildCount.get());
+    writer.counter("buildserver_builds_failed_total", "Builds that failed.",
+        failedBuildCount.get());
+    writer.histograms("buildserver_build_duration_seconds", "Duration of builds by build type.",
+        "type", getBuildTimes());
+    writer.histograms("buildserver_task_duration_seconds", "Duration of successful build tasks.",
+        "task", getTaskTimes());
+    writer.histograms("buildserver_failed_task_duration_seconds",
+        "Duration of failed build tasks.", "task", new TreeMap<>(failedTaskTimes));
+    writer.gauge("buildserver_queue_depth", "Builds waiting in the build queue.",
+        queueDepth.get());
+    writer.gauge("buildserver_queue_max_depth", "Most builds ever waiting in the build queue.",
+        maxQueueDepth.get());
+    writer.histogram("buildserver_queue_wait_seconds", "Time builds spent in the build queue.",
+        queueWaits);
   }
 }
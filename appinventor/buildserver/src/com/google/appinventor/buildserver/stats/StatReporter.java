@@ -22,7 +22,8 @@ public interface StatReporter {
   void startBuild(Compiler compiler);
 
   /**
-   * Indicate to the StatReporter that a build is entering a new stage.
+   * Indicate to the StatReporter that a build is entering a new stage. This is not called for
+   * builds whose tasks run in parallel, whose stages are timed by {@link #finishTask} instead.
    *
    * @param compiler the compilation process in progress
    * @param stage the stage being entered
@@ -36,4 +37,30 @@ public interface StatReporter {
    * @param success true if the build was a success, false otherwise
    */
   void stopBuild(Compiler compiler, boolean success);
+
+  /**
+   * Indicate to the StatReporter that a task of a build has finished. Tasks of the same build may
+   * run in parallel, so this may be called from several threads at once.
+   *
+   * @param compiler the compilation process in progress
+   * @param task the name of the task
+   * @param millis the time the task took, in milliseconds
+   * @param success true if the task succeeded, false otherwise
+   */
+  void finishTask(Compiler<?, ?> compiler, String task, long millis, boolean success);
+
+  /**
+   * Indicate to the StatReporter that a build request has been added to the build queue.
+   *
+   * @param queueDepth the number of queued requests, including the new one
+   */
+  void queueBuild(int queueDepth);
+
+  /**
+   * Indicate to the StatReporter that a queued build request has been started.
+   *
+   * @param waitMillis the time the request spent in the queue, in milliseconds
+   * @param queueDepth the number of requests still queued
+   */
+  void dequeueBuild(long waitMillis, int queueDepth);
 }
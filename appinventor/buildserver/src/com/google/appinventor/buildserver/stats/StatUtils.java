@@ -0,0 +1,48 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.stats;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Helpers for recording measurements from many threads at once.
+ */
+public final class StatUtils {
+  private StatUtils() {
+  }
+
+  /**
+   * Returns the histogram of a key, adding an empty one if there is none yet.
+   *
+   * @param histograms the histograms, by key
+   * @param key the key
+   */
+  public static <K> Histogram histogramOf(ConcurrentMap<K, Histogram> histograms, K key) {
+    Histogram histogram = histograms.get(key);
+    if (histogram == null) {
+      Histogram created = new Histogram();
+      histogram = histograms.putIfAbsent(key, created);
+      if (histogram == null) {
+        histogram = created;
+      }
+    }
+    return histogram;
+  }
+
+  /**
+   * Raises a maximum to a value, unless it is already at least as large.
+   *
+   * @param max the maximum
+   * @param value the value
+   */
+  public static void updateMax(AtomicLong max, long value) {
+    long current;
+    while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+      // retry
+    }
+  }
+}
@@ -9,7 +9,10 @@ import com.google.appinventor.buildserver.BuildType;
 import com.google.appinventor.buildserver.Compiler;
 import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.context.AndroidPaths;
+import com.google.appinventor.buildserver.interfaces.AndroidTask;
 import com.google.appinventor.buildserver.tasks.common.BuildFactory;
+import com.google.appinventor.buildserver.tasks.common.LoadComponentInfo;
+import com.google.appinventor.buildserver.tasks.common.ReadBuildInfo;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -17,6 +20,8 @@ import java.util.logging.Logger;
  * The AndroidBuildFactory is responsible for setting up the sequence of tasks
  * needed to compile an Android app from an App Inventor project. The factory
  * supports creating both Android Packages (APKs) and Android App Bundles (AABs).
+ * Each task is added with the tasks it depends on so that independent tasks,
+ * such as resource processing and YAIL compilation, run in parallel.
  */
 public class AndroidBuildFactory extends BuildFactory<AndroidPaths, AndroidCompilerContext> {
   private static final Logger LOG = Logger.getLogger(AndroidBuildFactory.class.getName());
@@ -48,51 +53,55 @@ public class AndroidBuildFactory extends BuildFactory<AndroidPaths, AndroidCompi
   @Override
   protected void prepareAppIcon(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.prepareAppIcon(compiler);
-    compiler.add(PrepareAppIcon.class);
+    compiler.add(PrepareAppIcon.class, ReadBuildInfo.class);
   }
 
   @Override
   protected void prepareMetadata(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.prepareMetadata(compiler);
-    compiler.add(XmlConfig.class);
-    compiler.add(CreateManifest.class);
+    compiler.add(XmlConfig.class, LoadComponentInfo.class);
+    compiler.add(CreateManifest.class, LoadComponentInfo.class);
   }
 
   @Override
   protected void attachLibraries(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.attachLibraries(compiler);
-    compiler.add(AttachNativeLibs.class);
-    compiler.add(AttachAarLibs.class);
-    compiler.add(AttachCompAssets.class);
+    compiler.add(AttachNativeLibs.class, LoadComponentInfo.class);
+    compiler.add(AttachAarLibs.class, LoadComponentInfo.class);
+    compiler.add(AttachCompAssets.class, LoadComponentInfo.class);
   }
 
   @Override
   protected void processAssets(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.processAssets(compiler);
-    compiler.add(MergeResources.class);
-    compiler.add(SetupLibs.class);
-    compiler.add(isAab ? RunAapt2.class : RunAapt.class);
+    compiler.add(MergeResources.class, PrepareAppIcon.class, XmlConfig.class, AttachAarLibs.class);
+    compiler.add(SetupLibs.class, ReadBuildInfo.class);
+    compiler.add(aaptTask(), MergeResources.class, SetupLibs.class, CreateManifest.class,
+        AttachCompAssets.class);
   }
 
   @Override
   protected void compileSources(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.compileSources(compiler);
-    compiler.add(GenerateClasses.class);
-    compiler.add(USE_D8 ? RunD8.class : RunMultidex.class);
+    // Kawa does not need the R classes, so YAIL compiles while aapt processes the resources.
+    compiler.add(GenerateClasses.class, AttachAarLibs.class);
+    compiler.add(CompileRClasses.class, AttachAarLibs.class, aaptTask());
+    compiler.add(dexTask(), GenerateClasses.class, CompileRClasses.class);
   }
 
   @Override
   protected void createAppPackage(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.createAppPackage(compiler);
-    compiler.add(isAab ? RunBundletool.class : RunApkBuilder.class);
+    compiler.add(isAab ? RunBundletool.class : RunApkBuilder.class, dexTask(), aaptTask(),
+        AttachNativeLibs.class);
   }
 
   @Override
   protected void signApp(Compiler<AndroidPaths, AndroidCompilerContext> compiler) {
     super.signApp(compiler);
     if (!isAab) {
-      compiler.add(RunZipAlign.class);
-      compiler.add(RunApkSigner.class);
+      // RunApkBuilder aligns the APK as it writes it, so it does not need zipalign.
+      compiler.add(RunApkSigner.class, RunApkBuilder.class);
     }
   }
 
@@ -101,6 +110,14 @@ public class AndroidBuildFactory extends BuildFactory<AndroidPaths, AndroidCompi
     super.createOutputBundle(compiler);
   }
 
+  private Class<? extends AndroidTask> aaptTask() {
+    return isAab ? RunAapt2.class : RunAapt.class;
+  }
+
+  private static Class<? extends AndroidTask> dexTask() {
+    return USE_D8 ? RunD8.class : RunMultidex.class;
+  }
+
   @Override
   public Class<AndroidCompilerContext> getContextClass() {
     return AndroidCompilerContext.class;
@@ -11,6 +11,7 @@ import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
 import com.google.appinventor.buildserver.util.AARLibraries;
 import com.google.appinventor.buildserver.util.AARLibrary;
+import com.google.appinventor.buildserver.util.AARStore;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
 
 import java.io.File;
@@ -30,8 +31,6 @@ import java.util.Set;
 public class AttachAarLibs implements AndroidTask {
   @Override
   public TaskResult execute(AndroidCompilerContext context) {
-    final File explodedBaseDir = ExecutorUtils.createDir(context.getPaths().getBuildDir(),
-        "exploded-aars");
     final File generatedDir = ExecutorUtils.createDir(context.getPaths().getBuildDir(),
         "generated");
     final File genSrcDir = ExecutorUtils.createDir(generatedDir, "src");
@@ -51,11 +50,18 @@ public class AttachAarLibs implements AndroidTask {
           if (libname.endsWith(".aar")) {
             i.remove();
             if (!processedLibs.contains(libname)) {
-              // explode libraries into ${buildDir}/exploded-aars/<package>/
-              AARLibrary aarLib = new AARLibrary(new File(context.getResource(
+              // libraries are exploded once per server and shared by all builds. They are
+              // released when the build finishes (see Compiler.call()).
+              AARLibrary aarLib = AARStore.getInstance().acquire(new File(context.getResource(
                   context.getResources().getRuntimeFilesDir() + libname)));
-              aarLib.unpackToDirectory(explodedBaseDir);
-              context.getComponentInfo().getExplodedAarLibs().add(aarLib);
+              boolean added = false;
+              try {
+                added = context.getComponentInfo().getExplodedAarLibs().add(aarLib);
+              } finally {
+                if (!added) {
+                  AARStore.getInstance().release(aarLib);
+                }
+              }
               processedLibs.add(libname);
             }
           }
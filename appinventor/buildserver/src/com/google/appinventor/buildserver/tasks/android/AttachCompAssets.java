@@ -61,15 +61,8 @@ public class AttachCompAssets implements AndroidTask {
         }
       }
 
-      // Copy project assets to build/assets
-      File[] assets = context.getProject().getAssetsDirectory().listFiles();
-      if (assets != null) {
-        for (File asset : assets) {
-          if (asset.isFile()) {
-            Files.copy(asset, new File(mergedAssetDir, asset.getName()));
-          }
-        }
-      }
+      // Project assets are not copied: they are packaged straight from the project's assets
+      // directory, and take precedence over the component assets in build/assets.
     } catch (IOException e) {
       context.getReporter().error("There was an unknown error while processing assets", true);
       return TaskResult.generateError(e);
@@ -17,7 +17,10 @@ import com.google.appinventor.buildserver.context.CompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
 import com.google.appinventor.buildserver.util.Execution;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
-import com.google.common.annotations.VisibleForTesting;
+import com.google.appinventor.buildserver.util.KawaCompilerPool;
+import com.google.appinventor.buildserver.util.ToolScheduler;
+import com.google.appinventor.buildserver.util.YailClassCache;
+import com.google.appinventor.buildserver.util.YailRuntimeCompiler;
 import com.google.common.collect.Lists;
 
 import java.io.ByteArrayOutputStream;
@@ -42,14 +45,11 @@ public class GenerateClasses implements AndroidTask {
   public TaskResult execute(AndroidCompilerContext context) {
     this.context = context;
 
-    if (!this.compileRClasses()) {
-      return TaskResult.generateError("Could not compile R classes");
-    }
-
     try {
       List<Project.SourceDescriptor> sources = context.getProject().getSources();
       List<String> sourceFileNames = Lists.newArrayListWithCapacity(sources.size());
       List<String> classFileNames = Lists.newArrayListWithCapacity(sources.size());
+      List<String> relativeClassFileNames = Lists.newArrayListWithCapacity(sources.size());
       boolean userCodeExists = false;
       for (Project.SourceDescriptor source : sources) {
         String sourceFileName = source.getFile().getAbsolutePath();
@@ -77,6 +77,7 @@ public class GenerateClasses implements AndroidTask {
         }
         sourceFileNames.add(sourceFileName);
         classFileNames.add(classFileName);
+        relativeClassFileNames.add(sourceFileRelativePath.replace(YAIL_FILE_EXTENSION, ".class"));
       }
 
       if (!userCodeExists) {
@@ -96,6 +97,9 @@ public class GenerateClasses implements AndroidTask {
         classpath.append(File.pathSeparator);
       }
 
+      // The YAIL runtime only needs the libraries shared by all projects.
+      String runtimeClasspath = classpath + context.getResources().getAndroidRuntime();
+
       // attach the jars of external comps
       Set<String> addedExtJars = new HashSet<String>();
       for (String type : context.getExtCompTypes()) {
@@ -142,46 +146,89 @@ public class GenerateClasses implements AndroidTask {
           classpath.append(File.pathSeparator);
         }
       }
-      if (context.getComponentInfo().getExplodedAarLibs().size() > 0) {
-        classpath.append(context.getComponentInfo().getExplodedAarLibs().getOutputDirectory()
-            .getAbsolutePath());
-        classpath.append(File.pathSeparator);
-      }
+      // The R classes of the AAR libraries are compiled into the classes directory by
+      // CompileRClasses, which runs concurrently with this task. YAIL never refers to them, so
+      // Kawa does not need them on its classpath.
 
       classpath.append(context.getResources().getAndroidRuntime());
 
+      // Compile the screens against the precompiled YAIL runtime, unless it failed to compile.
+      String yailRuntime = context.getResources().getYailRuntime();
+      int mx = context.getChildProcessRam() - 200;
+      File compiledRuntime = YailRuntimeCompiler.getCompiledRuntime(
+          context.getDexCacheDir() == null ? null : new File(context.getDexCacheDir()),
+          yailRuntime, runtimeClasspath, mx);
+      if (compiledRuntime != null) {
+        classpath.insert(0, compiledRuntime.getAbsolutePath() + File.pathSeparator);
+        context.getResources().setCompiledYailRuntime(compiledRuntime);
+      } else {
+        context.getReporter().warn("Compiling the YAIL runtime with the screens");
+      }
+
       context.getReporter().info("Libraries Classpath = " + classpath);
 
-      String yailRuntime = context.getResources().getYailRuntime();
+      File classesDir = context.getPaths().getClassesDir();
+      String packageName = Signatures.getPackageName(context.getProject().getMainClass());
+
+      // Reuse the classes of the screens that have not changed since an earlier build.
+      YailClassCache cache = null;
+      List<String> screenKeys = Lists.newArrayListWithCapacity(sources.size());
+      List<String> changedSourceFileNames = sourceFileNames;
+      if (context.getDexCacheDir() != null) {
+        cache = new YailClassCache(new File(context.getDexCacheDir()), yailRuntime,
+            classpath.toString(), packageName);
+        changedSourceFileNames = Lists.newArrayList();
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          String key = cache.getScreenKey(new File(sourceFileNames.get(i)),
+              relativeClassFileNames.get(i));
+          screenKeys.add(key);
+          if (cache.restore(key, classesDir)) {
+            context.getReporter().info("Using cached classes for " + relativeClassFileNames.get(i));
+          } else {
+            changedSourceFileNames.add(sourceFileNames.get(i));
+          }
+        }
+        if (changedSourceFileNames.isEmpty() && (compiledRuntime != null
+            || cache.restore(cache.getRuntimeKey(), classesDir))) {
+          context.getReporter().info("All screens are unchanged, skipping Kawa");
+          return checkClassFiles(classFileNames);
+        }
+      }
+
       List<String> kawaCommandArgs = Lists.newArrayList();
-      int mx = context.getChildProcessRam() - 200;
+      if (compiledRuntime != null) {
+        // Load the YAIL macros from the compiled runtime rather than from source.
+        Collections.addAll(kawaCommandArgs, "-e", "(require <com.google.youngandroid.runtime>)");
+      } else {
+        Collections.addAll(kawaCommandArgs, "-f", yailRuntime);
+      }
       Collections.addAll(kawaCommandArgs,
-          System.getProperty("java.home") + "/bin/java",
-          "-Dfile.encoding=UTF-8",
-          "-mx" + mx + "M",
-          "-cp", classpath.toString(),
-          "kawa.repl",
-          "-f", yailRuntime,
-          "-d", context.getPaths().getClassesDir().getAbsolutePath(),
-          "-P", Signatures.getPackageName(context.getProject().getMainClass()) + ".",
+          "-d", classesDir.getAbsolutePath(),
+          "-P", packageName + ".",
           "-C");
       // TODO(lizlooney) - we are currently using (and have always used) absolute paths for the
       // source file names. The resulting .class files contain references to the source file names,
       // including the name of the tmp directory that contains them. We may be able to avoid that
       // by using source file names that are relative to the project root and using the project
       // root as the working directory for the Kawa compiler process.
-      kawaCommandArgs.addAll(sourceFileNames);
-      kawaCommandArgs.add(yailRuntime);
-      String[] kawaCommandLine = kawaCommandArgs.toArray(new String[0]);
+      kawaCommandArgs.addAll(changedSourceFileNames);
+      if (compiledRuntime == null) {
+        kawaCommandArgs.add(yailRuntime);
+      }
 
       // Capture Kawa compiler stderr. The ODE server parses out the warnings and errors and adds
       // them to the protocol buffer for logging purposes. (See
       // buildserver/ProjectBuilder.processCompilerOutout.
       ByteArrayOutputStream kawaOutputStream = new ByteArrayOutputStream();
       boolean kawaSuccess;
-      synchronized (context.getResources().getSyncKawaOrDx()) {
-        kawaSuccess = Execution.execute(null, kawaCommandLine,
-            System.out, new PrintStream(kawaOutputStream), Execution.Timeout.MEDIUM);
+      ToolScheduler.Permit permit = ToolScheduler.getInstance().acquire(context, "kawa", mx,
+          false);
+      try {
+        kawaSuccess = KawaCompilerPool.getInstance().run(classpath.toString(), mx,
+            kawaCommandArgs, System.out, new PrintStream(kawaOutputStream),
+            Execution.Timeout.MEDIUM);
+      } finally {
+        permit.close();
       }
       if (!kawaSuccess) {
         context.getReporter().error("Kawa compile has failed.", true);
@@ -189,43 +236,38 @@ public class GenerateClasses implements AndroidTask {
       String kawaOutput = kawaOutputStream.toString();
       context.getReporter().getSystemOut().print(kawaOutput);
 
-      // Check that all of the class files were created.
-      // If they weren't, return with an error.
-      for (String classFileName : classFileNames) {
-        File classFile = new File(classFileName);
-        if (!classFile.exists()) {
-          String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
-              classFileName.lastIndexOf('.'));
-          return TaskResult.generateError("Can't find class file for Screen '" + screenName + "'");
+      if (kawaSuccess && cache != null) {
+        for (int i = 0; i < sourceFileNames.size(); i++) {
+          if (changedSourceFileNames.contains(sourceFileNames.get(i))) {
+            cache.store(screenKeys.get(i), classesDir, relativeClassFileNames.get(i));
+          }
+        }
+        if (compiledRuntime == null) {
+          cache.store(cache.getRuntimeKey(), classesDir, YailClassCache.RUNTIME_CLASS_FILE);
         }
       }
+
+      return checkClassFiles(classFileNames);
     } catch (IOException e) {
       return TaskResult.generateError(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskResult.generateError(e);
     }
-
-    return TaskResult.generateSuccess();
   }
 
-  @VisibleForTesting
-  boolean compileRClasses() {
-    if (context.getComponentInfo().getExplodedAarLibs().isEmpty()) {
-      return true;  // nothing to see here
-    }
-    int error;
-    try {
-      error = context.getComponentInfo().getExplodedAarLibs().writeRClasses(
-          context.getPaths().getClassesDir(),
-          Signatures.getPackageName(context.getProject().getMainClass()),
-          context.getResources().getAppRTxt()
-      );
-    } catch (IOException | InterruptedException e) {
-      context.getReporter().error("Error while compiling R classes", true);
-      return false;
-    }
-    if (error != 0) {
-      context.getReporter().error("Compile R Classes returned E=" + error, true);
-      return false;
+  /**
+   * Checks that all of the class files were created.
+   */
+  private static TaskResult checkClassFiles(List<String> classFileNames) {
+    for (String classFileName : classFileNames) {
+      File classFile = new File(classFileName);
+      if (!classFile.exists()) {
+        String screenName = classFileName.substring(classFileName.lastIndexOf('/') + 1,
+            classFileName.lastIndexOf('.'));
+        return TaskResult.generateError("Can't find class file for Screen '" + screenName + "'");
+      }
     }
-    return true;
+    return TaskResult.generateSuccess();
   }
 }
@@ -12,9 +12,12 @@ import com.google.appinventor.buildserver.BuildType;
 import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
+import com.google.appinventor.buildserver.util.AARLibraries;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
+import com.google.appinventor.buildserver.util.MergedResourceCache;
 
 import java.io.File;
+import java.io.IOException;
 
 
 /**
@@ -33,10 +36,44 @@ public class MergeResources implements AndroidTask {
             + context.getProject().getProjectName() + ".ap_"));
 
     PngCruncher cruncher = new AaptCruncher(context.getResources().aapt(), null, null);
-    if (!context.getComponentInfo().getExplodedAarLibs().mergeResources(
-        context.getPaths().getMergedResDir(), context.getPaths().getResDir(), cruncher)) {
+    AARLibraries libraries = context.getComponentInfo().getExplodedAarLibs();
+    File libraryResDir = getLibraryResources(context, libraries, cruncher);
+    boolean merged;
+    if (libraryResDir != null) {
+      merged = libraries.mergeResources(context.getPaths().getMergedResDir(), libraryResDir,
+          context.getPaths().getResDir(), cruncher);
+    } else {
+      merged = libraries.mergeResources(context.getPaths().getMergedResDir(),
+          context.getPaths().getResDir(), cruncher);
+    }
+    if (!merged) {
       return TaskResult.generateError("Could not merge resources");
     }
     return TaskResult.generateSuccess();
   }
+
+  /**
+   * Returns the resources of the AAR libraries, merged by an earlier companion build. Every
+   * companion build depends on the same libraries, so only the resources of the app are merged.
+   *
+   * @return the merged resources, or null if the build merges the resources of the libraries
+   *     itself
+   */
+  private static File getLibraryResources(AndroidCompilerContext context,
+      AARLibraries libraries, PngCruncher cruncher) {
+    if (!context.isForCompanion() || context.getDexCacheDir() == null || libraries.isEmpty()) {
+      return null;
+    }
+    try {
+      File libraryResDir = new MergedResourceCache(new File(context.getDexCacheDir()))
+          .get(libraries, cruncher);
+      if (libraryResDir != null) {
+        context.getReporter().info("Using merged library resources " + libraryResDir.getName());
+      }
+      return libraryResDir;
+    } catch (IOException e) {
+      context.getReporter().warn("Unable to use merged library resources: " + e.getMessage());
+      return null;
+    }
+  }
 }
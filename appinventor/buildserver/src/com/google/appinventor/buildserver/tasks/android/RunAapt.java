@@ -51,8 +51,6 @@ public class RunAapt implements AndroidTask {
     aaptPackageCommandLineArgs.add(context.getPaths().getManifest().getAbsolutePath());
     aaptPackageCommandLineArgs.add("-S");
     aaptPackageCommandLineArgs.add(context.getPaths().getMergedResDir().getAbsolutePath());
-    aaptPackageCommandLineArgs.add("-A");
-    aaptPackageCommandLineArgs.add(context.getPaths().getAssetsDir().getAbsolutePath());
     aaptPackageCommandLineArgs.add("-I");
     aaptPackageCommandLineArgs.add(context.getResources().getAndroidRuntime());
     aaptPackageCommandLineArgs.add("-F");
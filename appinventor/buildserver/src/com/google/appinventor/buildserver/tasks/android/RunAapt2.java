@@ -84,8 +84,6 @@ public class RunAapt2 implements AndroidTask {
     aapt2CommandLine.add(context.getResources().getAndroidRuntime());
     aapt2CommandLine.add("-R");
     aapt2CommandLine.add(resourcesZip.getAbsolutePath());
-    aapt2CommandLine.add("-A");
-    aapt2CommandLine.add(context.getPaths().getAssetsDir().getAbsolutePath());
     aapt2CommandLine.add("--manifest");
     aapt2CommandLine.add(context.getPaths().getManifest().getAbsolutePath());
     aapt2CommandLine.add("--output-text-symbols");
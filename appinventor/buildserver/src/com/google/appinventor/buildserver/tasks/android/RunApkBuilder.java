@@ -5,19 +5,25 @@
 
 package com.google.appinventor.buildserver.tasks.android;
 
-import com.android.sdklib.build.ApkBuilder;
-
 import com.google.appinventor.buildserver.BuildType;
 import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
+import com.google.appinventor.buildserver.util.ZipPackager;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * compiler.runApkBuilder
+ *
+ * <p>Packages the resources that aapt compiled, the dex files, the native libraries and the
+ * assets into the APK. The assets are read straight from the project's assets directory and from
+ * build/assets, where the component assets are. Stored entries are aligned as they are written,
+ * so the APK does not need to be zipaligned before it is signed.</p>
  */
 @BuildType(apk = true)
 public class RunApkBuilder implements AndroidTask {
@@ -25,30 +31,50 @@ public class RunApkBuilder implements AndroidTask {
 
   @Override
   public TaskResult execute(AndroidCompilerContext context) {
-    try {
-      ApkBuilder apkBuilder = new ApkBuilder(
-          context.getPaths().getDeployFile().getAbsolutePath(),
-          context.getPaths().getTmpPackageName().getAbsolutePath(),
-          context.getPaths().getTmpDir().getAbsolutePath() + File.separator + "classes.dex",
-          null,
-          context.getReporter().getSystemOut()
-      );
-      if (context.getResources().getDexFiles().size() > 1) {
-        for (File f : context.getResources().getDexFiles()) {
-          if (!f.getName().equals("classes.dex")) {
-            apkBuilder.addFile(f, f.getName());
-          }
+    try (ZipPackager packager = new ZipPackager(context.getPaths().getDeployFile())) {
+      packager.addZip(context.getPaths().getTmpPackageName());
+      packager.addFile("classes.dex", new File(context.getPaths().getTmpDir(), "classes.dex"));
+      for (File f : context.getResources().getDexFiles()) {
+        if (!f.getName().equals("classes.dex")) {
+          packager.addFile(f.getName(), f);
         }
       }
       if (!context.getComponentInfo().getNativeLibsNeeded().isEmpty()) {
         // Need to add native libraries...
-        apkBuilder.addNativeLibraries(context.getPaths().getLibsDir());
+        addNativeLibraries(packager, context.getPaths().getLibsDir());
       }
-      apkBuilder.sealApk();
+      packager.addFiles("assets/", context.getProject().getAssetsDirectory());
+      packager.addDirectory("assets/", context.getPaths().getAssetsDir());
+      packager.write();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskResult.generateError(e);
     } catch (Exception e) {
-      LOG.log(Level.SEVERE, "Unable to run ApkBuilder", e);
+      LOG.log(Level.SEVERE, "Unable to package the APK", e);
       return TaskResult.generateError(e);
     }
     return TaskResult.generateSuccess();
   }
+
+  // Adds the libraries in libs/<abi>/ as lib/<abi>/, as ApkBuilder did.
+  private static void addNativeLibraries(ZipPackager packager, File libsDir)
+      throws IOException {
+    File[] abis = libsDir.listFiles();
+    if (abis == null) {
+      return;
+    }
+    Arrays.sort(abis);
+    for (File abi : abis) {
+      File[] libs = abi.listFiles();
+      if (libs == null) {
+        continue;
+      }
+      Arrays.sort(libs);
+      for (File lib : libs) {
+        if (lib.isFile() && lib.getName().endsWith(".so")) {
+          packager.addFile("lib/" + abi.getName() + "/" + lib.getName(), lib);
+        }
+      }
+    }
+  }
 }
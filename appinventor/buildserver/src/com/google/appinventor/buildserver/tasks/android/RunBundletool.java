@@ -114,8 +114,8 @@ public class RunBundletool implements AndroidTask {
     // Resources are extracted from the protobuffed APK
     aab.setResDir(ExecutorUtils.createDir(aab.getRoot(), "res"));
 
-    // Assets are extracted from the protobuffed APK
-    aab.setAssetsDir(ExecutorUtils.createDir(aab.getRoot(), "assets"));
+    // Assets are packaged straight from the assets directory
+    aab.setAssetsDir(context.getPaths().getAssetsDir());
 
     aab.setDexDir(ExecutorUtils.createDir(aab.getRoot(), "dex"));
     context.getReporter().log("Moving dex files");
@@ -163,8 +163,6 @@ public class RunBundletool implements AndroidTask {
         } else if (n.equals("resources.pb")) {
           context.getReporter().log("Found resources.pb");
           f = new File(aab.getRoot(), n);
-        } else if (n.startsWith("assets")) {
-          f = new File(aab.getAssetsDir(), n.substring(("assets").length()));
         } else if (n.startsWith("res")) {
           f = new File(aab.getResDir(), n.substring(("res").length()));
         }
@@ -213,8 +211,8 @@ public class RunBundletool implements AndroidTask {
 
     aab.setBase(new File(context.getProject().getBuildDirectory(), "base.zip"));
 
-    if (!AabZipper.zipBundle(aab.getRoot(), aab.getBase(),
-        aab.getRoot().getName() + File.separator)) {
+    if (!AabZipper.zipBundle(aab.getRoot(), context.getProject().getAssetsDirectory(),
+        aab.getAssetsDir(), aab.getBase())) {
       context.getReporter().error("Could not zip files for the bundle", true);
       return false;
     }
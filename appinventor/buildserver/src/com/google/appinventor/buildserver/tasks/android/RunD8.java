@@ -9,13 +9,15 @@ import com.google.appinventor.buildserver.BuildType;
 import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
+import com.google.appinventor.buildserver.util.DexCache;
+import com.google.appinventor.buildserver.util.DexerService;
 import com.google.appinventor.buildserver.util.Execution;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
+import com.google.appinventor.buildserver.util.ToolScheduler;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InterruptedIOException;
 import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
@@ -32,41 +34,72 @@ import java.util.Set;
 @BuildType(aab = true, apk = true)
 public class RunD8 extends DexTask implements AndroidTask {
   private static final boolean USE_D8_PROGUARD_RULES = true;
+  private static final String PREDEXED_FILE_NAME = "predexed.dex";
+  private static final String COMPANION_BASE_FILE_NAME = "companion-base.jar";
+  // The first API level with native multidex, where d8 does not need a main dex list.
+  private static final int NATIVE_MULTIDEX_MIN_SDK = 21;
 
   @Override
   public TaskResult execute(AndroidCompilerContext context) {
     Set<String> mainDexClasses = new HashSet<>();
     final List<File> inputs = new ArrayList<>();
+    // The libraries shared by every build of the same kind, and those of the extensions.
+    List<File> libraries = new ArrayList<>();
+    List<File> extensionLibraries = new ArrayList<>();
     try {
       recordForMainDex(context.getPaths().getClassesDir(), mainDexClasses);
-      inputs.add(preDexLibrary(context, recordForMainDex(
-          new File(context.getResources().getSimpleAndroidRuntimeJar()), mainDexClasses)));
-      inputs.add(preDexLibrary(context, recordForMainDex(
-          new File(context.getResources().getKawaRuntime()), mainDexClasses)));
+      libraries.add(recordForMainDex(
+          new File(context.getResources().getSimpleAndroidRuntimeJar()), mainDexClasses));
+      libraries.add(recordForMainDex(
+          new File(context.getResources().getKawaRuntime()), mainDexClasses));
+      if (context.getResources().getCompiledYailRuntime() != null) {
+        libraries.add(recordForMainDex(
+            context.getResources().getCompiledYailRuntime(), mainDexClasses));
+      }
 
       final Set<String> criticalJars = getCriticalJars(context);
 
       for (String jar : criticalJars) {
-        inputs.add(preDexLibrary(context, recordForMainDex(
-            new File(context.getResource(jar)), mainDexClasses)));
+        libraries.add(recordForMainDex(new File(context.getResource(jar)), mainDexClasses));
       }
 
       // Only include ACRA for the companion app
       if (context.isForCompanion()) {
-        inputs.add(preDexLibrary(context, recordForMainDex(
-            new File(context.getResources().getAcraRuntime()), mainDexClasses)));
+        libraries.add(recordForMainDex(
+            new File(context.getResources().getAcraRuntime()), mainDexClasses));
       }
 
       for (String jar : context.getResources().getSupportJars()) {
         if (criticalJars.contains(jar)) {  // already covered above
           continue;
         }
-        inputs.add(preDexLibrary(context, new File(context.getResource(jar))));
+        libraries.add(new File(context.getResource(jar)));
       }
 
       // Add the rest of the libraries in any order
+      Set<String> extensionDirs = new HashSet<>();
+      for (String type : context.getExtCompTypes()) {
+        extensionDirs.add(ExecutorUtils.getExtCompDirPath(type, context.getProject(),
+            context.getExtTypePathCache()));
+      }
       for (String lib : context.getComponentInfo().getUniqueLibsNeeded()) {
-        inputs.add(preDexLibrary(context, new File(lib)));
+        (isInDirectory(lib, extensionDirs) ? extensionLibraries : libraries).add(new File(lib));
+      }
+
+      File base = null;
+      if (usesCompanionBase(context.isForCompanion(), context.getDexCacheDir(),
+          AndroidBuildUtils.computeMinSdk(context))) {
+        base = preDexCompanionBase(context, libraries);
+      }
+      if (base != null) {
+        inputs.add(base);
+      } else {
+        for (File library : libraries) {
+          inputs.add(preDexLibrary(context, library));
+        }
+      }
+      for (File library : extensionLibraries) {
+        inputs.add(preDexLibrary(context, library));
       }
 
       // Add extension libraries
@@ -118,6 +151,8 @@ public class RunD8 extends DexTask implements AndroidTask {
         // Kawa
         // TODO(ewpatton): Figure out why this gets triggered before Multidex completes
         mainDexClasses.add("kawa.**.*");
+        // YAIL runtime
+        mainDexClasses.add("com.google.youngandroid.*");
 
         // Android-related classes
         mainDexClasses.add("androidx.core.content.FileProvider");
@@ -167,21 +202,16 @@ public class RunD8 extends DexTask implements AndroidTask {
    * @param inputs collection of input files. For a complete list of supported input types see
    *               <a href="https://developer.android.com/tools/d8">d8</a>.
    * @param outputDir the destination for the classes.dex file
-   * @param intermediateFileName an alternative name to use for the dex file when pre-dexing
+   * @param intermediateFileName an alternative name to use for the dex file when pre-dexing. A
+   *                             name ending in .jar is written as a dex archive, which may hold
+   *                             more than one dex file
    * @return true if the process succeeded
    * @throws IOException if the dex file is unable to be moved to the {@code intermediateFileName}
    */
   private static boolean runD8(AndroidCompilerContext context, Collection<File> inputs,
       Set<String> mainDexClasses, String outputDir, String intermediateFileName)
       throws IOException {
-    List<String> arguments = new ArrayList<>();
     List<String> javaArgs = new ArrayList<>();
-    arguments.add("java");
-    javaArgs.add("-Xmx" + context.getChildProcessRam() + "M");
-    javaArgs.add("-Xss8m");
-    javaArgs.add("-cp");
-    javaArgs.add(context.getResources().getD8Jar());
-    javaArgs.add("com.android.tools.r8.D8");
     if (intermediateFileName != null) {
       javaArgs.add("--intermediate");
     }
@@ -191,8 +221,10 @@ public class RunD8 extends DexTask implements AndroidTask {
       javaArgs.add("--classpath");
       javaArgs.add(context.getPaths().getClassesDir().getAbsolutePath());
     }
+    boolean archive = intermediateFileName != null && intermediateFileName.endsWith(".jar");
     javaArgs.add("--output");
-    javaArgs.add(outputDir);
+    javaArgs.add(archive ? new File(outputDir, intermediateFileName).getAbsolutePath()
+        : outputDir);
     javaArgs.add("--min-api");
     javaArgs.add(Integer.toString(AndroidBuildUtils.computeMinSdk(context)));
     if (mainDexClasses != null) {
@@ -208,20 +240,26 @@ public class RunD8 extends DexTask implements AndroidTask {
       javaArgs.add(input.getAbsolutePath());
     }
     File javaArgsFile = new File(context.getPaths().getTmpDir(), "d8arguments.txt");
-    try (PrintStream ps = new PrintStream(new FileOutputStream(javaArgsFile))) {
-      for (String arg : javaArgs) {
-        ps.println(arg);
-      }
+    // Pre-dexing a single library is quick compared to dexing the whole app.
+    ToolScheduler.Permit permit;
+    try {
+      permit = ToolScheduler.getInstance().acquire(context, "d8", context.getChildProcessRam(),
+          intermediateFileName != null && inputs.size() == 1);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to run d8");
     }
-    arguments.add("@" + javaArgsFile.getAbsolutePath());
-    synchronized (context.getResources().getSyncKawaOrDx()) {
-      boolean result = Execution.execute(context.getPaths().getTmpDir(),
-          arguments.toArray(new String[0]), System.out, System.err, Execution.Timeout.LONG);
+    try {
+      boolean result = DexerService.runD8(context.getResources().getD8Jar(),
+          context.getChildProcessRam(), javaArgs, javaArgsFile, context.getPaths().getTmpDir(),
+          Execution.Timeout.LONG);
       if (!result) {
         return false;
       }
+    } finally {
+      permit.close();
     }
-    if (intermediateFileName != null) {
+    if (intermediateFileName != null && !archive) {
       Files.move(FileSystems.getDefault().getPath(outputDir, "classes.dex"),
           FileSystems.getDefault().getPath(outputDir, intermediateFileName));
     }
@@ -236,21 +274,76 @@ public class RunD8 extends DexTask implements AndroidTask {
    * @return the path of the library to use as an input to the downstream d8 process
    * @throws IOException if the d8 process fails due to an I/O issue
    */
-  private static File preDexLibrary(AndroidCompilerContext context, File input) throws IOException {
-    synchronized (PREDEX_CACHE) {
-      File cacheDir = new File(context.getDexCacheDir());
-      File dexedLib = getDexFileName(input, cacheDir);
-      if (dexedLib.isFile()) {
-        context.getReporter().info(String.format("Using pre-dexed %1$s <- %2$s",
-            dexedLib.getName(), input));
-      } else {
-        boolean success = runD8(context, Collections.singleton(input), null,
-            context.getDexCacheDir(), dexedLib.getName());
-        if (!success) {
-          return input;
-        }
+  private static File preDexLibrary(final AndroidCompilerContext context, File input)
+      throws IOException {
+    DexCache cache = DexCache.forDirectory(new File(context.getDexCacheDir()));
+    File dexedLib = cache.get(input, ".dex", new DexCache.Dexer() {
+      @Override
+      public File dex(File library, File outputDir) throws IOException {
+        boolean success = runD8(context, Collections.singleton(library), null,
+            outputDir.getAbsolutePath(), PREDEXED_FILE_NAME);
+        return success ? new File(outputDir, PREDEXED_FILE_NAME) : null;
+      }
+    });
+    if (dexedLib == null) {
+      return input;
+    }
+    context.getReporter().info(String.format("Using pre-dexed %1$s <- %2$s",
+        dexedLib.getName(), input));
+    return dexedLib;
+  }
+
+  /**
+   * Checks whether a build can use the pre-dexed companion base. The base is dexed without the
+   * main dex rules of the final d8 run, so it is only used when the app does not need a main dex
+   * list, that is, when its minimum SDK has native multidex.
+   *
+   * @param forCompanion whether the build is of the companion
+   * @param dexCacheDir the dex cache directory, or null if there is none
+   * @param minSdk the minimum SDK of the app
+   */
+  static boolean usesCompanionBase(boolean forCompanion, String dexCacheDir, int minSdk) {
+    return forCompanion && dexCacheDir != null && minSdk >= NATIVE_MULTIDEX_MIN_SDK;
+  }
+
+  /**
+   * Dexes the libraries that every companion build shares into one dex archive and caches it, so
+   * that the final d8 run of a companion build only merges it with the extensions and screens.
+   *
+   * @param context the build context
+   * @param libraries the libraries shared by every companion build
+   * @return the dex archive, or null if the libraries could not be dexed together
+   * @throws IOException if the d8 process fails due to an I/O issue
+   */
+  private static File preDexCompanionBase(final AndroidCompilerContext context,
+      List<File> libraries) throws IOException {
+    DexCache cache = DexCache.forDirectory(new File(context.getDexCacheDir()));
+    File base = cache.getMerged(libraries, "companion\nminSdk="
+        + AndroidBuildUtils.computeMinSdk(context), ".jar", new DexCache.Merger() {
+          @Override
+          public File merge(List<File> inputs, File outputDir) throws IOException {
+            List<File> dexed = new ArrayList<>(inputs.size());
+            for (File input : inputs) {
+              dexed.add(preDexLibrary(context, input));
+            }
+            boolean success = runD8(context, dexed, null, outputDir.getAbsolutePath(),
+                COMPANION_BASE_FILE_NAME);
+            return success ? new File(outputDir, COMPANION_BASE_FILE_NAME) : null;
+          }
+        });
+    if (base != null) {
+      context.getReporter().info(String.format("Using pre-dexed companion base %1$s",
+          base.getName()));
+    }
+    return base;
+  }
+
+  private static boolean isInDirectory(String path, Set<String> dirs) {
+    for (String dir : dirs) {
+      if (path.startsWith(dir)) {
+        return true;
       }
-      return dexedLib;
     }
+    return false;
   }
 }
@@ -11,6 +11,7 @@ import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.AndroidCompilerContext;
 import com.google.appinventor.buildserver.interfaces.AndroidTask;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
+import com.google.appinventor.buildserver.util.ToolScheduler;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
@@ -38,6 +39,10 @@ public class RunMultidex extends DexTask implements AndroidTask {
           mainDexClasses));
       inputList.add(recordForMainDex(new File(context.getResources().getKawaRuntime()),
           mainDexClasses));
+      if (context.getResources().getCompiledYailRuntime() != null) {
+        inputList.add(recordForMainDex(context.getResources().getCompiledYailRuntime(),
+            mainDexClasses));
+      }
 
       /*
        * Note for future updates: This list can be obtained from an Android Studio project running
@@ -97,8 +102,12 @@ public class RunMultidex extends DexTask implements AndroidTask {
         dexTask.setDexedLibs(context.getDexCacheDir());
       }
 
-      synchronized (context.getResources().getSyncKawaOrDx()) {
+      ToolScheduler.Permit permit = ToolScheduler.getInstance().acquire(context, "dx",
+          context.getChildProcessRam(), false);
+      try {
         success = dexTask.execute(inputList);
+      } finally {
+        permit.close();
       }
 
       // Aggregate all of the classes.dex files output by dx
@@ -114,6 +123,9 @@ public class RunMultidex extends DexTask implements AndroidTask {
       Collections.addAll(context.getResources().getDexFiles(), files);
     } catch (IOException e) {
       return TaskResult.generateError(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return TaskResult.generateError(e);
     }
 
     if (!success) {
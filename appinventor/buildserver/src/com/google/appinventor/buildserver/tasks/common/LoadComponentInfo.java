@@ -9,23 +9,20 @@ import com.google.appinventor.buildserver.BuildType;
 import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.CompilerContext;
 import com.google.appinventor.buildserver.interfaces.CommonTask;
+import com.google.appinventor.buildserver.util.ComponentBuildInfo;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
 import com.google.appinventor.buildserver.util.PermissionConstraint;
 import com.google.appinventor.components.common.ComponentDescriptorConstants;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
-import org.codehaus.jettison.json.JSONObject;
 
 
 
@@ -405,9 +402,8 @@ public class LoadComponentInfo implements CommonTask {
 
   private boolean loadJsonInfo() {
     try {
-      context.setBuildInfo(new JSONArray(
-          "[" + context.getSimpleCompsBuildInfo().join(",") + ","
-              + context.getExtCompsBuildInfo().join(",") + "]"));
+      context.setBuildInfo(context.getSimpleCompsBuildInfo().withExtensions(
+          ComponentBuildInfo.parse(context.getExtCompsBuildInfo())));
       return true;
     } catch (JSONException e) {
       e.printStackTrace();
@@ -416,6 +412,13 @@ public class LoadComponentInfo implements CommonTask {
     }
   }
 
+  /**
+   * Returns the types of the built-in and extension components used by the project.
+   */
+  private Iterable<String> getUsedTypes() {
+    return Iterables.concat(context.getSimpleCompTypes(), context.getExtCompTypes());
+  }
+
   /*
    *  Loads permissions and information on component libraries and assets.
    */
@@ -430,151 +433,75 @@ public class LoadComponentInfo implements CommonTask {
         loadJsonInfo();
       }
 
-      final JSONArray buildInfo = context.getBuildInfo();
+      final ComponentBuildInfo buildInfo = context.getBuildInfo();
 
-      for (int i = 0; i < buildInfo.length(); ++i) {
-        JSONObject compJson = buildInfo.getJSONObject(i);
-        JSONArray infoArray = null;
-        String type = compJson.getString("type");
-        infoArray = compJson.optJSONArray(targetInfo);
-        if (infoArray == null) {
+      for (String type : getUsedTypes()) {
+        Set<String> infoSet = buildInfo.getInfo(type, targetInfo);
+        if (infoSet == null) {
           context.getReporter().info("Component \"" + type + "\" does not specify " + targetInfo);
           // Continue to process other components
           continue;
         }
 
-        if (!context.getSimpleCompTypes().contains(type)
-            && !context.getExtCompTypes().contains(type)) {
-          continue;
-        }
-
-        Set<String> infoSet = Sets.newHashSet();
-        for (int j = 0; j < infoArray.length(); ++j) {
-          String info = infoArray.getString(j);
-          if (!info.isEmpty()) {
-            infoSet.add(info);
-          }
-        }
-
         if (!infoSet.isEmpty()) {
-          infoMap.put(type, infoSet);
+          // The index is shared by all builds, so copy the values before they are merged into.
+          infoMap.put(type, new HashSet<>(infoSet));
         }
 
-        processConditionalInfo(compJson, type, targetInfo);
+        processConditionalInfo(buildInfo, type, targetInfo);
       }
     }
   }
 
   /**
-   * Processes the conditional info from simple_components_build_info.json into
-   * a structure mapping annotation types to component names to block names to
-   * values.
+   * Collects the conditional info of a component into a structure mapping
+   * annotation types to component names to block names to values.
    *
-   * @param compJson   Parsed component data from JSON
+   * @param buildInfo  The index of the component build info
    * @param type       The name of the type being processed
    * @param targetInfo Name of the annotation target being processed (e.g.,
    *                   permissions). Any of: PERMISSIONS_TARGET,
    *                   BROADCAST_RECEIVERS_TARGET
    */
-  private void processConditionalInfo(JSONObject compJson, String type, String targetInfo) {
-    // Strip off the package name since SCM and BKY use unqualified names
-    type = type.substring(type.lastIndexOf('.') + 1);
-
-    JSONObject conditionals = compJson.optJSONObject(
-        ComponentDescriptorConstants.CONDITIONALS_TARGET);
-    if (conditionals != null) {
-      JSONObject jsonBlockMap = conditionals.optJSONObject(targetInfo);
-      if (jsonBlockMap != null) {
-        if (!this.conditionals.containsKey(targetInfo)) {
-          this.conditionals.put(targetInfo, new HashMap<String, Map<String, Set<String>>>());
-        }
-        Map<String, Set<String>> blockMap = new HashMap<>();
-        this.conditionals.get(targetInfo).put(type, blockMap);
-        for (String key : (List<String>) Lists.newArrayList(jsonBlockMap.keys())) {
-          JSONArray data = jsonBlockMap.optJSONArray(key);
-          HashSet<String> result = new HashSet<>();
-          for (int i = 0; i < data.length(); i++) {
-            result.add(data.optString(i));
-          }
-          blockMap.put(key, result);
-        }
+  private void processConditionalInfo(ComponentBuildInfo buildInfo, String type,
+      String targetInfo) {
+    Map<String, Set<String>> blockMap = buildInfo.getConditionalInfo(type, targetInfo);
+    if (blockMap != null) {
+      if (!this.conditionals.containsKey(targetInfo)) {
+        this.conditionals.put(targetInfo, new HashMap<String, Map<String, Set<String>>>());
       }
+      // Strip off the package name since SCM and BKY use unqualified names
+      this.conditionals.get(targetInfo).put(type.substring(type.lastIndexOf('.') + 1), blockMap);
     }
   }
 
-  private void loadPermissionConstraints() throws JSONException {
+  private void loadPermissionConstraints() {
     if (!context.getComponentInfo().getPermissionConstraintsNeeded().isEmpty()) {
       // Nothing to do here.
       return;
     }
 
-    final JSONArray buildInfo = context.getBuildInfo();
-    final Set<String> simpleCompTypes = context.getSimpleCompTypes();
-    final Set<String> extCompTypes = context.getExtCompTypes();
+    final ComponentBuildInfo buildInfo = context.getBuildInfo();
 
-    for (int i = 0; i < buildInfo.length(); i++) {
-      JSONObject compJson = buildInfo.getJSONObject(i);
-      String type = compJson.getString("type");
-      if (!simpleCompTypes.contains(type) && !extCompTypes.contains(type)) {
-        // Component type not used.
-        continue;
-      }
-
-      JSONObject infoObject = compJson.optJSONObject(
-          ComponentDescriptorConstants.PERMISSION_CONSTRAINTS_TARGET);
-      if (infoObject != null) {
-        // Handle declared constraints
-        context.getComponentInfo().getPermissionConstraintsNeeded()
-            .put(type, processPermissionConstraints(infoObject));
+    for (String type : getUsedTypes()) {
+      Map<String, Set<PermissionConstraint<?>>> constraints =
+          buildInfo.getPermissionConstraints(type);
+      if (constraints != null) {
+        // Handle declared constraints. These are merged into later, so copy them.
+        Map<String, Set<PermissionConstraint<?>>> neededConstraints = new HashMap<>();
+        for (Map.Entry<String, Set<PermissionConstraint<?>>> entry : constraints.entrySet()) {
+          neededConstraints.put(entry.getKey(), new HashSet<>(entry.getValue()));
+        }
+        context.getComponentInfo().getPermissionConstraintsNeeded().put(type, neededConstraints);
       }
 
       // Handle conditional constraints
-      infoObject = compJson.optJSONObject(ComponentDescriptorConstants.CONDITIONALS_TARGET);
-      if (infoObject == null) {
-        continue;
-      }
-      infoObject = infoObject.optJSONObject(
-          ComponentDescriptorConstants.PERMISSION_CONSTRAINTS_TARGET);
-      if (infoObject == null) {
-        continue;
-      }
-      Map<String, Map<String, Set<PermissionConstraint<?>>>> blockConstraints = new HashMap<>();
-      Iterator<?> it = infoObject.keys();
-      while (it.hasNext()) {
-        String blockName = (String) it.next();
-        JSONObject constraints = infoObject.getJSONObject(blockName);
-        blockConstraints.put(blockName, processPermissionConstraints(constraints));
-      }
-      conditionalPermissionConstraints.put(type, blockConstraints);
-    }
-  }
-
-  private Map<String, Set<PermissionConstraint<?>>> processPermissionConstraints(JSONObject src)
-      throws JSONException {
-    Map<String, Set<PermissionConstraint<?>>> neededConstraints = new HashMap<>();
-    Iterator<?> it = src.keys();
-    while (it.hasNext()) {
-      String permissionName = (String) it.next();
-      Set<PermissionConstraint<?>> constraintSet = neededConstraints.get(permissionName);
-      if (constraintSet == null) {
-        constraintSet = new HashSet<>();
-        neededConstraints.put(permissionName, constraintSet);
-      }
-      JSONObject constraints = src.getJSONObject(permissionName);
-      Iterator<?> it2 = constraints.keys();
-      while (it2.hasNext()) {
-        String attribute = (String) it2.next();
-        Object value = constraints.get(attribute);
-        if (value instanceof Number) {
-          constraintSet.add(new PermissionConstraint<>(permissionName, attribute,
-              ((Number) value).intValue()));
-        } else {
-          constraintSet.add(new PermissionConstraint<>(permissionName, attribute,
-              value.toString()));
-        }
+      Map<String, Map<String, Set<PermissionConstraint<?>>>> blockConstraints =
+          buildInfo.getConditionalPermissionConstraints(type);
+      if (blockConstraints != null) {
+        conditionalPermissionConstraints.put(type, blockConstraints);
       }
     }
-    return neededConstraints;
   }
 
   private void mergeConditionals(Map<String, Map<String, Set<String>>> conditionalMap,
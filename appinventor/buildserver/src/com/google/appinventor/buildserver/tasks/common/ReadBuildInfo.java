@@ -11,6 +11,7 @@ import com.google.appinventor.buildserver.TaskResult;
 import com.google.appinventor.buildserver.context.CompilerContext;
 import com.google.appinventor.buildserver.context.Paths;
 import com.google.appinventor.buildserver.interfaces.CommonTask;
+import com.google.appinventor.buildserver.util.ComponentBuildInfo;
 import com.google.appinventor.buildserver.util.ExecutorUtils;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Sets;
@@ -70,13 +71,9 @@ public class ReadBuildInfo implements CommonTask {
     context.getResources().setSupportJars(jars.toArray(new String[0]));
 
     try {
-      JSONArray buildInfo = new JSONArray(context.getResources().getCompBuildInfo());
-
-      Set<String> allSimpleTypes = Sets.newHashSet();
-      for (int i = 0; i < buildInfo.length(); ++i) {
-        JSONObject comp = buildInfo.getJSONObject(i);
-        allSimpleTypes.add(comp.getString("type"));
-      }
+      ComponentBuildInfo simpleCompsBuildInfo = context.getResources().getSimpleCompsBuildInfo();
+      context.setSimpleCompsBuildInfo(simpleCompsBuildInfo);
+      Set<String> allSimpleTypes = simpleCompsBuildInfo.getTypes();
 
       HashSet<String> simpleCompTypes = Sets.newHashSet(context.getCompTypes());
       simpleCompTypes.retainAll(allSimpleTypes);
@@ -91,9 +88,6 @@ public class ReadBuildInfo implements CommonTask {
     }
 
     try {
-      JSONArray simpleCompsBuildInfo = new JSONArray(context.getResources().getCompBuildInfo());
-      context.setSimpleCompsBuildInfo(simpleCompsBuildInfo);
-
       JSONArray extCompsBuildInfo = new JSONArray();
       Set<String> readComponentInfos = new HashSet<String>();
       for (String type : context.getExtCompTypes()) {
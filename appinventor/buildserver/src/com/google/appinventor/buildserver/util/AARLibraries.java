@@ -79,6 +79,11 @@ public class AARLibraries extends HashSet<AARLibrary> {
    */
   private Multimap<String, SymbolLoader> symbols = HashMultimap.create();
 
+  /**
+   * Whether the libraries have been returned to the {@link AARStore}.
+   */
+  private boolean released = false;
+
   /**
    * Construct a new AARLibraries collection.
    *
@@ -99,9 +104,8 @@ public class AARLibraries extends HashSet<AARLibrary> {
       libraries.addAll(e.getLibraries());
       natives.addAll(e.getNatives());
       try {
-        if (e.getRTxt() != null) {
-          SymbolLoader loader = new SymbolLoader(e.getRTxt(), LOG);
-          loader.load();
+        SymbolLoader loader = e.getSymbols();
+        if (loader != null) {
           symbols.put(packageName, loader);
         }
       } catch(IOException ex) {
@@ -112,6 +116,19 @@ public class AARLibraries extends HashSet<AARLibrary> {
     return false;
   }
 
+  /**
+   * Returns the libraries in the collection to the {@link AARStore} once the build no longer
+   * needs them. Calling it more than once has no further effect.
+   */
+  public synchronized void release() {
+    if (!released) {
+      released = true;
+      for (AARLibrary library : this) {
+        AARStore.getInstance().release(library);
+      }
+    }
+  }
+
   @Override
   public boolean remove(Object o) {
     // we don't support removing AAR libraries during compilation
@@ -174,6 +191,45 @@ public class AARLibraries extends HashSet<AARLibrary> {
     ResourceSet mainResSet = new ResourceSet("main");
     mainResSet.addSource(mainResDir);
     resourceSets.add(mainResSet);
+    return merge(resourceSets, outputDir, cruncher);
+  }
+
+  /**
+   * Merges the resources of the app over resources that were merged from the AAR libraries
+   * earlier by {@link #mergeLibraryResources(File, PngCruncher)}.
+   *
+   * @param outputDir the output directory to write the R.java files.
+   * @param libraryResDir the merged resources of the AAR libraries.
+   * @param mainResDir the resource directory where the resource descriptors for the app reside.
+   * @param cruncher configured PNG cruncher utility for reducing the size of PNG assets.
+   * @return true if the merge was successful, otherwise false.
+   */
+  public boolean mergeResources(File outputDir, File libraryResDir, File mainResDir,
+      PngCruncher cruncher) {
+    List<ResourceSet> resourceSets = new ArrayList<>();
+    ResourceSet librarySet = new ResourceSet("libraries");
+    librarySet.addSource(libraryResDir);
+    resourceSets.add(librarySet);
+    ResourceSet mainResSet = new ResourceSet("main");
+    mainResSet.addSource(mainResDir);
+    resourceSets.add(mainResSet);
+    return merge(resourceSets, outputDir, cruncher);
+  }
+
+  /**
+   * Merges the resources from all of the dependent AAR libraries, without those of the app, so
+   * that the result can be reused by builds that depend on the same libraries.
+   *
+   * @param outputDir the output directory to write the merged resources to.
+   * @param cruncher configured PNG cruncher utility for reducing the size of PNG assets.
+   * @return true if the merge was successful, otherwise false.
+   */
+  public boolean mergeLibraryResources(File outputDir, PngCruncher cruncher) {
+    return merge(getResourceSets(), outputDir, cruncher);
+  }
+
+  private static boolean merge(List<ResourceSet> resourceSets, File outputDir,
+      PngCruncher cruncher) {
     ResourceMerger merger = new ResourceMerger();
 
     try {
@@ -18,8 +18,10 @@ import java.util.zip.ZipFile;
 
 import javax.xml.xpath.XPathExpressionException;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 
+import com.android.builder.internal.SymbolLoader;
 import com.android.io.StreamException;
 import com.android.xml.AndroidManifest;
 
@@ -99,6 +101,11 @@ public class AARLibrary {
    */
   private Set<File> jni = new HashSet<>();
 
+  /**
+   * Symbols declared in R.txt, loaded on first use.
+   */
+  private SymbolLoader symbols = null;
+
   /**
    * File wrapper around a zip stream to allow extracting the package name from the AndroidManifest.
    */
@@ -174,6 +181,22 @@ public class AARLibrary {
     return jni;
   }
 
+  /**
+   * Gets the symbols declared in the library's R.txt file. They are loaded on first use and then
+   * kept, so that builds sharing the library through the {@link AARStore} load them only once.
+   *
+   * @return the loaded symbols, or null if the library does not have an R.txt file.
+   * @throws IOException if the R.txt file cannot be read.
+   */
+  public synchronized SymbolLoader getSymbols() throws IOException {
+    if (symbols == null && rtxt != null) {
+      SymbolLoader loader = new SymbolLoader(rtxt, new BaseLogger());
+      loader.load();
+      symbols = loader;
+    }
+    return symbols;
+  }
+
   /**
    * Extracts the package name from the Android Archive without needing to unzip it to a location
    * in the file system
@@ -271,6 +294,24 @@ public class AARLibrary {
     }
   }
 
+  /**
+   * Catalogs an archive that was previously unpacked by {@link #unpackToDirectory(File)}.
+   *
+   * @param basedir the directory created by the unpacking operation, named with the archive's
+   *                package name.
+   */
+  public void loadFromDirectory(final File basedir) {
+    this.basedir = basedir;
+    packageName = basedir.getName();
+    for (File file : FileUtils.listFiles(basedir, null, true)) {
+      catalog(file);
+    }
+    resdir = new File(basedir, "res");
+    if (!resdir.exists()) {
+      resdir = null;
+    }
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -0,0 +1,246 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A process-wide store of unpacked Android Archives (AARs), shared by all builds.
+ *
+ * <p>Libraries are keyed by the content of the archive. Each one is unpacked once, and its R.txt
+ * symbols are loaded once, instead of once per build. Builds {@link #acquire} the libraries they
+ * need and {@link #release} them when they finish. When the store grows beyond its size limit,
+ * the least recently used libraries that no build holds are deleted.</p>
+ *
+ * <p>The unpacked files are shared, so builds must not modify them.</p>
+ */
+public final class AARStore {
+  private static final Logger LOG = Logger.getLogger(AARStore.class.getName());
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private static final AARStore INSTANCE = new AARStore(null);
+
+  private static final class Entry {
+    final AARLibrary library;
+    final long size;
+    int references = 0;
+
+    Entry(AARLibrary library, long size) {
+      this.library = library;
+      this.size = size;
+    }
+  }
+
+  private File storeDir;
+  private long maxSizeBytes = 1024L * 1024 * 1024;
+  private long sizeBytes = 0;
+  // Ordered from least to most recently used.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ConcurrentMap<String, FutureTask<Void>> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  @VisibleForTesting
+  AARStore(File storeDir) {
+    this.storeDir = storeDir;
+  }
+
+  public static AARStore getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Sets the size limit of the store.
+   *
+   * @param maxSizeMb the maximum total size of the unpacked libraries, in MB. 0 means unlimited.
+   */
+  public synchronized void configure(long maxSizeMb) {
+    maxSizeBytes = Math.max(0, maxSizeMb) * 1024 * 1024;
+    evict(null);
+  }
+
+  /**
+   * Returns the unpacked form of an archive, unpacking it first if it is not in the store. The
+   * caller must {@link #release} the library once it no longer needs it.
+   *
+   * @param aar the Android Archive
+   * @return the unpacked library
+   * @throws IOException if the archive cannot be read or unpacked
+   */
+  public AARLibrary acquire(final File aar) throws IOException {
+    final String key = YailClassCache.hashOf(aar);
+    boolean unpacked = false;
+    while (true) {
+      synchronized (this) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+          entry.references++;
+          if (!unpacked) {
+            hits.incrementAndGet();
+          }
+          return entry.library;
+        }
+      }
+      FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          unpack(aar, key);
+          return null;
+        }
+      });
+      FutureTask<Void> running = inFlight.putIfAbsent(key, task);
+      if (running == null) {
+        misses.incrementAndGet();
+        unpacked = true;
+        running = task;
+        try {
+          task.run();
+        } finally {
+          inFlight.remove(key, task);
+        }
+      }
+      try {
+        running.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for " + aar + " to be unpacked", e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      // Loop to take a reference. In the rare case that the library was evicted in the meantime,
+      // it is unpacked again.
+    }
+  }
+
+  /**
+   * Releases a library acquired with {@link #acquire}. Libraries that did not come from the
+   * store are ignored.
+   *
+   * @param library the library to release
+   */
+  public synchronized void release(AARLibrary library) {
+    for (Entry entry : entries.values()) {
+      if (entry.library == library) {
+        if (entry.references > 0) {
+          entry.references--;
+        }
+        break;
+      }
+    }
+    evict(null);
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  public synchronized long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  private void unpack(File aar, String key) throws IOException {
+    File dir = new File(getStoreDir(), key);
+    File tempDir = new File(getStoreDir(), key + "-" + Long.toHexString(System.nanoTime())
+        + TEMP_SUFFIX);
+    try {
+      // Unpacks into <tempDir>/<package name>/, then moves it to <dir>/<package name>/.
+      new AARLibrary(aar).unpackToDirectory(tempDir);
+      FileUtils.deleteQuietly(dir);
+      if (!tempDir.renameTo(dir)) {
+        throw new IOException("Unable to move " + tempDir + " to " + dir);
+      }
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+    File[] packageDirs = dir.listFiles();
+    if (packageDirs == null || packageDirs.length != 1) {
+      FileUtils.deleteQuietly(dir);
+      throw new IOException("Unexpected contents after unpacking " + aar + " to " + dir);
+    }
+    AARLibrary library = new AARLibrary(aar);
+    library.loadFromDirectory(packageDirs[0]);
+    // Load the symbols now so that builds waiting for this library do not each try to.
+    library.getSymbols();
+    long size = FileUtils.sizeOfDirectory(dir);
+    synchronized (this) {
+      entries.put(key, new Entry(library, size));
+      sizeBytes += size;
+      // Keep the new library even if it alone exceeds the limit, since a build is waiting for it.
+      evict(key);
+    }
+  }
+
+  private synchronized File getStoreDir() {
+    if (storeDir == null) {
+      storeDir = Files.createTempDir();
+      final File dir = storeDir;
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          FileUtils.deleteQuietly(dir);
+        }
+      });
+      LOG.info("Unpacking AAR libraries to " + storeDir);
+    }
+    return storeDir;
+  }
+
+  // Must be called while holding the lock.
+  private void evict(String keep) {
+    if (maxSizeBytes == 0) {
+      return;
+    }
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      if (eldest.getValue().references > 0 || eldest.getKey().equals(keep)) {
+        continue;
+      }
+      iterator.remove();
+      sizeBytes -= eldest.getValue().size;
+      evictions.incrementAndGet();
+      FileUtils.deleteQuietly(new File(storeDir, eldest.getKey()));
+    }
+  }
+}
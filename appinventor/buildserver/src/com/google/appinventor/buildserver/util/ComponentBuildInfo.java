@@ -0,0 +1,243 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.appinventor.components.common.ComponentDescriptorConstants;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * An immutable index of component build info, as found in
+ * {@code simple_components_build_info.json} and the {@code component_build_info.json} of
+ * extensions, keyed by component type and info kind (e.g., permissions).
+ *
+ * <p>The index of the built-in components is parsed once per process and shared by all builds.
+ * Each build layers the index of its extensions on top with {@link #withExtensions}, so that
+ * looking up a component costs a map lookup instead of a scan of every component.</p>
+ *
+ * <p>The collections returned by the index are immutable. Callers that add to them must copy
+ * them first.</p>
+ */
+public final class ComponentBuildInfo {
+  /**
+   * The build info of a single component type.
+   */
+  private static final class Component {
+    // Maps info kinds to values. Kinds the component does not specify are absent.
+    final Map<String, Set<String>> infos;
+    // Maps info kinds to block names to values.
+    final Map<String, Map<String, Set<String>>> conditionals;
+    // Maps permissions to constraints, or null if the component has none.
+    final Map<String, Set<PermissionConstraint<?>>> permissionConstraints;
+    // Maps block names to permissions to constraints, or null if the component has none.
+    final Map<String, Map<String, Set<PermissionConstraint<?>>>> conditionalPermissionConstraints;
+
+    Component(JSONObject compJson) throws JSONException {
+      ImmutableMap.Builder<String, Set<String>> infos = ImmutableMap.builder();
+      Iterator<?> it = compJson.keys();
+      while (it.hasNext()) {
+        String kind = (String) it.next();
+        JSONArray infoArray = compJson.optJSONArray(kind);
+        if (infoArray == null) {
+          continue;
+        }
+        ImmutableSet.Builder<String> infoSet = ImmutableSet.builder();
+        for (int i = 0; i < infoArray.length(); i++) {
+          String info = infoArray.getString(i);
+          if (!info.isEmpty()) {
+            infoSet.add(info);
+          }
+        }
+        infos.put(kind, infoSet.build());
+      }
+      this.infos = infos.build();
+
+      ImmutableMap.Builder<String, Map<String, Set<String>>> conditionals =
+          ImmutableMap.builder();
+      Map<String, Map<String, Set<PermissionConstraint<?>>>> blockConstraints = null;
+      JSONObject conditionalsJson = compJson.optJSONObject(
+          ComponentDescriptorConstants.CONDITIONALS_TARGET);
+      if (conditionalsJson != null) {
+        it = conditionalsJson.keys();
+        while (it.hasNext()) {
+          String kind = (String) it.next();
+          JSONObject jsonBlockMap = conditionalsJson.optJSONObject(kind);
+          if (jsonBlockMap == null) {
+            continue;
+          }
+          if (kind.equals(ComponentDescriptorConstants.PERMISSION_CONSTRAINTS_TARGET)) {
+            ImmutableMap.Builder<String, Map<String, Set<PermissionConstraint<?>>>> blocks =
+                ImmutableMap.builder();
+            Iterator<?> blockIt = jsonBlockMap.keys();
+            while (blockIt.hasNext()) {
+              String blockName = (String) blockIt.next();
+              blocks.put(blockName,
+                  parsePermissionConstraints(jsonBlockMap.getJSONObject(blockName)));
+            }
+            blockConstraints = blocks.build();
+            continue;
+          }
+          ImmutableMap.Builder<String, Set<String>> blockMap = ImmutableMap.builder();
+          Iterator<?> blockIt = jsonBlockMap.keys();
+          while (blockIt.hasNext()) {
+            String blockName = (String) blockIt.next();
+            JSONArray data = jsonBlockMap.optJSONArray(blockName);
+            ImmutableSet.Builder<String> values = ImmutableSet.builder();
+            for (int i = 0; i < data.length(); i++) {
+              values.add(data.optString(i));
+            }
+            blockMap.put(blockName, values.build());
+          }
+          conditionals.put(kind, blockMap.build());
+        }
+      }
+      this.conditionals = conditionals.build();
+      this.conditionalPermissionConstraints = blockConstraints;
+
+      JSONObject constraintsJson = compJson.optJSONObject(
+          ComponentDescriptorConstants.PERMISSION_CONSTRAINTS_TARGET);
+      this.permissionConstraints = constraintsJson == null ? null
+          : parsePermissionConstraints(constraintsJson);
+    }
+  }
+
+  private final ComponentBuildInfo parent;
+  private final Map<String, Component> components;
+
+  private ComponentBuildInfo(ComponentBuildInfo parent, Map<String, Component> components) {
+    this.parent = parent;
+    this.components = components;
+  }
+
+  /**
+   * Builds the index of a JSON array of component build info.
+   *
+   * @param buildInfo the build info of each component
+   * @return the index
+   * @throws JSONException if the build info is malformed
+   */
+  public static ComponentBuildInfo parse(JSONArray buildInfo) throws JSONException {
+    Map<String, Component> components = new HashMap<>();
+    for (int i = 0; i < buildInfo.length(); i++) {
+      JSONObject compJson = buildInfo.getJSONObject(i);
+      components.put(compJson.getString("type"), new Component(compJson));
+    }
+    return new ComponentBuildInfo(null, Collections.unmodifiableMap(components));
+  }
+
+  /**
+   * Returns an index that looks up components in {@code extensions} first, and then in this one.
+   *
+   * @param extensions the index of the extensions used by a build
+   */
+  public ComponentBuildInfo withExtensions(ComponentBuildInfo extensions) {
+    if (extensions.components.isEmpty()) {
+      return this;
+    }
+    return new ComponentBuildInfo(this, extensions.components);
+  }
+
+  /**
+   * Returns the types of the components in this index, not including those of the index it is
+   * layered on.
+   */
+  public Set<String> getTypes() {
+    return components.keySet();
+  }
+
+  /**
+   * Returns the non-empty values of an info kind that a component declares.
+   *
+   * @param type the fully qualified type of the component
+   * @param kind the info kind, e.g. {@link ComponentDescriptorConstants#PERMISSIONS_TARGET}
+   * @return the values, or null if the component is unknown or does not specify the kind
+   */
+  public Set<String> getInfo(String type, String kind) {
+    Component component = getComponent(type);
+    return component == null ? null : component.infos.get(kind);
+  }
+
+  /**
+   * Returns the values of an info kind that a component needs only when some of its blocks are
+   * used, keyed by block name.
+   *
+   * @param type the fully qualified type of the component
+   * @param kind the info kind
+   * @return the values by block name, or null if there are none
+   */
+  public Map<String, Set<String>> getConditionalInfo(String type, String kind) {
+    Component component = getComponent(type);
+    return component == null ? null : component.conditionals.get(kind);
+  }
+
+  /**
+   * Returns the permission constraints that a component declares, keyed by permission.
+   *
+   * @param type the fully qualified type of the component
+   * @return the constraints by permission, or null if there are none
+   */
+  public Map<String, Set<PermissionConstraint<?>>> getPermissionConstraints(String type) {
+    Component component = getComponent(type);
+    return component == null ? null : component.permissionConstraints;
+  }
+
+  /**
+   * Returns the permission constraints that a component needs only when some of its blocks are
+   * used, keyed by block name and then by permission.
+   *
+   * @param type the fully qualified type of the component
+   * @return the constraints by block name, or null if there are none
+   */
+  public Map<String, Map<String, Set<PermissionConstraint<?>>>> getConditionalPermissionConstraints(
+      String type) {
+    Component component = getComponent(type);
+    return component == null ? null : component.conditionalPermissionConstraints;
+  }
+
+  private Component getComponent(String type) {
+    Component component = components.get(type);
+    if (component == null && parent != null) {
+      component = parent.getComponent(type);
+    }
+    return component;
+  }
+
+  private static Map<String, Set<PermissionConstraint<?>>> parsePermissionConstraints(
+      JSONObject src) throws JSONException {
+    Map<String, Set<PermissionConstraint<?>>> neededConstraints = new HashMap<>();
+    Iterator<?> it = src.keys();
+    while (it.hasNext()) {
+      String permissionName = (String) it.next();
+      Set<PermissionConstraint<?>> constraintSet = new HashSet<>();
+      JSONObject constraints = src.getJSONObject(permissionName);
+      Iterator<?> it2 = constraints.keys();
+      while (it2.hasNext()) {
+        String attribute = (String) it2.next();
+        Object value = constraints.get(attribute);
+        if (value instanceof Number) {
+          constraintSet.add(new PermissionConstraint<>(permissionName, attribute,
+              ((Number) value).intValue()));
+        } else {
+          constraintSet.add(new PermissionConstraint<>(permissionName, attribute,
+              value.toString()));
+        }
+      }
+      neededConstraints.put(permissionName, Collections.unmodifiableSet(constraintSet));
+    }
+    return Collections.unmodifiableMap(neededConstraints);
+  }
+}
@@ -0,0 +1,61 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Entry point of a resident d8 process. Each request is parsed with {@code D8Command.parse} and
+ * run with {@code D8.run}, so the d8 classes stay loaded and JIT compiled between dex jobs.
+ */
+public final class D8Worker extends ResidentWorker {
+  private D8Worker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args ignored
+   */
+  public static void main(String[] args) throws IOException {
+    new D8Worker().serve();
+  }
+
+  @Override
+  protected int run(String[] args) throws Exception {
+    Class<?> originClass = Class.forName("com.android.tools.r8.origin.Origin");
+    Class<?> commandClass = Class.forName("com.android.tools.r8.D8Command");
+    Object origin = originClass.getMethod("root").invoke(null);
+    Object builder = commandClass.getMethod("parse", String[].class, originClass)
+        .invoke(null, expandArgFiles(args), origin);
+    Object command = builder.getClass().getMethod("build").invoke(builder);
+    Class.forName("com.android.tools.r8.D8").getMethod("run", commandClass)
+        .invoke(null, command);
+    return 0;
+  }
+
+  private static String[] expandArgFiles(String[] args) throws IOException {
+    List<String> result = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("@")) {
+        for (String line : Files.readAllLines(Paths.get(arg.substring(1)),
+            StandardCharsets.UTF_8)) {
+          if (!line.isEmpty()) {
+            result.add(line);
+          }
+        }
+      } else {
+        result.add(arg);
+      }
+    }
+    return result.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,443 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A cache of pre-dexed libraries, shared by all builds that use the same cache directory.
+ *
+ * <p>Entries are keyed by the content of the library. Concurrent requests for the same library
+ * wait for a single dexer run, while different libraries are dexed in parallel. The output of
+ * a dexer run is written to a temporary directory and then renamed into place, so other builds
+ * never see a partial entry.</p>
+ *
+ * <p>An entry may also hold a set of libraries dexed together into one dex archive, keyed by the
+ * content of all of them, such as the libraries that every companion build shares.</p>
+ *
+ * <p>A failed dexer run is remembered for {@link #FAILURE_RETRY_MILLIS}, so that builds in
+ * the meantime fall back to the undexed libraries at once instead of failing again. A run that
+ * timed out or whose build was cancelled is not remembered. Builds that were waiting for a
+ * cancelled run dex the library themselves.</p>
+ *
+ * <p>When the cache grows beyond its size limit, the least recently used entries are deleted.
+ * Entries that were used within the last {@link #MIN_EVICTION_AGE_MILLIS} are kept even then,
+ * since a running build may still be reading them.</p>
+ */
+public final class DexCache {
+  private static final Logger LOG = Logger.getLogger(DexCache.class.getName());
+
+  // Entries used this recently may still be read by a running build.
+  private static final long MIN_EVICTION_AGE_MILLIS = 15 * 60 * 1000;
+
+  // Entries that failed to be produced are not retried for this long.
+  static final long FAILURE_RETRY_MILLIS = 10 * 60 * 1000;
+
+  private static final String PREFIX = "dex-cached-";
+  private static final String TEMP_SUFFIX = ".tmp";
+  // Follows PREFIX in the names of entries that merge several libraries.
+  private static final String MERGED_PREFIX = "merged-";
+
+  private static final ConcurrentMap<File, DexCache> CACHES = new ConcurrentHashMap<>();
+
+  // Content hashes of libraries, keyed by path, size and modification time.
+  private static final Cache<String, String> HASHES = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .build();
+
+  private static volatile long maxSizeBytes = 0;
+
+  /**
+   * Dexes a single library.
+   */
+  public interface Dexer {
+    /**
+     * Dexes {@code input} into {@code outputDir}.
+     *
+     * @param input the library to dex
+     * @param outputDir an empty directory for the output
+     * @return the output file, or null if dexing failed
+     * @throws IOException if the dexer cannot be run
+     */
+    File dex(File input, File outputDir) throws IOException;
+  }
+
+  /**
+   * Dexes a set of libraries into a single dex archive.
+   */
+  public interface Merger {
+    /**
+     * Dexes {@code inputs} into {@code outputDir}.
+     *
+     * @param inputs the libraries to dex
+     * @param outputDir an empty directory for the output
+     * @return the output file, or null if dexing failed
+     * @throws IOException if the dexer cannot be run
+     */
+    File merge(List<File> inputs, File outputDir) throws IOException;
+  }
+
+  // Produces the content of an entry in a temporary directory.
+  private interface Producer {
+    File produce(File outputDir) throws IOException;
+  }
+
+  private static final class Entry {
+    final long size;
+    long lastUsed;
+
+    Entry(long size, long lastUsed) {
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+  private final File cacheDir;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ConcurrentMap<String, FutureTask<File>> inFlight = new ConcurrentHashMap<>();
+  // The names of the entries that recently failed to be produced.
+  private final Cache<String, Boolean> failed = CacheBuilder.newBuilder()
+      .expireAfterWrite(FAILURE_RETRY_MILLIS, TimeUnit.MILLISECONDS)
+      .build();
+  private long sizeBytes = 0;
+
+  private final AtomicLong hits = new AtomicLong(0);
+  private final AtomicLong misses = new AtomicLong(0);
+  private final AtomicLong failures = new AtomicLong(0);
+  private final AtomicLong evictions = new AtomicLong(0);
+
+  private DexCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+    load();
+  }
+
+  /**
+   * Sets the size limit of all dex caches.
+   *
+   * @param maxSizeMb the maximum total size of the entries of a cache, in MB. 0 means unlimited.
+   */
+  public static void configure(long maxSizeMb) {
+    maxSizeBytes = Math.max(0, maxSizeMb) * 1024 * 1024;
+    for (DexCache cache : CACHES.values()) {
+      synchronized (cache) {
+        cache.evict();
+      }
+    }
+  }
+
+  /**
+   * Returns the cache that uses a directory, verifying its existing entries on first use.
+   *
+   * @param cacheDir the directory of the cache
+   */
+  public static DexCache forDirectory(File cacheDir) {
+    File key = cacheDir.getAbsoluteFile();
+    DexCache cache = CACHES.get(key);
+    if (cache == null) {
+      synchronized (CACHES) {
+        cache = CACHES.get(key);
+        if (cache == null) {
+          cache = new DexCache(key);
+          CACHES.put(key, cache);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the pre-dexed form of a library, dexing it first if it is not in the cache.
+   *
+   * @param input the library
+   * @param suffix the file name suffix of the dexer's output, such as {@code .dex}
+   * @param dexer the dexer to run on a cache miss
+   * @return the pre-dexed library, or null if dexing failed, now or recently
+   * @throws IOException if the library cannot be read or the dexer cannot be run. An
+   *     {@link InterruptedIOException} if the build was cancelled while dexing
+   */
+  public File get(final File input, String suffix, final Dexer dexer) throws IOException {
+    return get(PREFIX + hashOf(input) + suffix, input.toString(), new Producer() {
+      @Override
+      public File produce(File outputDir) throws IOException {
+        return dexer.dex(input, outputDir);
+      }
+    });
+  }
+
+  /**
+   * Returns the merged, pre-dexed form of a set of libraries, dexing them first if they are not
+   * in the cache. The entry is keyed by the content of the libraries, regardless of their order.
+   *
+   * @param inputs the libraries
+   * @param variant what else the output depends on, such as the minimum SDK
+   * @param suffix the file name suffix of the merger's output, such as {@code .jar}
+   * @param merger the merger to run on a cache miss
+   * @return the pre-dexed libraries, or null if dexing failed, now or recently
+   * @throws IOException if a library cannot be read or the merger cannot be run. An
+   *     {@link InterruptedIOException} if the build was cancelled while dexing
+   */
+  public File getMerged(final List<File> inputs, String variant, String suffix,
+      final Merger merger) throws IOException {
+    List<String> hashes = new ArrayList<>(inputs.size());
+    for (File input : inputs) {
+      hashes.add(hashOf(input));
+    }
+    Collections.sort(hashes);
+    Hasher hasher = Hashing.md5().newHasher().putString(variant);
+    for (String hash : hashes) {
+      hasher.putString("\n").putString(hash);
+    }
+    return get(PREFIX + MERGED_PREFIX + hasher.hash() + suffix, inputs.size() + " libraries",
+        new Producer() {
+          @Override
+          public File produce(File outputDir) throws IOException {
+            return merger.merge(inputs, outputDir);
+          }
+        });
+  }
+
+  private File get(final String name, String description, final Producer producer)
+      throws IOException {
+    final File entryFile = new File(cacheDir, name);
+    synchronized (this) {
+      Entry entry = entries.get(name);
+      if (entry != null && entryFile.isFile()) {
+        entry.lastUsed = System.currentTimeMillis();
+        entryFile.setLastModified(entry.lastUsed);
+        hits.incrementAndGet();
+        return entryFile;
+      }
+    }
+    while (true) {
+      if (failed.getIfPresent(name) != null) {
+        return null;
+      }
+      FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+        @Override
+        public File call() throws IOException {
+          return produce(name, entryFile, producer);
+        }
+      });
+      FutureTask<File> running = inFlight.putIfAbsent(name, task);
+      if (running == null) {
+        misses.incrementAndGet();
+        running = task;
+        try {
+          task.run();
+        } finally {
+          inFlight.remove(name, task);
+        }
+      }
+      try {
+        return running.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for " + description + " to be dexed", e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof InterruptedIOException && running != task) {
+          // The build that was dexing the entry was cancelled, so dex it for this one.
+          continue;
+        }
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  public synchronized int getEntryCount() {
+    return entries.size();
+  }
+
+  public synchronized long getSizeBytes() {
+    return sizeBytes;
+  }
+
+  public static long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  private File produce(String name, File entryFile, Producer producer) throws IOException {
+    // Another build may have finished dexing this entry between our lookup and now.
+    synchronized (this) {
+      if (entries.containsKey(name) && entryFile.isFile()) {
+        return entryFile;
+      }
+    }
+    File tempDir = new File(cacheDir, name + "-" + Long.toHexString(System.nanoTime())
+        + TEMP_SUFFIX);
+    try {
+      if (!tempDir.mkdirs()) {
+        throw new IOException("Unable to create " + tempDir);
+      }
+      Execution.setTimedOut(false);
+      File output = producer.produce(tempDir);
+      if (output == null || !isValid(output)) {
+        if (Thread.currentThread().isInterrupted()) {
+          throw new InterruptedIOException("Interrupted while dexing " + name);
+        }
+        failures.incrementAndGet();
+        // A dexer that ran out of time may succeed when the build server is less busy.
+        if (!Execution.lastRunTimedOut()) {
+          failed.put(name, Boolean.TRUE);
+        }
+        return null;
+      }
+      long size = output.length();
+      if (!output.renameTo(entryFile) && !entryFile.isFile()) {
+        throw new IOException("Unable to move " + output + " to " + entryFile);
+      }
+      synchronized (this) {
+        Entry previous = entries.put(name, new Entry(size, System.currentTimeMillis()));
+        if (previous != null) {
+          sizeBytes -= previous.size;
+        }
+        sizeBytes += size;
+        evict();
+      }
+      return entryFile;
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  // Indexes the entries already on disk, from least to most recently used, and deletes the ones
+  // that are damaged or were left behind by a dexer that did not finish.
+  private synchronized void load() {
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      LOG.warning("Unable to create dex cache dir " + cacheDir);
+      return;
+    }
+    File[] files = cacheDir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File a, File b) {
+        return Long.compare(a.lastModified(), b.lastModified());
+      }
+    });
+    int removed = 0;
+    for (File file : files) {
+      if (!file.getName().startsWith(PREFIX)) {
+        continue;
+      }
+      if (file.getName().endsWith(TEMP_SUFFIX) || !isValid(file)) {
+        FileUtils.deleteQuietly(file);
+        removed++;
+      } else {
+        entries.put(file.getName(), new Entry(file.length(), file.lastModified()));
+        sizeBytes += file.length();
+      }
+    }
+    LOG.info("Dex cache: " + entries.size() + " entries, " + sizeBytes + " bytes in " + cacheDir
+        + (removed > 0 ? ", removed " + removed + " damaged entries" : ""));
+    evict();
+  }
+
+  // Must be called while holding the lock.
+  private void evict() {
+    if (maxSizeBytes == 0) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Entry> eldest = iterator.next();
+      if (now - eldest.getValue().lastUsed < MIN_EVICTION_AGE_MILLIS) {
+        break;
+      }
+      iterator.remove();
+      sizeBytes -= eldest.getValue().size;
+      evictions.incrementAndGet();
+      FileUtils.deleteQuietly(new File(cacheDir, eldest.getKey()));
+    }
+  }
+
+  /**
+   * Checks that a file is a dex file, or a jar that contains one.
+   */
+  private static boolean isValid(File file) {
+    if (!file.isFile() || file.length() == 0) {
+      return false;
+    }
+    if (file.getName().endsWith(".jar")) {
+      try (ZipFile zip = new ZipFile(file)) {
+        return zip.getEntry("classes.dex") != null;
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Damaged dex cache entry " + file, e);
+        return false;
+      }
+    }
+    byte[] magic = new byte[4];
+    try (InputStream in = new FileInputStream(file)) {
+      return in.read(magic) == magic.length && magic[0] == 'd' && magic[1] == 'e'
+          && magic[2] == 'x' && magic[3] == '\n';
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Damaged dex cache entry " + file, e);
+      return false;
+    }
+  }
+
+  private static String hashOf(File file) throws IOException {
+    String id = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    String hash = HASHES.getIfPresent(id);
+    if (hash == null) {
+      hash = Files.hash(file, Hashing.md5()).toString();
+      HASHES.put(id, hash);
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,99 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs d8 and dx jobs, either in resident {@link D8Worker} and {@link DxWorker} processes or, when
+ * the service is disabled or all of its workers are busy, in a new process per job.
+ *
+ * <p>Each worker runs one job at a time, so up to {@code maxWorkers} jobs of each kind can be
+ * dexed concurrently.</p>
+ */
+public final class DexerService {
+  private static final ResidentWorkerPool D8_POOL = new ResidentWorkerPool("D8",
+      D8Worker.class, "com.android.tools.r8.D8", "-Xss8m");
+  private static final ResidentWorkerPool DX_POOL = new ResidentWorkerPool("DX",
+      DxWorker.class, "com.android.dx.command.Main");
+
+  private DexerService() {
+  }
+
+  /**
+   * Configures the service.
+   *
+   * @param maxWorkers the maximum number of resident workers per dexer. 0 starts a new process
+   *     for every job.
+   * @param maxJobsPerWorker the number of jobs after which a worker is recycled
+   */
+  public static void configure(int maxWorkers, int maxJobsPerWorker) {
+    D8_POOL.configure(maxWorkers, maxJobsPerWorker);
+    DX_POOL.configure(maxWorkers, maxJobsPerWorker);
+  }
+
+  public static ResidentWorkerPool getD8Pool() {
+    return D8_POOL;
+  }
+
+  public static ResidentWorkerPool getDxPool() {
+    return DX_POOL;
+  }
+
+  /**
+   * Runs d8.
+   *
+   * @param d8Jar path to the d8 jar
+   * @param heapMb the maximum heap of the d8 process, in MB
+   * @param d8Args the arguments passed to d8
+   * @param argsFile the file used to pass arguments to a new d8 process
+   * @param workingDir the working directory of a new d8 process
+   * @param timeout timeout for the job
+   * @return {@code true} if d8 succeeds, {@code false} otherwise
+   * @throws IOException if the arguments file cannot be written
+   */
+  public static boolean runD8(String d8Jar, int heapMb, List<String> d8Args, File argsFile,
+      File workingDir, Execution.Timeout timeout) throws IOException {
+    Boolean result = D8_POOL.tryRun(d8Jar, heapMb, d8Args, System.out, System.err, timeout);
+    if (result != null) {
+      return result;
+    }
+    // The command line can get very long, so pass everything through a Java arguments file.
+    List<String> javaArgs = new ArrayList<>();
+    javaArgs.add("-Xmx" + heapMb + "M");
+    javaArgs.add("-Xss8m");
+    javaArgs.add("-cp");
+    javaArgs.add(d8Jar);
+    javaArgs.add("com.android.tools.r8.D8");
+    javaArgs.addAll(d8Args);
+    try (PrintStream ps = new PrintStream(new FileOutputStream(argsFile))) {
+      for (String arg : javaArgs) {
+        ps.println(arg);
+      }
+    }
+    return Execution.execute(workingDir, new String[] {"java", "@" + argsFile.getAbsolutePath()},
+        System.out, System.err, timeout);
+  }
+
+  /**
+   * Runs dx.
+   *
+   * @param dxJar path to the dx jar
+   * @param heapMb the maximum heap of the dx process, in MB
+   * @param dxArgs the arguments passed to dx
+   * @param timeout timeout for the job
+   * @return {@code true} if dx succeeds, {@code false} otherwise
+   */
+  public static boolean runDx(String dxJar, int heapMb, List<String> dxArgs,
+      Execution.Timeout timeout) {
+    return DX_POOL.run(dxJar, heapMb, dxArgs, System.out, System.err, timeout);
+  }
+}
@@ -0,0 +1,33 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import java.io.IOException;
+
+/**
+ * Entry point of a resident dx process. dx terminates the JVM when dexing fails, in which case
+ * the pool reports the exit code of the worker.
+ */
+public final class DxWorker extends ResidentWorker {
+  private DxWorker() {
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args ignored
+   */
+  public static void main(String[] args) throws IOException {
+    new DxWorker().serve();
+  }
+
+  @Override
+  protected int run(String[] args) throws Exception {
+    Class.forName("com.android.dx.command.Main").getMethod("main", String[].class)
+        .invoke(null, (Object) args);
+    return 0;
+  }
+}
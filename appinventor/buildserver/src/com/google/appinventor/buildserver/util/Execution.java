@@ -6,6 +6,7 @@
 
 package com.google.appinventor.buildserver.util;
 
+import com.google.appinventor.buildserver.stats.ChildProcessStats;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 
@@ -32,6 +33,17 @@ public final class Execution {
 
   private static boolean DISABLE_TIMEOUTS = false;
 
+  // Whether the last command run by a thread was terminated due to its timeout.
+  private static final ThreadLocal<Boolean> TIMED_OUT = new ThreadLocal<Boolean>() {
+    @Override
+    protected Boolean initialValue() {
+      return false;
+    }
+  };
+
+  // How long to wait for a forcibly terminated process to exit.
+  private static final int DESTROY_TIMEOUT_SECONDS = 5;
+
   public enum Timeout {
     SHORT(5), // 5 seconds
     MEDIUM(30), // 30 seconds
@@ -52,6 +64,22 @@ public final class Execution {
     DISABLE_TIMEOUTS = true;
   }
 
+  static boolean timeoutsDisabled() {
+    return DISABLE_TIMEOUTS;
+  }
+
+  /**
+   * Checks whether the last command run by the current thread was terminated due to its
+   * timeout, as opposed to failing by itself.
+   */
+  public static boolean lastRunTimedOut() {
+    return TIMED_OUT.get();
+  }
+
+  static void setTimedOut(boolean timedOut) {
+    TIMED_OUT.set(timedOut);
+  }
+
   /*
    * Input stream handler used for stdout and stderr redirection.
    */
@@ -103,8 +131,17 @@ public final class Execution {
       }
     }
 
+    setTimedOut(false);
+    // Don't start anything for a build that has been cancelled.
+    if (Thread.currentThread().isInterrupted()) {
+      err.println("Process was not started because the build was cancelled");
+      return false;
+    }
+
+    Process process = null;
+    long start = System.currentTimeMillis();
     try {
-      Process process = Runtime.getRuntime().exec(command, null, workingDir);
+      process = Runtime.getRuntime().exec(command, null, workingDir);
       // Prevent any interactive shell from waiting for input
       process.getOutputStream().close();
       new RedirectStreamHandler(new PrintWriter(out, true), process.getInputStream());
@@ -115,15 +152,46 @@ public final class Execution {
       }
 
       if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
-        process.destroyForcibly();
+        destroy(process);
+        setTimedOut(true);
         err.println("Process had to be forcibly terminated due to timeout");
         return false;
       }
 
       return process.exitValue() == 0;
+    } catch (InterruptedException e) {
+      // The build was cancelled. Kill the process so that it doesn't outlive the build.
+      destroy(process);
+      err.println("Process had to be forcibly terminated because the build was cancelled");
+      Thread.currentThread().interrupt();
+      return false;
     } catch (Exception e) {
       LOG.log(Level.WARNING, "____Execution failure: ", e);
       return false;
+    } finally {
+      if (process != null) {
+        ChildProcessStats.getInstance().record(new File(command[0]).getName(),
+            System.currentTimeMillis() - start);
+      }
+    }
+  }
+
+  /**
+   * Forcibly terminates a process and waits briefly for it to exit, without being interrupted.
+   */
+  private static void destroy(Process process) {
+    process.destroyForcibly();
+    boolean interrupted = Thread.interrupted();
+    try {
+      if (!process.waitFor(DESTROY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warning("____Process did not exit after being terminated");
+      }
+    } catch (InterruptedException e) {
+      interrupted = true;
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 
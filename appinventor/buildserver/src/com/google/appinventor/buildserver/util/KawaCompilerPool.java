@@ -0,0 +1,21 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+/**
+ * Holds the pool of resident Kawa compiler processes used to compile YAIL.
+ */
+public final class KawaCompilerPool {
+  private static final ResidentWorkerPool INSTANCE = new ResidentWorkerPool("Kawa",
+      KawaCompilerWorker.class, "kawa.repl", "-Dfile.encoding=UTF-8");
+
+  private KawaCompilerPool() {
+  }
+
+  public static ResidentWorkerPool getInstance() {
+    return INSTANCE;
+  }
+}
@@ -0,0 +1,100 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Entry point of a resident Kawa compiler process. Kawa terminates the JVM when compilation
+ * fails, in which case the pool reports the exit code of the worker.
+ *
+ * <p>Kawa keeps its settings, its compiled modules and the definitions that it evaluates in
+ * global state. A worker compiles the projects of different users one after another, so before
+ * every compilation that state is put back to how it was when the worker started:</p>
+ * <ul>
+ *   <li>the settings that kawa.repl's command line options change are restored,</li>
+ *   <li>the warning options are replaced by a fresh copy of the initial ones,</li>
+ *   <li>the module manager forgets the modules of earlier compilations and their output
+ *   directory, and</li>
+ *   <li>definitions are evaluated into a new environment, which only inherits Kawa's
+ *   built-in bindings.</li>
+ * </ul>
+ * <p>The worker only compiles; it never runs the code of a project.</p>
+ */
+public final class KawaCompilerWorker extends ResidentWorker {
+  // Static fields set by kawa.repl's command line options, by class.
+  private static final String[][] SETTINGS = {
+      {"kawa.repl", "compilationTopname", "defaultParseOptions", "noConsole",
+          "previousLanguage"},
+      {"gnu.expr.Compilation", "debugPrintExpr", "debugPrintFinalExpr",
+          "defaultClassFileVersion", "defaultCallConvention", "moduleStatic",
+          "generateMainDefault", "inlineOk", "classPrefixDefault", "emitSourceDebugExtAttr"},
+  };
+
+  private final Map<Field, Object> initialSettings = new LinkedHashMap<>();
+  private final Field options;
+  private final Object initialOptions;
+  private final Constructor<?> newOptions;
+  private final Object moduleManager;
+  private final Object initialCompilationDirectory;
+
+  KawaCompilerWorker() throws ReflectiveOperationException {
+    for (String[] settings : SETTINGS) {
+      Class<?> type = Class.forName(settings[0]);
+      for (int i = 1; i < settings.length; i++) {
+        Field field = type.getDeclaredField(settings[i]);
+        field.setAccessible(true);
+        initialSettings.put(field, field.get(null));
+      }
+    }
+    options = Class.forName("gnu.expr.Compilation").getField("options");
+    initialOptions = options.get(null);
+    newOptions = options.getType().getConstructor(options.getType());
+    Class<?> moduleManagerClass = Class.forName("gnu.expr.ModuleManager");
+    moduleManager = moduleManagerClass.getMethod("getInstance").invoke(null);
+    initialCompilationDirectory =
+        moduleManagerClass.getMethod("getCompilationDirectory").invoke(moduleManager);
+  }
+
+  /**
+   * Main entry point.
+   *
+   * @param args ignored
+   */
+  public static void main(String[] args) throws IOException, ReflectiveOperationException {
+    new KawaCompilerWorker().serve();
+  }
+
+  @Override
+  protected int run(String[] kawaArgs) throws Exception {
+    reset();
+    Class.forName("kawa.repl").getMethod("processArgs", String[].class, int.class, int.class)
+        .invoke(null, kawaArgs, 0, kawaArgs.length);
+    return 0;
+  }
+
+  /**
+   * Puts Kawa's global state back to how it was when the worker started.
+   */
+  void reset() throws ReflectiveOperationException {
+    for (Map.Entry<Field, Object> setting : initialSettings.entrySet()) {
+      setting.getKey().set(null, setting.getValue());
+    }
+    options.set(null, newOptions.newInstance(initialOptions));
+    Class<?> moduleManagerClass = moduleManager.getClass();
+    moduleManagerClass.getMethod("clear").invoke(moduleManager);
+    moduleManagerClass.getMethod("setCompilationDirectory", String.class)
+        .invoke(moduleManager, initialCompilationDirectory);
+    Object scheme = Class.forName("kawa.standard.Scheme").getMethod("getInstance").invoke(null);
+    Object environment = scheme.getClass().getMethod("getNewEnvironment").invoke(scheme);
+    Class<?> environmentClass = Class.forName("gnu.mapping.Environment");
+    environmentClass.getMethod("setCurrent", environmentClass).invoke(null, environment);
+  }
+}
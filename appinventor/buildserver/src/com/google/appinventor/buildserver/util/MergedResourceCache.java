@@ -0,0 +1,125 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.android.ide.common.internal.PngCruncher;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A persistent cache of the resources merged from a set of AAR libraries.
+ *
+ * <p>Every companion build depends on the AAR libraries of all components, so merging their
+ * resources gives the same result in each of them. An entry is keyed by the content of the
+ * libraries and holds their merged resources, which a build then merges the resources of the
+ * app over.</p>
+ *
+ * <p>Entries are stored under the dex cache directory. Their modification time is updated when
+ * they are used, and entries that no build has used for
+ * {@link YailClassCache#MAX_UNUSED_MILLIS} are deleted.</p>
+ */
+public final class MergedResourceCache {
+  private static final Logger LOG = Logger.getLogger(MergedResourceCache.class.getName());
+
+  // Bump this when the layout of an entry or the composition of the key changes.
+  private static final String FORMAT_VERSION = "1";
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // Lookups by all builds since the server started.
+  private static final AtomicLong HITS = new AtomicLong(0);
+  private static final AtomicLong MISSES = new AtomicLong(0);
+
+  private final File cacheDir;
+
+  /**
+   * Creates a cache.
+   *
+   * @param cacheDir the directory of the cache
+   */
+  public MergedResourceCache(File cacheDir) {
+    this.cacheDir = new File(cacheDir, "resources");
+    YailClassCache.pruneUnused(this.cacheDir, "");
+  }
+
+  /**
+   * Returns the merged resources of a set of AAR libraries, merging them first if they are not
+   * in the cache.
+   *
+   * @param libraries the AAR libraries
+   * @param cruncher configured PNG cruncher utility for reducing the size of PNG assets
+   * @return the directory of the merged resources, or null if they could not be merged
+   * @throws IOException if a library cannot be read
+   */
+  public File get(AARLibraries libraries, PngCruncher cruncher) throws IOException {
+    File entryDir = new File(cacheDir, getKey(libraries));
+    if (entryDir.isDirectory()) {
+      entryDir.setLastModified(System.currentTimeMillis());
+      HITS.incrementAndGet();
+      return entryDir;
+    }
+    MISSES.incrementAndGet();
+    File tempDir = new File(cacheDir, entryDir.getName() + "-"
+        + Long.toHexString(System.nanoTime()) + TEMP_SUFFIX);
+    try {
+      if (!tempDir.mkdirs()) {
+        throw new IOException("Unable to create " + tempDir);
+      }
+      if (!libraries.mergeLibraryResources(tempDir, cruncher)) {
+        return null;
+      }
+      // Another build may have stored the same entry in the meantime, in which case the rename
+      // fails and the copy is discarded.
+      if (!tempDir.renameTo(entryDir) && !entryDir.isDirectory()) {
+        LOG.log(Level.WARNING, "Unable to store merged resources in " + entryDir);
+        return null;
+      }
+      return entryDir;
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  public static long getHitCount() {
+    return HITS.get();
+  }
+
+  public static long getMissCount() {
+    return MISSES.get();
+  }
+
+  /**
+   * Returns the key of the merged resources of a set of AAR libraries, which does not depend on
+   * the order of the libraries or on where they were unpacked.
+   */
+  static String getKey(AARLibraries libraries) throws IOException {
+    List<String> hashes = new ArrayList<>();
+    for (AARLibrary library : libraries) {
+      if (library.getResDirectory() != null) {
+        hashes.add(library.getDirectory().getName() + "=" + YailClassCache.hashOf(
+            library.getFile()));
+      }
+    }
+    Collections.sort(hashes);
+    Hasher hasher = Hashing.sha256().newHasher().putString("format=" + FORMAT_VERSION);
+    for (String hash : hashes) {
+      hasher.putString("\n").putString(hash);
+    }
+    return hasher.hash().toString();
+  }
+}
@@ -7,24 +7,11 @@
 package com.google.appinventor.buildserver.util;
 
 import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.PROJECT_DIRECTORY;
-import static com.google.appinventor.common.constants.YoungAndroidStructureConstants.SRC_FOLDER;
 
 import com.google.appinventor.buildserver.Project;
-import com.google.common.io.Files;
-import com.google.common.io.InputSupplier;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.List;
-import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public class ProjectUtils {
-  private static final Logger LOG = Logger.getLogger(ProjectUtils.class.getName());
-
   private static final String SEPARATOR = File.separator;
   public static final String PROJECT_PROPERTIES_FILE_NAME = PROJECT_DIRECTORY + SEPARATOR
       + "project.properties";
@@ -66,46 +53,6 @@ public class ProjectUtils {
         + baseNamePrefix + "0 to " + baseNamePrefix + (TEMP_DIR_ATTEMPTS - 1) + ')');
   }
 
-  /**
-   * Extracts the project represented by inputZip into the destination project root.
-   *
-   * @param inputZip the ZIP file containing an App Inventor project
-   * @param projectRoot the destination directory for the extracted project
-   * @return a list of files in the project
-   * @throws IOException if the project cannot be extracted
-   */
-  public static List<String> extractProjectFiles(ZipFile inputZip, File projectRoot)
-      throws IOException {
-    // Make sure to skip returning any file not in the src/ directory, to avoid corrupted AIAs
-    //   containing scm or bky in the assets' directory.
-    String sourcePrefix = new File(projectRoot, SRC_FOLDER).getAbsolutePath() + SEPARATOR;
-
-    List<String> projectSourceFileNames = new ArrayList<>();
-
-    Enumeration<? extends ZipEntry> inputZipEnumeration = inputZip.entries();
-    while (inputZipEnumeration.hasMoreElements()) {
-      ZipEntry zipEntry = inputZipEnumeration.nextElement();
-      final InputStream extractedInputStream = inputZip.getInputStream(zipEntry);
-      File extractedFile = new File(projectRoot, zipEntry.getName());
-      LOG.info("extracting " + extractedFile.getAbsolutePath() + " from input zip");
-      Files.createParentDirs(extractedFile); // Do I need this?
-      Files.copy(
-          new InputSupplier<InputStream>() {
-            public InputStream getInput() throws IOException {
-              return extractedInputStream;
-            }
-          },
-          extractedFile);
-
-      String extractedFilePath = extractedFile.getPath();
-      if (extractedFilePath.startsWith(sourcePrefix)) {
-        projectSourceFileNames.add(extractedFile.getPath());
-      }
-    }
-
-    return projectSourceFileNames;
-  }
-
   /**
    * Loads the project properties file of a Young Android project.
    */
@@ -0,0 +1,94 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class of the resident tool processes managed by {@link ResidentWorkerPool}.
+ *
+ * <p>The worker reads requests from stdin, one token per line:</p>
+ * <ul>
+ *   <li>{@code PING} asks the worker to acknowledge that it is alive.</li>
+ *   <li>{@code RUN}, followed by the tool's command line arguments (one per line) and
+ *   {@code END}, runs the tool with the given arguments.</li>
+ * </ul>
+ *
+ * <p>When a request completes the worker writes {@link #MARKER} followed by a status to both
+ * stdout and stderr so that the pool knows that all of the output belonging to the request has
+ * been received. Some tools terminate the JVM when they fail, in which case the exit code of the
+ * worker is the status of the request.</p>
+ *
+ * <p>Workers run on the classpath of the tool, so subclasses must only depend on the JDK.</p>
+ */
+public abstract class ResidentWorker {
+  static final String MARKER = "\u0001RESIDENT-WORKER ";
+  static final String PING = "PING";
+  static final String RUN = "RUN";
+  static final String END = "END";
+  static final String PONG = "PONG";
+
+  /**
+   * Runs the tool once.
+   *
+   * @param args the command line arguments of the tool
+   * @return the exit status of the tool
+   * @throws Exception if the tool fails
+   */
+  protected abstract int run(String[] args) throws Exception;
+
+  /**
+   * Serves requests until stdin is closed.
+   */
+  protected final void serve() throws IOException {
+    BufferedReader in = new BufferedReader(new InputStreamReader(System.in,
+        StandardCharsets.UTF_8));
+    String line;
+    while ((line = in.readLine()) != null) {
+      if (PING.equals(line)) {
+        done(PONG);
+      } else if (RUN.equals(line)) {
+        List<String> args = new ArrayList<>();
+        while ((line = in.readLine()) != null && !END.equals(line)) {
+          args.add(line);
+        }
+        if (line == null) {
+          break;
+        }
+        done(Integer.toString(runSafely(args.toArray(new String[0]))));
+      }
+    }
+    // stdin was closed, meaning that the build server went away.
+    System.exit(0);
+  }
+
+  private int runSafely(String[] args) {
+    try {
+      return run(args);
+    } catch (InvocationTargetException e) {
+      e.getCause().printStackTrace();
+      return 1;
+    } catch (Exception e) {
+      e.printStackTrace();
+      return 1;
+    }
+  }
+
+  private static void done(String status) {
+    System.out.flush();
+    System.err.flush();
+    System.out.println(MARKER + status);
+    System.out.flush();
+    System.err.println(MARKER + status);
+    System.err.flush();
+  }
+}
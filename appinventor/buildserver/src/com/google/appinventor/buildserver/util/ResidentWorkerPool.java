@@ -0,0 +1,501 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.base.Joiner;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A pool of resident, pre-warmed tool processes, such as the Kawa compiler or d8.
+ *
+ * <p>Starting a new JVM for every run of a tool means that its classes are loaded and JIT compiled
+ * again each time. The pool keeps up to {@code maxWorkers} {@link ResidentWorker} processes alive
+ * between builds and hands each one to a single run at a time, so up to {@code maxWorkers} runs
+ * can proceed concurrently. Because the classpath of a JVM is fixed when it starts, workers are
+ * keyed by classpath and heap size, and a worker is only reused by runs with the same key. Workers
+ * are retired after {@code maxRunsPerWorker} runs so that state accumulated inside the tool does
+ * not grow without bound.</p>
+ *
+ * <p>If the pool is disabled, all workers are busy, or a worker cannot be started, the run falls
+ * back to forking a new process for the tool, which is the historical behavior.</p>
+ */
+public final class ResidentWorkerPool {
+  private static final Logger LOG = Logger.getLogger(ResidentWorkerPool.class.getName());
+  private static final Joiner JOINER = Joiner.on(" ");
+
+  // Workers that have been idle for longer than this are pinged before being handed out.
+  private static final long HEALTH_CHECK_IDLE_MILLIS = 60 * 1000;
+  private static final int HEALTH_CHECK_TIMEOUT_SECONDS = 5;
+
+  private static final AtomicInteger WORKER_IDS = new AtomicInteger(0);
+
+  private final String name;
+  private final Class<? extends ResidentWorker> workerClass;
+  private final String toolMainClass;
+  private final List<String> jvmArgs;
+
+  // Idle workers, most recently used first.
+  private final Deque<Worker> idleWorkers = new ArrayDeque<>();
+  private int liveWorkers = 0;
+  private int maxWorkers = 0;
+  private int maxRunsPerWorker = 50;
+
+  private final AtomicInteger pooledRuns = new AtomicInteger(0);
+  private final AtomicInteger forkedRuns = new AtomicInteger(0);
+  private final AtomicInteger retiredWorkers = new AtomicInteger(0);
+
+  /**
+   * Creates a new, disabled pool. Use {@link #configure(int, int)} to enable it.
+   *
+   * @param name the name of the tool, used in log messages
+   * @param workerClass the class whose {@code main} method serves requests in a worker
+   * @param toolMainClass the main class of the tool, used when forking a new process
+   * @param jvmArgs additional arguments for the JVM of both workers and forked processes
+   */
+  public ResidentWorkerPool(String name, Class<? extends ResidentWorker> workerClass,
+      String toolMainClass, String... jvmArgs) {
+    this.name = name;
+    this.workerClass = workerClass;
+    this.toolMainClass = toolMainClass;
+    this.jvmArgs = Collections.unmodifiableList(Arrays.asList(jvmArgs));
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        shutdown();
+      }
+    });
+  }
+
+  /**
+   * Configures the pool.
+   *
+   * @param maxWorkers the maximum number of resident workers. 0 disables the pool.
+   * @param maxRunsPerWorker the number of runs after which a worker is recycled
+   */
+  public synchronized void configure(int maxWorkers, int maxRunsPerWorker) {
+    this.maxWorkers = Math.max(0, maxWorkers);
+    this.maxRunsPerWorker = Math.max(1, maxRunsPerWorker);
+    while (liveWorkers > this.maxWorkers && !idleWorkers.isEmpty()) {
+      retire(idleWorkers.pollLast());
+    }
+  }
+
+  /**
+   * Runs the tool, falling back to a new process if no worker is available.
+   *
+   * @param classpath the classpath of the tool
+   * @param heapMb the maximum heap of the tool process, in MB
+   * @param args the arguments passed to the tool's main class
+   * @param out standard output stream to redirect to
+   * @param err standard error stream to redirect to
+   * @param timeout timeout for the run
+   * @return {@code true} if the tool succeeds, {@code false} otherwise
+   */
+  public boolean run(String classpath, int heapMb, List<String> args, PrintStream out,
+      PrintStream err, Execution.Timeout timeout) {
+    Boolean result = tryRun(classpath, heapMb, args, out, err, timeout);
+    if (result != null) {
+      return result;
+    }
+    return Execution.execute(null, commandLine(classpath, heapMb, toolMainClass, args),
+        out, err, timeoutSeconds(timeout));
+  }
+
+  /**
+   * Runs the tool in a resident worker, if one is available.
+   *
+   * @param classpath the classpath of the tool
+   * @param heapMb the maximum heap of the tool process, in MB
+   * @param args the arguments passed to the tool's main class
+   * @param out standard output stream to redirect to
+   * @param err standard error stream to redirect to
+   * @param timeout timeout for the run
+   * @return {@code true} if the tool succeeds, {@code false} if it fails, or {@code null} if no
+   *     worker could take the run, in which case the caller is expected to start a new process
+   */
+  public Boolean tryRun(String classpath, int heapMb, List<String> args, PrintStream out,
+      PrintStream err, Execution.Timeout timeout) {
+    Worker worker = canUsePool(args) ? acquire(classpath, heapMb) : null;
+    if (worker != null) {
+      boolean reusable = false;
+      try {
+        LOG.info("____Running in " + name + " worker " + worker + ": " + JOINER.join(args));
+        int status = worker.run(args, out, err, timeoutSeconds(timeout));
+        if (status != Worker.UNAVAILABLE) {
+          pooledRuns.incrementAndGet();
+          reusable = status == 0;
+          return status == 0;
+        }
+        LOG.warning(name + " worker " + worker + " is unavailable, falling back to a new process");
+      } finally {
+        release(worker, reusable);
+      }
+    }
+    forkedRuns.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Terminates all idle workers. Busy workers are terminated when they are released.
+   */
+  public synchronized void shutdown() {
+    maxWorkers = 0;
+    while (!idleWorkers.isEmpty()) {
+      retire(idleWorkers.pollLast());
+    }
+  }
+
+  public synchronized int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  public synchronized int getLiveWorkerCount() {
+    return liveWorkers;
+  }
+
+  public synchronized int getIdleWorkerCount() {
+    return idleWorkers.size();
+  }
+
+  public int getPooledRunCount() {
+    return pooledRuns.get();
+  }
+
+  public int getForkedRunCount() {
+    return forkedRuns.get();
+  }
+
+  public int getRetiredWorkerCount() {
+    return retiredWorkers.get();
+  }
+
+  private static int timeoutSeconds(Execution.Timeout timeout) {
+    return Execution.timeoutsDisabled() ? 0 : timeout.getSeconds();
+  }
+
+  private static boolean canUsePool(List<String> args) {
+    // Arguments are sent to the worker one per line.
+    for (String arg : args) {
+      if (arg.indexOf('\n') >= 0 || arg.indexOf('\r') >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Worker acquire(String classpath, int heapMb) {
+    final String key = heapMb + File.pathSeparator + classpath;
+    while (true) {
+      Worker candidate;
+      Worker evicted = null;
+      synchronized (this) {
+        if (maxWorkers <= 0) {
+          return null;
+        }
+        candidate = takeIdle(key);
+        if (candidate == null) {
+          if (liveWorkers >= maxWorkers) {
+            // Make room by retiring the least recently used idle worker, if any.
+            evicted = idleWorkers.pollLast();
+            if (evicted == null) {
+              return null;  // every worker is busy
+            }
+            liveWorkers--;
+          }
+          liveWorkers++;
+        }
+      }
+      if (evicted != null) {
+        evicted.destroy();
+        retiredWorkers.incrementAndGet();
+      }
+      if (candidate == null) {
+        try {
+          return new Worker(key, classpath, heapMb);
+        } catch (IOException | URISyntaxException e) {
+          LOG.log(Level.WARNING, "Unable to start " + name + " worker", e);
+          synchronized (this) {
+            liveWorkers--;
+          }
+          return null;
+        }
+      }
+      if (candidate.isHealthy()) {
+        return candidate;
+      }
+      LOG.info("Discarding unhealthy " + name + " worker " + candidate);
+      synchronized (this) {
+        retire(candidate);
+      }
+    }
+  }
+
+  private Worker takeIdle(String key) {
+    Iterator<Worker> it = idleWorkers.iterator();
+    while (it.hasNext()) {
+      Worker worker = it.next();
+      if (worker.key.equals(key)) {
+        it.remove();
+        return worker;
+      }
+    }
+    return null;
+  }
+
+  private synchronized void release(Worker worker, boolean reusable) {
+    if (reusable && maxWorkers > 0 && liveWorkers <= maxWorkers && worker.isAlive()
+        && worker.runs < maxRunsPerWorker) {
+      worker.lastUsed = System.currentTimeMillis();
+      idleWorkers.push(worker);
+    } else {
+      retire(worker);
+    }
+  }
+
+  private void retire(Worker worker) {
+    liveWorkers--;
+    retiredWorkers.incrementAndGet();
+    worker.destroy();
+  }
+
+  private String[] commandLine(String classpath, int heapMb, String mainClass,
+      List<String> args) {
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + "/bin/java");
+    command.addAll(jvmArgs);
+    Collections.addAll(command,
+        "-mx" + heapMb + "M",
+        "-cp", classpath,
+        mainClass);
+    command.addAll(args);
+    return command.toArray(new String[0]);
+  }
+
+  /**
+   * A resident tool process.
+   */
+  private class Worker {
+    static final int UNAVAILABLE = Integer.MIN_VALUE;
+
+    private final int id = WORKER_IDS.incrementAndGet();
+    private final String key;
+    private final Process process;
+    private final Writer stdin;
+    private final Object lock = new Object();
+
+    // The following fields are guarded by lock.
+    private PrintStream out;
+    private PrintStream err;
+    private String outStatus;
+    private String errStatus;
+    private boolean outClosed;
+    private boolean errClosed;
+
+    int runs = 0;
+    long lastUsed = System.currentTimeMillis();
+
+    Worker(String key, String classpath, int heapMb) throws IOException, URISyntaxException {
+      this.key = key;
+      String workerPath = new File(workerClass.getProtectionDomain().getCodeSource()
+          .getLocation().toURI()).getAbsolutePath();
+      String[] command = commandLine(classpath + File.pathSeparator + workerPath, heapMb,
+          workerClass.getName(), Collections.<String>emptyList());
+      LOG.info("____Starting " + name + " worker " + id + ": " + JOINER.join(command));
+      process = Runtime.getRuntime().exec(command);
+      stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(),
+          StandardCharsets.UTF_8));
+      new Pump(process.getInputStream(), true).start();
+      new Pump(process.getErrorStream(), false).start();
+    }
+
+    boolean isAlive() {
+      return process.isAlive();
+    }
+
+    boolean isHealthy() {
+      if (!isAlive()) {
+        return false;
+      }
+      if (System.currentTimeMillis() - lastUsed < HEALTH_CHECK_IDLE_MILLIS) {
+        return true;
+      }
+      return ResidentWorker.PONG.equals(request(Collections.singletonList(
+          ResidentWorker.PING), null, null, HEALTH_CHECK_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Runs the tool in the worker.
+     *
+     * @return the exit status of the tool, or {@link #UNAVAILABLE} if the worker could not accept
+     *     the request
+     */
+    int run(List<String> args, PrintStream out, PrintStream err, int timeoutSeconds) {
+      List<String> lines = new ArrayList<>();
+      lines.add(ResidentWorker.RUN);
+      lines.addAll(args);
+      lines.add(ResidentWorker.END);
+      runs++;
+      Execution.setTimedOut(false);
+      String status = request(lines, out, err, timeoutSeconds);
+      if (status == null) {
+        Execution.setTimedOut(!Thread.currentThread().isInterrupted());
+        err.println("Process had to be forcibly terminated due to timeout");
+        return 1;
+      } else if (status.isEmpty()) {
+        return UNAVAILABLE;
+      }
+      try {
+        return Integer.parseInt(status);
+      } catch (NumberFormatException e) {
+        return 1;
+      }
+    }
+
+    /**
+     * Sends a request to the worker and waits for its completion.
+     *
+     * @return the status reported by the worker or its exit code, an empty string if the request
+     *     could not be sent, or null if the request timed out
+     */
+    private String request(List<String> lines, PrintStream out, PrintStream err,
+        int timeoutSeconds) {
+      synchronized (lock) {
+        this.out = out;
+        this.err = err;
+        outStatus = null;
+        errStatus = null;
+      }
+      try {
+        for (String line : lines) {
+          stdin.write(line);
+          stdin.write('\n');
+        }
+        stdin.flush();
+      } catch (IOException e) {
+        return "";
+      }
+      long deadline = timeoutSeconds <= 0 ? Long.MAX_VALUE
+          : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+      try {
+        synchronized (lock) {
+          while (!(outStatus != null && errStatus != null) && !(outClosed && errClosed)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+              destroy();
+              return null;
+            }
+            lock.wait(Math.min(remaining, 1000));
+          }
+          if (outStatus != null && errStatus != null) {
+            return outStatus;
+          }
+        }
+        // The worker exited while processing the request, e.g., because the tool called
+        // System.exit
+        return Integer.toString(process.waitFor());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        destroy();
+        return null;
+      } finally {
+        synchronized (lock) {
+          this.out = null;
+          this.err = null;
+        }
+      }
+    }
+
+    void destroy() {
+      try {
+        stdin.close();
+      } catch (IOException e) {
+        // The worker is going away anyway
+      }
+      process.destroyForcibly();
+    }
+
+    @Override
+    public String toString() {
+      return "#" + id;
+    }
+
+    /*
+     * Forwards the output of the worker to the request in progress and watches for the marker
+     * that ends a request.
+     */
+    private class Pump extends Thread {
+      private final InputStream input;
+      private final boolean isStdout;
+
+      Pump(InputStream input, boolean isStdout) {
+        this.input = input;
+        this.isStdout = isStdout;
+        setDaemon(true);
+        setName(name + "Worker-" + id + (isStdout ? "-out" : "-err"));
+      }
+
+      @Override
+      public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            synchronized (lock) {
+              if (line.startsWith(ResidentWorker.MARKER)) {
+                String status = line.substring(ResidentWorker.MARKER.length());
+                if (isStdout) {
+                  outStatus = status;
+                } else {
+                  errStatus = status;
+                }
+                lock.notifyAll();
+              } else {
+                PrintStream target = isStdout ? out : err;
+                if (target != null) {
+                  target.println(line);
+                } else {
+                  LOG.info(name + " worker " + id + ": " + line);
+                }
+              }
+            }
+          }
+        } catch (IOException e) {
+          LOG.log(Level.FINE, name + " worker " + id + " stream closed", e);
+        } finally {
+          synchronized (lock) {
+            if (isStdout) {
+              outClosed = true;
+            } else {
+              errClosed = true;
+            }
+            lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,317 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.appinventor.buildserver.stats.Histogram;
+import com.google.appinventor.buildserver.stats.StatUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Schedules the external tools of a build (Kawa, d8, dx) across all concurrent builds.
+ *
+ * <p>Each tool job holds one CPU permit and as much of the memory budget as the heap it declares
+ * while it runs. Jobs that do not fit wait in a queue of their build, and the builds with waiting
+ * jobs take turns, so a build that submits many jobs at once cannot hold up the others. Within a
+ * build, short jobs, such as pre-dexing a single library, are served first, unless the oldest long
+ * job of the build has been waiting for more than {@link #MAX_LONG_JOB_DELAY_MILLIS}.</p>
+ *
+ * <p>A job that declares more memory than the whole budget is treated as needing the whole
+ * budget, so it runs once every other job has finished rather than never.</p>
+ */
+public final class ToolScheduler {
+  private static final Logger LOG = Logger.getLogger(ToolScheduler.class.getName());
+
+  // Short jobs may not delay a long job of the same build by more than this.
+  private static final long MAX_LONG_JOB_DELAY_MILLIS = 30 * 1000;
+
+  private static final ToolScheduler INSTANCE = new ToolScheduler(0, 0);
+
+  // The waiting jobs of each build, in the order in which the builds take their turns.
+  private final Map<Object, BuildJobs> waiting = new LinkedHashMap<>();
+  private final Map<String, ToolStats> stats = new TreeMap<>();
+  private int cpuPermits;
+  private int memoryBudgetMb;
+  private int cpuInUse = 0;
+  private int memoryInUseMb = 0;
+
+  @VisibleForTesting
+  ToolScheduler(int cpuPermits, int memoryBudgetMb) {
+    configure(cpuPermits, memoryBudgetMb);
+  }
+
+  public static ToolScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Configures the scheduler.
+   *
+   * @param cpuPermits the number of tool jobs that may run at once. 0 uses the number of
+   *     available processors.
+   * @param memoryBudgetMb the total heap, in MB, that concurrent tool jobs may declare. 0 uses
+   *     the physical memory of the machine, if it can be determined.
+   */
+  public synchronized void configure(int cpuPermits, int memoryBudgetMb) {
+    this.cpuPermits = cpuPermits > 0 ? cpuPermits
+        : Runtime.getRuntime().availableProcessors();
+    long physicalMemoryMb = getPhysicalMemoryBytes() / (1024 * 1024);
+    this.memoryBudgetMb = memoryBudgetMb > 0 ? memoryBudgetMb
+        : physicalMemoryMb > 0 ? (int) Math.min(Integer.MAX_VALUE, physicalMemoryMb)
+        : Integer.MAX_VALUE;
+    LOG.info("Tool scheduler: " + this.cpuPermits + " CPU permits, "
+        + this.memoryBudgetMb + " MB memory budget");
+    notifyAll();
+  }
+
+  /**
+   * Waits until a tool job may run. The returned permit must be closed when the job finishes.
+   *
+   * @param build the build that runs the job. Builds take turns to run their jobs.
+   * @param tool the name of the tool, used for statistics
+   * @param memoryMb the maximum heap of the job, in MB
+   * @param shortJob whether the job is expected to finish quickly
+   * @return the permit of the job
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public Permit acquire(Object build, String tool, int memoryMb, boolean shortJob)
+      throws InterruptedException {
+    Request request = new Request(build, tool, memoryMb, shortJob);
+    synchronized (this) {
+      BuildJobs jobs = waiting.get(build);
+      if (jobs == null) {
+        jobs = new BuildJobs();
+        waiting.put(build, jobs);
+      }
+      jobs.add(request);
+      try {
+        while (next() != request || !fits(request)) {
+          // Wake up periodically so that waiting long jobs age into priority.
+          wait(1000);
+        }
+      } catch (InterruptedException e) {
+        remove(request);
+        notifyAll();
+        throw e;
+      }
+      remove(request);
+      // The build has had its turn. It goes to the back of the line if it has more jobs.
+      BuildJobs remaining = waiting.remove(build);
+      if (remaining != null) {
+        waiting.put(build, remaining);
+      }
+      request.memoryMb = Math.min(Math.max(0, memoryMb), memoryBudgetMb);
+      cpuInUse++;
+      memoryInUseMb += request.memoryMb;
+      // The next job in line may fit as well.
+      notifyAll();
+    }
+    return new Permit(request);
+  }
+
+  public synchronized int getCpuPermits() {
+    return cpuPermits;
+  }
+
+  public synchronized int getMemoryBudgetMb() {
+    return memoryBudgetMb;
+  }
+
+  public synchronized int getRunningJobCount() {
+    return cpuInUse;
+  }
+
+  public synchronized int getMemoryInUseMb() {
+    return memoryInUseMb;
+  }
+
+  public synchronized int getWaitingJobCount() {
+    int count = 0;
+    for (BuildJobs jobs : waiting.values()) {
+      count += jobs.shortJobs.size() + jobs.longJobs.size();
+    }
+    return count;
+  }
+
+  /**
+   * Returns statistics for each tool, keyed by tool name.
+   */
+  public synchronized Map<String, ToolStats> getStats() {
+    return new LinkedHashMap<>(stats);
+  }
+
+  // Returns the job whose turn it is: the next job of the first build in line.
+  private Request next() {
+    Iterator<BuildJobs> builds = waiting.values().iterator();
+    return builds.hasNext() ? builds.next().next() : null;
+  }
+
+  private void remove(Request request) {
+    BuildJobs jobs = waiting.get(request.build);
+    if (jobs != null) {
+      (request.shortJob ? jobs.shortJobs : jobs.longJobs).remove(request);
+      if (jobs.shortJobs.isEmpty() && jobs.longJobs.isEmpty()) {
+        waiting.remove(request.build);
+      }
+    }
+  }
+
+  private boolean fits(Request request) {
+    if (cpuInUse == 0) {
+      return true;
+    }
+    return cpuInUse < cpuPermits
+        && memoryInUseMb + Math.min(request.memoryMb, memoryBudgetMb) <= memoryBudgetMb;
+  }
+
+  private synchronized void release(Request request, long runMillis) {
+    cpuInUse--;
+    memoryInUseMb -= request.memoryMb;
+    ToolStats toolStats = stats.get(request.tool);
+    if (toolStats == null) {
+      toolStats = new ToolStats();
+      stats.put(request.tool, toolStats);
+    }
+    toolStats.record(request.started - request.queued, runMillis);
+    notifyAll();
+  }
+
+  /**
+   * Returns the physical memory of the machine, in bytes, or 0 if it cannot be determined.
+   */
+  public static long getPhysicalMemoryBytes() {
+    try {
+      Object bytes = ManagementFactory.getPlatformMBeanServer().getAttribute(
+          new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME),
+          "TotalPhysicalMemorySize");
+      return bytes instanceof Long ? (Long) bytes : 0;
+    } catch (JMException | RuntimeException e) {
+      return 0;
+    }
+  }
+
+  // The waiting jobs of one build.
+  private static class BuildJobs {
+    final Deque<Request> shortJobs = new ArrayDeque<>();
+    final Deque<Request> longJobs = new ArrayDeque<>();
+
+    void add(Request request) {
+      (request.shortJob ? shortJobs : longJobs).addLast(request);
+    }
+
+    Request next() {
+      Request oldestLong = longJobs.peekFirst();
+      if (oldestLong != null && (shortJobs.isEmpty()
+          || System.currentTimeMillis() - oldestLong.queued > MAX_LONG_JOB_DELAY_MILLIS)) {
+        return oldestLong;
+      }
+      return shortJobs.peekFirst();
+    }
+  }
+
+  private static class Request {
+    final Object build;
+    final String tool;
+    final boolean shortJob;
+    final long queued = System.currentTimeMillis();
+    int memoryMb;
+    long started;
+
+    Request(Object build, String tool, int memoryMb, boolean shortJob) {
+      this.build = build;
+      this.tool = tool;
+      this.memoryMb = memoryMb;
+      this.shortJob = shortJob;
+    }
+  }
+
+  /**
+   * Permission for a tool job to run. Closing the permit returns its resources to the scheduler.
+   */
+  public final class Permit implements AutoCloseable {
+    private final Request request;
+    private boolean closed = false;
+
+    private Permit(Request request) {
+      this.request = request;
+      request.started = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        release(request, System.currentTimeMillis() - request.started);
+      }
+    }
+  }
+
+  /**
+   * Wait and run times of the jobs of one tool.
+   */
+  public static final class ToolStats {
+    private final AtomicLong jobs = new AtomicLong(0);
+    private final AtomicLong totalWaitMillis = new AtomicLong(0);
+    private final AtomicLong maxWaitMillis = new AtomicLong(0);
+    private final AtomicLong totalRunMillis = new AtomicLong(0);
+    private final AtomicLong maxRunMillis = new AtomicLong(0);
+    private final Histogram waitTimes = new Histogram();
+    private final Histogram runTimes = new Histogram();
+
+    void record(long waitMillis, long runMillis) {
+      waitTimes.record(waitMillis);
+      runTimes.record(runMillis);
+      jobs.incrementAndGet();
+      totalWaitMillis.addAndGet(waitMillis);
+      totalRunMillis.addAndGet(runMillis);
+      StatUtils.updateMax(maxWaitMillis, waitMillis);
+      StatUtils.updateMax(maxRunMillis, runMillis);
+    }
+
+    public long getJobCount() {
+      return jobs.get();
+    }
+
+    public long getAverageWaitMillis() {
+      long n = jobs.get();
+      return n == 0 ? 0 : totalWaitMillis.get() / n;
+    }
+
+    public long getMaxWaitMillis() {
+      return maxWaitMillis.get();
+    }
+
+    public long getAverageRunMillis() {
+      long n = jobs.get();
+      return n == 0 ? 0 : totalRunMillis.get() / n;
+    }
+
+    public long getMaxRunMillis() {
+      return maxRunMillis.get();
+    }
+
+    public Histogram getWaitTimes() {
+      return waitTimes;
+    }
+
+    public Histogram getRunTimes() {
+      return runTimes;
+    }
+  }
+}
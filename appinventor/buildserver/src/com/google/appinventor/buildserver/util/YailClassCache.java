@@ -0,0 +1,289 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A persistent cache of the classes that Kawa generates for each screen of a project.
+ *
+ * <p>An entry is keyed by the content of the screen's YAIL, the content of the YAIL runtime,
+ * a fingerprint of the compile classpath and the package of the project, so it can be reused by
+ * any later build in which none of these changed. Each entry is a directory holding the class of
+ * the screen and its nested classes, relative to the classes directory of the build.</p>
+ *
+ * <p>Entries are stored under the dex cache directory. Their modification time is updated when
+ * they are used, and entries that no build has used for {@link #MAX_UNUSED_MILLIS} are deleted.
+ * {@link #pruneUnused} does the same for the other caches kept next to the dex cache.</p>
+ */
+public final class YailClassCache {
+  private static final Logger LOG = Logger.getLogger(YailClassCache.class.getName());
+
+  // Bump this when the layout of an entry or the composition of the key changes.
+  private static final String FORMAT_VERSION = "1";
+
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  // Cache entries that no build has used for this long are deleted.
+  static final long MAX_UNUSED_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+  // A cache directory is checked for unused entries at most this often.
+  private static final long PRUNE_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+  // When each cache directory was last checked for unused entries.
+  private static final ConcurrentMap<File, Long> LAST_PRUNED = new ConcurrentHashMap<>();
+
+  /**
+   * The class file of the YAIL runtime, relative to the classes directory.
+   */
+  public static final String RUNTIME_CLASS_FILE = "com/google/youngandroid/runtime.class";
+
+  // Content hashes of the files on the classpath, keyed by path, size and modification time.
+  // Most of them are resources shared by every build, so they only need to be read once.
+  private static final Cache<String, String> FILE_HASHES = CacheBuilder.newBuilder()
+      .maximumSize(1000)
+      .build();
+
+  // Lookups by all builds since the server started.
+  private static final AtomicLong HITS = new AtomicLong(0);
+  private static final AtomicLong MISSES = new AtomicLong(0);
+
+  private final File cacheDir;
+  private final String fingerprint;
+
+  /**
+   * Creates a cache for one build.
+   *
+   * @param cacheDir the directory of the cache
+   * @param yailRuntime the path of the YAIL runtime
+   * @param classpath the classpath used to compile the screens
+   * @param packageName the package of the project
+   * @throws IOException if a file on the classpath cannot be read
+   */
+  public YailClassCache(File cacheDir, String yailRuntime, String classpath, String packageName)
+      throws IOException {
+    this.cacheDir = new File(cacheDir, "yail");
+    pruneUnused(this.cacheDir, "");
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString("format=" + FORMAT_VERSION + "\npackage=" + packageName + "\nruntime=")
+        .putString(hashOf(new File(yailRuntime)))
+        .putString("\nclasspath=")
+        .putString(hashOfClasspath(classpath));
+    this.fingerprint = hasher.hash().toString();
+  }
+
+  /**
+   * Returns the key of the classes of the YAIL runtime.
+   */
+  public String getRuntimeKey() {
+    return Hashing.sha256().newHasher()
+        .putString(fingerprint)
+        .putString("\n" + RUNTIME_CLASS_FILE)
+        .hash().toString();
+  }
+
+  /**
+   * Returns the key of the classes of a screen.
+   *
+   * @param yailFile the YAIL source of the screen
+   * @param classFile the class file of the screen, relative to the classes directory
+   * @throws IOException if the source cannot be read
+   */
+  public String getScreenKey(File yailFile, String classFile) throws IOException {
+    return Hashing.sha256().newHasher()
+        .putString(fingerprint)
+        .putString("\n" + classFile + "\n")
+        .putBytes(Files.toByteArray(yailFile))
+        .hash().toString();
+  }
+
+  /**
+   * Copies the classes of an entry into the classes directory.
+   *
+   * @param key the key of the entry
+   * @param classesDir the classes directory of the build
+   * @return true if the entry exists and was copied, otherwise false
+   */
+  public boolean restore(String key, File classesDir) {
+    File entryDir = new File(cacheDir, key);
+    if (!entryDir.isDirectory()) {
+      MISSES.incrementAndGet();
+      return false;
+    }
+    try {
+      FileUtils.copyDirectory(entryDir, classesDir);
+      entryDir.setLastModified(System.currentTimeMillis());
+      HITS.incrementAndGet();
+      return true;
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to restore cached classes " + key, e);
+      MISSES.incrementAndGet();
+      return false;
+    }
+  }
+
+  public static long getHitCount() {
+    return HITS.get();
+  }
+
+  public static long getMissCount() {
+    return MISSES.get();
+  }
+
+  /**
+   * Stores a class and its nested classes.
+   *
+   * @param key the key of the entry
+   * @param classesDir the classes directory of the build
+   * @param classFile the class file, relative to the classes directory
+   */
+  public void store(String key, File classesDir, String classFile) {
+    File entryDir = new File(cacheDir, key);
+    if (entryDir.isDirectory()) {
+      return;
+    }
+    File tempDir = new File(cacheDir, key + "-" + Long.toHexString(System.nanoTime())
+        + TEMP_SUFFIX);
+    try {
+      File source = new File(classesDir, classFile);
+      String className = source.getName().substring(0, source.getName().length()
+          - ".class".length());
+      File[] classes = source.getParentFile().listFiles();
+      if (classes == null || !source.isFile()) {
+        return;
+      }
+      File targetDir = new File(tempDir, classFile).getParentFile();
+      if (!targetDir.mkdirs()) {
+        throw new IOException("Unable to create " + targetDir);
+      }
+      for (File file : classes) {
+        if (file.getName().equals(source.getName())
+            || file.getName().startsWith(className + "$")) {
+          Files.copy(file, new File(targetDir, file.getName()));
+        }
+      }
+      // Another build may have stored the same entry in the meantime, in which case the rename
+      // fails and the copy is discarded.
+      tempDir.renameTo(entryDir);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Unable to store cached classes " + key, e);
+    } finally {
+      FileUtils.deleteQuietly(tempDir);
+    }
+  }
+
+  /**
+   * Deletes the entries of a cache directory that no build has used for
+   * {@link #MAX_UNUSED_MILLIS}, unless the directory was checked recently. Entries are the files
+   * and directories whose names start with {@code prefix}, and their modification time must be
+   * updated whenever they are used.
+   *
+   * @param dir the cache directory
+   * @param prefix the prefix of the names of the entries
+   */
+  static void pruneUnused(File dir, String prefix) {
+    File key = dir.getAbsoluteFile();
+    long now = System.currentTimeMillis();
+    Long lastPruned = LAST_PRUNED.get(key);
+    if (lastPruned != null && now - lastPruned < PRUNE_INTERVAL_MILLIS) {
+      return;
+    }
+    if (lastPruned == null ? LAST_PRUNED.putIfAbsent(key, now) != null
+        : !LAST_PRUNED.replace(key, lastPruned, now)) {
+      // Another build is checking the directory.
+      return;
+    }
+    int removed = deleteUnused(dir, prefix, now - MAX_UNUSED_MILLIS);
+    if (removed > 0) {
+      LOG.info("Removed " + removed + " unused cache entries from " + dir);
+    }
+  }
+
+  /**
+   * Deletes the entries of a cache directory that were last used before {@code cutoff}.
+   *
+   * @return the number of entries deleted
+   */
+  static int deleteUnused(File dir, String prefix, long cutoff) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    int removed = 0;
+    for (File file : files) {
+      if (file.getName().startsWith(prefix) && file.lastModified() < cutoff
+          && FileUtils.deleteQuietly(file)) {
+        removed++;
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Returns a hash of the names and contents of the entries of a classpath. Entries are
+   * identified by their file names, so that copies of the same library in different build
+   * directories have the same hash.
+   */
+  static String hashOfClasspath(String classpath) throws IOException {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (String entry : classpath.split(File.pathSeparator)) {
+      if (!entry.isEmpty()) {
+        hasher.putString(new File(entry).getName()).putString("=")
+            .putString(hashOf(new File(entry))).putString("\n");
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns a hash of the content of a file, or of the classes and jars in a directory.
+   */
+  static String hashOf(File file) throws IOException {
+    if (file.isDirectory()) {
+      Hasher hasher = Hashing.sha256().newHasher();
+      // Kawa only loads classes from the classpath.
+      List<File> files = new ArrayList<>(FileUtils.listFiles(file,
+          new String[] { "class", "jar" }, true));
+      String[] names = new String[files.size()];
+      for (int i = 0; i < names.length; i++) {
+        names[i] = files.get(i).getAbsolutePath();
+      }
+      Arrays.sort(names);
+      int prefix = file.getAbsolutePath().length();
+      for (String name : names) {
+        hasher.putString(name.substring(prefix)).putString("=")
+            .putString(hashOf(new File(name))).putString("\n");
+      }
+      return hasher.hash().toString();
+    } else if (!file.exists()) {
+      return "missing";
+    }
+    String id = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+    String hash = FILE_HASHES.getIfPresent(id);
+    if (hash == null) {
+      hash = Files.hash(file, Hashing.sha256()).toString();
+      FILE_HASHES.put(id, hash);
+    }
+    return hash;
+  }
+}
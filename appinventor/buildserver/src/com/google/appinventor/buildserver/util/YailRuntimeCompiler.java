@@ -0,0 +1,190 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Compiles the YAIL runtime into a jar that is shared by all builds.
+ *
+ * <p>Without it, every build loads {@code runtime.scm} from source to expand the YAIL macros and
+ * then compiles it again along with the screens. With it, the screens are compiled against the
+ * jar, and the dexers can reuse its pre-dexed form from the dex cache.</p>
+ *
+ * <p>The jar is versioned by the content of the runtime and of the classpath it is compiled
+ * against. It is kept in the dex cache directory, if there is one, so that it survives restarts
+ * of the build server, and otherwise in a temporary directory for the life of the process.</p>
+ */
+public final class YailRuntimeCompiler {
+  private static final Logger LOG = Logger.getLogger(YailRuntimeCompiler.class.getName());
+
+  // Bump this when the way the runtime is compiled changes.
+  private static final String FORMAT_VERSION = "1";
+
+  private static final String JAR_PREFIX = "yail-runtime-";
+
+  // The compilations in progress, by key.
+  private static final ConcurrentMap<String, FutureTask<File>> IN_FLIGHT =
+      new ConcurrentHashMap<>();
+
+  private static File tempDir = null;
+
+  private YailRuntimeCompiler() {
+  }
+
+  /**
+   * Returns the compiled YAIL runtime, compiling it first if needed. Builds that need the same
+   * runtime wait for a single compilation, while different runtimes are compiled in parallel.
+   * A failed compilation is not remembered, so the next build that needs the runtime tries again.
+   *
+   * @param cacheDir the directory to keep the jar in, or null to use a temporary directory
+   * @param yailRuntime the path of {@code runtime.scm}
+   * @param classpath the classpath to compile the runtime against
+   * @param heapMb the maximum heap of the Kawa compiler, in MB
+   * @return the jar of the compiled runtime, or null if it could not be compiled
+   * @throws IOException if the runtime or the classpath cannot be read
+   * @throws InterruptedException if the thread is interrupted while waiting to compile
+   */
+  public static File getCompiledRuntime(File cacheDir, final String yailRuntime,
+      final String classpath, final int heapMb) throws IOException, InterruptedException {
+    String key = Hashing.sha256().newHasher()
+        .putString("format=" + FORMAT_VERSION + "\nruntime=")
+        .putString(YailClassCache.hashOf(new File(yailRuntime)))
+        .putString("\nclasspath=")
+        .putString(YailClassCache.hashOfClasspath(classpath))
+        .hash().toString();
+    if (cacheDir == null) {
+      cacheDir = getTempDir();
+    }
+    YailClassCache.pruneUnused(cacheDir, JAR_PREFIX);
+    final File jar = new File(cacheDir, JAR_PREFIX + key + ".jar");
+    while (true) {
+      if (jar.isFile()) {
+        jar.setLastModified(System.currentTimeMillis());
+        return jar;
+      }
+      FutureTask<File> task = new FutureTask<>(new Callable<File>() {
+        @Override
+        public File call() throws IOException, InterruptedException {
+          // Another build may have finished compiling the runtime between our check and now.
+          return jar.isFile() ? jar : compile(yailRuntime, classpath, heapMb, jar);
+        }
+      });
+      FutureTask<File> running = IN_FLIGHT.putIfAbsent(key, task);
+      if (running == null) {
+        running = task;
+        try {
+          task.run();
+        } finally {
+          IN_FLIGHT.remove(key, task);
+        }
+      }
+      try {
+        return running.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof InterruptedException) {
+          if (running == task) {
+            throw (InterruptedException) cause;
+          }
+          // The build that was compiling the runtime was cancelled, so compile it for this one.
+          continue;
+        }
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+
+  private static synchronized File getTempDir() {
+    if (tempDir == null) {
+      tempDir = Files.createTempDir();
+      tempDir.deleteOnExit();
+    }
+    return tempDir;
+  }
+
+  private static File compile(String yailRuntime, String classpath, int heapMb, File jar)
+      throws IOException, InterruptedException {
+    LOG.info("Compiling the YAIL runtime to " + jar);
+    File classesDir = Files.createTempDir();
+    try {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      boolean success;
+      // The runtime is compiled once for all the builds that need it, so it takes its turn as a
+      // build of its own.
+      ToolScheduler.Permit permit = ToolScheduler.getInstance().acquire(jar, "kawa", heapMb,
+          false);
+      try {
+        success = KawaCompilerPool.getInstance().run(classpath, heapMb,
+            Arrays.asList("-d", classesDir.getAbsolutePath(), "-C", yailRuntime),
+            new PrintStream(output), new PrintStream(output), Execution.Timeout.MEDIUM);
+      } finally {
+        permit.close();
+      }
+      if (!success || !new File(classesDir, YailClassCache.RUNTIME_CLASS_FILE).isFile()) {
+        LOG.warning("Unable to compile the YAIL runtime:\n" + output);
+        return null;
+      }
+      File tempJar = new File(jar.getPath() + "-" + Long.toHexString(System.nanoTime()) + ".tmp");
+      writeJar(classesDir, tempJar);
+      if (!tempJar.renameTo(jar)) {
+        FileUtils.deleteQuietly(tempJar);
+        if (!jar.isFile()) {
+          throw new IOException("Unable to create " + jar);
+        }
+      }
+      return jar;
+    } finally {
+      FileUtils.deleteQuietly(classesDir);
+    }
+  }
+
+  /**
+   * Writes the classes in a directory to a jar. Entries are sorted and have a fixed time, so
+   * that the jar, and therefore its entry in the dex cache, only changes when the classes do.
+   */
+  private static void writeJar(File classesDir, File jar) throws IOException {
+    List<String> names = new ArrayList<>();
+    int prefix = classesDir.getAbsolutePath().length() + 1;
+    for (File file : FileUtils.listFiles(classesDir, new String[] { "class" }, true)) {
+      names.add(file.getAbsolutePath().substring(prefix).replace(File.separatorChar, '/'));
+    }
+    Collections.sort(names);
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+      for (String name : names) {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(0);
+        out.putNextEntry(entry);
+        Files.copy(new File(classesDir, name), out);
+        out.closeEntry();
+      }
+    }
+  }
+}
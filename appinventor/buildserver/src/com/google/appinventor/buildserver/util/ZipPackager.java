@@ -0,0 +1,460 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes the zip files that we package apps in: APKs, and the base modules of app bundles.
+ *
+ * <p>Entries are compressed in parallel, each into its own buffer of deflated data, and then
+ * written to the package one after the other, in the order they were added. File types that are
+ * already compressed, such as images and media, are stored as they are and aligned to
+ * {@value #ALIGNMENT} bytes, which is what zipalign would do, so that Android can map them
+ * directly. Stored entries are streamed from their source, so large media files are never held in
+ * memory.</p>
+ *
+ * <p>Entries are written with a fixed timestamp, so that the same inputs give the same
+ * package.</p>
+ */
+public final class ZipPackager implements Closeable {
+  /**
+   * The alignment of the data of stored entries, in bytes.
+   */
+  public static final int ALIGNMENT = 4;
+
+  // The file types that aapt does not compress.
+  private static final Set<String> COMPRESSED_EXTENSIONS = ImmutableSet.of(
+      "3g2", "3gp", "3gpp", "3gpp2", "aac", "amr", "awb", "gif", "imy", "jet", "jpeg", "jpg",
+      "m4a", "m4v", "mid", "midi", "mkv", "mp2", "mp3", "mp4", "mpeg", "mpg", "ogg", "opus", "png",
+      "rtttl", "smf", "tflite", "wav", "webm", "webp", "wma", "wmv", "xmf", "zip");
+
+  // The names that aapt leaves out of packages when it adds a directory.
+  private static final Set<String> IGNORED_NAMES = ImmutableSet.of(
+      "cvs", "thumbs.db", "picasa.ini");
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  // The extra field that Android tools use to pad stored entries to their alignment.
+  private static final int ALIGNMENT_EXTRA_ID = 0xd935;
+  private static final int ALIGNMENT_EXTRA_SIZE = 6;
+  private static final int UTF8_FLAG = 0x0800;
+  private static final int VERSION_STORED = 10;
+  private static final int VERSION_DEFLATED = 20;
+  // 1981-01-01 00:00, the timestamp that Android tools use for reproducible packages.
+  private static final int DOS_TIME = 0;
+  private static final int DOS_DATE = (1 << 9) | (1 << 5) | 1;
+  private static final long MAX_ZIP32 = 0xffffffffL;
+  private static final int MAX_ENTRIES = 0xffff;
+
+  private static final int THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+  // How many entries may be compressed ahead of the one being written, which bounds the memory
+  // that a package holds in deflated buffers.
+  private static final int WINDOW = THREADS * 2;
+  private static final ExecutorService POOL = Executors.newFixedThreadPool(THREADS,
+      new ThreadFactoryBuilder().setNameFormat("zip-packager-%d").setDaemon(true).build());
+
+  private final File output;
+  private final int level;
+  private final List<Entry> entries = new ArrayList<>();
+  private final Set<String> names = new HashSet<>();
+  private final List<ZipFile> zips = new ArrayList<>();
+
+  /**
+   * Creates a packager that compresses entries at the default level.
+   *
+   * @param output the package to write
+   */
+  public ZipPackager(File output) {
+    this(output, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates a packager.
+   *
+   * @param output the package to write
+   * @param level the deflate level of compressed entries
+   */
+  public ZipPackager(File output, int level) {
+    this.output = output;
+    this.level = level;
+  }
+
+  /**
+   * Returns whether a file is of a type that is already compressed, and is therefore stored in
+   * packages rather than deflated again.
+   *
+   * @param name the name of the file
+   */
+  public static boolean isCompressed(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot >= 0 && dot > name.lastIndexOf('/')
+        && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Adds a file to the package.
+   *
+   * @param name the name of the entry
+   * @param file the file to add
+   * @throws IOException if the package already has an entry with the same name
+   */
+  public ZipPackager addFile(String name, File file) throws IOException {
+    add(new Entry(name, file, null, null, isCompressed(name)));
+    return this;
+  }
+
+  /**
+   * Adds the files in a directory, but not in its subdirectories, to the package, in order of
+   * their names. Hidden files and the other files that aapt ignores, such as editor backups, are
+   * left out.
+   *
+   * @param prefix the prefix of the names of the entries, such as {@code assets/}
+   * @param dir the directory to add. Nothing is added if it does not exist.
+   * @throws IOException if the directory cannot be listed, or the package already has an entry
+   *     with the name of one of its files
+   */
+  public ZipPackager addFiles(String prefix, File dir) throws IOException {
+    for (File file : list(dir)) {
+      if (file.isFile()) {
+        addFile(prefix + file.getName(), file);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds the files in a directory tree to the package, in order of their paths. The files that
+   * {@link #addFiles} leaves out are left out here too, and so are the files whose entries were
+   * already added, so that earlier directories take precedence.
+   *
+   * @param prefix the prefix of the names of the entries, such as {@code assets/}
+   * @param dir the directory to add. Nothing is added if it does not exist.
+   * @throws IOException if the directory cannot be listed
+   */
+  public ZipPackager addDirectory(String prefix, File dir) throws IOException {
+    for (File file : list(dir)) {
+      String name = prefix + file.getName();
+      if (file.isDirectory()) {
+        addDirectory(name + "/", file);
+      } else if (!names.contains(name)) {
+        addFile(name, file);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Adds the entries of another zip file to the package, such as the resources that aapt has
+   * packaged. Entries that are stored in the zip file stay stored, and the others are compressed
+   * as if they had been added as files.
+   *
+   * @param zip the zip file
+   * @throws IOException if the zip file cannot be read, or the package already has an entry with
+   *     the name of one of its entries
+   */
+  public ZipPackager addZip(File zip) throws IOException {
+    ZipFile zipFile = new ZipFile(zip);
+    zips.add(zipFile);
+    Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+    while (zipEntries.hasMoreElements()) {
+      ZipEntry zipEntry = zipEntries.nextElement();
+      if (!zipEntry.isDirectory()) {
+        add(new Entry(zipEntry.getName(), null, zipFile, zipEntry,
+            zipEntry.getMethod() == ZipEntry.STORED || isCompressed(zipEntry.getName())));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes the package.
+   *
+   * @throws IOException if an entry cannot be read, or the package cannot be written
+   * @throws InterruptedException if the thread is interrupted while entries are compressed
+   */
+  public void write() throws IOException, InterruptedException {
+    if (entries.size() > MAX_ENTRIES) {
+      throw new IOException("Too many entries for " + output + ": " + entries.size());
+    }
+    List<Future<Prepared>> prepared = new ArrayList<>(entries.size());
+    CountingOutputStream out = new CountingOutputStream(
+        new BufferedOutputStream(new FileOutputStream(output), 64 * 1024));
+    boolean threw = true;
+    try {
+      long[] offsets = new long[entries.size()];
+      Prepared[] headers = new Prepared[entries.size()];
+      for (int i = 0; i < entries.size(); i++) {
+        while (prepared.size() < entries.size() && prepared.size() < i + WINDOW) {
+          prepared.add(POOL.submit(entries.get(prepared.size())));
+        }
+        Prepared entry = get(prepared.get(i));
+        // Drop the buffer once it has been written.
+        prepared.set(i, null);
+        offsets[i] = out.getCount();
+        writeEntry(out, entries.get(i), entry);
+        headers[i] = entry;
+      }
+      long centralDirectoryOffset = out.getCount();
+      for (int i = 0; i < entries.size(); i++) {
+        writeCentralHeader(out, entries.get(i), headers[i], offsets[i]);
+      }
+      long centralDirectorySize = out.getCount() - centralDirectoryOffset;
+      checkZip32(out.getCount());
+      writeInt(out, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+      writeShort(out, 0);
+      writeShort(out, 0);
+      writeShort(out, entries.size());
+      writeShort(out, entries.size());
+      writeInt(out, centralDirectorySize);
+      writeInt(out, centralDirectoryOffset);
+      writeShort(out, 0);
+      threw = false;
+    } finally {
+      for (Future<Prepared> future : prepared) {
+        if (future != null) {
+          future.cancel(true);
+        }
+      }
+      Closeables.close(out, threw);
+      if (threw) {
+        output.delete();
+      }
+    }
+  }
+
+  /**
+   * Closes the zip files whose entries were added to the package.
+   */
+  @Override
+  public void close() throws IOException {
+    for (ZipFile zip : zips) {
+      zip.close();
+    }
+    zips.clear();
+  }
+
+  private void add(Entry entry) throws IOException {
+    if (!names.add(entry.name)) {
+      throw new IOException("Duplicate entry in " + output + ": " + entry.name);
+    }
+    entries.add(entry);
+  }
+
+  // Lists the files of a directory that aapt would package, in order of their names.
+  private static List<File> list(File dir) throws IOException {
+    List<File> result = new ArrayList<>();
+    if (!dir.isDirectory()) {
+      return result;
+    }
+    File[] files = dir.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list " + dir);
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      if (!isIgnored(file)) {
+        result.add(file);
+      }
+    }
+    return result;
+  }
+
+  private static boolean isIgnored(File file) {
+    String name = file.getName();
+    String lowerName = name.toLowerCase(Locale.ROOT);
+    return name.startsWith(".") || name.endsWith("~") || lowerName.endsWith(".scc")
+        || IGNORED_NAMES.contains(lowerName) || (file.isDirectory() && name.startsWith("_"));
+  }
+
+  private static Prepared get(Future<Prepared> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private void writeEntry(CountingOutputStream out, Entry entry, Prepared prepared)
+      throws IOException {
+    checkZip32(out.getCount());
+    long dataOffset = out.getCount() + LOCAL_HEADER_SIZE + entry.nameBytes.length;
+    boolean aligned = entry.stored && dataOffset % ALIGNMENT != 0;
+    int padding = 0;
+    if (aligned) {
+      padding = (int) ((ALIGNMENT - (dataOffset + ALIGNMENT_EXTRA_SIZE) % ALIGNMENT) % ALIGNMENT);
+    }
+    writeInt(out, LOCAL_HEADER_SIGNATURE);
+    writeFields(out, entry, prepared);
+    writeShort(out, aligned ? ALIGNMENT_EXTRA_SIZE + padding : 0);
+    out.write(entry.nameBytes);
+    if (aligned) {
+      writeShort(out, ALIGNMENT_EXTRA_ID);
+      writeShort(out, 2 + padding);
+      writeShort(out, ALIGNMENT);
+      out.write(new byte[padding]);
+    }
+
+    if (prepared.deflated != null) {
+      out.write(prepared.deflated);
+      return;
+    }
+    InputStream in = entry.open();
+    try {
+      long copied = ByteStreams.copy(in, out);
+      if (copied != prepared.size) {
+        throw new IOException(entry.name + " changed while it was packaged");
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void writeCentralHeader(OutputStream out, Entry entry, Prepared prepared,
+      long offset) throws IOException {
+    writeInt(out, CENTRAL_HEADER_SIGNATURE);
+    writeShort(out, VERSION_DEFLATED);
+    writeFields(out, entry, prepared);
+    writeShort(out, 0);  // extra field length
+    writeShort(out, 0);  // comment length
+    writeShort(out, 0);  // disk number
+    writeShort(out, 0);  // internal attributes
+    writeInt(out, 0);  // external attributes
+    writeInt(out, offset);
+    out.write(entry.nameBytes);
+  }
+
+  // Writes the fields that the local and central headers share, up to the length of the name.
+  private static void writeFields(OutputStream out, Entry entry, Prepared prepared)
+      throws IOException {
+    writeShort(out, entry.stored ? VERSION_STORED : VERSION_DEFLATED);
+    writeShort(out, UTF8_FLAG);
+    writeShort(out, entry.stored ? ZipEntry.STORED : ZipEntry.DEFLATED);
+    writeShort(out, DOS_TIME);
+    writeShort(out, DOS_DATE);
+    writeInt(out, prepared.crc);
+    writeInt(out, prepared.deflated == null ? prepared.size : prepared.deflated.length);
+    writeInt(out, prepared.size);
+    writeShort(out, entry.nameBytes.length);
+  }
+
+  private void checkZip32(long offset) throws IOException {
+    if (offset > MAX_ZIP32) {
+      throw new IOException(output + " is too large");
+    }
+  }
+
+  private static void writeShort(OutputStream out, int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >>> 8) & 0xff);
+  }
+
+  private static void writeInt(OutputStream out, long value) throws IOException {
+    writeShort(out, (int) (value & 0xffff));
+    writeShort(out, (int) ((value >>> 16) & 0xffff));
+  }
+
+  // The CRC and sizes of an entry, and its deflated data unless it is stored.
+  private static final class Prepared {
+    private final long crc;
+    private final long size;
+    private final byte[] deflated;
+
+    private Prepared(long crc, long size, byte[] deflated) {
+      this.crc = crc;
+      this.size = size;
+      this.deflated = deflated;
+    }
+  }
+
+  // An entry of the package, which is either a file or an entry of another zip file. Preparing it
+  // compresses it, or only computes its CRC if it is stored.
+  private final class Entry implements Callable<Prepared> {
+    private final String name;
+    private final byte[] nameBytes;
+    private final File file;
+    private final ZipFile zipFile;
+    private final ZipEntry zipEntry;
+    private final boolean stored;
+
+    private Entry(String name, File file, ZipFile zipFile, ZipEntry zipEntry, boolean stored) {
+      this.name = name;
+      this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      this.file = file;
+      this.zipFile = zipFile;
+      this.zipEntry = zipEntry;
+      this.stored = stored;
+    }
+
+    private InputStream open() throws IOException {
+      return file != null ? new FileInputStream(file) : zipFile.getInputStream(zipEntry);
+    }
+
+    @Override
+    public Prepared call() throws IOException {
+      if (stored && zipEntry != null && zipEntry.getCrc() != -1 && zipEntry.getSize() != -1) {
+        return new Prepared(zipEntry.getCrc(), zipEntry.getSize(), null);
+      }
+      CheckedInputStream in = new CheckedInputStream(open(), new CRC32());
+      try {
+        if (stored) {
+          long size = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+          return new Prepared(in.getChecksum().getValue(), size, null);
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(level, true);
+        try {
+          DeflaterOutputStream deflated = new DeflaterOutputStream(buffer, deflater);
+          long size = ByteStreams.copy(in, deflated);
+          deflated.finish();
+          return new Prepared(in.getChecksum().getValue(), size, buffer.toByteArray());
+        } finally {
+          deflater.end();
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,100 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * Tests BatchBuilder class.
+ */
+public class BatchBuilderTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testFindProjectsInDirectory() throws Exception {
+    File dir = new File(tempDir, "projects");
+    File b = touch(new File(dir, "b.zip"));
+    File a = touch(new File(dir, "a.zip"));
+    touch(new File(dir, "notes.txt"));
+    assertEquals(Arrays.asList(a, b), BatchBuilder.findProjects(dir));
+  }
+
+  public void testFindProjectsInManifest() throws Exception {
+    File manifest = new File(tempDir, "manifest.txt");
+    File absolute = new File(tempDir, "other/absolute.zip");
+    Files.write("# nightly samples\n\nrelative.zip\n  " + absolute.getAbsolutePath() + "\n",
+        manifest, Charsets.UTF_8);
+    assertEquals(Arrays.asList(new File(tempDir, "relative.zip"), absolute),
+        BatchBuilder.findProjects(manifest));
+  }
+
+  public void testRunBuildsConcurrentlyAndSummarizes() throws Exception {
+    List<File> projects = Arrays.asList(new File(tempDir, "one.zip"),
+        new File(tempDir, "two.zip"), new File("elsewhere/one.zip"));
+    final CountDownLatch running = new CountDownLatch(2);
+    File outputDir = new File(tempDir, "out");
+    JSONObject summary = BatchBuilder.run(projects, outputDir, 2,
+        new BatchBuilder.ProjectBuild() {
+          @Override
+          public Result build(File inputZip, File outputDir) throws IOException {
+            running.countDown();
+            try {
+              running.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            if (inputZip.getPath().startsWith("elsewhere")) {
+              throw new IOException("missing");
+            }
+            Files.write("apk", new File(outputDir, "App.apk"), Charsets.UTF_8);
+            return Result.createSuccessfulResult("", "");
+          }
+        });
+
+    assertEquals(0, running.getCount());
+    assertEquals(3, summary.getInt("projects"));
+    assertEquals(2, summary.getInt("succeeded"));
+    assertEquals(1, summary.getInt("failed"));
+    assertEquals(2, summary.getInt("parallelism"));
+    JSONArray results = summary.getJSONArray("results");
+    assertEquals(new File(outputDir, "one").getPath(),
+        results.getJSONObject(0).getString("outputDir"));
+    assertEquals("App.apk", results.getJSONObject(0).getJSONArray("outputs").getString(0));
+    assertTrue(results.getJSONObject(1).getBoolean("success"));
+    JSONObject failure = results.getJSONObject(2);
+    assertEquals(new File(outputDir, "one-2").getPath(), failure.getString("outputDir"));
+    assertFalse(failure.getBoolean("success"));
+    assertTrue(failure.getString("error").contains("missing"));
+  }
+
+  private static File touch(File file) throws IOException {
+    Files.createParentDirs(file);
+    Files.touch(file);
+    return file;
+  }
+}
@@ -0,0 +1,66 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildCost class.
+ */
+public class BuildCostTest extends TestCase {
+  public void testCostGrowsWithProject() {
+    BuildCost small = BuildCost.estimate(1, 0, 0, 0, 0, 4096);
+    assertEquals(1, small.getCpus());
+    assertTrue(small.getMemoryMb() > BuildCost.SMALLEST.getMemoryMb());
+
+    BuildCost large = BuildCost.estimate(20, 0, 100L * 1024 * 1024, 3, 2, 4096);
+    assertTrue(large.getMemoryMb() > small.getMemoryMb());
+    assertEquals(2, large.getCpus());
+  }
+
+  public void testCostGrowsWithSources() {
+    BuildCost small = BuildCost.estimate(2, 10 * 1024, 0, 0, 0, 4096);
+    BuildCost large = BuildCost.estimate(2, 10 * 1024 * 1024, 0, 0, 0, 4096);
+    assertTrue(large.getMemoryMb() > small.getMemoryMb());
+  }
+
+  public void testMemoryIsLimitedByHeap() {
+    assertEquals(BuildCost.estimate(500, 0, 0, 20, 20, 2048).getMemoryMb(),
+        BuildCost.estimate(800, 0, 0, 30, 30, 2048).getMemoryMb());
+    assertTrue(BuildCost.estimate(1, 0, 0, 0, 0, 256).getMemoryMb()
+        < BuildCost.SMALLEST.getMemoryMb());
+  }
+
+  public void testEstimateFromUpload() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      put(out, "youngandroidproject/project.properties", 10);
+      put(out, "src/com/example/Screen1.scm", 10);
+      put(out, "src/com/example/Screen1.bky", 10);
+      put(out, "src/com/example/Screen2.scm", 10);
+      put(out, "assets/video.mp4", 4 * 1024 * 1024);
+      put(out, "assets/external_comps/com.example.Ext/files/AndroidRuntime.jar", 10);
+      put(out, "assets/external_comps/com.example.Ext/lib.aar", 10);
+    }
+    try (ProjectUpload upload =
+        ProjectUpload.extract(new ByteArrayInputStream(bytes.toByteArray()))) {
+      BuildCost cost = BuildCost.estimate(upload, 4096);
+      assertEquals(BuildCost.estimate(2, 30, 4 * 1024 * 1024, 1, 1, 4096).getMemoryMb(),
+          cost.getMemoryMb());
+      assertEquals(2, cost.getCpus());
+    }
+  }
+
+  private static void put(ZipOutputStream out, String name, int size) throws Exception {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(new byte[size]);
+    out.closeEntry();
+  }
+}
@@ -0,0 +1,160 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.appinventor.buildserver.stats.NullStatReporter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests BuildQueue class.
+ */
+public class BuildQueueTest extends TestCase {
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+  public void testFullQueueIsRejected() throws Exception {
+    BuildQueue queue = new BuildQueue(1, 1, 0, new NullStatReporter());
+    queue.submit("a", BuildQueue.Lane.APK, new Build("running"));
+    queue.submit("b", BuildQueue.Lane.APK, new Build("queued"));
+    assertEquals(1, queue.getActiveTaskCount());
+    assertEquals(1, queue.getQueuedTaskCount());
+    try {
+      queue.submit("c", BuildQueue.Lane.APK, new Build("rejected"));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    assertEquals(1, queue.getRejectedTaskCount());
+    release.countDown();
+    waitForCompletion(queue, 2);
+  }
+
+  public void testPerUserCap() throws Exception {
+    BuildQueue queue = new BuildQueue(1, 10, 1, new NullStatReporter());
+    queue.submit("a", BuildQueue.Lane.APK, new Build("first"));
+    try {
+      queue.submit("a", BuildQueue.Lane.APK, new Build("second"));
+      fail();
+    } catch (RejectedExecutionException e) {
+      // expected
+    }
+    queue.submit("b", BuildQueue.Lane.APK, new Build("other user"));
+    release.countDown();
+    waitForCompletion(queue, 2);
+  }
+
+  public void testLanesAndPositions() throws Exception {
+    BuildQueue queue = new BuildQueue(1, 10, 0, new NullStatReporter());
+    BuildQueue.Ticket running = queue.submit("a", BuildQueue.Lane.APK, new Build("running"));
+    BuildQueue.Ticket aab = queue.submit("b", BuildQueue.Lane.AAB, new Build("aab"));
+    BuildQueue.Ticket apk = queue.submit("c", BuildQueue.Lane.APK, new Build("apk"));
+    BuildQueue.Ticket companion = queue.submit("d", BuildQueue.Lane.COMPANION,
+        new Build("companion"));
+    assertTrue(queue.getPosition(running.getId()).isRunning());
+    assertEquals(1, queue.getPosition(companion.getId()).getPosition());
+    assertEquals(2, queue.getPosition(apk.getId()).getPosition());
+    assertEquals(3, queue.getPosition(aab.getId()).getPosition());
+    release.countDown();
+    waitForCompletion(queue, 4);
+    assertEquals("running", started.get(0));
+    assertEquals("companion", started.get(1));
+    assertEquals("apk", started.get(2));
+    assertEquals("aab", started.get(3));
+    assertNull(queue.getPosition(aab.getId()));
+  }
+
+  public void testCancel() throws Exception {
+    BuildQueue queue = new BuildQueue(1, 10, 1, new NullStatReporter());
+    BuildQueue.Ticket running = queue.submit("a", BuildQueue.Lane.APK, new Build("running"));
+    BuildQueue.Ticket queued = queue.submit("b", BuildQueue.Lane.APK, new Build("queued"));
+    assertTrue(queue.cancel(queued.getId()));
+    assertNull(queue.getPosition(queued.getId()));
+    assertEquals(0, queue.getQueuedTaskCount());
+    // The user may submit another build in place of the cancelled one.
+    queue.submit("b", BuildQueue.Lane.APK, new Build("replacement"));
+
+    // Cancelling the running build interrupts it without releasing the latch.
+    assertTrue(queue.cancel(running.getId()));
+    waitForCompletion(queue, 1);
+    assertFalse(queue.cancel(running.getId()));
+    assertFalse(queue.cancel("unknown"));
+    assertEquals(2, queue.getCancelledTaskCount());
+    release.countDown();
+    waitForCompletion(queue, 2);
+    assertEquals(Arrays.asList("running", "replacement"), started);
+  }
+
+  public void testBuildsAreAdmittedAgainstBudget() throws Exception {
+    BuildQueue queue = new BuildQueue(0, 10, 0, 4000, 4, new NullStatReporter());
+    BuildCost large = new BuildCost(3300, 2);
+    BuildCost small = new BuildCost(1500, 1);
+    queue.submit("a", BuildQueue.Lane.APK, large, new Build("large"));
+    // A build that does not fit waits, and so do the builds behind it.
+    queue.submit("b", BuildQueue.Lane.APK, large, new Build("waiting"));
+    queue.submit("c", BuildQueue.Lane.APK, small, new Build("behind"));
+    assertEquals(1, queue.getActiveTaskCount());
+    assertEquals(2, queue.getQueuedTaskCount());
+    assertEquals(3300, queue.getMemoryInUseMb());
+    assertEquals(2, queue.getCpusInUse());
+    assertTrue(queue.isSaturated());
+    release.countDown();
+    waitForCompletion(queue, 3);
+    assertEquals(Arrays.asList("large", "waiting", "behind"), started);
+    assertEquals(0, queue.getMemoryInUseMb());
+    assertEquals(0, queue.getCpusInUse());
+    assertFalse(queue.isSaturated());
+  }
+
+  public void testBuildLargerThanBudgetRunsAlone() throws Exception {
+    BuildQueue queue = new BuildQueue(0, 10, 0, 1000, 0, new NullStatReporter());
+    queue.submit("a", BuildQueue.Lane.APK, new BuildCost(3000, 2), new Build("huge"));
+    assertEquals(1, queue.getActiveTaskCount());
+    queue.submit("b", BuildQueue.Lane.APK, new BuildCost(700, 1), new Build("small"));
+    assertEquals(1, queue.getQueuedTaskCount());
+    release.countDown();
+    waitForCompletion(queue, 2);
+  }
+
+  public void testLaneOf() {
+    assertEquals(BuildQueue.Lane.APK, BuildQueue.Lane.of(null, "apk"));
+    assertEquals(BuildQueue.Lane.AAB, BuildQueue.Lane.of(null, "aab"));
+    assertEquals(BuildQueue.Lane.COMPANION, BuildQueue.Lane.of("companion", "apk"));
+  }
+
+  private static void waitForCompletion(BuildQueue queue, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (queue.getCompletedTaskCount() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, queue.getCompletedTaskCount());
+  }
+
+  private class Build implements Runnable {
+    private final String name;
+
+    Build(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void run() {
+      started.add(name);
+      try {
+        release.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        // finish early
+      }
+    }
+  }
+}
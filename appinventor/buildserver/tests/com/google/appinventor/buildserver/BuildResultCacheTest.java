@@ -0,0 +1,136 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SortedMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests BuildResultCache class.
+ */
+public class BuildResultCacheTest extends TestCase {
+  private File tempDir;
+  private BuildResultCache cache;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    cache = new BuildResultCache();
+    cache.configure(new File(tempDir, "cache"), 1);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testKeyIgnoresEntryOrder() throws Exception {
+    String a = key(zip("src/Screen1.scm", "x", "android.keystore", "k"));
+    String b = key(zip("android.keystore", "k", "src/Screen1.scm", "x"));
+    assertEquals(a, b);
+  }
+
+  public void testKeyDependsOnContentAndKeystore() throws Exception {
+    String a = key(zip("src/Screen1.scm", "x", "android.keystore", "k"));
+    assertFalse(a.equals(key(zip("src/Screen1.scm", "y", "android.keystore", "k"))));
+    assertFalse(a.equals(key(zip("src/Screen1.scm", "x", "android.keystore", "j"))));
+  }
+
+  public void testKeyDependsOnFlags() throws Exception {
+    try (ProjectUpload upload = ProjectUpload.extract(new ByteArrayInputStream(
+        zip("src/Screen1.scm", "x", "android.keystore", "k")))) {
+      SortedMap<String, byte[]> digests = upload.getDigests();
+      String apk = cache.computeKey(digests, "apk", false, false, false, null, null);
+      assertFalse(apk.equals(cache.computeKey(digests, "aab", false, false, false, null, null)));
+      assertFalse(apk.equals(cache.computeKey(digests, "apk", true, false, false, null, null)));
+      assertFalse(apk.equals(cache.computeKey(digests, "apk", false, false, false,
+          new String[] { "com.example.Extension" }, null)));
+    }
+  }
+
+  public void testProjectWithoutKeystoreIsNotCached() throws Exception {
+    assertNull(key(zip("src/Screen1.scm", "x")));
+    assertEquals(1, cache.getUncacheableCount());
+  }
+
+  public void testHit() throws Exception {
+    String key = key(zip("src/Screen1.scm", "x", "android.keystore", "k"));
+    File outputDir = new File(tempDir, "out");
+    assertTrue(outputDir.mkdirs());
+    assertNull(cache.get(key, outputDir));
+    cache.put(key, file("Test.apk", "apk"), Result.createSuccessfulResult("messages", "user"));
+    BuildResultCache.Hit hit = cache.get(key, outputDir);
+    assertNotNull(hit);
+    assertEquals(new File(outputDir, "Test.apk"), hit.getOutput());
+    assertEquals("apk", Files.toString(hit.getOutput(), StandardCharsets.UTF_8));
+    assertTrue(hit.getResult().succeeded());
+    assertEquals("messages", hit.getResult().getOutput());
+    assertEquals("user", hit.getResult().getError());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  public void testEntriesSurviveRestart() throws Exception {
+    String key = key(zip("src/Screen1.scm", "x", "android.keystore", "k"));
+    cache.put(key, file("Test.apk", "apk"), Result.createSuccessfulResult("", ""));
+    BuildResultCache restarted = new BuildResultCache();
+    restarted.configure(new File(tempDir, "cache"), 1);
+    assertEquals(1, restarted.getEntryCount());
+    assertNotNull(restarted.get(key, tempDir));
+  }
+
+  public void testLeastRecentlyUsedEntryIsEvicted() throws Exception {
+    String data = new String(new char[400 * 1024]).replace('\0', 'x');
+    String first = key(zip("src/Screen1.scm", "1", "android.keystore", "k"));
+    String second = key(zip("src/Screen1.scm", "2", "android.keystore", "k"));
+    String third = key(zip("src/Screen1.scm", "3", "android.keystore", "k"));
+    cache.put(first, file("Test.apk", data), Result.createSuccessfulResult("", ""));
+    cache.put(second, file("Test.apk", data), Result.createSuccessfulResult("", ""));
+    assertNotNull(cache.get(first, tempDir));
+    cache.put(third, file("Test.apk", data), Result.createSuccessfulResult("", ""));
+    assertEquals(1, cache.getEvictionCount());
+    assertNotNull(cache.get(first, tempDir));
+    assertNull(cache.get(second, tempDir));
+    assertNotNull(cache.get(third, tempDir));
+  }
+
+  private String key(byte[] zip) throws IOException {
+    try (ProjectUpload upload = ProjectUpload.extract(new ByteArrayInputStream(zip))) {
+      return cache.computeKey(upload.getDigests(), "apk", false, false, false, null, null);
+    }
+  }
+
+  private File file(String name, String content) throws IOException {
+    File dir = new File(tempDir, "build-" + System.nanoTime());
+    assertTrue(dir.mkdirs());
+    File file = new File(dir, name);
+    Files.write(content, file, StandardCharsets.UTF_8);
+    return file;
+  }
+
+  private static byte[] zip(String... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < entries.length; i += 2) {
+        out.putNextEntry(new ZipEntry(entries[i]));
+        out.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
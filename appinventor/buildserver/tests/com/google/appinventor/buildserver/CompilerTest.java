@@ -0,0 +1,241 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.appinventor.buildserver.context.AndroidCompilerContext;
+import com.google.appinventor.buildserver.context.AndroidPaths;
+import com.google.appinventor.buildserver.context.CompilerContext;
+import com.google.appinventor.buildserver.interfaces.AndroidTask;
+import com.google.appinventor.buildserver.stats.NullStatReporter;
+import com.google.appinventor.buildserver.stats.SimpleStatReporter;
+import com.google.appinventor.buildserver.stats.StatReporter;
+import com.google.appinventor.buildserver.util.Execution;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the task scheduling and cancellation of the {@link Compiler} class.
+ */
+public class CompilerTest {
+  private static final List<String> executed = Collections.synchronizedList(
+      new ArrayList<String>());
+  private static CountDownLatch bothRunning;
+  private static CountDownLatch toolStarted;
+  // The tool writes its process ID here.
+  private static File pidFile;
+
+  private Compiler<AndroidPaths, AndroidCompilerContext> compiler;
+  private Reporter reporter;
+
+  @Before
+  public void setUp() throws IOException {
+    executed.clear();
+    bothRunning = new CountDownLatch(2);
+    toolStarted = new CountDownLatch(1);
+    pidFile = File.createTempFile("tool", ".pid");
+    pidFile.deleteOnExit();
+    reporter = new Reporter(null);
+    compiler = newCompiler(new NullStatReporter());
+  }
+
+  private Compiler<AndroidPaths, AndroidCompilerContext> newCompiler(StatReporter statReporter) {
+    AndroidCompilerContext context = new CompilerContext.Builder<AndroidPaths,
+        AndroidCompilerContext>(null, BuildType.APK_EXTENSION)
+        .withClass(AndroidCompilerContext.class)
+        .withTypes(Collections.<String>emptySet())
+        .withBlocks(Collections.<String, Set<String>>emptyMap())
+        .withReporter(reporter)
+        .withStatReporter(statReporter)
+        .withKeystore("test.keystore")
+        .build();
+    return new Compiler.Builder<AndroidPaths, AndroidCompilerContext>()
+        .withContext(context)
+        .withType(BuildType.APK_EXTENSION)
+        .build();
+  }
+
+  @Test
+  public void testSequentialTasksRunInOrder() {
+    compiler.add(First.class);
+    compiler.add(Last.class);
+    assertTrue(compiler.call());
+    assertEquals(Arrays.asList("First", "Last"), executed);
+  }
+
+  @Test
+  public void testIndependentTasksRunInParallel() {
+    compiler.add(First.class);
+    compiler.add(WaitsForOther.class, First.class);
+    compiler.add(AlsoWaitsForOther.class, First.class);
+    compiler.add(Last.class, WaitsForOther.class, AlsoWaitsForOther.class);
+    assertTrue(compiler.call());
+    assertEquals(4, executed.size());
+    assertEquals("First", executed.get(0));
+    assertEquals("Last", executed.get(3));
+  }
+
+  @Test
+  public void testParallelStagesAreTimedByTask() {
+    SimpleStatReporter stats = new SimpleStatReporter();
+    compiler = newCompiler(stats);
+    compiler.add(First.class);
+    compiler.add(Slow.class, First.class);
+    compiler.add(Last.class, First.class);
+    assertTrue(compiler.call());
+    stats.stopBuild(compiler, true);
+    Map<String, Long> stages = stats.getSuccessStats().iterator().next().getStages();
+    assertEquals(3, stages.size());
+    assertTrue(stages.get("Slow") >= Slow.MILLIS);
+    assertTrue(stages.get("Last") < Slow.MILLIS);
+  }
+
+  @Test
+  public void testFailureStopsDependentTasks() {
+    compiler.add(First.class);
+    compiler.add(Fails.class, First.class);
+    compiler.add(Last.class, Fails.class);
+    assertFalse(compiler.call());
+    assertEquals(Arrays.asList("First", "Fails"), executed);
+  }
+
+  @Test
+  public void testCancelKillsRunningTool() throws Exception {
+    compiler.add(First.class);
+    compiler.add(RunsTool.class);
+    compiler.add(Last.class);
+    BuildHandle handle = BuildHandle.start(compiler);
+    assertTrue(toolStarted.await(10, TimeUnit.SECONDS));
+    String pid = waitForPid();
+    assertTrue(isRunning(pid));
+
+    handle.close();
+    assertFalse("the tool outlived the build", isRunning(pid));
+    assertTrue(reporter.getUserOutput().contains("Build was cancelled"));
+    assertEquals(Arrays.asList("First", "RunsTool"), executed);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownDependencyIsRejected() {
+    compiler.add(Last.class, First.class);
+  }
+
+  private static String waitForPid() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      String pid = Files.asCharSource(pidFile, StandardCharsets.UTF_8).read().trim();
+      if (!pid.isEmpty()) {
+        return pid;
+      }
+      Thread.sleep(100);
+    }
+    throw new AssertionError("the tool did not start");
+  }
+
+  private static boolean isRunning(String pid) throws Exception {
+    return Runtime.getRuntime().exec(new String[] {"kill", "-0", pid}).waitFor() == 0;
+  }
+
+  @BuildType(apk = true)
+  public static class First implements AndroidTask {
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add("First");
+      return TaskResult.generateSuccess();
+    }
+  }
+
+  @BuildType(apk = true)
+  public static class Last implements AndroidTask {
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add("Last");
+      return TaskResult.generateSuccess();
+    }
+  }
+
+  @BuildType(apk = true)
+  public static class Slow implements AndroidTask {
+    static final long MILLIS = 500;
+
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add("Slow");
+      try {
+        Thread.sleep(MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return TaskResult.generateError("interrupted");
+      }
+      return TaskResult.generateSuccess();
+    }
+  }
+
+  @BuildType(apk = true)
+  public static class Fails implements AndroidTask {
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add("Fails");
+      return TaskResult.generateError("expected failure");
+    }
+  }
+
+  /**
+   * Runs a child process that takes a minute to finish.
+   */
+  @BuildType(apk = true)
+  public static class RunsTool implements AndroidTask {
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add("RunsTool");
+      toolStarted.countDown();
+      if (Execution.execute(null, new String[] {"sh", "-c",
+          "echo $$ > '" + pidFile.getAbsolutePath() + "'; exec sleep 60"}, System.out,
+          System.err, Execution.Timeout.LONG)) {
+        return TaskResult.generateSuccess();
+      }
+      return TaskResult.generateError("tool was terminated");
+    }
+  }
+
+  /**
+   * Succeeds only if another task is running at the same time.
+   */
+  @BuildType(apk = true)
+  public static class WaitsForOther implements AndroidTask {
+    @Override
+    public TaskResult execute(AndroidCompilerContext context) {
+      executed.add(getClass().getSimpleName());
+      bothRunning.countDown();
+      try {
+        if (bothRunning.await(10, TimeUnit.SECONDS)) {
+          return TaskResult.generateSuccess();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return TaskResult.generateError("tasks did not run in parallel");
+    }
+  }
+
+  @BuildType(apk = true)
+  public static class AlsoWaitsForOther extends WaitsForOther {
+  }
+}
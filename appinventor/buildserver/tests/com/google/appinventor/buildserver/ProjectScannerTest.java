@@ -0,0 +1,94 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+
+package com.google.appinventor.buildserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProjectScannerTest {
+
+  private static final String SCREEN1_SCM = "#|\n$JSON\n{\"Properties\":{\"$Name\":\"Screen1\","
+      + "\"$Type\":\"Form\",\"ScreenOrientation\":\"landscape\",\"$Components\":["
+      + "{\"$Name\":\"Button1\",\"$Type\":\"Button\",\"Text\":\"Hello\"}]}}\n|#\n";
+
+  private static final String SCREEN2_SCM = "#|\n$JSON\n{\"Properties\":{\"$Name\":\"Screen2\","
+      + "\"$Type\":\"Form\",\"$Components\":["
+      + "{\"$Name\":\"Label1\",\"$Type\":\"Label\"}]}}\n|#\n";
+
+  private static final String SCREEN1_BKY = "<xml xmlns=\"http://www.w3.org/1999/xhtml\">"
+      + "<block type=\"component_event\"><mutation component_type=\"Button\" "
+      + "event_name=\"Click\"></mutation>"
+      + "<statement name=\"DO\"><block type=\"helpers_dropdown\"><mutation key=\"Permission\">"
+      + "</mutation><field name=\"OPTION\">Camera</field></block></statement></block>"
+      + "<block type=\"component_event\" disabled=\"true\"><mutation component_type=\"Button\" "
+      + "event_name=\"LongClick\"></mutation></block>"
+      + "</xml>";
+
+  private File projectDir;
+
+  @Before
+  public void setUp() {
+    projectDir = Files.createTempDir();
+  }
+
+  @After
+  public void tearDown() {
+    FileUtils.deleteQuietly(projectDir);
+  }
+
+  @Test
+  public void testScan() throws Exception {
+    ProjectScanner.Model model = ProjectScanner.scan(Arrays.asList(
+        write("Screen1.scm", SCREEN1_SCM),
+        write("Screen1.bky", SCREEN1_BKY),
+        write("Screen2.scm", SCREEN2_SCM),
+        write("Screen2.bky", ""),
+        write("Screen1.yail", "(define-form Screen1)")));
+
+    assertEquals(Sets.newHashSet("Form", "Button", "Label"), model.getComponentNames());
+
+    Map<String, Set<String>> blocks = model.getComponentBlocks();
+    assertEquals(Sets.newHashSet("Click", "Text"), blocks.get("Button"));
+    assertTrue(blocks.get("Label").isEmpty());
+
+    assertEquals(Sets.newHashSet("android.permission.CAMERA"), model.getBlockPermissions());
+    assertTrue(model.getScopes().isEmpty());
+
+    assertEquals("landscape", model.getFormOrientations().get("Screen1"));
+    assertEquals("unspecified", model.getFormOrientations().get("Screen2"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScanMalformedForm() throws Exception {
+    ProjectScanner.scan(Arrays.asList(write("Screen1.scm", "#|\n$JSON\n{]\n|#\n")));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testModelIsImmutable() throws Exception {
+    ProjectScanner.Model model = ProjectScanner.scan(Arrays.asList(
+        write("Screen1.scm", SCREEN1_SCM)));
+    model.getComponentBlocks().get("Button").add("Click");
+  }
+
+  private String write(String name, String content) throws IOException {
+    File file = new File(projectDir, name);
+    Files.write(content, file, StandardCharsets.UTF_8);
+    return file.getAbsolutePath();
+  }
+}
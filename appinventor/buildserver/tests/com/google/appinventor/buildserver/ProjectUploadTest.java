@@ -0,0 +1,94 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver;
+
+import com.google.common.io.Files;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests ProjectUpload class.
+ */
+public class ProjectUploadTest extends TestCase {
+  public void testStreamIsExtracted() throws Exception {
+    byte[] zip = zip("youngandroidproject/project.properties", "main=Screen1",
+        "src/com/example/Screen1.scm", "{}", "assets/kitty.png", "meow");
+    File projectRoot;
+    try (ProjectUpload upload = ProjectUpload.extract(new ByteArrayInputStream(zip))) {
+      projectRoot = upload.getProjectRoot();
+      assertEquals(zip.length, upload.getSize());
+      assertEquals("meow", Files.toString(new File(projectRoot, "assets/kitty.png"),
+          StandardCharsets.UTF_8));
+      assertEquals(Arrays.asList(new File(projectRoot, "src/com/example/Screen1.scm").getPath()),
+          upload.getSourceFiles());
+      assertEquals(3, upload.getDigests().size());
+    }
+    assertFalse(projectRoot.exists());
+  }
+
+  public void testDigestsDependOnlyOnContent() throws Exception {
+    byte[] deflated = zip("src/Screen1.scm", "x", "android.keystore", "k", "assets/a.txt", "a");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      out.setLevel(Deflater.NO_COMPRESSION);
+      for (String name : new String[] { "assets/a.txt", "android.keystore", "src/Screen1.scm" }) {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(name.startsWith("assets") ? 'a' : name.startsWith("src") ? 'x' : 'k');
+        out.closeEntry();
+      }
+    }
+    BuildResultCache cache = new BuildResultCache();
+    try (ProjectUpload first = ProjectUpload.extract(new ByteArrayInputStream(deflated));
+        ProjectUpload second = ProjectUpload.extract(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+      String key = cache.computeKey(first.getDigests(), "apk", false, false, false, null, null);
+      assertNotNull(key);
+      assertEquals(key,
+          cache.computeKey(second.getDigests(), "apk", false, false, false, null, null));
+    }
+  }
+
+  public void testEntryOutsideOfProjectIsRejected() throws Exception {
+    byte[] zip = zip("src/Screen1.scm", "x", "../escaped.txt", "y");
+    try {
+      ProjectUpload.extract(new ByteArrayInputStream(zip)).close();
+      fail("Expected a ZipException");
+    } catch (ZipException e) {
+      // expected
+    }
+  }
+
+  public void testEmptyZipIsRejected() throws Exception {
+    try {
+      ProjectUpload.extract(new ByteArrayInputStream(zip())).close();
+      fail("Expected a ZipException");
+    } catch (ZipException e) {
+      // expected
+    }
+  }
+
+  private static byte[] zip(String... entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      for (int i = 0; i < entries.length; i += 2) {
+        out.putNextEntry(new ZipEntry(entries[i]));
+        out.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
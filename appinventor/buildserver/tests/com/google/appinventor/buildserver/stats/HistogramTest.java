@@ -0,0 +1,79 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests Histogram class.
+ */
+public class HistogramTest extends TestCase {
+
+  public void testPercentiles() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getValueAtPercentile(50));
+    for (int i = 1; i <= 1000; i++) {
+      histogram.record(i);
+    }
+    assertEquals(1000, histogram.getCount());
+    assertEquals(500500, histogram.getSum());
+    assertEquals(1000, histogram.getMax());
+    assertWithin(500, histogram.getValueAtPercentile(50));
+    assertWithin(990, histogram.getValueAtPercentile(99));
+    assertEquals(1000, histogram.getValueAtPercentile(100));
+  }
+
+  public void testSmallAndLargeValues() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    histogram.record(3);
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(0, histogram.getValueAtPercentile(1));
+    assertEquals(3, histogram.getValueAtPercentile(50));
+    assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+  }
+
+  public void testCountBelowPowersOfTwo() {
+    Histogram histogram = new Histogram();
+    histogram.record(1023);
+    histogram.record(1024);
+    histogram.record(5000);
+    assertEquals(0, histogram.getCountBelow(512));
+    assertEquals(1, histogram.getCountBelow(1024));
+    assertEquals(2, histogram.getCountBelow(2048));
+    assertEquals(3, histogram.getCountBelow(8192));
+  }
+
+  public void testConcurrentRecording() throws Exception {
+    final Histogram histogram = new Histogram();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; i++) {
+            histogram.record(i % 100);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(40000, histogram.getCount());
+    assertEquals(40000, histogram.getCountBelow(128));
+    assertEquals(4 * 100 * 4950, histogram.getSum());
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("expected about " + expected + " but was " + actual,
+        actual >= expected && actual <= expected * 1.125);
+  }
+}
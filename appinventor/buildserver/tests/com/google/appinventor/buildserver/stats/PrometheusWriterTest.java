@@ -0,0 +1,46 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.stats;
+
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests PrometheusWriter class.
+ */
+public class PrometheusWriterTest extends TestCase {
+
+  public void testCounterAndGauge() {
+    String text = new PrometheusWriter()
+        .counter("requests_total", "Requests.", 42)
+        .gauge("ratio", "A ratio.", 0.25)
+        .toString();
+    assertEquals("# HELP requests_total Requests.\n"
+        + "# TYPE requests_total counter\n"
+        + "requests_total 42\n"
+        + "# HELP ratio A ratio.\n"
+        + "# TYPE ratio gauge\n"
+        + "ratio 0.25\n", text);
+  }
+
+  public void testHistogram() {
+    Histogram histogram = new Histogram();
+    histogram.record(10);
+    histogram.record(100);
+    histogram.record(1000000);
+    String text = new PrometheusWriter()
+        .histograms("task_seconds", "Tasks.", "task",
+            Collections.singletonMap("Run\"D8\"", histogram))
+        .toString();
+    assertTrue(text.contains("# TYPE task_seconds histogram\n"));
+    assertTrue(text.contains("task_seconds_bucket{task=\"Run\\\"D8\\\"\",le=\"0.016\"} 1\n"));
+    assertTrue(text.contains("task_seconds_bucket{task=\"Run\\\"D8\\\"\",le=\"0.128\"} 2\n"));
+    assertTrue(text.contains("task_seconds_bucket{task=\"Run\\\"D8\\\"\",le=\"524.288\"} 2\n"));
+    assertTrue(text.contains("task_seconds_bucket{task=\"Run\\\"D8\\\"\",le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("task_seconds_sum{task=\"Run\\\"D8\\\"\"} 1000.11\n"));
+    assertTrue(text.contains("task_seconds_count{task=\"Run\\\"D8\\\"\"} 3\n"));
+  }
+}
@@ -22,9 +22,11 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.junit.AfterClass;
@@ -64,7 +66,13 @@ public class LoadComponentInfoTest {
   @BeforeClass
   public static void onlyOnce() throws IOException {
     projectRoot = ProjectUtils.createNewTempDir();
-    ProjectUtils.extractProjectFiles(new ZipFile(HELLO_PURR_TEMPLATE), projectRoot);
+    try (ZipFile zip = new ZipFile(HELLO_PURR_TEMPLATE)) {
+      for (ZipEntry entry : Collections.list(zip.entries())) {
+        try (InputStream in = zip.getInputStream(entry)) {
+          FileUtils.copyInputStreamToFile(in, new File(projectRoot, entry.getName()));
+        }
+      }
+    }
     project = ProjectUtils.getProjectProperties(projectRoot);
   }
 
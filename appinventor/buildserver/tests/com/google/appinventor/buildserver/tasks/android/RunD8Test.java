@@ -0,0 +1,25 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.tasks.android;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests RunD8 class.
+ */
+public class RunD8Test extends TestCase {
+  public void testCompanionBaseNeedsNativeMultidex() {
+    assertTrue(RunD8.usesCompanionBase(true, "/cache", 21));
+    assertTrue(RunD8.usesCompanionBase(true, "/cache", 26));
+    // Below API 21 the final d8 run must place the classes in the main dex.
+    assertFalse(RunD8.usesCompanionBase(true, "/cache", 7));
+    assertFalse(RunD8.usesCompanionBase(true, "/cache", 20));
+  }
+
+  public void testCompanionBaseNeedsCompanionAndCache() {
+    assertFalse(RunD8.usesCompanionBase(false, "/cache", 21));
+    assertFalse(RunD8.usesCompanionBase(true, null, 21));
+  }
+}
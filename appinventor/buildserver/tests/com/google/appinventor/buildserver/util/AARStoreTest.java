@@ -0,0 +1,80 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests AARStore class.
+ */
+public class AARStoreTest extends TestCase {
+  private File tempDir;
+  private AARStore store;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    store = new AARStore(new File(tempDir, "store"));
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testLibraryIsUnpackedOnce() throws Exception {
+    File aar = writeAar("first.aar", "com.example.first", null);
+    AARLibrary library = store.acquire(aar);
+    assertSame(library, store.acquire(writeAar("copy.aar", "com.example.first", null)));
+    assertEquals(1, store.getMissCount());
+    assertEquals(1, store.getHitCount());
+    assertEquals(1, store.getEntryCount());
+
+    assertEquals("com.example.first", library.getPackageName());
+    assertEquals("com.example.first", library.getDirectory().getName());
+    assertTrue(library.getClassesJar().isFile());
+    assertTrue(library.getManifest().isFile());
+    assertTrue(new File(library.getResDirectory(), "values/values.xml").isFile());
+    assertNotNull(library.getSymbols());
+    assertSame(library.getSymbols(), library.getSymbols());
+  }
+
+  public void testOnlyReleasedLibrariesAreEvicted() throws Exception {
+    store.configure(1);
+    AARLibrary first = store.acquire(writeAar("first.aar", "com.example.first", asset(700 * 1024)));
+    AARLibrary second = store.acquire(writeAar("second.aar", "com.example.second",
+        asset(700 * 1024)));
+    assertEquals(2, store.getEntryCount());
+    assertTrue(first.getDirectory().isDirectory());
+
+    store.release(first);
+    assertEquals(1, store.getEvictionCount());
+    assertFalse(first.getDirectory().exists());
+    assertTrue(second.getDirectory().isDirectory());
+
+    // The remaining library alone fits within the limit.
+    store.release(second);
+    assertEquals(1, store.getEntryCount());
+    assertTrue(second.getDirectory().isDirectory());
+  }
+
+  private File writeAar(String name, String packageName, byte[] asset) throws IOException {
+    return TestFiles.writeAar(new File(tempDir, name), packageName, "<resources />", asset);
+  }
+
+  private static byte[] asset(int size) {
+    byte[] asset = new byte[size];
+    new Random(0).nextBytes(asset);
+    return asset;
+  }
+}
@@ -0,0 +1,91 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.appinventor.components.common.ComponentDescriptorConstants;
+import com.google.common.collect.Sets;
+
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jettison.json.JSONArray;
+
+/**
+ * Tests ComponentBuildInfo class.
+ */
+public class ComponentBuildInfoTest extends TestCase {
+  private static final String TEXTING = "com.google.appinventor.components.runtime.Texting";
+  private static final String LABEL = "com.google.appinventor.components.runtime.Label";
+  private static final String EXTENSION = "com.example.Extension";
+
+  private static final String BUILT_IN = "["
+      + "{\"type\": \"" + TEXTING + "\","
+      + " \"permissions\": [\"android.permission.SEND_SMS\", \"\"],"
+      + " \"broadcastReceivers\": [],"
+      + " \"permissionConstraints\": {\"android.permission.READ_SMS\": {\"maxSdkVersion\": 18}},"
+      + " \"conditionals\": {"
+      + "   \"permissions\": {\"ReceivingEnabled\": [\"android.permission.RECEIVE_SMS\"]},"
+      + "   \"permissionConstraints\": {\"ReceivingEnabled\":"
+      + "     {\"android.permission.RECEIVE_SMS\": {\"usesPermissionFlags\": \"neverForLocation\"}}}"
+      + " }},"
+      + "{\"type\": \"" + LABEL + "\", \"permissions\": []}"
+      + "]";
+
+  public void testLookups() throws Exception {
+    ComponentBuildInfo info = ComponentBuildInfo.parse(new JSONArray(BUILT_IN));
+    assertEquals(Sets.newHashSet(TEXTING, LABEL), info.getTypes());
+
+    assertEquals(Sets.newHashSet("android.permission.SEND_SMS"),
+        info.getInfo(TEXTING, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+    assertTrue(info.getInfo(TEXTING,
+        ComponentDescriptorConstants.BROADCAST_RECEIVERS_TARGET).isEmpty());
+    assertNull(info.getInfo(TEXTING, ComponentDescriptorConstants.ASSETS_TARGET));
+    assertNull(info.getInfo(EXTENSION, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+
+    Map<String, Set<String>> conditionals = info.getConditionalInfo(TEXTING,
+        ComponentDescriptorConstants.PERMISSIONS_TARGET);
+    assertEquals(Sets.newHashSet("android.permission.RECEIVE_SMS"),
+        conditionals.get("ReceivingEnabled"));
+    assertNull(info.getConditionalInfo(LABEL, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+
+    assertEquals(1, info.getPermissionConstraints(TEXTING)
+        .get("android.permission.READ_SMS").size());
+    assertNull(info.getPermissionConstraints(LABEL));
+    assertEquals(1, info.getConditionalPermissionConstraints(TEXTING).get("ReceivingEnabled")
+        .get("android.permission.RECEIVE_SMS").size());
+  }
+
+  public void testIndexIsImmutable() throws Exception {
+    ComponentBuildInfo info = ComponentBuildInfo.parse(new JSONArray(BUILT_IN));
+    try {
+      info.getInfo(TEXTING, ComponentDescriptorConstants.PERMISSIONS_TARGET).add("other");
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      info.getPermissionConstraints(TEXTING).get("android.permission.READ_SMS").clear();
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testExtensionsAreLayeredOnTop() throws Exception {
+    ComponentBuildInfo builtIn = ComponentBuildInfo.parse(new JSONArray(BUILT_IN));
+    ComponentBuildInfo extensions = ComponentBuildInfo.parse(new JSONArray("["
+        + "{\"type\": \"" + EXTENSION + "\", \"permissions\": [\"android.permission.CAMERA\"]}"
+        + "]"));
+    ComponentBuildInfo info = builtIn.withExtensions(extensions);
+    assertEquals(Sets.newHashSet("android.permission.CAMERA"),
+        info.getInfo(EXTENSION, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+    assertEquals(Sets.newHashSet("android.permission.SEND_SMS"),
+        info.getInfo(TEXTING, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+    assertNull(builtIn.getInfo(EXTENSION, ComponentDescriptorConstants.PERMISSIONS_TARGET));
+    assertSame(builtIn, builtIn.withExtensions(ComponentBuildInfo.parse(new JSONArray())));
+  }
+}
@@ -0,0 +1,271 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests DexCache class.
+ */
+public class DexCacheTest extends TestCase {
+  private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+  private File tempDir;
+  private final AtomicInteger dexRuns = new AtomicInteger(0);
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    DexCache.configure(0);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    DexCache.configure(0);
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testHitAfterMiss() throws Exception {
+    DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    File library = TestFiles.write(tempDir, "lib.jar", "library");
+    File first = cache.get(library, ".dex", new FakeDexer(null));
+    File second = cache.get(library, ".dex", new FakeDexer(null));
+    assertEquals(first, second);
+    assertTrue(first.isFile());
+    assertEquals(1, dexRuns.get());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getEntryCount());
+  }
+
+  public void testConcurrentMissesDexOnce() throws Exception {
+    final DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    final File library = TestFiles.write(tempDir, "lib.jar", "library");
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] results = new Future<?>[4];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = executor.submit(new Callable<File>() {
+          @Override
+          public File call() throws Exception {
+            return cache.get(library, ".dex", new FakeDexer(release));
+          }
+        });
+      }
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<?> result : results) {
+        assertNotNull(result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, dexRuns.get());
+  }
+
+  public void testFailedDexIsRemembered() throws Exception {
+    DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    File library = TestFiles.write(tempDir, "lib.jar", "library");
+    assertNull(cache.get(library, ".dex", new DexCache.Dexer() {
+      @Override
+      public File dex(File input, File outputDir) {
+        dexRuns.incrementAndGet();
+        return null;
+      }
+    }));
+    assertEquals(1, cache.getFailureCount());
+    assertEquals(0, cache.getEntryCount());
+    // The library is not dexed again until the failure expires.
+    assertNull(cache.get(library, ".dex", new FakeDexer(null)));
+    assertEquals(1, dexRuns.get());
+    // Other libraries are not affected.
+    assertNotNull(cache.get(TestFiles.write(tempDir, "other.jar", "other"), ".dex",
+        new FakeDexer(null)));
+  }
+
+  public void testTimedOutDexIsNotRemembered() throws Exception {
+    DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    File library = TestFiles.write(tempDir, "lib.jar", "library");
+    assertNull(cache.get(library, ".dex", new DexCache.Dexer() {
+      @Override
+      public File dex(File input, File outputDir) {
+        dexRuns.incrementAndGet();
+        Execution.setTimedOut(true);
+        return null;
+      }
+    }));
+    assertEquals(1, cache.getFailureCount());
+    assertNotNull(cache.get(library, ".dex", new FakeDexer(null)));
+    assertEquals(2, dexRuns.get());
+  }
+
+  public void testWaitersDexLibraryOfCancelledBuild() throws Exception {
+    final DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    final File library = TestFiles.write(tempDir, "lib.jar", "library");
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<File> cancelled = executor.submit(new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return cache.get(library, ".dex", new DexCache.Dexer() {
+            @Override
+            public File dex(File input, File outputDir) throws IOException {
+              dexRuns.incrementAndGet();
+              started.countDown();
+              try {
+                release.await(10, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              // As the dexer is left when its build is cancelled.
+              Thread.currentThread().interrupt();
+              return null;
+            }
+          });
+        }
+      });
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      Future<File> waiting = executor.submit(new Callable<File>() {
+        @Override
+        public File call() throws Exception {
+          return cache.get(library, ".dex", new FakeDexer(null));
+        }
+      });
+      Thread.sleep(100);
+      release.countDown();
+      try {
+        cancelled.get(10, TimeUnit.SECONDS);
+        fail("The cancelled build should not get the library");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof InterruptedIOException);
+      }
+      assertNotNull(waiting.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(2, dexRuns.get());
+    assertEquals(0, cache.getFailureCount());
+  }
+
+  public void testDamagedEntriesAreRemovedOnStartup() throws Exception {
+    File cacheDir = new File(tempDir, "cache");
+    File valid = TestFiles.write(tempDir, "cache/dex-cached-valid.dex", "dex\n035");
+    File damaged = TestFiles.write(tempDir, "cache/dex-cached-damaged.dex", "garbage");
+    File partial = TestFiles.write(tempDir, "cache/dex-cached-partial.dex-1.tmp/predexed.dex",
+        "dex\n035");
+    File other = TestFiles.write(tempDir, "cache/yail-runtime.jar", "other");
+    DexCache cache = DexCache.forDirectory(cacheDir);
+    assertEquals(1, cache.getEntryCount());
+    assertTrue(valid.isFile());
+    assertFalse(damaged.exists());
+    assertFalse(partial.getParentFile().exists());
+    assertTrue(other.isFile());
+  }
+
+  public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+    File cacheDir = new File(tempDir, "cache");
+    String content = "dex\n" + new String(new char[600 * 1024]).replace('\0', 'x');
+    long now = System.currentTimeMillis();
+    File oldest = TestFiles.write(tempDir, "cache/dex-cached-oldest.dex", content);
+    oldest.setLastModified(now - 3 * DAY_MILLIS);
+    File older = TestFiles.write(tempDir, "cache/dex-cached-older.dex", content);
+    older.setLastModified(now - 2 * DAY_MILLIS);
+    File recent = TestFiles.write(tempDir, "cache/dex-cached-recent.dex", content);
+    recent.setLastModified(now - DAY_MILLIS);
+    File current = TestFiles.write(tempDir, "cache/dex-cached-current.dex", content);
+    File newest = TestFiles.write(tempDir, "cache/dex-cached-newest.dex", content);
+    DexCache.configure(1);
+    DexCache cache = DexCache.forDirectory(cacheDir);
+    assertFalse(oldest.exists());
+    assertFalse(older.exists());
+    assertFalse(recent.exists());
+    // Used too recently to be deleted, even though the cache is still over its limit.
+    assertTrue(current.isFile());
+    assertTrue(newest.isFile());
+    assertEquals(3, cache.getEvictionCount());
+    assertTrue(cache.getSizeBytes() > DexCache.getMaxSizeBytes());
+  }
+
+  public void testMergedEntryIgnoresOrderOfLibraries() throws Exception {
+    DexCache cache = DexCache.forDirectory(new File(tempDir, "cache"));
+    File a = TestFiles.write(tempDir, "a.jar", "a");
+    File b = TestFiles.write(tempDir, "b.jar", "b");
+    File first = cache.getMerged(Arrays.asList(a, b), "minSdk=21", ".jar", new FakeMerger());
+    File second = cache.getMerged(Arrays.asList(b, a), "minSdk=21", ".jar", new FakeMerger());
+    assertEquals(first, second);
+    assertTrue(first.isFile());
+    assertEquals(1, dexRuns.get());
+    assertEquals(1, cache.getHitCount());
+    // A different variant or a different library is a different entry.
+    assertFalse(first.equals(cache.getMerged(Arrays.asList(a, b), "minSdk=23", ".jar",
+        new FakeMerger())));
+    TestFiles.write(tempDir, "b.jar", "changed");
+    assertFalse(first.equals(cache.getMerged(Arrays.asList(a, b), "minSdk=21", ".jar",
+        new FakeMerger())));
+    assertEquals(3, dexRuns.get());
+  }
+
+  private class FakeDexer implements DexCache.Dexer {
+    private final CountDownLatch release;
+
+    FakeDexer(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public File dex(File input, File outputDir) throws IOException {
+      dexRuns.incrementAndGet();
+      if (release != null) {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+      }
+      File output = new File(outputDir, "classes.dex");
+      Files.write("dex\n035", output, StandardCharsets.UTF_8);
+      return output;
+    }
+  }
+
+  private class FakeMerger implements DexCache.Merger {
+    @Override
+    public File merge(List<File> inputs, File outputDir) throws IOException {
+      dexRuns.incrementAndGet();
+      File output = new File(outputDir, "merged.jar");
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(output))) {
+        out.putNextEntry(new ZipEntry("classes.dex"));
+        out.write("dex\n035".getBytes(StandardCharsets.UTF_8));
+        out.closeEntry();
+      }
+      return output;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import gnu.expr.Compilation;
+import gnu.mapping.Environment;
+import gnu.mapping.Symbol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests that a KawaCompilerWorker does not carry state from one compilation into the next.
+ */
+public class KawaCompilerWorkerTest extends TestCase {
+  private File tempDir;
+  private KawaCompilerWorker worker;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    worker = new KawaCompilerWorker();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    worker.reset();
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testScreensWithTheSameNameAreCompiledIndependently() throws Exception {
+    // Two users' projects with a screen of the same class name.
+    File first = compile("first", "(define (greeting) \"from the first project\")");
+    File second = compile("second", "(define (greeting) \"from the second project\")");
+
+    String firstClass = readClass(first);
+    String secondClass = readClass(second);
+    assertTrue(firstClass.contains("from the first project"));
+    assertTrue(secondClass.contains("from the second project"));
+    assertFalse(secondClass.contains("from the first project"));
+  }
+
+  public void testDefinitionsDoNotOutliveTheirCompilation() throws Exception {
+    Symbol secret = Symbol.valueOf("previous-user-secret");
+    assertEquals(0, worker.run(new String[] {"-e", "(define previous-user-secret 42)"}));
+    assertNotNull(Environment.getCurrent().lookup(secret));
+
+    worker.reset();
+    assertNull(Environment.getCurrent().lookup(secret));
+  }
+
+  public void testSettingsAreRestored() throws Exception {
+    String prefix = Compilation.classPrefixDefault;
+    compile("project", "(define x 1)");
+    assertEquals("appinventor.ai_test.", Compilation.classPrefixDefault);
+
+    worker.reset();
+    assertEquals(prefix, Compilation.classPrefixDefault);
+  }
+
+  private File compile(String name, String source) throws Exception {
+    File projectDir = new File(tempDir, name);
+    File sourceFile = new File(projectDir, "src/Screen1.scm");
+    File classesDir = new File(projectDir, "classes");
+    assertTrue(sourceFile.getParentFile().mkdirs());
+    assertTrue(classesDir.mkdirs());
+    Files.write(source, sourceFile, StandardCharsets.UTF_8);
+    assertEquals(0, worker.run(new String[] {"-d", classesDir.getAbsolutePath(),
+        "-P", "appinventor.ai_test.", "-C", sourceFile.getAbsolutePath()}));
+    return new File(classesDir, "appinventor/ai_test/Screen1.class");
+  }
+
+  private static String readClass(File classFile) throws IOException {
+    assertTrue(classFile + " was not written", classFile.isFile());
+    return new String(Files.toByteArray(classFile), StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,76 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests MergedResourceCache class.
+ */
+public class MergedResourceCacheTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testKeyIgnoresOrderAndLocationOfLibraries() throws Exception {
+    File first = writeAar("first.aar", "com.example.first", "<resources />");
+    File second = writeAar("second.aar", "com.example.second", "<resources />");
+    String key = MergedResourceCache.getKey(libraries("build1", first, second));
+    assertEquals(key, MergedResourceCache.getKey(libraries("build2", second, first)));
+  }
+
+  public void testKeyDependsOnContentOfLibraries() throws Exception {
+    File first = writeAar("first.aar", "com.example.first", "<resources />");
+    File second = writeAar("second.aar", "com.example.second", "<resources />");
+    String key = MergedResourceCache.getKey(libraries("build1", first, second));
+    assertFalse(key.equals(MergedResourceCache.getKey(libraries("build2", first))));
+
+    writeAar("second.aar", "com.example.second", "<resources><string name=\"a\">a</string>"
+        + "</resources>");
+    assertFalse(key.equals(MergedResourceCache.getKey(libraries("build3", first, second))));
+  }
+
+  public void testUnusedEntriesAreDeleted() throws Exception {
+    File resourcesDir = new File(tempDir, "cache/resources");
+    File unused = new File(resourcesDir, "unused");
+    File recent = new File(resourcesDir, "recent");
+    assertTrue(unused.mkdirs());
+    assertTrue(recent.mkdirs());
+    assertTrue(unused.setLastModified(System.currentTimeMillis()
+        - YailClassCache.MAX_UNUSED_MILLIS - 1000));
+    new MergedResourceCache(new File(tempDir, "cache"));
+    assertFalse(unused.exists());
+    assertTrue(recent.isDirectory());
+  }
+
+  private AARLibraries libraries(String buildDir, File... aars) throws IOException {
+    AARLibraries libraries = new AARLibraries(new File(tempDir, buildDir + "/generated"));
+    for (File aar : aars) {
+      AARLibrary library = new AARLibrary(aar);
+      library.unpackToDirectory(new File(tempDir, buildDir + "/exploded"));
+      libraries.add(library);
+    }
+    return libraries;
+  }
+
+  private File writeAar(String name, String packageName, String values) throws IOException {
+    return TestFiles.writeAar(new File(tempDir, name), packageName, values, null);
+  }
+}
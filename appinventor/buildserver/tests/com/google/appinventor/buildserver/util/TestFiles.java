@@ -0,0 +1,70 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the files that the tests of the build caches work on.
+ */
+final class TestFiles {
+  private TestFiles() {
+  }
+
+  /**
+   * Writes a text file, creating its parent directories.
+   *
+   * @param dir the directory that {@code name} is relative to
+   * @param name the path of the file
+   * @param content the content of the file
+   * @return the file
+   */
+  static File write(File dir, String name, String content) throws IOException {
+    File file = new File(dir, name);
+    Files.createParentDirs(file);
+    Files.write(content, file, StandardCharsets.UTF_8);
+    return file;
+  }
+
+  /**
+   * Writes an Android library with a manifest, a resource table, classes and resource values.
+   *
+   * @param aar the library to write
+   * @param packageName the package of the library
+   * @param values the content of {@code res/values/values.xml}
+   * @param asset the content of {@code assets/data.bin}, or null for none
+   * @return the library
+   */
+  static File writeAar(File aar, String packageName, String values, byte[] asset)
+      throws IOException {
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(aar))) {
+      writeEntry(out, "AndroidManifest.xml", ("<manifest "
+          + "xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\""
+          + packageName + "\" />").getBytes(StandardCharsets.UTF_8));
+      writeEntry(out, "R.txt", "int string app_name 0x7f010001\n"
+          .getBytes(StandardCharsets.UTF_8));
+      writeEntry(out, "classes.jar", new byte[] { 'P', 'K', 5, 6 });
+      writeEntry(out, "res/values/values.xml", values.getBytes(StandardCharsets.UTF_8));
+      if (asset != null) {
+        writeEntry(out, "assets/data.bin", asset);
+      }
+    }
+    return aar;
+  }
+
+  private static void writeEntry(ZipOutputStream out, String name, byte[] content)
+      throws IOException {
+    out.putNextEntry(new ZipEntry(name));
+    out.write(content);
+    out.closeEntry();
+  }
+}
@@ -0,0 +1,107 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link ToolScheduler}.
+ */
+public class ToolSchedulerTest extends TestCase {
+  private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+  private final List<Thread> threads = new ArrayList<>();
+
+  public void testBuildsTakeTurns() throws Exception {
+    ToolScheduler scheduler = new ToolScheduler(1, 4096);
+    ToolScheduler.Permit running = scheduler.acquire("busy", "d8", 1024, false);
+    submit(scheduler, "busy", "busy-1", false);
+    submit(scheduler, "busy", "busy-2", false);
+    submit(scheduler, "busy", "busy-3", false);
+    submit(scheduler, "other", "other-1", false);
+    running.close();
+    join();
+    assertEquals(Arrays.asList("busy-1", "other-1", "busy-2", "busy-3"), order);
+  }
+
+  public void testShortJobsOfABuildGoFirst() throws Exception {
+    ToolScheduler scheduler = new ToolScheduler(1, 4096);
+    ToolScheduler.Permit running = scheduler.acquire("build", "kawa", 1024, false);
+    submit(scheduler, "build", "long", false);
+    submit(scheduler, "build", "short", true);
+    running.close();
+    join();
+    assertEquals(Arrays.asList("short", "long"), order);
+  }
+
+  public void testJobsWaitForMemory() throws Exception {
+    ToolScheduler scheduler = new ToolScheduler(4, 2048);
+    ToolScheduler.Permit first = scheduler.acquire("first", "d8", 1536, false);
+    submit(scheduler, "second", "second", false);
+    assertEquals(1, scheduler.getRunningJobCount());
+    first.close();
+    join();
+    assertEquals(Collections.singletonList("second"), order);
+    assertEquals(0, scheduler.getMemoryInUseMb());
+  }
+
+  public void testOversizedJobRunsAlone() throws Exception {
+    ToolScheduler scheduler = new ToolScheduler(2, 1024);
+    ToolScheduler.Permit permit = scheduler.acquire("build", "kawa", 4096, false);
+    assertEquals(1024, scheduler.getMemoryInUseMb());
+    permit.close();
+    assertEquals(0, scheduler.getMemoryInUseMb());
+    assertEquals(1, scheduler.getStats().get("kawa").getJobCount());
+  }
+
+  public void testInterruptedJobLeavesTheQueue() throws Exception {
+    ToolScheduler scheduler = new ToolScheduler(1, 4096);
+    ToolScheduler.Permit running = scheduler.acquire("build", "d8", 1024, false);
+    Thread waiter = submit(scheduler, "build", "interrupted", false);
+    waiter.interrupt();
+    waiter.join();
+    assertEquals(0, scheduler.getWaitingJobCount());
+    running.close();
+    assertTrue(order.isEmpty());
+  }
+
+  // Starts a thread that runs a job, and waits until the job is queued.
+  private Thread submit(final ToolScheduler scheduler, final Object build, final String name,
+      final boolean shortJob) throws InterruptedException {
+    int waiting = scheduler.getWaitingJobCount();
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          ToolScheduler.Permit permit = scheduler.acquire(build, "d8", 1024, shortJob);
+          try {
+            order.add(name);
+          } finally {
+            permit.close();
+          }
+        } catch (InterruptedException e) {
+          // The job was cancelled.
+        }
+      }
+    });
+    thread.start();
+    threads.add(thread);
+    while (scheduler.getWaitingJobCount() == waiting) {
+      Thread.sleep(10);
+    }
+    return thread;
+  }
+
+  private void join() throws InterruptedException {
+    for (Thread thread : threads) {
+      thread.join(10000);
+      assertFalse(thread.isAlive());
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests YailClassCache class.
+ */
+public class YailClassCacheTest extends TestCase {
+  private static final String SCREEN_CLASS = "appinventor/ai_test/Test/Screen1.class";
+
+  private File tempDir;
+  private File runtime;
+  private File library;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+    runtime = TestFiles.write(tempDir, "runtime.scm",
+        "(module-name com.google.youngandroid.runtime)");
+    library = TestFiles.write(tempDir, "lib/components.jar", "components");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testScreenKeyDependsOnSourceRuntimeAndClasspath() throws Exception {
+    File screen = TestFiles.write(tempDir, "src/Screen1.yail", "(define-form Screen1)");
+    String key = cache("appinventor.ai_test.Test").getScreenKey(screen, SCREEN_CLASS);
+    assertEquals(key, cache("appinventor.ai_test.Test").getScreenKey(screen, SCREEN_CLASS));
+    assertFalse(key.equals(cache("appinventor.ai_other.Test").getScreenKey(screen,
+        SCREEN_CLASS)));
+
+    TestFiles.write(tempDir, "lib/components.jar", "updated components");
+    assertFalse(key.equals(cache("appinventor.ai_test.Test").getScreenKey(screen,
+        SCREEN_CLASS)));
+
+    String updatedKey = cache("appinventor.ai_test.Test").getScreenKey(screen, SCREEN_CLASS);
+    TestFiles.write(tempDir, "src/Screen1.yail", "(define-form Screen1 changed)");
+    assertFalse(updatedKey.equals(cache("appinventor.ai_test.Test").getScreenKey(screen,
+        SCREEN_CLASS)));
+  }
+
+  public void testStoreAndRestore() throws Exception {
+    File screen = TestFiles.write(tempDir, "src/Screen1.yail", "(define-form Screen1)");
+    YailClassCache cache = cache("appinventor.ai_test.Test");
+    String key = cache.getScreenKey(screen, SCREEN_CLASS);
+    File classesDir = new File(tempDir, "classes");
+    assertFalse(cache.restore(key, classesDir));
+
+    TestFiles.write(tempDir, "classes/" + SCREEN_CLASS, "screen");
+    TestFiles.write(tempDir, "classes/appinventor/ai_test/Test/Screen1$frame.class", "frame");
+    TestFiles.write(tempDir, "classes/appinventor/ai_test/Test/Screen2.class", "other screen");
+    cache.store(key, classesDir, SCREEN_CLASS);
+
+    File otherClassesDir = new File(tempDir, "other");
+    assertTrue(cache.restore(key, otherClassesDir));
+    assertTrue(new File(otherClassesDir, SCREEN_CLASS).isFile());
+    assertTrue(new File(otherClassesDir, "appinventor/ai_test/Test/Screen1$frame.class").isFile());
+    assertFalse(new File(otherClassesDir, "appinventor/ai_test/Test/Screen2.class").exists());
+  }
+
+  public void testUnusedEntriesAreDeleted() throws Exception {
+    long now = System.currentTimeMillis();
+    File unused = TestFiles.write(tempDir, "cache/yail-runtime-unused.jar", "unused runtime");
+    File recent = TestFiles.write(tempDir, "cache/yail-runtime-recent.jar", "recent runtime");
+    File other = TestFiles.write(tempDir, "cache/dex-cached-library.dex", "dex");
+    assertTrue(unused.setLastModified(now - YailClassCache.MAX_UNUSED_MILLIS - 1000));
+    assertTrue(other.setLastModified(now - YailClassCache.MAX_UNUSED_MILLIS - 1000));
+
+    assertEquals(1, YailClassCache.deleteUnused(new File(tempDir, "cache"), "yail-runtime-",
+        now - YailClassCache.MAX_UNUSED_MILLIS));
+    assertFalse(unused.exists());
+    assertTrue(recent.isFile());
+    assertTrue(other.isFile());
+  }
+
+  private YailClassCache cache(String packageName) throws IOException {
+    return new YailClassCache(new File(tempDir, "cache"), runtime.getPath(),
+        library.getPath() + File.pathSeparator + new File(tempDir, "missing.jar").getPath(),
+        packageName);
+  }
+}
@@ -0,0 +1,213 @@
+// -*- mode: java; c-basic-offset: 2; -*-
+// Copyright 2024 MIT, All rights reserved
+// Released under the Apache License, Version 2.0
+// http://www.apache.org/licenses/LICENSE-2.0
+package com.google.appinventor.buildserver.util;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests ZipPackager class.
+ */
+public class ZipPackagerTest extends TestCase {
+  private File tempDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    tempDir = Files.createTempDir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteQuietly(tempDir);
+  }
+
+  public void testEntriesAreWrittenInOrder() throws Exception {
+    File apk = new File(tempDir, "app.apk");
+    List<String> names = new ArrayList<>();
+    try (ZipPackager packager = new ZipPackager(apk)) {
+      for (int i = 0; i < 50; i++) {
+        String name = (i % 2 == 0 ? "assets/image" : "assets/text") + (49 - i)
+            + (i % 2 == 0 ? ".png" : ".txt");
+        packager.addFile(name, write(name.replace('/', '_'), randomBytes(i * 997)));
+        names.add(name);
+      }
+      packager.write();
+    }
+
+    assertEquals(names, entryNames(apk));
+    try (ZipFile zip = new ZipFile(apk)) {
+      for (String name : names) {
+        ZipEntry entry = zip.getEntry(name);
+        assertEquals(name, name.endsWith(".png") ? ZipEntry.STORED : ZipEntry.DEFLATED,
+            entry.getMethod());
+        assertTrue(Arrays.equals(Files.toByteArray(new File(tempDir, name.replace('/', '_'))),
+            read(zip, entry)));
+      }
+    }
+  }
+
+  public void testStoredEntriesAreAligned() throws Exception {
+    File apk = new File(tempDir, "app.apk");
+    try (ZipPackager packager = new ZipPackager(apk)) {
+      for (int i = 0; i < 20; i++) {
+        // Names of different lengths move the data of the following entries to every alignment.
+        String name = "assets/" + "abcdefgh".substring(0, i % 8) + i + ".mp3";
+        packager.addFile(name, write("sound" + i, randomBytes(i * 13 + 1)));
+      }
+      packager.addFile("classes.dex", write("classes.dex", new byte[1000]));
+      packager.write();
+    }
+
+    // Walk the local headers, checking the offset of the data of each stored entry.
+    ByteBuffer buffer = ByteBuffer.wrap(Files.toByteArray(apk)).order(ByteOrder.LITTLE_ENDIAN);
+    int offset = 0;
+    int stored = 0;
+    while (buffer.getInt(offset) == 0x04034b50) {
+      int method = buffer.getShort(offset + 8);
+      int compressedSize = buffer.getInt(offset + 18);
+      int dataOffset = offset + 30 + buffer.getShort(offset + 26) + buffer.getShort(offset + 28);
+      if (method == ZipEntry.STORED) {
+        assertEquals(0, dataOffset % ZipPackager.ALIGNMENT);
+        stored++;
+      }
+      offset = dataOffset + compressedSize;
+    }
+    assertEquals(20, stored);
+  }
+
+  public void testZipEntriesKeepTheirMethod() throws Exception {
+    File resources = new File(tempDir, "resources.ap_");
+    byte[] manifest = "<manifest/>".getBytes(StandardCharsets.UTF_8);
+    byte[] arsc = randomBytes(4096);
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(resources))) {
+      out.putNextEntry(new ZipEntry("AndroidManifest.xml"));
+      out.write(manifest);
+      ZipEntry stored = new ZipEntry("resources.arsc");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(arsc.length);
+      CRC32 crc = new CRC32();
+      crc.update(arsc);
+      stored.setCrc(crc.getValue());
+      out.putNextEntry(stored);
+      out.write(arsc);
+    }
+
+    File apk = new File(tempDir, "app.apk");
+    try (ZipPackager packager = new ZipPackager(apk)) {
+      packager.addZip(resources);
+      packager.addFile("classes.dex", write("classes.dex", new byte[100]));
+      packager.write();
+    }
+
+    assertEquals(Arrays.asList("AndroidManifest.xml", "resources.arsc", "classes.dex"),
+        entryNames(apk));
+    try (ZipFile zip = new ZipFile(apk)) {
+      assertEquals(ZipEntry.DEFLATED, zip.getEntry("AndroidManifest.xml").getMethod());
+      assertTrue(Arrays.equals(manifest, read(zip, zip.getEntry("AndroidManifest.xml"))));
+      assertEquals(ZipEntry.STORED, zip.getEntry("resources.arsc").getMethod());
+      assertTrue(Arrays.equals(arsc, read(zip, zip.getEntry("resources.arsc"))));
+    }
+  }
+
+  public void testProjectAssetsTakePrecedence() throws Exception {
+    File projectAssets = new File(tempDir, "project");
+    File componentAssets = new File(tempDir, "components");
+    writeTo(projectAssets, "icon.png", "project");
+    writeTo(projectAssets, ".hidden", "hidden");
+    writeTo(projectAssets, "backup.txt~", "backup");
+    writeTo(new File(projectAssets, "external_comps"), "ext.jar", "extension");
+    writeTo(componentAssets, "icon.png", "component");
+    writeTo(componentAssets, "font.ttf", "font");
+    writeTo(new File(componentAssets, "com.example"), "data.json", "{}");
+
+    File apk = new File(tempDir, "app.apk");
+    try (ZipPackager packager = new ZipPackager(apk)) {
+      packager.addFiles("assets/", projectAssets);
+      packager.addDirectory("assets/", componentAssets);
+      packager.addDirectory("assets/", new File(tempDir, "missing"));
+      packager.write();
+    }
+
+    List<String> names = entryNames(apk);
+    Collections.sort(names);
+    assertEquals(Arrays.asList("assets/com.example/data.json", "assets/font.ttf",
+        "assets/icon.png"), names);
+    try (ZipFile zip = new ZipFile(apk)) {
+      assertEquals("project",
+          new String(read(zip, zip.getEntry("assets/icon.png")), StandardCharsets.UTF_8));
+    }
+  }
+
+  public void testDuplicateEntriesAreRejected() throws Exception {
+    File file = write("classes.dex", new byte[10]);
+    try (ZipPackager packager = new ZipPackager(new File(tempDir, "app.apk"))) {
+      packager.addFile("classes.dex", file);
+      try {
+        packager.addFile("classes.dex", file);
+        fail("Expected an IOException");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+  }
+
+  private File write(String name, byte[] content) throws IOException {
+    File file = new File(tempDir, name);
+    Files.write(content, file);
+    return file;
+  }
+
+  private static void writeTo(File dir, String name, String content) throws IOException {
+    dir.mkdirs();
+    Files.write(content.getBytes(StandardCharsets.UTF_8), new File(dir, name));
+  }
+
+  // Half random and half repeated bytes, so that the data compresses somewhat.
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    Arrays.fill(bytes, length / 2, length, (byte) 'a');
+    return bytes;
+  }
+
+  private static List<String> entryNames(File zip) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (ZipFile zipFile = new ZipFile(zip)) {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        names.add(entries.nextElement().getName());
+      }
+    }
+    return names;
+  }
+
+  private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+    try (InputStream in = zip.getInputStream(entry)) {
+      return ByteStreams.toByteArray(in);
+    }
+  }
+}